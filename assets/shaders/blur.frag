@@ -0,0 +1,20 @@
+// Fragment shader of PostProcessRenderer's blur passes: one direction of a 9 tap gaussian,
+// in 5 samples by letting the linear filter weigh neighbouring texels.
+
+precision mediump float;
+
+uniform sampler2D uTexture;
+// One texel along the blur direction
+uniform vec2 uStep;
+varying vec2 vTexCoord;
+
+void main() {
+    vec3 sum = texture2D(uTexture, vTexCoord).rgb * 0.2270270;
+    vec2 near = uStep * 1.3846154;
+    vec2 far = uStep * 3.2307692;
+    sum += texture2D(uTexture, vTexCoord + near).rgb * 0.3162162;
+    sum += texture2D(uTexture, vTexCoord - near).rgb * 0.3162162;
+    sum += texture2D(uTexture, vTexCoord + far).rgb * 0.0702703;
+    sum += texture2D(uTexture, vTexCoord - far).rgb * 0.0702703;
+    gl_FragColor = vec4(sum, 1.0);
+}
@@ -0,0 +1,14 @@
+// Fragment shader of PostProcessRenderer's bright pass: keeps what is above the threshold,
+// sampled at half resolution from the scene.
+
+precision mediump float;
+
+uniform sampler2D uTexture;
+uniform float uThreshold;
+varying vec2 vTexCoord;
+
+void main() {
+    vec3 color = texture2D(uTexture, vTexCoord).rgb;
+    float luma = dot(color, vec3(0.299, 0.587, 0.114));
+    gl_FragColor = vec4(color * max(luma - uThreshold, 0.0) / max(luma, 0.001), 1.0);
+}
@@ -0,0 +1,18 @@
+// Fragment shader of PostProcessRenderer's composite pass: the scene with the blurred bloom
+// added, and a vignette.
+
+precision mediump float;
+
+uniform sampler2D uScene;
+uniform sampler2D uBloom;
+uniform float uBloomIntensity;
+uniform float uVignette;
+varying vec2 vTexCoord;
+
+void main() {
+    vec3 color = texture2D(uScene, vTexCoord).rgb
+            + texture2D(uBloom, vTexCoord).rgb * uBloomIntensity;
+    vec2 offset = vTexCoord - 0.5;
+    color *= 1.0 - dot(offset, offset) * uVignette;
+    gl_FragColor = vec4(color, 1.0);
+}
@@ -0,0 +1,30 @@
+// Fragment shader of PostProcessRenderer's output conditioning, making frames cheaper for the
+// video encoder. Must match OutputConditioning.apply: keeps the previous output where no
+// channel differs from it by more than the threshold, and otherwise quantizes with an ordered
+// dither fixed to the screen.
+
+precision mediump float;
+
+uniform sampler2D uTexture;
+uniform sampler2D uHistory;
+// 4x4 thresholds, repeating
+uniform sampler2D uDitherPattern;
+// Levels per channel minus 1
+uniform float uSteps;
+uniform float uDither;
+// Largest difference of a channel that keeps the previous output, negative to never keep it
+uniform float uThreshold;
+varying vec2 vTexCoord;
+
+void main() {
+    vec3 color = texture2D(uTexture, vTexCoord).rgb;
+    vec3 previous = texture2D(uHistory, vTexCoord).rgb;
+    vec3 difference = abs(color - previous);
+    if (max(difference.r, max(difference.g, difference.b)) <= uThreshold) {
+        gl_FragColor = vec4(previous, 1.0);
+    } else {
+        float pattern = texture2D(uDitherPattern, gl_FragCoord.xy / 4.0).r;
+        float bias = 0.5 + uDither * (pattern - 0.5);
+        gl_FragColor = vec4(floor(color * uSteps + bias) / uSteps, 1.0);
+    }
+}
@@ -0,0 +1,10 @@
+// Fragment shader of PostProcessRenderer's present pass: copies a texture to the window.
+
+precision mediump float;
+
+uniform sampler2D uTexture;
+varying vec2 vTexCoord;
+
+void main() {
+    gl_FragColor = texture2D(uTexture, vTexCoord);
+}
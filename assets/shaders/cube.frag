@@ -0,0 +1,31 @@
+// Fragment shader of Cube, with the same permutations as cube.vert.
+
+precision mediump float;
+
+#ifdef VERTEX_COLOR
+varying vec4 aColor;
+#endif
+
+#ifdef TEXTURE
+uniform sampler2D uTexture;
+varying vec2 aTexCoord;
+#endif
+
+#ifdef FOG
+uniform vec4 uFogColor;
+varying float aFog;
+#endif
+
+void main() {
+    vec4 color = vec4(1.0);
+#ifdef VERTEX_COLOR
+    color = aColor;
+#endif
+#ifdef TEXTURE
+    color *= texture2D(uTexture, aTexCoord);
+#endif
+#ifdef FOG
+    color.rgb = mix(uFogColor.rgb, color.rgb, aFog);
+#endif
+    gl_FragColor = color;
+}
@@ -0,0 +1,42 @@
+// Vertex shader of Cube. Permutations, enabled by ShaderLibrary with #define:
+//   VERTEX_COLOR - colors per vertex from vColor
+//   TEXTURE      - texture coordinates per vertex from vTexCoord
+//   FOG          - exponential fog by distance from the eye, needs uMVMatrix and uFogDensity
+
+// This matrix member variable provides a hook to manipulate
+// the coordinates of the objects that use this vertex shader
+uniform mat4 uMVPMatrix;
+attribute vec4 vPosition;
+
+#ifdef VERTEX_COLOR
+attribute vec4 vColor;
+varying vec4 aColor;
+#endif
+
+#ifdef TEXTURE
+attribute vec2 vTexCoord;
+varying vec2 aTexCoord;
+#endif
+
+#ifdef FOG
+uniform mat4 uMVMatrix;
+uniform float uFogDensity;
+varying float aFog;
+#endif
+
+void main() {
+#ifdef VERTEX_COLOR
+    aColor = vColor;
+#endif
+#ifdef TEXTURE
+    aTexCoord = vTexCoord;
+#endif
+#ifdef FOG
+    float distance = length((uMVMatrix * vPosition).xyz);
+    aFog = clamp(exp(-uFogDensity * distance), 0.0, 1.0);
+#endif
+    // The matrix must be included as a modifier of gl_Position.
+    // Note that the uMVPMatrix factor *must be first* in order
+    // for the matrix multiplication product to be correct.
+    gl_Position = uMVPMatrix * vPosition;
+}
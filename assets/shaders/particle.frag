@@ -0,0 +1,12 @@
+// Fragment shader of ParticleRenderer: round points in the particle's color
+
+precision mediump float;
+varying vec4 vColor;
+
+void main() {
+    vec2 offset = gl_PointCoord - vec2(0.5);
+    if (dot(offset, offset) > 0.25) {
+        discard;
+    }
+    gl_FragColor = vColor;
+}
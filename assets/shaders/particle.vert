@@ -0,0 +1,76 @@
+// Vertex shader of ParticleRenderer, drawing GL_POINTS. Permutations, enabled by ShaderLibrary
+// with #define:
+//   CPU_PARTICLES - positions already simulated by ParticleBatch.evaluate, from aPosition
+// Otherwise every particle is simulated here from its seeds and its emitter's parameters, which
+// are written once when the emitter starts. The math must match ParticleBatch.evaluate.
+
+uniform mat4 uMVPMatrix;
+// Pixels per world unit of size at a clip space w of 1
+uniform float uPointScale;
+varying vec4 vColor;
+
+#ifdef CPU_PARTICLES
+// xyz, size
+attribute vec4 aPosition;
+attribute vec4 aColor;
+
+void main() {
+    gl_Position = uMVPMatrix * vec4(aPosition.xyz, 1.0);
+    gl_PointSize = aPosition.w * uPointScale / gl_Position.w;
+    vColor = aColor;
+}
+#else
+uniform float uTime;
+uniform vec3 uGravity;
+// Amplitude and angular frequency of the sideways flutter
+uniform vec2 uWobble;
+// Three seeds, birth offset from the emitter's start
+attribute vec4 aSeed;
+// Emitter origin, start time
+attribute vec4 aOrigin;
+// Emitter velocity, particle lifetime
+attribute vec4 aMotion;
+// Emission direction, speed
+attribute vec4 aDirection;
+// Cosine of the spread's half angle, size, looping, unused
+attribute vec4 aShape;
+attribute vec4 aColor;
+
+void main() {
+    float lifetime = aMotion.w;
+    float local = uTime - aOrigin.w - aSeed.w;
+    float cycle = aShape.z > 0.5 ? floor(local / lifetime) : 0.0;
+    float age = local - cycle * lifetime;
+    if (local < 0.0 || age >= lifetime) {
+        // Not born yet or dead: off screen
+        gl_Position = vec4(2.0, 2.0, 2.0, 1.0);
+        gl_PointSize = 0.0;
+        vColor = vec4(0.0);
+        return;
+    }
+    // Every cycle of a looping emitter gets new seeds
+    vec3 seed = fract(aSeed.xyz + cycle * 0.618034);
+
+    vec3 direction = aDirection.xyz;
+    vec3 helper = abs(direction.y) < 0.99 ? vec3(0.0, 1.0, 0.0) : vec3(1.0, 0.0, 0.0);
+    vec3 u = normalize(cross(helper, direction));
+    vec3 w = cross(direction, u);
+    float cosTheta = 1.0 - seed.x * (1.0 - aShape.x);
+    float sinTheta = sqrt(max(0.0, 1.0 - cosTheta * cosTheta));
+    float phi = 6.2831853 * seed.y;
+    vec3 velocity = aDirection.w * (0.5 + 0.5 * seed.z)
+            * (direction * cosTheta + (u * cos(phi) + w * sin(phi)) * sinTheta);
+
+    // Where the emitter was when the particle was born
+    vec3 position = aOrigin.xyz + aMotion.xyz * (uTime - age - aOrigin.w);
+    position += velocity * age + 0.5 * uGravity * age * age;
+    float flutter = uWobble.y * age + phi;
+    position.x += uWobble.x * sin(flutter);
+    position.z += uWobble.x * cos(flutter);
+
+    float fade = age / lifetime;
+    gl_Position = uMVPMatrix * vec4(position, 1.0);
+    gl_PointSize = aShape.y * (1.0 - 0.5 * fade) * uPointScale / gl_Position.w;
+    vColor = vec4(aColor.rgb, aColor.a * (1.0 - fade));
+}
+#endif
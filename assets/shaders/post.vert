@@ -0,0 +1,9 @@
+// Vertex shader of PostProcessRenderer's full screen passes: a quad from -1 to 1 in clip space.
+
+attribute vec2 aPosition;
+varying vec2 vTexCoord;
+
+void main() {
+    vTexCoord = aPosition * 0.5 + 0.5;
+    gl_Position = vec4(aPosition, 0.0, 1.0);
+}
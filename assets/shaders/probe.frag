@@ -0,0 +1,25 @@
+// Fragment shader of PostProcessRenderer's change probe: one fragment per 16x16 macroblock of
+// the output, its mean absolute luma change since the previous frame times uGain, so that the
+// small changes that matter survive 8 bits. Each of the four taps averages 2x2 texels through
+// the linear filter, so a block is sampled rather than read whole.
+
+precision mediump float;
+
+uniform sampler2D uTexture;
+uniform sampler2D uHistory;
+// Offset of the taps from the block center, a quarter block
+uniform vec2 uTapOffset;
+uniform float uGain;
+varying vec2 vTexCoord;
+
+float change(vec2 coord) {
+    vec3 difference = texture2D(uTexture, coord).rgb - texture2D(uHistory, coord).rgb;
+    return abs(dot(difference, vec3(0.299, 0.587, 0.114)));
+}
+
+void main() {
+    float changed = change(vTexCoord + uTapOffset) + change(vTexCoord - uTapOffset)
+            + change(vTexCoord + vec2(uTapOffset.x, -uTapOffset.y))
+            + change(vTexCoord + vec2(-uTapOffset.x, uTapOffset.y));
+    gl_FragColor = vec4(min(1.0, changed * 0.25 * uGain), 0.0, 0.0, 1.0);
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.lang.reflect.Method;
+
+/**
+ * Per thread allocation counter of HotSpot VMs, looked up by reflection since
+ * {@code java.lang.management} doesn't exist on Android.
+ */
+final class AllocationCounter {
+
+    /**
+     * Most a warmed up loop may allocate over a whole measurement. One-off VM bookkeeping, lock
+     * inflation or a lazily resolved call site, stays below it, while even a byte per frame or
+     * message over the benchmarks' hundreds of thousands goes well past it.
+     */
+    static final long MAX_STEADY_STATE_BYTES = 1024;
+
+    private static final Object sBean;
+    private static final Method sGetBytes;
+    // What a reading itself allocates (boxing, varargs), subtracted from every interval
+    private static long sOverhead = Long.MAX_VALUE;
+
+    static {
+        Object bean = null;
+        Method getBytes = null;
+        try {
+            Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+            bean = factory.getMethod("getThreadMXBean").invoke(null);
+            Class<?> sunBean = Class.forName("com.sun.management.ThreadMXBean");
+            getBytes = sunBean.getMethod("getThreadAllocatedBytes", long.class);
+            // Called once here so the first measured call doesn't allocate lookup state
+            getBytes.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            bean = null;
+            getBytes = null;
+        }
+        sBean = bean;
+        sGetBytes = getBytes;
+        for (int i = 0; i < 1000; i++) {
+            long first = getCurrentThreadBytes();
+            sOverhead = Math.min(sOverhead, getCurrentThreadBytes() - first);
+        }
+    }
+
+    /**
+     * Bytes allocated by the current thread since {@code startBytes}.
+     */
+    static long getAllocatedSince(long startBytes) {
+        return getCurrentThreadBytes() - startBytes - sOverhead;
+    }
+
+    static boolean isSupported() {
+        return sGetBytes != null;
+    }
+
+    static long getCurrentThreadBytes() {
+        if (sGetBytes == null) {
+            return 0;
+        }
+        try {
+            return (Long) sGetBytes.invoke(sBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.castremotedisplay;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays phone UI lifecycle events through a {@link BackgroundPolicy} and checks its mode
+ * changes. Runs on a plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.BackgroundPolicyReplay
+ * </pre>
+ * <p>
+ * The replay calls {@link BackgroundPolicy#update(long)} whenever
+ * {@link BackgroundPolicy#getNextUpdateNanos()} asks for it, like the service's handler. The
+ * scenarios check that hiding the UI throttles after the background delay and releases caches
+ * after the idle delay, that memory pressure goes idle right away only when in the background,
+ * that a UI shown again within the delay, e.g. on rotation, never throttles, that a hide without
+ * a matching show still throttles while a second visible UI keeps the foreground, and that
+ * showing a UI restores the foreground immediately.
+ * </p>
+ */
+public final class BackgroundPolicyReplay {
+
+    private static final long MILLIS = 1000000L;
+    private static final long SECONDS = 1000000000L;
+
+    /**
+     * Drives a policy through events at given times, running due updates first.
+     */
+    private static final class Replay implements BackgroundPolicy.Listener {
+        final BackgroundPolicy mPolicy = new BackgroundPolicy();
+        final List<String> mChanges = new ArrayList<String>();
+        long mNowNanos;
+
+        Replay() {
+            mPolicy.setListener(this);
+        }
+
+        @Override
+        public void onBackgroundModeChanged(int mode) {
+            mChanges.add(format(mode, mNowNanos));
+        }
+
+        /**
+         * Runs the updates the policy asks for until {@code nanos}.
+         */
+        Replay advanceTo(long nanos) {
+            long next = mPolicy.getNextUpdateNanos();
+            while (next >= 0 && next <= nanos) {
+                mNowNanos = next;
+                mPolicy.update(next);
+                next = mPolicy.getNextUpdateNanos();
+            }
+            mNowNanos = nanos;
+            return this;
+        }
+
+        Replay show(long nanos) {
+            advanceTo(nanos).mPolicy.onUiShown(nanos);
+            return this;
+        }
+
+        Replay hide(long nanos) {
+            advanceTo(nanos).mPolicy.onUiHidden(nanos);
+            return this;
+        }
+
+        Replay memoryPressure(long nanos) {
+            advanceTo(nanos).mPolicy.onMemoryPressure(nanos);
+            return this;
+        }
+    }
+
+    private BackgroundPolicyReplay() {
+    }
+
+    public static void main(String[] args) {
+        boolean failed = false;
+
+        Replay replay = new Replay().show(0).hide(10 * SECONDS)
+                .advanceTo(10 * SECONDS + 999 * MILLIS);
+        failed |= check("hidden, within the background delay", replay,
+                BackgroundPolicy.MODE_FOREGROUND);
+        replay.advanceTo(60 * SECONDS);
+        failed |= check("hidden, then background and idle", replay, BackgroundPolicy.MODE_IDLE,
+                format(BackgroundPolicy.MODE_BACKGROUND, 11 * SECONDS),
+                format(BackgroundPolicy.MODE_IDLE, 41 * SECONDS));
+        failed |= check("nothing pending once idle", replay.mPolicy.getNextUpdateNanos() == -1);
+
+        replay = new Replay().show(0).hide(0).memoryPressure(5 * SECONDS).advanceTo(60 * SECONDS);
+        failed |= check("memory pressure in the background", replay,
+                BackgroundPolicy.MODE_IDLE,
+                format(BackgroundPolicy.MODE_BACKGROUND, 1 * SECONDS),
+                format(BackgroundPolicy.MODE_IDLE, 5 * SECONDS));
+
+        replay = new Replay().show(0).memoryPressure(5 * SECONDS).advanceTo(60 * SECONDS);
+        failed |= check("memory pressure in the foreground", replay,
+                BackgroundPolicy.MODE_FOREGROUND);
+
+        replay = new Replay().show(0).hide(0).memoryPressure(500 * MILLIS)
+                .advanceTo(60 * SECONDS);
+        failed |= check("memory pressure within the delay", replay,
+                BackgroundPolicy.MODE_IDLE,
+                format(BackgroundPolicy.MODE_BACKGROUND, 1 * SECONDS),
+                format(BackgroundPolicy.MODE_IDLE, 31 * SECONDS));
+
+        // The activity is recreated on rotation: stopped, then the new one started
+        replay = new Replay().show(0).hide(5 * SECONDS).show(5 * SECONDS + 300 * MILLIS)
+                .advanceTo(60 * SECONDS);
+        failed |= check("shown again within the delay", replay,
+                BackgroundPolicy.MODE_FOREGROUND);
+
+        // Shown before the policy existed, e.g. the service started from the activity
+        replay = new Replay().hide(2 * SECONDS).advanceTo(10 * SECONDS);
+        failed |= check("unpaired hide", replay, BackgroundPolicy.MODE_BACKGROUND,
+                format(BackgroundPolicy.MODE_BACKGROUND, 3 * SECONDS));
+        replay.hide(20 * SECONDS).advanceTo(60 * SECONDS);
+        failed |= check("second unpaired hide keeps the first time", replay,
+                BackgroundPolicy.MODE_IDLE,
+                format(BackgroundPolicy.MODE_BACKGROUND, 3 * SECONDS),
+                format(BackgroundPolicy.MODE_IDLE, 33 * SECONDS));
+
+        replay = new Replay().show(0).show(1 * SECONDS).hide(2 * SECONDS)
+                .advanceTo(60 * SECONDS);
+        failed |= check("one of two UIs hidden", replay, BackgroundPolicy.MODE_FOREGROUND);
+        replay.hide(70 * SECONDS).advanceTo(75 * SECONDS);
+        failed |= check("both UIs hidden", replay, BackgroundPolicy.MODE_BACKGROUND,
+                format(BackgroundPolicy.MODE_BACKGROUND, 71 * SECONDS));
+
+        replay = new Replay().show(0).hide(0).advanceTo(60 * SECONDS).show(60 * SECONDS);
+        failed |= check("shown while idle", replay, BackgroundPolicy.MODE_FOREGROUND,
+                format(BackgroundPolicy.MODE_BACKGROUND, 1 * SECONDS),
+                format(BackgroundPolicy.MODE_IDLE, 31 * SECONDS),
+                format(BackgroundPolicy.MODE_FOREGROUND, 60 * SECONDS));
+        failed |= check("nothing pending once shown", replay.mPolicy.getNextUpdateNanos() == -1);
+
+        replay = new Replay().show(0).hide(0).advanceTo(5 * SECONDS).show(5 * SECONDS);
+        failed |= check("shown while in the background", replay,
+                BackgroundPolicy.MODE_FOREGROUND,
+                format(BackgroundPolicy.MODE_BACKGROUND, 1 * SECONDS),
+                format(BackgroundPolicy.MODE_FOREGROUND, 5 * SECONDS));
+
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static String format(int mode, long nanos) {
+        String name = mode == BackgroundPolicy.MODE_FOREGROUND ? "foreground"
+                : mode == BackgroundPolicy.MODE_BACKGROUND ? "background" : "idle";
+        return String.format(Locale.US, "%s at %.3f s", name, nanos / (double) SECONDS);
+    }
+
+    /**
+     * Prints a scenario's mode changes. Returns true if they or the final mode aren't what was
+     * expected.
+     */
+    private static boolean check(String scenario, Replay replay, int mode, String... changes) {
+        List<String> expected = new ArrayList<String>();
+        for (String change : changes) {
+            expected.add(change);
+        }
+        boolean failed = replay.mPolicy.getMode() != mode || !replay.mChanges.equals(expected);
+        System.out.println(String.format(Locale.US, "%-44s %s%s", scenario,
+                replay.mChanges.isEmpty() ? "no change" : replay.mChanges,
+                failed ? "  <-- expected " + expected : ""));
+        return failed;
+    }
+
+    private static boolean check(String expectation, boolean passed) {
+        System.out.println(String.format(Locale.US, "%-44s %s", expectation,
+                passed ? "ok" : "<-- failed"));
+        return !passed;
+    }
+}
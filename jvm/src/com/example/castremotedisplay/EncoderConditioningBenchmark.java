@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.opengl.GLES20;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Quantifies what {@link OutputConditioning} saves the Cast video encoder, without a device.
+ * Runs on a plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.EncoderConditioningBenchmark [frame directory]
+ * </pre>
+ * <p>
+ * Measures {@link FrameDifference} on frame sequences, raw and conditioned with several
+ * settings, along with the PSNR the conditioning costs. The sequences are a cube tumbling over
+ * the clear like {@link CubeRenderer}'s, rendered by {@link SoftwareGlApi}, the same over a grey
+ * backdrop with grain standing in for shimmer from post effects, and, if given, the PPM frames
+ * in a directory written by {@link FrameCapture} on a device. Then checks that conditioning
+ * with {@link OutputConditioning#NONE} changes nothing, that the dither doesn't change between
+ * frames, that the default settings settle the grain at little PSNR, and that
+ * a {@link MotionBudget} settles within its budget. Run from the project root so that the
+ * shader sources are found.
+ * </p>
+ */
+public final class EncoderConditioningBenchmark {
+
+    private static final int FRAME_WIDTH = 320;
+    private static final int FRAME_HEIGHT = 180;
+    private static final int FRAME_COUNT = 60;
+    private static final File SHADER_DIRECTORY =
+            new File("assets", ShaderLibrary.ASSET_DIRECTORY);
+
+    // CubeRenderer turns the first cube 2.4 degrees a frame at 60 fps
+    private static final float DEGREES_PER_FRAME = 2.4f;
+    private static final int GRAIN = 2;
+
+    private static final OutputConditioning[] SETTINGS = {
+            OutputConditioning.NONE,
+            new OutputConditioning(5, 256, 0),
+            new OutputConditioning(0, 64, 0),
+            new OutputConditioning(0, 64, 1),
+            new OutputConditioning(0, 32, 0.5f),
+            OutputConditioning.DEFAULT,
+    };
+
+    public static void main(String[] args) throws IOException {
+        boolean failed = false;
+        int[][] cube = renderCube(1, 0);
+        report("cube", cube);
+        int[][] grain = renderCube(1, GRAIN);
+        report("cube over grain", grain);
+        failed |= checkGrain(cube, grain);
+        failed |= checkIdentity(cube);
+        failed |= checkDitherStable(cube[0]);
+        failed |= checkMotionBudget(reportMotion());
+        if (args.length > 0) {
+            int[][] captured = readFrames(new File(args[0]));
+            if (captured != null) {
+                report(args[0], captured);
+            }
+        }
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Renders the tumbling cube, over a grey backdrop with per frame noise of up to
+     * {@code grain} if not 0.
+     */
+    private static int[][] renderCube(float motionScale, int grain) {
+        SoftwareGlApi gl = new SoftwareGlApi(FRAME_WIDTH, FRAME_HEIGHT);
+        if (grain > 0) {
+            gl.glClearColor(0.2f, 0.2f, 0.25f, 1.0f);
+        } else {
+            gl.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+        }
+        gl.glEnable(GLES20.GL_DEPTH_TEST);
+        gl.glEnable(GLES20.GL_BLEND);
+        gl.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        Cube cube = new Cube(gl, Cube.createGeometry(), new ShaderLibrary(gl,
+                new ShaderLibrary.FileSourceLoader(SHADER_DIRECTORY)));
+        float[] projection = perspective(FRAME_WIDTH, FRAME_HEIGHT, 8.0f);
+        float[] rotation = new float[16];
+        float[] mvp = new float[16];
+        Random random = new Random(1);
+        int[][] frames = new int[FRAME_COUNT][];
+        for (int f = 0; f < FRAME_COUNT; f++) {
+            gl.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+            MatrixMath.setRotateM(rotation, 0, f * DEGREES_PER_FRAME * motionScale, 0, 1, 1);
+            MatrixMath.multiplyMM(mvp, 0, projection, 0, rotation, 0);
+            cube.draw(mvp, false);
+            int[] frame = gl.getColorBuffer().clone();
+            if (grain > 0) {
+                for (int i = 0; i < frame.length; i++) {
+                    frame[i] = addGrain(frame[i], random.nextInt(2 * grain + 1) - grain);
+                }
+            }
+            frames[f] = frame;
+        }
+        cube.release();
+        return frames;
+    }
+
+    private static int addGrain(int pixel, int grain) {
+        int red = Math.max(0, Math.min(255, ((pixel >> 16) & 0xff) + grain));
+        int green = Math.max(0, Math.min(255, ((pixel >> 8) & 0xff) + grain));
+        int blue = Math.max(0, Math.min(255, (pixel & 0xff) + grain));
+        return 0xff000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Prints the metrics of the sequence raw and with each of {@link #SETTINGS}.
+     */
+    private static void report(String name, int[][] frames) {
+        System.out.println(String.format(Locale.US, "%s: %d frames of %dx%d", name,
+                frames.length, FRAME_WIDTH, FRAME_HEIGHT));
+        System.out.println(String.format(Locale.US, "  %-40s %9s %8s %7s %7s",
+                "conditioning", "energy", "changed", "detail", "PSNR"));
+        for (OutputConditioning settings : SETTINGS) {
+            int[][] conditioned = copy(frames);
+            settings.applyAll(conditioned, FRAME_WIDTH, FRAME_HEIGHT);
+            FrameDifference difference = new FrameDifference(FRAME_WIDTH, FRAME_HEIGHT);
+            difference.addAll(conditioned);
+            System.out.println(String.format(Locale.US, "  %-40s %9.2f %7.1f%% %7.2f %7.1f",
+                    settings, difference.getEnergy(), difference.getChangedBlocks() * 100,
+                    difference.getDetail(), meanPsnr(frames, conditioned)));
+        }
+    }
+
+    /**
+     * The grain stays within the default threshold, so conditioned it should cost about what
+     * the clean cube does, and nothing at all where the scene is still.
+     */
+    private static boolean checkGrain(int[][] cube, int[][] grain) {
+        FrameDifference clean = new FrameDifference(FRAME_WIDTH, FRAME_HEIGHT);
+        clean.addAll(cube);
+        FrameDifference raw = new FrameDifference(FRAME_WIDTH, FRAME_HEIGHT);
+        raw.addAll(grain);
+        int[][] frames = copy(grain);
+        OutputConditioning.DEFAULT.applyAll(frames, FRAME_WIDTH, FRAME_HEIGHT);
+        FrameDifference conditioned = new FrameDifference(FRAME_WIDTH, FRAME_HEIGHT);
+        conditioned.addAll(frames);
+        double psnr = meanPsnr(grain, frames);
+
+        int[][] still = renderCube(0, GRAIN);
+        FrameDifference stillRaw = new FrameDifference(FRAME_WIDTH, FRAME_HEIGHT);
+        stillRaw.addAll(still);
+        OutputConditioning.DEFAULT.applyAll(still, FRAME_WIDTH, FRAME_HEIGHT);
+        FrameDifference stillConditioned = new FrameDifference(FRAME_WIDTH, FRAME_HEIGHT);
+        stillConditioned.addAll(still);
+        System.out.println(String.format(Locale.US,
+                "grain: %.1f%% of blocks changed instead of %.1f%%, %.1f%% without grain, "
+                        + "PSNR %.1f; still: energy %.2f instead of %.2f",
+                conditioned.getChangedBlocks() * 100, raw.getChangedBlocks() * 100,
+                clean.getChangedBlocks() * 100, psnr, stillConditioned.getEnergy(),
+                stillRaw.getEnergy()));
+        boolean ok = conditioned.getChangedBlocks() < clean.getChangedBlocks() * 1.6
+                && psnr > 38 && stillConditioned.getEnergy() < stillRaw.getEnergy() * 0.1;
+        if (!ok) {
+            System.out.println("default conditioning didn't settle the grain cheaply");
+        }
+        return !ok;
+    }
+
+    private static boolean checkIdentity(int[][] frames) {
+        int[][] conditioned = copy(frames);
+        OutputConditioning.NONE.applyAll(conditioned, FRAME_WIDTH, FRAME_HEIGHT);
+        boolean same = Arrays.deepEquals(frames, conditioned);
+        System.out.println("identity: " + (same ? "unchanged" : "changed"));
+        return !same;
+    }
+
+    /**
+     * The same frame over and over must condition to the same output, dither included.
+     */
+    private static boolean checkDitherStable(int[] frame) {
+        int[][] frames = new int[4][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = frame.clone();
+        }
+        new OutputConditioning(0, 16, 1).applyAll(frames, FRAME_WIDTH, FRAME_HEIGHT);
+        FrameDifference difference = new FrameDifference(FRAME_WIDTH, FRAME_HEIGHT);
+        difference.addAll(frames);
+        System.out.println(String.format(Locale.US, "dither: energy %.2f on a still frame",
+                difference.getEnergy()));
+        return difference.getEnergy() != 0;
+    }
+
+    /**
+     * What slowing the scene down, as a motion budget would, does to the encoder's work.
+     *
+     * @return The mean change at full speed.
+     */
+    private static double reportMotion() {
+        System.out.println("motion scale, conditioned with " + OutputConditioning.DEFAULT + ":");
+        double fullSpeedChange = 0;
+        for (float scale = 1; scale >= MotionBudget.MIN_SCALE; scale /= 2) {
+            int[][] frames = renderCube(scale, GRAIN);
+            OutputConditioning.DEFAULT.applyAll(frames, FRAME_WIDTH, FRAME_HEIGHT);
+            FrameDifference difference = new FrameDifference(FRAME_WIDTH, FRAME_HEIGHT);
+            difference.addAll(frames);
+            System.out.println(String.format(Locale.US,
+                    "  %.2f: energy %.2f, change %.2f, %.1f%% of blocks changed", scale,
+                    difference.getEnergy(), difference.getChange(),
+                    difference.getChangedBlocks() * 100));
+            if (scale == 1) {
+                fullSpeedChange = difference.getChange();
+            }
+        }
+        return fullSpeedChange;
+    }
+
+    /**
+     * Feeds budgets with content whose change follows the motion scale, as the cube's does,
+     * measured every probe interval, and checks where they settle.
+     */
+    private static boolean checkMotionBudget(double fullSpeedChange) {
+        float full = (float) fullSpeedChange;
+        float half = full / 2;
+        MotionBudget budget = new MotionBudget(half);
+        float scale = 1;
+        float maxLate = 0;
+        int measurements = 200;
+        for (int i = 0; i < measurements; i++) {
+            float change = full * scale;
+            if (i >= measurements / 2) {
+                maxLate = Math.max(maxLate, change);
+            }
+            scale = budget.update(change);
+        }
+        // Content that can't get under the budget slows down as far as allowed
+        MotionBudget hopeless = new MotionBudget(full * MotionBudget.MIN_SCALE / 2);
+        float hopelessScale = 1;
+        for (int i = 0; i < measurements; i++) {
+            hopelessScale = hopeless.update(full * hopelessScale);
+        }
+        // Content within budget keeps its speed
+        MotionBudget generous = new MotionBudget(full * 2);
+        float generousScale = 1;
+        for (int i = 0; i < measurements; i++) {
+            generousScale = generous.update(full * generousScale);
+        }
+        System.out.println(String.format(Locale.US,
+                "motion budget %.2f: scale %.2f, change at most %.2f once settled; "
+                        + "%.2f: scale %.2f; %.2f: scale %.2f",
+                half, scale, maxLate, hopeless.getBudget(), hopelessScale,
+                generous.getBudget(), generousScale));
+        return full <= 0 || maxLate > half * 1.1f || scale < 0.4f
+                || hopelessScale != MotionBudget.MIN_SCALE || generousScale != 1;
+    }
+
+    private static double meanPsnr(int[][] reference, int[][] frames) {
+        double sum = 0;
+        int finite = 0;
+        for (int i = 0; i < frames.length; i++) {
+            double psnr = FrameDifference.psnr(reference[i], frames[i]);
+            if (!Double.isInfinite(psnr)) {
+                sum += psnr;
+                finite++;
+            }
+        }
+        return finite > 0 ? sum / finite : Double.POSITIVE_INFINITY;
+    }
+
+    private static int[][] copy(int[][] frames) {
+        int[][] copy = new int[frames.length][];
+        for (int i = 0; i < frames.length; i++) {
+            copy[i] = frames[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Reads frame*.ppm from the directory, in name order, or returns null if there are none or
+     * their sizes differ.
+     */
+    private static int[][] readFrames(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            System.out.println(directory + ": not a directory");
+            return null;
+        }
+        Arrays.sort(files);
+        int[][] frames = new int[files.length][];
+        int count = 0;
+        int width = 0;
+        int height = 0;
+        for (File file : files) {
+            if (!file.getName().startsWith("frame") || !file.getName().endsWith(".ppm")) {
+                continue;
+            }
+            InputStream in = new FileInputStream(file);
+            GoldenImage image;
+            try {
+                image = GoldenImage.readPpm(in);
+            } finally {
+                in.close();
+            }
+            if (count > 0 && (image.getWidth() != width || image.getHeight() != height)) {
+                System.out.println(file + ": size differs from the first frame");
+                return null;
+            }
+            width = image.getWidth();
+            height = image.getHeight();
+            frames[count++] = image.getPixels();
+        }
+        if (count == 0) {
+            System.out.println(directory + ": no frame*.ppm files");
+            return null;
+        }
+        return Arrays.copyOf(frames, count);
+    }
+
+    /**
+     * {@link CubeRenderer}'s projection, looking down -z at the origin from {@code distance}
+     * away.
+     */
+    private static float[] perspective(int width, int height, float distance) {
+        float[] projection = new float[16];
+        CubeRenderer.setProjection(projection, width, height);
+        float[] m = new float[16];
+        MatrixMath.setIdentityM(m, 0);
+        MatrixMath.translateM(m, 0, 0.0f, 0.0f, -distance);
+        MatrixMath.multiplyMM(m, 0, projection, 0, m, 0);
+        return m;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.castremotedisplay;
+
+import java.util.Locale;
+
+/**
+ * Checks that {@link FanOutScheduler} shows every output the scene at the output's own aspect
+ * ratio, with fake surfaces. Runs on a plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.FanOutAspectCheck
+ * </pre>
+ * The fake scene is a disc in the middle of a frame buffer sized like the scheduler asks, and
+ * each fake output samples the crop it is given into its own pixels, like the blit does. The
+ * disc must come out round on every output: a 16:9 output next to a 4:3 one, and next to a
+ * portrait one.
+ */
+public final class FanOutAspectCheck {
+
+    private static final long SECOND_NANOS = 1000000000L;
+    // The disc's radius relative to the scene height, small enough to fit a portrait crop
+    private static final float RADIUS = 0.15f;
+    // The disc's width over its height, as measured in whole pixels
+    private static final float MAX_ASPECT_ERROR = 0.03f;
+
+    /**
+     * Renders a disc into a buffer of the requested size.
+     */
+    private static final class DiscScene implements FanOutScheduler.Scene {
+        int mWidth;
+        int mHeight;
+        boolean[] mPixels = new boolean[0];
+
+        @Override
+        public void renderScene(int width, int height, long frameNanos) {
+            if (width * height != mPixels.length) {
+                mPixels = new boolean[width * height];
+            }
+            mWidth = width;
+            mHeight = height;
+            float radius = RADIUS * height;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    float dx = x + 0.5f - width / 2.0f;
+                    float dy = y + 0.5f - height / 2.0f;
+                    mPixels[y * width + x] = dx * dx + dy * dy <= radius * radius;
+                }
+            }
+        }
+    }
+
+    /**
+     * Samples its crop of the scene, nearest pixel, and measures the disc it shows.
+     */
+    private static final class FakeOutput implements FanOutScheduler.Output {
+        final String mName;
+        final int mWidth;
+        final int mHeight;
+        final int mMaxFps;
+        final DiscScene mScene;
+        int mPresents;
+        float mWorstAspect = 1.0f;
+
+        FakeOutput(String name, int width, int height, int maxFps, DiscScene scene) {
+            mName = name;
+            mWidth = width;
+            mHeight = height;
+            mMaxFps = maxFps;
+            mScene = scene;
+        }
+
+        @Override
+        public int getWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public int getMaxFps() {
+            return mMaxFps;
+        }
+
+        @Override
+        public void present(long frameNanos, float[] crop) {
+            mPresents++;
+            int minX = mWidth;
+            int maxX = -1;
+            int minY = mHeight;
+            int maxY = -1;
+            for (int y = 0; y < mHeight; y++) {
+                float v = crop[1] + (crop[3] - crop[1]) * (y + 0.5f) / mHeight;
+                int sceneY = Math.min((int) (v * mScene.mHeight), mScene.mHeight - 1);
+                for (int x = 0; x < mWidth; x++) {
+                    float u = crop[0] + (crop[2] - crop[0]) * (x + 0.5f) / mWidth;
+                    int sceneX = Math.min((int) (u * mScene.mWidth), mScene.mWidth - 1);
+                    if (mScene.mPixels[sceneY * mScene.mWidth + sceneX]) {
+                        minX = Math.min(minX, x);
+                        maxX = Math.max(maxX, x);
+                        minY = Math.min(minY, y);
+                        maxY = Math.max(maxY, y);
+                    }
+                }
+            }
+            float aspect = maxX < 0 ? 0 : (float) (maxX - minX + 1) / (maxY - minY + 1);
+            if (Math.abs(aspect - 1) > Math.abs(mWorstAspect - 1)) {
+                mWorstAspect = aspect;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        boolean failed = run(new int[][] {{1280, 720, 60}, {640, 480, 30}});
+        failed |= run(new int[][] {{1280, 720, 60}, {360, 640, 30}});
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Presents a second of frames to outputs of the given width, height and frame rate.
+     * Returns true if the disc was stretched on any of them.
+     */
+    private static boolean run(int[][] outputs) {
+        DiscScene scene = new DiscScene();
+        FanOutScheduler scheduler = new FanOutScheduler(scene);
+        FakeOutput[] fakes = new FakeOutput[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            int[] o = outputs[i];
+            fakes[i] = new FakeOutput(o[0] + "x" + o[1], o[0], o[1], o[2], scene);
+            scheduler.addOutput(fakes[i], 0);
+        }
+        long now = 0;
+        while (now < SECOND_NANOS) {
+            scheduler.tick(now);
+            now = scheduler.getNextDueNanos();
+        }
+        boolean failed = false;
+        for (FakeOutput fake : fakes) {
+            boolean stretched = fake.mPresents == 0
+                    || Math.abs(fake.mWorstAspect - 1) > MAX_ASPECT_ERROR;
+            System.out.println(String.format(Locale.US,
+                    "%-10s with a %dx%d scene: %3d frames, disc aspect %.3f%s", fake.mName,
+                    scene.mWidth, scene.mHeight, fake.mPresents, fake.mWorstAspect,
+                    stretched ? "  <-- stretched" : ""));
+            failed |= stretched;
+        }
+        return failed;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.Locale;
+
+/**
+ * Stress test for the {@link TripleBuffer} frame handoff. Runs on a plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.FramePipelineStress [seconds] [objects]
+ * </pre>
+ * An unpaced {@link FrameProducer} stamps every value of each frame with the frame index while
+ * a consumer thread acquires frames as fast as it can and checks that every value matches, i.e.
+ * that it never sees a frame that is still being written. Both threads then run a measured
+ * window during which their allocations are counted, which must be zero. Exits with status 1
+ * on any failure.
+ */
+public class FramePipelineStress {
+
+    private static final long WARMUP_NANOS = 1000000000L;
+
+    private static volatile boolean sRunning = true;
+    private static volatile boolean sMeasuring;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int objects = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+
+        final TripleBuffer<FrameData> buffer = new TripleBuffer<FrameData>(
+                new FrameData(objects, 1), new FrameData(objects, 1), new FrameData(objects, 1));
+        final ProducerAllocations producerAllocations = new ProducerAllocations();
+        FrameProducer producer = new FrameProducer(buffer, new StampingSimulation(
+                producerAllocations), 0);
+        final Consumer consumer = new Consumer(buffer);
+
+        Thread consumerThread = new Thread(consumer, "FrameConsumer");
+        producer.start();
+        consumerThread.start();
+
+        Thread.sleep(WARMUP_NANOS / 1000000);
+        sMeasuring = true;
+        Thread.sleep(seconds * 1000L);
+        sMeasuring = false;
+        Thread.sleep(100);
+        sRunning = false;
+        producer.stop();
+        consumerThread.join();
+
+        System.out.println(String.format(Locale.US,
+                "produced %d frames, consumed %d (%d new), torn %d, out of order %d",
+                producer.getFrameCount(), consumer.mAcquired, consumer.mNewFrames,
+                consumer.mTornFrames, consumer.mOutOfOrder));
+        System.out.println(String.format(Locale.US,
+                "allocated in steady state: producer %d bytes, consumer %d bytes",
+                producerAllocations.mBytes, consumer.mAllocatedBytes));
+        if (!AllocationCounter.isSupported()) {
+            System.out.println("allocation counting not supported by this VM");
+        }
+
+        boolean failed = consumer.mTornFrames > 0 || consumer.mOutOfOrder > 0
+                || consumer.mNewFrames == 0 || producerAllocations.mBytes > 0
+                || consumer.mAllocatedBytes > 0;
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static final class ProducerAllocations {
+        volatile long mBytes;
+    }
+
+    /**
+     * Writes the frame index into every value, slowly enough that a torn read is likely to be
+     * caught.
+     */
+    private static final class StampingSimulation implements FrameProducer.Simulation {
+        private final ProducerAllocations mAllocations;
+        private long mStartBytes = -1;
+
+        StampingSimulation(ProducerAllocations allocations) {
+            mAllocations = allocations;
+        }
+
+        @Override
+        public void simulate(FrameData out, long frameIndex, long timeNanos) {
+            if (sMeasuring && mStartBytes < 0) {
+                mStartBytes = AllocationCounter.getCurrentThreadBytes();
+            } else if (!sMeasuring && mStartBytes >= 0) {
+                mAllocations.mBytes = AllocationCounter.getAllocatedSince(mStartBytes);
+                mStartBytes = Long.MIN_VALUE;
+            }
+            // Exact as a float below 2^24
+            float stamp = frameIndex % (1 << 24);
+            float[] matrices = out.getMvpMatrices();
+            for (int i = 0; i < matrices.length; i++) {
+                matrices[i] = stamp;
+            }
+            int[] drawList = out.getDrawList();
+            for (int i = 0; i < drawList.length; i++) {
+                drawList[i] = (int) frameIndex;
+            }
+            out.getBatchOffsets()[1] = drawList.length;
+            out.setDrawCount(drawList.length);
+            out.setColorChanged((frameIndex & 1) == 1);
+            out.setFrameIndex(frameIndex);
+        }
+    }
+
+    private static final class Consumer implements Runnable {
+        private final TripleBuffer<FrameData> mBuffer;
+        long mAcquired;
+        long mNewFrames;
+        long mTornFrames;
+        long mOutOfOrder;
+        long mAllocatedBytes;
+
+        Consumer(TripleBuffer<FrameData> buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public void run() {
+            long lastFrame = 0;
+            long startBytes = -1;
+            while (sRunning) {
+                if (sMeasuring && startBytes < 0) {
+                    startBytes = AllocationCounter.getCurrentThreadBytes();
+                } else if (!sMeasuring && startBytes >= 0) {
+                    mAllocatedBytes = AllocationCounter.getAllocatedSince(startBytes);
+                    startBytes = Long.MIN_VALUE;
+                }
+
+                FrameData frame = mBuffer.acquireLatest();
+                mAcquired++;
+                long frameIndex = frame.getFrameIndex();
+                if (frameIndex == 0) {
+                    // Nothing published yet
+                    continue;
+                }
+                if (frameIndex < lastFrame) {
+                    mOutOfOrder++;
+                } else if (frameIndex > lastFrame) {
+                    mNewFrames++;
+                }
+                lastFrame = frameIndex;
+                if (!isConsistent(frame, frameIndex)) {
+                    mTornFrames++;
+                }
+            }
+        }
+
+        private static boolean isConsistent(FrameData frame, long frameIndex) {
+            float stamp = frameIndex % (1 << 24);
+            float[] matrices = frame.getMvpMatrices();
+            for (int i = 0; i < matrices.length; i++) {
+                if (matrices[i] != stamp) {
+                    return false;
+                }
+            }
+            int[] drawList = frame.getDrawList();
+            for (int i = 0; i < frame.getDrawCount(); i++) {
+                if (drawList[i] != (int) frameIndex) {
+                    return false;
+                }
+            }
+            return frame.isColorChanged() == ((frameIndex & 1) == 1)
+                    && frame.getFrameIndex() == frameIndex;
+        }
+    }
+}
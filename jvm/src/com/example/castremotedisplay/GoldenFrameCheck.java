@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.castremotedisplay;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Renders {@link CubeRenderer} through {@link SoftwareGlApi} and compares frames against the
+ * golden images committed in {@code jvm/golden}. Runs on a plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.GoldenFrameCheck [--update]
+ * </pre>
+ * <p>
+ * Frames are timed by a fake clock at 60 fps, so the cubes are at the same angles on every run.
+ * A frame fails if more than {@link #MAX_MISMATCH_FRACTION} of its pixels differ from the
+ * golden image by more than {@link #TOLERANCE}, which leaves room for edge pixels rounding
+ * differently between JVMs. A frame rendered at 30 fps must match the golden image of the
+ * frame at the same time at 60 fps. After a change that is meant to alter the scene, rerun with
+ * {@code --update} to rewrite the golden images and commit them. Run from the project root so
+ * that the shader sources and golden images are found.
+ * </p>
+ */
+public final class GoldenFrameCheck {
+
+    private static final int FRAME_WIDTH = 160;
+    private static final int FRAME_HEIGHT = 90;
+    private static final long FRAME_NANOS = 1000000000L / 60;
+    private static final File SHADER_DIRECTORY =
+            new File("assets", ShaderLibrary.ASSET_DIRECTORY);
+    private static final File GOLDEN_DIRECTORY = new File("jvm", "golden");
+
+    // Frames compared, counted from the first
+    private static final int[] FRAMES = {0, 20, 45};
+    // The last frame is also compared with the alternate colors
+    private static final String COLOR_CHANGED_NAME = "cube_color_changed";
+    // Rendered at 30 fps, this frame must match the golden one at twice the count
+    private static final int CAPPED_FRAME = 10;
+
+    private static final int TOLERANCE = 8;
+    private static final float MAX_MISMATCH_FRACTION = 0.005f;
+
+    /**
+     * Stands still within a frame; moved on by one frame period between frames.
+     */
+    private static final class FakeClock implements TextureUploadQueue.Clock {
+        long mNowNanos;
+
+        @Override
+        public long nanoTime() {
+            return mNowNanos;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean update = args.length > 0 && "--update".equals(args[0]);
+        boolean failed = false;
+        for (int frame : FRAMES) {
+            String name = String.format(Locale.US, "cube_frame_%02d", frame);
+            failed |= check(render(frame, FRAME_NANOS, false), name, update);
+        }
+        int last = FRAMES[FRAMES.length - 1];
+        failed |= check(render(last, FRAME_NANOS, true), COLOR_CHANGED_NAME, update);
+        if (!update) {
+            // The animation follows time, so capping the frame rate doesn't slow it down
+            failed |= check(render(CAPPED_FRAME, 2 * FRAME_NANOS, false),
+                    String.format(Locale.US, "cube_frame_%02d", 2 * CAPPED_FRAME), false);
+        }
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Renders frames 0 to {@code frame}, {@code frameNanos} apart, and returns the last.
+     */
+    private static GoldenImage render(int frame, long frameNanos, boolean colorChanged) {
+        FakeClock clock = new FakeClock();
+        SoftwareGlApi gl = new SoftwareGlApi(FRAME_WIDTH, FRAME_HEIGHT);
+        CubeRenderer renderer = new CubeRenderer(gl, Cube.createGeometry(),
+                new ShaderLibrary.FileSourceLoader(SHADER_DIRECTORY));
+        renderer.setClock(clock);
+        renderer.setColorChanged(colorChanged);
+        renderer.onSurfaceCreated(null, null);
+        renderer.onSurfaceChanged(null, FRAME_WIDTH, FRAME_HEIGHT);
+        for (int i = 0; i <= frame; i++) {
+            renderer.onDrawFrame(null);
+            clock.mNowNanos += frameNanos;
+        }
+        return new GoldenImage(FRAME_WIDTH, FRAME_HEIGHT, gl.getColorBuffer().clone());
+    }
+
+    /**
+     * Writes the frame as the named golden image when updating, otherwise compares it. Returns
+     * true on a mismatch.
+     */
+    private static boolean check(GoldenImage frame, String name, boolean update)
+            throws IOException {
+        File file = new File(GOLDEN_DIRECTORY, name + ".ppm");
+        if (update) {
+            write(frame, file);
+            System.out.println("Wrote " + file);
+            return false;
+        }
+        return compare(frame, file);
+    }
+
+    /**
+     * Returns true on a mismatch, or if the golden image is missing.
+     */
+    private static boolean compare(GoldenImage frame, File file) throws IOException {
+        if (!file.exists()) {
+            System.out.println(file + " is missing, run with --update to create it");
+            return true;
+        }
+        GoldenImage golden;
+        InputStream in = new FileInputStream(file);
+        try {
+            golden = GoldenImage.readPpm(in);
+        } finally {
+            in.close();
+        }
+        int mismatches = golden.countMismatches(frame.getPixels(), frame.getWidth(),
+                frame.getHeight(), TOLERANCE);
+        int allowed = (int) (MAX_MISMATCH_FRACTION * FRAME_WIDTH * FRAME_HEIGHT);
+        boolean failed = mismatches < 0 || mismatches > allowed;
+        System.out.println(String.format(Locale.US, "%-32s %6s pixels differ, %d allowed%s",
+                file.getName(), mismatches < 0 ? "size" : Integer.toString(mismatches),
+                allowed, failed ? "  <-- differs from the golden image" : ""));
+        return failed;
+    }
+
+    private static void write(GoldenImage image, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            image.writePpm(out);
+        } finally {
+            out.close();
+        }
+    }
+}
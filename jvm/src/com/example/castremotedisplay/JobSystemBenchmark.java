@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures how the {@link CubeField} update scales across cores. Runs on a plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.JobSystemBenchmark [objects] [frames] [maxThreads]
+ * </pre>
+ * The serial update is the baseline; each parallel run uses a pool of {@code threads - 1}
+ * workers plus the calling thread, the same split as on the device. Every parallel run must
+ * produce the same matrices and draw list as the serial update; speedups are only reported,
+ * since they depend on the machine.
+ */
+public class JobSystemBenchmark {
+
+    private static final int WARMUP_FRAMES = 200;
+
+    public static void main(String[] args) {
+        int objects = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+
+        CubeField field = new CubeField(objects);
+        FrameData frame = field.createFrameData();
+        float[] viewProjection = createViewProjection();
+        System.out.println(String.format(Locale.US, "%d objects, %d frames, %d processors",
+                objects, frames, Runtime.getRuntime().availableProcessors()));
+
+        double serial = run(field, frame, viewProjection, frames, null);
+        System.out.println(String.format(Locale.US, "serial     %8.3f ms", serial));
+        System.out.println(String.format(Locale.US, "visible    %d", frame.getDrawCount()));
+        FrameData expected = field.createFrameData();
+        field.update(expected, viewProjection, 1.0f, frames, null);
+        boolean failed = false;
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            JobSystem jobs = new JobSystem(Math.max(1, threads - 1));
+            double median = run(field, frame, viewProjection, frames, jobs);
+            field.update(frame, viewProjection, 1.0f, frames, jobs);
+            jobs.shutdown();
+            boolean same = isSame(expected, frame);
+            failed |= !same;
+            System.out.println(String.format(Locale.US, "%2d threads %8.3f ms  speedup %.2fx%s",
+                    threads, median, serial / median, same ? "" : "  differs from serial"));
+        }
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static boolean isSame(FrameData expected, FrameData actual) {
+        int count = expected.getDrawCount();
+        if (actual.getDrawCount() != count) {
+            return false;
+        }
+        for (int batch = 0; batch < expected.getBatchCount(); batch++) {
+            if (expected.getBatchStart(batch) != actual.getBatchStart(batch)
+                    || expected.getBatchSize(batch) != actual.getBatchSize(batch)) {
+                return false;
+            }
+        }
+        // Matrices of objects out of view aren't written
+        for (int i = 0; i < count; i++) {
+            int object = expected.getDrawList()[i];
+            if (actual.getDrawList()[i] != object) {
+                return false;
+            }
+            for (int j = object * 16; j < object * 16 + 16; j++) {
+                if (expected.getMvpMatrices()[j] != actual.getMvpMatrices()[j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The median update time in milliseconds.
+     */
+    private static double run(CubeField field, FrameData frame, float[] viewProjection,
+            int frames, JobSystem jobs) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            field.update(frame, viewProjection, i / 60.0f, i, jobs);
+        }
+        long[] times = new long[frames];
+        for (int i = 0; i < frames; i++) {
+            long start = System.nanoTime();
+            field.update(frame, viewProjection, i / 60.0f, i, jobs);
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[frames / 2] / 1000000.0;
+    }
+
+    /**
+     * A perspective projection looking at the field from a distance, as the renderer's camera
+     * does, with only part of the field in view.
+     */
+    private static float[] createViewProjection() {
+        float[] projection = new float[16];
+        CubeRenderer.setProjection(projection, 16, 9);
+        // Camera 60 units back along +z, looking down -z
+        float[] view = new float[16];
+        MatrixMath.setIdentityM(view, 0);
+        MatrixMath.translateM(view, 0, 0.0f, 0.0f, -60.0f);
+        float[] m = new float[16];
+        MatrixMath.multiplyMM(m, 0, projection, 0, view, 0);
+        return m;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks and times {@link MeshSimplifier} and {@link LodSelector}. Runs on a plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.LodBenchmark [divisions]
+ * </pre>
+ * Simplifies a rounded cube into levels, checks that a subdivided flat cube collapses back to its
+ * 12 triangles without error, that triangles selected per frame follow screen coverage as the
+ * object count grows 100 times, and that hysteresis keeps an object at a level threshold from
+ * popping. Ends with the cost of a selection.
+ */
+public class LodBenchmark {
+
+    private static final int LEVEL_COUNT = 6;
+    private static final float REDUCTION = 0.25f;
+    private static final int MIN_TRIANGLES = 12;
+    private static final int VIEWPORT_WIDTH = 1920;
+    private static final int VIEWPORT_HEIGHT = 1080;
+    private static final int SELECTIONS = 1000000;
+
+    public static void main(String[] args) {
+        int divisions = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        LodMesh lod = runSimplify(divisions);
+        boolean failed = lod == null;
+        failed |= runFlat();
+        if (lod != null) {
+            failed |= runScaling(lod);
+            failed |= runPopping(lod);
+            runSelect(lod);
+        }
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static LodMesh runSimplify(int divisions) {
+        Mesh base = Mesh.createRoundedCube(divisions, 0.5f);
+        // The first build warms up the VM
+        LodMesh.build(base, LEVEL_COUNT, REDUCTION, MIN_TRIANGLES);
+        long start = System.nanoTime();
+        LodMesh lod = LodMesh.build(base, LEVEL_COUNT, REDUCTION, MIN_TRIANGLES);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(String.format(Locale.US,
+                "simplify: %d triangles into %d levels in %.1f ms",
+                base.getTriangleCount(), lod.getLevelCount(), elapsed / 1e6));
+        boolean ok = lod.getLevelCount() > 1;
+        for (int level = 0; level < lod.getLevelCount(); level++) {
+            Mesh mesh = lod.getLevel(level);
+            System.out.println(String.format(Locale.US,
+                    "  level %d: %d triangles, %d vertices, error %.6f, radius %.3f",
+                    level, mesh.getTriangleCount(), mesh.getVertexCount(), lod.getError(level),
+                    mesh.getBoundingRadius()));
+            if (level > 0 && mesh.getTriangleCount() >= lod.getLevel(level - 1)
+                    .getTriangleCount()) {
+                ok = false;
+            }
+            // Collapses move vertices onto the surface's planes, not away from the shape
+            if (Math.abs(mesh.getBoundingRadius() - base.getBoundingRadius())
+                    > 0.1f * base.getBoundingRadius()) {
+                ok = false;
+            }
+        }
+        if (!ok) {
+            System.out.println("levels did not simplify cleanly");
+            return null;
+        }
+        return lod;
+    }
+
+    private static boolean runFlat() {
+        // Every vertex but the corners lies on a face or edge plane, so collapses are free
+        Mesh flat = Mesh.createRoundedCube(8, 0);
+        MeshSimplifier simplifier = new MeshSimplifier();
+        Mesh simplified = simplifier.simplify(flat, MIN_TRIANGLES);
+        System.out.println(String.format(Locale.US,
+                "flat: %d triangles to %d, %d vertices, max error %.2e",
+                flat.getTriangleCount(), simplified.getTriangleCount(),
+                simplified.getVertexCount(), simplifier.getMaxError()));
+        return simplified.getTriangleCount() != 12 || simplified.getVertexCount() != 8
+                || simplifier.getMaxError() > 1e-6;
+    }
+
+    /**
+     * Spreads more and more objects over the same screen area, each smaller, and compares the
+     * triangles selected.
+     */
+    private static boolean runScaling(LodMesh lod) {
+        float radius = lod.getBoundingRadius();
+        // At this depth each of 100 objects wants about the triangles of level 1
+        float nearDepth = depthFor(radius, lod.getLevel(1).getTriangleCount());
+        Random random = new Random(1);
+        long firstTotal = 0;
+        boolean failed = false;
+        for (int objects = 100; objects <= 10000; objects *= 10) {
+            LodSelector selector = createSelector(lod, objects, radius);
+            float depth = nearDepth * (float) Math.sqrt(objects / 100.0);
+            long total = 0;
+            for (int i = 0; i < objects; i++) {
+                // Spread the depths so levels don't all round the same way
+                float jitter = 0.7f + 0.6f * random.nextFloat();
+                total += selector.getLevelTriangles(selector.select(i, depth * jitter));
+            }
+            if (firstTotal == 0) {
+                firstTotal = total;
+            }
+            long fullDetail = (long) objects * lod.getLevel(0).getTriangleCount();
+            System.out.println(String.format(Locale.US,
+                    "scaling: %5d objects, %7d triangles selected, %.2fx of 100 objects, "
+                            + "%.1f%% of full detail",
+                    objects, total, total / (double) firstTotal, 100.0 * total / fullDetail));
+            if (total > 2 * firstTotal || total < firstTotal / 2) {
+                failed = true;
+            }
+        }
+        if (failed) {
+            System.out.println("triangles did not follow screen coverage");
+        }
+        return failed;
+    }
+
+    /**
+     * Wobbles an object's depth 2% around a level threshold, then moves it from far to near.
+     */
+    private static boolean runPopping(LodMesh lod) {
+        float radius = lod.getBoundingRadius();
+        float threshold = depthFor(radius, lod.getLevel(2).getTriangleCount());
+        int switches = 0;
+        int switchesWithout = 0;
+        LodSelector selector = createSelector(lod, 1, radius);
+        LodSelector plain = createSelector(lod, 1, radius);
+        plain.setHysteresis(0);
+        int level = -1;
+        int plainLevel = -1;
+        for (int frame = 0; frame < 1000; frame++) {
+            float depth = threshold * (1 + 0.02f * (float) Math.sin(frame * 0.5));
+            int selected = selector.select(0, depth);
+            int plainSelected = plain.select(0, depth);
+            if (frame > 0) {
+                switches += selected != level ? 1 : 0;
+                switchesWithout += plainSelected != plainLevel ? 1 : 0;
+            }
+            level = selected;
+            plainLevel = plainSelected;
+        }
+        // A real change in size still switches, all the way to full detail
+        int approachSwitches = 0;
+        for (float depth = threshold * 64; depth > threshold / 64; depth *= 0.98f) {
+            int selected = selector.select(0, depth);
+            approachSwitches += selected != level ? 1 : 0;
+            level = selected;
+        }
+        System.out.println(String.format(Locale.US,
+                "popping: %d switches in 1000 frames with hysteresis, %d without; "
+                        + "%d switches approaching, ending at level %d",
+                switches, switchesWithout, approachSwitches, level));
+        boolean failed = switches > 1 || level != 0
+                || approachSwitches < lod.getLevelCount() - 1;
+        if (failed) {
+            System.out.println("hysteresis did not prevent popping");
+        }
+        return failed;
+    }
+
+    private static void runSelect(LodMesh lod) {
+        int objects = 4096;
+        LodSelector selector = createSelector(lod, objects, lod.getBoundingRadius());
+        float[] depths = new float[objects];
+        Random random = new Random(2);
+        for (int i = 0; i < objects; i++) {
+            depths[i] = 5 + 95 * random.nextFloat();
+        }
+        long checksum = 0;
+        for (int i = 0; i < SELECTIONS; i++) {
+            checksum += selector.select(i % objects, depths[i % objects]);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < SELECTIONS; i++) {
+            // Drift the depths so levels change now and then
+            int object = i % objects;
+            depths[object] *= object % 2 == 0 ? 1.001f : 0.999f;
+            checksum += selector.select(object, depths[object]);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format(Locale.US,
+                "select: %.1f ns/object, %.1f us for %d objects (checksum %d)",
+                elapsed / (double) SELECTIONS, elapsed / (double) SELECTIONS * objects / 1e3,
+                objects, checksum));
+    }
+
+    private static LodSelector createSelector(LodMesh lod, int objects, float radius) {
+        LodSelector selector = new LodSelector(lod.getTriangleCounts(), objects, radius);
+        selector.setProjection(createProjection(), VIEWPORT_HEIGHT);
+        return selector;
+    }
+
+    /**
+     * The projection CubeFieldRenderer hands the selector on a 1080p display.
+     */
+    private static float[] createProjection() {
+        float[] projection = new float[16];
+        CubeRenderer.setProjection(projection, VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+        return projection;
+    }
+
+    /**
+     * The view depth at which an object wants this many triangles.
+     */
+    private static float depthFor(float radius, int triangles) {
+        float pixelScale = createProjection()[5] * VIEWPORT_HEIGHT / 2;
+        return radius * pixelScale * (float) Math.sqrt(Math.PI
+                / (LodSelector.DEFAULT_PIXELS_PER_TRIANGLE * triangles));
+    }
+}
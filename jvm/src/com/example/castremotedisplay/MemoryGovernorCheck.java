@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.castremotedisplay;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+/**
+ * Checks the bookkeeping of {@link MemoryGovernor}: the {@link DirectBufferPool}'s size classes,
+ * budget, release checks and leak tracking, the {@link GlObjectRegistry}'s budget and leak
+ * tracking, and that {@link TextureImage} returns its pooled levels. Runs on a plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.MemoryGovernorCheck
+ * </pre>
+ */
+public final class MemoryGovernorCheck {
+
+    private static final int KB = 1024;
+
+    private MemoryGovernorCheck() {
+    }
+
+    public static void main(String[] args) {
+        boolean failed = checkSizeClasses();
+        failed |= checkBudget();
+        failed |= checkRelease();
+        failed |= checkBufferLeaks();
+        failed |= checkGlObjects();
+        failed |= checkTextureImage();
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static boolean checkSizeClasses() {
+        boolean failed = false;
+        DirectBufferPool pool = new DirectBufferPool(1024 * KB);
+        ByteBuffer first = pool.acquire(100, "first");
+        failed |= check("100 bytes from the 128 byte class", first.limit() == 100
+                && first.capacity() == 128 && first.isDirect()
+                && first.order() == ByteOrder.nativeOrder());
+        failed |= check("first block carves a slab",
+                pool.getReservedBytes() == DirectBufferPool.SLAB_SIZE
+                        && pool.getInUseBytes() == 128);
+        pool.release(first);
+        ByteBuffer second = pool.acquire(120, "second");
+        failed |= check("released block reused", second == first && second.position() == 0
+                && second.limit() == 120 && pool.getReservedBytes() == DirectBufferPool.SLAB_SIZE);
+        ByteBuffer exact = pool.acquire(64, "exact");
+        failed |= check("64 bytes from the smallest class", exact.capacity() == 64
+                && pool.getReservedBytes() == 2 * DirectBufferPool.SLAB_SIZE);
+        FloatBuffer floats = pool.acquireFloats(30, "floats");
+        failed |= check("floats share the 128 byte slab", floats.capacity() == 30
+                && pool.getReservedBytes() == 2 * DirectBufferPool.SLAB_SIZE);
+        ByteBuffer large = pool.acquire(DirectBufferPool.MAX_BLOCK_SIZE + 1, "large");
+        failed |= check("large buffer held on its own",
+                large.capacity() == DirectBufferPool.MAX_BLOCK_SIZE + 1
+                        && pool.getReservedBytes() == 2 * DirectBufferPool.SLAB_SIZE
+                        + DirectBufferPool.MAX_BLOCK_SIZE + 1);
+        pool.release(large);
+        failed |= check("large buffer dropped on release",
+                pool.getReservedBytes() == 2 * DirectBufferPool.SLAB_SIZE);
+        return failed;
+    }
+
+    private static boolean checkBudget() {
+        boolean failed = false;
+        DirectBufferPool pool = new DirectBufferPool(1024 * KB);
+        ByteBuffer first = pool.acquire(700 * KB, "first");
+        failed |= check("over the budget throws", throwsOutOfMemory(pool, 400 * KB));
+        pool.release(first);
+        failed |= check("fits once released", !throwsOutOfMemory(pool, 400 * KB));
+
+        // Slabs count against the budget too, and are never given back
+        DirectBufferPool small = new DirectBufferPool(DirectBufferPool.SLAB_SIZE);
+        small.release(small.acquire(64, "slab"));
+        failed |= check("a second slab is over the budget", throwsOutOfMemory(small, 128)
+                && !throwsOutOfMemory(small, 64));
+        return failed;
+    }
+
+    private static boolean throwsOutOfMemory(DirectBufferPool pool, int bytes) {
+        try {
+            pool.acquire(bytes, "budget");
+            return false;
+        } catch (OutOfMemoryError e) {
+            return true;
+        }
+    }
+
+    private static boolean checkRelease() {
+        boolean failed = false;
+        DirectBufferPool pool = new DirectBufferPool(1024 * KB);
+        ByteBuffer buffer = pool.acquire(256, "twice");
+        pool.release(buffer);
+        failed |= check("double release throws", throwsOnRelease(pool, buffer));
+        failed |= check("foreign buffer throws",
+                throwsOnRelease(pool, ByteBuffer.allocateDirect(256)));
+        FloatBuffer floats = pool.acquireFloats(16, "view");
+        failed |= check("view released, not its block", pool.getLiveCount() == 1
+                && !throwsOnRelease(pool, floats) && pool.getLiveCount() == 0);
+        return failed;
+    }
+
+    private static boolean throwsOnRelease(DirectBufferPool pool, Buffer buffer) {
+        try {
+            pool.release(buffer);
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static boolean checkBufferLeaks() {
+        boolean failed = false;
+        DirectBufferPool pool = new DirectBufferPool(1024 * KB);
+        ByteBuffer before = pool.acquire(64, "before");
+        long mark = pool.mark();
+        ByteBuffer a = pool.acquire(64, "a");
+        ByteBuffer b = pool.acquire(2 * KB, "b");
+        pool.acquire(100 * KB, "c");
+        pool.release(b);
+        pool.release(before);
+        List<DirectBufferPool.Allocation> live = pool.getLiveSince(mark);
+        failed |= check("live since the mark, oldest first", live.size() == 2
+                && "a".equals(live.get(0).getOwner()) && "c".equals(live.get(1).getOwner())
+                && live.get(0).getSerial() < live.get(1).getSerial()
+                && live.get(1).getRequestedBytes() == 100 * KB);
+        pool.release(a);
+        failed |= check("one left after releasing a", pool.getLiveSince(mark).size() == 1);
+        return failed;
+    }
+
+    private static boolean checkGlObjects() {
+        boolean failed = false;
+        Object context = new Object();
+        Object other = new Object();
+        GlObjectRegistry registry = new GlObjectRegistry(1000);
+        registry.register(other, GlObjectRegistry.TYPE_PROGRAM, 1, 0, "before");
+        long mark = registry.mark();
+        registry.register(context, GlObjectRegistry.TYPE_TEXTURE, 2, 600, "texture");
+        registry.register(context, GlObjectRegistry.TYPE_BUFFER, 3, 100, "buffer");
+        failed |= check("budget counts every object", registry.hasRoomFor(300)
+                && !registry.hasRoomFor(301));
+        failed |= check("unregister checks the owner",
+                !registry.unregister(other, GlObjectRegistry.TYPE_TEXTURE, 2)
+                        && registry.unregister(context, GlObjectRegistry.TYPE_BUFFER, 3)
+                        && !registry.unregister(context, GlObjectRegistry.TYPE_BUFFER, 3));
+        List<GlObjectRegistry.Entry> live = registry.getLiveSince(mark);
+        failed |= check("live since the mark", live.size() == 1 && live.get(0).getName() == 2);
+        failed |= check("lost context drops its objects", registry.releaseOwner(context) == 1
+                && registry.getLiveSince(mark).isEmpty() && registry.getTotalCount() == 1
+                && registry.getTotalBytes() == 0);
+        return failed;
+    }
+
+    private static boolean checkTextureImage() {
+        boolean failed = false;
+        DirectBufferPool pool = MemoryGovernor.get().getBufferPool();
+        long mark = pool.mark();
+        try {
+            TextureImage image = TextureImage.readKtx(
+                    new ByteArrayInputStream(createKtx(2, false)));
+            failed |= check("level size without the block's padding",
+                    image.getLevelByteCount(0) == 8 && image.getGpuByteCount(false) == 16);
+            image.release();
+            image.release();
+            failed |= check("image returns its levels", pool.getLiveSince(mark).isEmpty());
+        } catch (IOException e) {
+            failed |= check("valid KTX read: " + e, false);
+        }
+        try {
+            TextureImage.readKtx(new ByteArrayInputStream(createKtx(2, true)));
+            failed |= check("truncated KTX throws", false);
+        } catch (IOException e) {
+            failed |= check("truncated KTX returns the levels read",
+                    pool.getLiveSince(mark).isEmpty());
+        }
+        return failed;
+    }
+
+    /**
+     * A 4x4 ETC1 KTX file with {@code levels} levels of one 8 byte block each, optionally cut
+     * off in the last level.
+     */
+    private static byte[] createKtx(int levels, boolean truncated) {
+        ByteBuffer data = ByteBuffer.allocate(64 + levels * 12).order(ByteOrder.LITTLE_ENDIAN);
+        data.put(new byte[]{
+                (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'});
+        data.putInt(12, 0x04030201);
+        data.putInt(28, TextureImage.GL_ETC1_RGB8_OES);
+        data.putInt(36, 4);
+        data.putInt(40, 4);
+        data.putInt(52, 1);
+        data.putInt(56, levels);
+        data.position(64);
+        for (int level = 0; level < levels; level++) {
+            data.putInt(8);
+            data.put(new byte[8]);
+        }
+        int length = truncated ? data.position() - 4 : data.position();
+        byte[] bytes = new byte[length];
+        System.arraycopy(data.array(), 0, bytes, 0, length);
+        return bytes;
+    }
+
+    /**
+     * Prints an expectation. Returns true if it failed.
+     */
+    private static boolean check(String expectation, boolean passed) {
+        System.out.println(String.format("%-48s %s", expectation, passed ? "ok" : "<-- failed"));
+        return !passed;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Locale;
+
+/**
+ * Checks and times the CPU side of the particle system. Runs on a plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.ParticleBenchmark [seconds]
+ * </pre>
+ * First checks the simulation against the motion it describes, and that it is stateless:
+ * evaluating a time again, after others, gives the same particles. Then times the CPU fallback
+ * simulating full confetti and spark batches per frame, and emitters starting and finishing
+ * through the pool, which must not allocate once warm. Ends with what the two paths move to the
+ * GPU: the CPU fallback uploads every particle every frame, the GPU path each particle once.
+ */
+public class ParticleBenchmark {
+
+    private static final int FRAME_BUDGET_NS = 16666667;
+
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        boolean failed = runMotion();
+        failed |= runStateless();
+        failed |= runSimulate(seconds);
+        failed |= runEmitters(seconds);
+        runUpload();
+        if (!AllocationCounter.isSupported()) {
+            System.out.println("allocation counting not supported by this VM");
+        }
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * A straight up burst without gravity flies between half and all of its speed, and a
+     * looping stream keeps all its particles alive.
+     */
+    private static boolean runMotion() {
+        ParticleMaterial material = new ParticleMaterial("test", ParticleMaterial.BLEND_ALPHA,
+                1024);
+        ParticleSystem system = new ParticleSystem();
+        system.addMaterial(material);
+        ParticleEmitter burst = system.obtainEmitter();
+        burst.setOrigin(1, 2, 3);
+        burst.setSpeed(4, 0);
+        burst.setEmission(100, 2, 0);
+        system.start(burst, material, 10);
+        ParticleBatch batch = system.getBatch(0);
+        float[] out = new float[batch.getCapacity() * ParticleBatch.OUTPUT_FLOATS];
+
+        boolean ok = batch.evaluate(9.5f, out) == 0;
+        int alive = batch.evaluate(11, out);
+        ok &= alive == 100;
+        for (int i = 0; i < alive; i++) {
+            int o = i * ParticleBatch.OUTPUT_FLOATS;
+            float rise = out[o + 1] - 2;
+            ok &= Math.abs(out[o] - 1) < 1e-4f && Math.abs(out[o + 2] - 3) < 1e-4f
+                    && rise >= 2 - 1e-4f && rise <= 4 + 1e-4f
+                    // Halfway through its life a particle is half faded
+                    && Math.abs(out[o + 7] - 0.5f) < 1e-4f;
+        }
+        ok &= batch.evaluate(12, out) == 0;
+        system.update(12);
+        ok &= !burst.isActive() && system.getFreeEmitterCount() == 1;
+
+        // Emitted over one lifetime and looping, a steady stream
+        ParticleEmitter stream = system.obtainEmitter();
+        stream.setEmission(500, 1, 1);
+        stream.setLooping(true);
+        system.start(stream, material, 0);
+        int minAlive = Integer.MAX_VALUE;
+        for (float t = 1; t < 20; t += 0.013f) {
+            minAlive = Math.min(minAlive, batch.evaluate(t, out));
+        }
+        system.update(100);
+        ok &= stream.isActive() && minAlive >= 499;
+        system.stop(stream);
+        ok &= batch.getParticleCount() == 0 && batch.isDirty();
+
+        System.out.println("motion: burst and stream " + (ok ? "as described" : "wrong")
+                + ", at least " + minAlive + " of 500 streaming particles alive");
+        return !ok;
+    }
+
+    /**
+     * Evaluating out of order gives the same particles as evaluating in order.
+     */
+    private static boolean runStateless() {
+        ParticleEffects effects = new ParticleEffects();
+        effects.confetti(0, 0, 0, 0);
+        effects.sparks(0, 0, 0, 0.2f);
+        effects.trail(-2, 0, 0, 4, 0, 0, 1, 0.1f);
+        ParticleSystem system = effects.getSystem();
+        boolean ok = true;
+        for (int b = 0; b < system.getBatchCount(); b++) {
+            ParticleBatch batch = system.getBatch(b);
+            float[] first = new float[batch.getCapacity() * ParticleBatch.OUTPUT_FLOATS];
+            float[] again = new float[first.length];
+            int count = batch.evaluate(0.5f, first);
+            batch.evaluate(2.5f, again);
+            batch.evaluate(0.1f, again);
+            ok &= batch.evaluate(0.5f, again) == count;
+            for (int i = 0; i < count * ParticleBatch.OUTPUT_FLOATS; i++) {
+                ok &= first[i] == again[i];
+            }
+        }
+        System.out.println("stateless: " + (ok ? "same" : "different")
+                + " particles when evaluated again out of order");
+        return !ok;
+    }
+
+    private static boolean runSimulate(int seconds) {
+        ParticleEffects effects = new ParticleEffects();
+        ParticleSystem system = effects.getSystem();
+        // Fill both batches with looping emitters, so the count holds steady
+        fill(system, 0);
+        fill(system, 1);
+        float[] out = new float[8192 * ParticleBatch.OUTPUT_FLOATS];
+
+        long checksum = 0;
+        for (int frame = 0; frame < 300; frame++) {
+            checksum += simulateFrame(system, frame / 60.0f, out);
+        }
+        long startBytes = AllocationCounter.getCurrentThreadBytes();
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L;
+        long frames = 0;
+        long particles = 0;
+        long now;
+        do {
+            int simulated = simulateFrame(system, 5 + frames / 60.0f, out);
+            particles += simulated;
+            checksum += simulated;
+            frames++;
+            now = System.nanoTime();
+        } while (now < end);
+        long allocated = AllocationCounter.getAllocatedSince(startBytes);
+
+        double frameNanos = (now - start) / (double) frames;
+        System.out.println(String.format(Locale.US,
+                "simulate: %d particles per frame, %.1f ns/particle, %.2f ms/frame "
+                        + "(%.0f%% of a 60 fps frame), %d bytes allocated (checksum %d)",
+                particles / frames, (now - start) / (double) particles, frameNanos / 1e6,
+                100 * frameNanos / FRAME_BUDGET_NS, allocated, checksum));
+        return allocated > AllocationCounter.MAX_STEADY_STATE_BYTES;
+    }
+
+    private static void fill(ParticleSystem system, int batchIndex) {
+        ParticleMaterial material = system.getBatch(batchIndex).getMaterial();
+        while (true) {
+            ParticleEmitter emitter = system.obtainEmitter();
+            emitter.setSpeed(3, 60);
+            emitter.setEmission(512, 2, 2);
+            emitter.setLooping(true);
+            if (!system.start(emitter, material, 0)) {
+                return;
+            }
+        }
+    }
+
+    private static int simulateFrame(ParticleSystem system, float nowSeconds, float[] out) {
+        system.update(nowSeconds);
+        int count = 0;
+        for (int b = 0; b < system.getBatchCount(); b++) {
+            count += system.getBatch(b).evaluate(nowSeconds, out);
+        }
+        return count;
+    }
+
+    /**
+     * Starts a burst a frame and lets them finish, as a game would.
+     */
+    private static boolean runEmitters(int seconds) {
+        ParticleEffects effects = new ParticleEffects();
+        ParticleSystem system = effects.getSystem();
+        float nowSeconds = 0;
+        for (int frame = 0; frame < 600; frame++) {
+            nowSeconds = frame / 60.0f;
+            effects.sparks(0, 0, 0, nowSeconds);
+            system.update(nowSeconds);
+        }
+        int created = system.getEmitterCount();
+        long startBytes = AllocationCounter.getCurrentThreadBytes();
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L / 3;
+        long frames = 0;
+        long now;
+        do {
+            nowSeconds += 1 / 60.0f;
+            effects.sparks(0, 0, 0, nowSeconds);
+            system.update(nowSeconds);
+            frames++;
+            now = System.nanoTime();
+        } while (now < end);
+        long allocated = AllocationCounter.getAllocatedSince(startBytes);
+
+        System.out.println(String.format(Locale.US,
+                "emitters: %.0f ns per frame starting a burst, %d emitters created for %d started, "
+                        + "%d bytes allocated",
+                (now - start) / (double) frames, system.getEmitterCount(), frames + 600,
+                allocated));
+        return allocated > AllocationCounter.MAX_STEADY_STATE_BYTES
+                || system.getEmitterCount() > created + 1;
+    }
+
+    private static void runUpload() {
+        ParticleEffects effects = new ParticleEffects();
+        ParticleSystem system = effects.getSystem();
+        fill(system, 0);
+        ParticleBatch batch = system.getBatch(0);
+        FloatBuffer vertices = ByteBuffer.allocateDirect(
+                batch.getCapacity() * ParticleBatch.VERTEX_FLOATS * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (int i = 0; i < 20; i++) {
+            vertices.clear();
+            batch.writeVertices(vertices, 0, batch.getCapacity());
+        }
+        long start = System.nanoTime();
+        int runs = 100;
+        for (int i = 0; i < runs; i++) {
+            vertices.clear();
+            batch.writeVertices(vertices, 0, batch.getCapacity());
+        }
+        long elapsed = (System.nanoTime() - start) / runs;
+        int particles = batch.getParticleCount();
+        System.out.println(String.format(Locale.US,
+                "upload: GPU path writes %d particles once in %.2f ms, %d KB; the CPU fallback "
+                        + "sends %d KB every frame, %.1f MB/s at 60 fps",
+                particles, elapsed / 1e6, particles * ParticleBatch.VERTEX_FLOATS * 4 / 1024,
+                particles * ParticleBatch.OUTPUT_FLOATS * 4 / 1024,
+                particles * ParticleBatch.OUTPUT_FLOATS * 4 * 60 / 1e6));
+    }
+}
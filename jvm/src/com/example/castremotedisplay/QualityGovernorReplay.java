@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.castremotedisplay;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays frame timings through a {@link QualityGovernor} and checks its tier decisions. Runs
+ * on a plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.QualityGovernorReplay [work times file]
+ * </pre>
+ * <p>
+ * Each replayed frame has a work time, and the next one starts after the work or the current
+ * tier's frame budget, whichever is longer, as {@link CubeRenderer} paces them. The scenarios
+ * check that sustained overload steps down one tier at a time no faster than the dwell allows
+ * and settles on the first tier that fits, that recovery waits out the upgrade delay for each
+ * step, that an upgrade which doesn't hold doubles the delay before the next attempt, that the
+ * temperature band between cool and hot neither degrades nor recovers, and that a pause isn't
+ * counted as a slow frame.
+ * </p>
+ * <p>
+ * Given a file with a frame's work time in microseconds per line, e.g. recorded with pass
+ * timing on a device, it is replayed from the best tier and the decisions are printed.
+ * </p>
+ */
+public final class QualityGovernorReplay {
+
+    private static final long MILLIS = 1000000L;
+    private static final long SECONDS = 1000000000L;
+    // Slack for a decision landing on the frame after its deadline
+    private static final long FRAME_SLACK_NS = 50 * MILLIS;
+    // Slack for the smoothed work time to come down after the work gets lighter
+    private static final long SETTLE_SLACK_NS = 500 * MILLIS;
+
+    private static final long HEAVY_WORK_NS = 25 * MILLIS;
+    private static final long LIGHT_WORK_NS = 5 * MILLIS;
+    // Fits a 60 fps tier with headroom, e.g. just after an upgrade before the device heats up
+    private static final long MODERATE_WORK_NS = 10 * MILLIS;
+
+    /**
+     * A governor fed paced frames from a simulated clock, recording its tier changes.
+     */
+    private static final class Replay implements QualityGovernor.Listener {
+        final QualityTier[] mTiers;
+        final QualityGovernor mGovernor;
+        final List<long[]> mChanges = new ArrayList<long[]>();
+        long mNowNanos;
+
+        Replay(QualityTier[] tiers) {
+            mTiers = tiers;
+            mGovernor = new QualityGovernor(tiers);
+            mGovernor.setListener(this);
+        }
+
+        @Override
+        public void onQualityTierChanged(QualityTier tier, int index) {
+            mChanges.add(new long[] {mNowNanos, index});
+        }
+
+        /**
+         * Renders frames of the given work time for a while.
+         */
+        void run(long durationNanos, long workNanos) {
+            long end = mNowNanos + durationNanos;
+            while (mNowNanos < end) {
+                frame(workNanos);
+            }
+        }
+
+        /**
+         * Renders frames until the tier changes, for at most {@code maxNanos}. Returns how long
+         * that took, or -1 if it didn't change.
+         */
+        long runUntilChange(long maxNanos, long workNanos) {
+            long start = mNowNanos;
+            int changes = mChanges.size();
+            while (mChanges.size() == changes) {
+                if (mNowNanos - start > maxNanos) {
+                    return -1;
+                }
+                frame(workNanos);
+            }
+            return mChanges.get(changes)[0] - start;
+        }
+
+        void frame(long workNanos) {
+            long budget = mGovernor.getTier().getFrameBudgetNanos();
+            mGovernor.onFrame(mNowNanos, workNanos);
+            mNowNanos += Math.max(workNanos, budget);
+        }
+
+        void setTemperature(float temperatureC) {
+            mGovernor.onBatteryTemperature(mNowNanos, temperatureC);
+        }
+
+        void pause(long nanos) {
+            mNowNanos += nanos;
+        }
+
+        int getTierIndex() {
+            return mGovernor.getTierIndex();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean failed = runOverload();
+        failed |= runRecovery();
+        failed |= runBackOff();
+        failed |= runTemperature();
+        failed |= runPause();
+        if (args.length > 0) {
+            replayFile(args[0]);
+        }
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Work that only fits the 30 fps tiers, from the best tier.
+     */
+    private static boolean runOverload() {
+        Replay replay = new Replay(QualityTier.DEFAULT_TIERS);
+        replay.run(20 * SECONDS, HEAVY_WORK_NS);
+        System.out.println("overload:");
+        printChanges(replay);
+        // Down to the first 30 fps tier and no further
+        boolean failed = check("settles on tier 3", replay.getTierIndex() == 3);
+        failed |= check("three steps", replay.mChanges.size() == 3);
+        if (!replay.mChanges.isEmpty()) {
+            long first = replay.mChanges.get(0)[0];
+            failed |= check("first step after the downgrade delay",
+                    first >= QualityGovernor.DOWNGRADE_DELAY_NS
+                            && first <= QualityGovernor.DOWNGRADE_DELAY_NS + FRAME_SLACK_NS);
+        }
+        for (int i = 1; i < replay.mChanges.size(); i++) {
+            long gap = replay.mChanges.get(i)[0] - replay.mChanges.get(i - 1)[0];
+            failed |= check("step " + i + " held for the dwell time",
+                    gap >= QualityGovernor.MIN_DWELL_NS
+                            && gap <= QualityGovernor.MIN_DWELL_NS + FRAME_SLACK_NS);
+        }
+        return failed;
+    }
+
+    /**
+     * Light work after an overload, back to the best tier one upgrade delay per step.
+     */
+    private static boolean runRecovery() {
+        Replay replay = new Replay(QualityTier.DEFAULT_TIERS);
+        replay.run(20 * SECONDS, HEAVY_WORK_NS);
+        int downgrades = replay.mChanges.size();
+        long recoveryStart = replay.mNowNanos;
+        replay.run(60 * SECONDS, LIGHT_WORK_NS);
+        System.out.println("recovery:");
+        printChanges(replay);
+        boolean failed = check("back on tier 0", replay.getTierIndex() == 0);
+        long previous = recoveryStart;
+        for (int i = downgrades; i < replay.mChanges.size(); i++) {
+            long gap = replay.mChanges.get(i)[0] - previous;
+            failed |= check("upgrade " + (i - downgrades + 1) + " after the upgrade delay",
+                    gap >= QualityGovernor.UPGRADE_DELAY_NS
+                            && gap <= QualityGovernor.UPGRADE_DELAY_NS + SETTLE_SLACK_NS);
+            previous = replay.mChanges.get(i)[0];
+        }
+        return failed;
+    }
+
+    /**
+     * A device that manages 60 fps for a few seconds after each upgrade, then overheats: each
+     * failed upgrade doubles the wait before the next attempt.
+     */
+    private static boolean runBackOff() {
+        Replay replay = new Replay(new QualityTier[] {
+                new QualityTier(0, 1.0f, 60, QualityTier.DETAIL_FULL),
+                new QualityTier(0, 1.0f, 30, QualityTier.DETAIL_FULL),
+        });
+        boolean failed = check("steps down under load",
+                replay.runUntilChange(10 * SECONDS, HEAVY_WORK_NS) >= 0);
+        System.out.println("back off:");
+        long expected = QualityGovernor.UPGRADE_DELAY_NS;
+        for (int attempt = 1; attempt <= 4; attempt++) {
+            long delay = replay.runUntilChange(200 * SECONDS, MODERATE_WORK_NS);
+            System.out.println(String.format(Locale.US, "  attempt %d after %.1f s", attempt,
+                    delay / 1e9));
+            failed |= check("attempt " + attempt + " after " + expected / SECONDS + " s",
+                    delay >= expected && delay <= expected + FRAME_SLACK_NS);
+            // Holds for a few seconds, then the heat brings it down again
+            replay.run(5 * SECONDS, MODERATE_WORK_NS);
+            replay.runUntilChange(10 * SECONDS, HEAVY_WORK_NS);
+            expected = Math.min(expected * 2, QualityGovernor.MAX_UPGRADE_DELAY_NS);
+        }
+        return failed;
+    }
+
+    /**
+     * Steps down quickly when critically hot, holds in the band between cool and hot, and
+     * recovers once cool.
+     */
+    private static boolean runTemperature() {
+        Replay replay = new Replay(QualityTier.DEFAULT_TIERS);
+        replay.setTemperature(QualityGovernor.CRITICAL_TEMPERATURE_C + 1);
+        replay.run(3 * SECONDS, LIGHT_WORK_NS);
+        System.out.println("temperature:");
+        printChanges(replay);
+        boolean failed = check("critical heat reaches the lowest tier",
+                replay.getTierIndex() == QualityTier.DEFAULT_TIERS.length - 1);
+
+        int changes = replay.mChanges.size();
+        replay.setTemperature((QualityGovernor.COOL_TEMPERATURE_C
+                + QualityGovernor.HOT_TEMPERATURE_C) / 2);
+        replay.run(60 * SECONDS, LIGHT_WORK_NS);
+        failed |= check("warm holds the tier", replay.mChanges.size() == changes);
+
+        replay.setTemperature(QualityGovernor.COOL_TEMPERATURE_C - 1);
+        long delay = replay.runUntilChange(30 * SECONDS, LIGHT_WORK_NS);
+        failed |= check("cool recovers after the upgrade delay",
+                delay >= QualityGovernor.UPGRADE_DELAY_NS
+                        && delay <= QualityGovernor.UPGRADE_DELAY_NS + FRAME_SLACK_NS);
+        return failed;
+    }
+
+    /**
+     * A two second gap between frames, e.g. while the surface is recreated.
+     */
+    private static boolean runPause() {
+        Replay replay = new Replay(QualityTier.DEFAULT_TIERS);
+        replay.run(SECONDS, LIGHT_WORK_NS);
+        replay.pause(2 * SECONDS);
+        replay.run(5 * SECONDS, LIGHT_WORK_NS);
+        System.out.println("pause:");
+        return check("a pause isn't a slow frame", replay.mChanges.isEmpty());
+    }
+
+    private static void replayFile(String path) throws IOException {
+        Replay replay = new Replay(QualityTier.DEFAULT_TIERS);
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        int frames = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    replay.frame(Long.parseLong(line) * 1000);
+                    frames++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        System.out.println(path + ": " + frames + " frames over "
+                + String.format(Locale.US, "%.1f s", replay.mNowNanos / 1e9));
+        printChanges(replay);
+    }
+
+    private static void printChanges(Replay replay) {
+        for (long[] change : replay.mChanges) {
+            System.out.println(String.format(Locale.US, "  %7.2f s  tier %d  %s",
+                    change[0] / 1e9, change[1], replay.mTiers[(int) change[1]]));
+        }
+    }
+
+    /**
+     * Prints a failed expectation. Returns true if it failed.
+     */
+    private static boolean check(String expectation, boolean passed) {
+        if (!passed) {
+            System.out.println("  " + expectation + "  <-- failed");
+        }
+        return !passed;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.Locale;
+
+/**
+ * Checks and times {@link RenderGraph}'s compilation. Runs on a plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.RenderGraphBenchmark [width] [height]
+ * </pre>
+ * Compiles the bloom of {@link PostProcessRenderer} and checks that the bright and bloom targets
+ * share an allocation, a chain of blurs ping-pongs between two, unused passes are culled, an
+ * overlay keeps the depth it draws over, and invalid graphs are rejected. Ends with the cost
+ * of compiling.
+ */
+public class RenderGraphBenchmark {
+
+    private static final int CHAIN_LENGTH = 64;
+    private static final int COMPILES = 10000;
+
+    private static final RenderGraph.Pass NO_OP = new RenderGraph.Pass() {
+        @Override
+        public void execute(RenderGraph.Resources resources) {
+        }
+    };
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1920;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1080;
+        boolean failed = runBloom(width, height);
+        failed |= runChain(width, height);
+        failed |= runCulling(width, height);
+        failed |= runOverlay(width, height);
+        failed |= runInvalid(width, height);
+        runCompile(width, height);
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static boolean runBloom(int width, int height) {
+        RenderGraph graph = new RenderGraph();
+        int display = graph.importTarget("display", width, height, false);
+        int scene = graph.createTarget("scene", width, height, RenderGraph.FORMAT_RGBA8888,
+                true);
+        int bright = graph.createTarget("bright", width / 2, height / 2,
+                RenderGraph.FORMAT_RGB565, false);
+        int blur = graph.createTarget("blur", width / 2, height / 2,
+                RenderGraph.FORMAT_RGB565, false);
+        int bloom = graph.createTarget("bloom", width / 2, height / 2,
+                RenderGraph.FORMAT_RGB565, false);
+        int scenePass = addPass(graph, "scene", -1, -1, scene);
+        addPass(graph, "bright", scene, -1, bright);
+        addPass(graph, "blur-h", bright, -1, blur);
+        addPass(graph, "blur-v", blur, -1, bloom);
+        int composite = addPass(graph, "composite", scene, bloom, display);
+        graph.compile();
+
+        System.out.println("bloom:");
+        System.out.println(graph.describe());
+        boolean ok = graph.getStepCount() == 5 && graph.getAllocationCount() == 3
+                && graph.getAllocation(bright) == graph.getAllocation(bloom)
+                && graph.getAllocation(blur) != graph.getAllocation(bright)
+                && graph.getAllocation(display) < 0
+                && graph.getAllocatedBytes() < graph.getUnaliasedBytes();
+        // The scene's depth is done with once it is drawn, and every pass overwrites
+        for (int step = 0; step < graph.getStepCount(); step++) {
+            int flags = graph.getStepFlags(step);
+            boolean depth = graph.getStepPass(step) == scenePass;
+            ok &= (flags & RenderGraph.FLAG_CLEAR) != 0;
+            ok &= ((flags & RenderGraph.FLAG_DISCARD_DEPTH) != 0) == depth;
+        }
+        ok &= graph.getStepPass(graph.getStepCount() - 1) == composite;
+        if (!ok) {
+            System.out.println("bloom: unexpected steps or allocations");
+        }
+        return !ok;
+    }
+
+    /**
+     * Blurs repeatedly at one size: every target lives for two steps, so two allocations do.
+     */
+    private static boolean runChain(int width, int height) {
+        RenderGraph graph = createChain(width, height, CHAIN_LENGTH);
+        graph.compile();
+        System.out.println(String.format(Locale.US,
+                "chain: %d passes, %d allocations, %d KB instead of %d KB",
+                graph.getStepCount(), graph.getAllocationCount(),
+                graph.getAllocatedBytes() / 1024, graph.getUnaliasedBytes() / 1024));
+        return graph.getStepCount() != CHAIN_LENGTH + 1 || graph.getAllocationCount() != 2;
+    }
+
+    private static RenderGraph createChain(int width, int height, int length) {
+        RenderGraph graph = new RenderGraph();
+        int display = graph.importTarget("display", width, height, false);
+        int previous = graph.createTarget("source", width / 2, height / 2,
+                RenderGraph.FORMAT_RGBA8888, false);
+        addPass(graph, "source", -1, -1, previous);
+        for (int i = 0; i < length - 1; i++) {
+            int target = graph.createTarget("blur" + i, width / 2, height / 2,
+                    RenderGraph.FORMAT_RGBA8888, false);
+            addPass(graph, "blur" + i, previous, -1, target);
+            previous = target;
+        }
+        addPass(graph, "present", previous, -1, display);
+        return graph;
+    }
+
+    /**
+     * A pass nothing reads is culled, along with passes only it reads, and takes no memory.
+     */
+    private static boolean runCulling(int width, int height) {
+        RenderGraph graph = new RenderGraph();
+        int display = graph.importTarget("display", width, height, false);
+        int scene = graph.createTarget("scene", width, height, RenderGraph.FORMAT_RGBA8888,
+                true);
+        int luma = graph.createTarget("luma", 64, 64, RenderGraph.FORMAT_RGBA8888, false);
+        int histogram = graph.createTarget("histogram", 256, 1, RenderGraph.FORMAT_RGBA8888,
+                false);
+        addPass(graph, "scene", -1, -1, scene);
+        int lumaPass = addPass(graph, "luma", scene, -1, luma);
+        int histogramPass = addPass(graph, "histogram", luma, -1, histogram);
+        addPass(graph, "present", scene, -1, display);
+        graph.compile();
+        boolean ok = graph.getStepCount() == 2 && graph.getAllocationCount() == 1
+                && graph.getAllocation(luma) < 0 && graph.getAllocation(histogram) < 0;
+        for (int step = 0; step < graph.getStepCount(); step++) {
+            int pass = graph.getStepPass(step);
+            ok &= pass != lumaPass && pass != histogramPass;
+        }
+        System.out.println(String.format(Locale.US, "culling: %d of 4 passes run, %s",
+                graph.getStepCount(), ok ? "ok" : "unexpected"));
+        return !ok;
+    }
+
+    /**
+     * An overlay drawing over the scene needs its color and depth loaded, so only the overlay
+     * discards depth.
+     */
+    private static boolean runOverlay(int width, int height) {
+        RenderGraph graph = new RenderGraph();
+        int display = graph.importTarget("display", width, height, false);
+        int scene = graph.createTarget("scene", width, height, RenderGraph.FORMAT_RGBA8888,
+                true);
+        addPass(graph, "scene", -1, -1, scene);
+        int overlay = graph.addPass("overlay", NO_OP);
+        graph.modify(overlay, scene);
+        addPass(graph, "present", scene, -1, display);
+        graph.compile();
+        System.out.println("overlay:");
+        System.out.println(graph.describe());
+        return graph.getStepCount() != 3
+                || graph.getStepFlags(0) != RenderGraph.FLAG_CLEAR
+                || graph.getStepFlags(1) != RenderGraph.FLAG_DISCARD_DEPTH
+                || graph.getStepFlags(2) != RenderGraph.FLAG_CLEAR;
+    }
+
+    private static boolean runInvalid(int width, int height) {
+        int rejected = 0;
+
+        RenderGraph unwritten = new RenderGraph();
+        int display = unwritten.importTarget("display", width, height, false);
+        int never = unwritten.createTarget("never", width, height, RenderGraph.FORMAT_RGBA8888,
+                false);
+        addPass(unwritten, "present", never, -1, display);
+        rejected += rejects(unwritten);
+
+        RenderGraph targetless = new RenderGraph();
+        targetless.importTarget("display", width, height, false);
+        targetless.addPass("nowhere", NO_OP);
+        rejected += rejects(targetless);
+
+        RenderGraph feedback = new RenderGraph();
+        display = feedback.importTarget("display", width, height, false);
+        addPass(feedback, "feedback", display, -1, display);
+        rejected += rejects(feedback);
+
+        RenderGraph changed = createChain(width, height, 4);
+        changed.compile();
+        changed.addPass("late", NO_OP);
+        try {
+            changed.getStepCount();
+        } catch (IllegalStateException e) {
+            rejected++;
+        }
+
+        System.out.println(String.format(Locale.US, "invalid: %d of 4 rejected", rejected));
+        return rejected != 4;
+    }
+
+    private static int rejects(RenderGraph graph) {
+        try {
+            graph.compile();
+            return 0;
+        } catch (IllegalStateException e) {
+            return 1;
+        }
+    }
+
+    private static void runCompile(int width, int height) {
+        RenderGraph graph = createChain(width, height, CHAIN_LENGTH);
+        // The first round warms up the VM
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < COMPILES; i++) {
+                graph.compile();
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round == 1) {
+                System.out.println(String.format(Locale.US,
+                        "compile: %.1f us for %d passes", elapsed / 1e3 / COMPILES,
+                        CHAIN_LENGTH + 1));
+            }
+        }
+    }
+
+    /**
+     * Adds a pass reading up to two targets, -1 for none, and writing one.
+     */
+    private static int addPass(RenderGraph graph, String name, int read, int read2, int write) {
+        int pass = graph.addPass(name, NO_OP);
+        if (read >= 0) {
+            graph.read(pass, read);
+        }
+        if (read2 >= 0) {
+            graph.read(pass, read2);
+        }
+        graph.write(pass, write);
+        return pass;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.castremotedisplay;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Checks the router callback registrations {@link RouteRegistry} drives through a
+ * {@link RouteRegistry.CallbackDiscovery}, against a fake router. Runs on a plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.RouteDiscoveryCheck
+ * </pre>
+ * The fake merges the flags of a callback added again, like {@code MediaRouter}, so leaving
+ * the callback registered while switching from active to passive discovery shows up as a scan
+ * that never stops. Checks that the scan flag is set until a route is found, dropped once one
+ * is, set again when the last route goes away, that routes known before discovery started are
+ * reported, and that stopping removes the callback.
+ */
+public final class RouteDiscoveryCheck {
+
+    // MediaRouter's values
+    private static final int FLAG_PERFORM_ACTIVE_SCAN = 1;
+    private static final int FLAG_REQUEST_DISCOVERY = 4;
+
+    /**
+     * Keeps the flags of its one callback, merged like {@code MediaRouter.addCallback} does.
+     */
+    private static final class FakeRouter extends RouteRegistry.CallbackDiscovery {
+        final List<String> mKnownRoutes = new ArrayList<String>();
+        RouteRegistry mRegistry;
+        boolean mRegistered;
+        int mFlags;
+
+        @Override
+        protected void addCallback(boolean activeScan) {
+            int flags = FLAG_REQUEST_DISCOVERY | (activeScan ? FLAG_PERFORM_ACTIVE_SCAN : 0);
+            mFlags = mRegistered ? mFlags | flags : flags;
+            mRegistered = true;
+        }
+
+        @Override
+        protected void removeCallback() {
+            mRegistered = false;
+            mFlags = 0;
+        }
+
+        @Override
+        protected void reportKnownRoutes() {
+            for (String deviceId : mKnownRoutes) {
+                mRegistry.onRouteAdded(deviceId, deviceId, 0);
+            }
+        }
+
+        boolean isScanning() {
+            return mRegistered && (mFlags & FLAG_PERFORM_ACTIVE_SCAN) != 0;
+        }
+    }
+
+    private static final RouteRegistry.Store NO_STORE = new RouteRegistry.Store() {
+        @Override
+        public void load(RouteRegistry registry) {
+        }
+
+        @Override
+        public void save(Collection<RouteRegistry.DeviceRecord> records,
+                String lastUsedDeviceId) {
+        }
+    };
+
+    private static final RouteRegistry.Listener NO_LISTENER = new RouteRegistry.Listener() {
+        @Override
+        public void onAvailableRoutesChanged(int count) {
+        }
+
+        @Override
+        public void onLastUsedRouteAvailable(String deviceId) {
+        }
+    };
+
+    public static void main(String[] args) {
+        RouteRegistry registry = new RouteRegistry(NO_STORE);
+        FakeRouter router = new FakeRouter();
+        router.mRegistry = registry;
+
+        boolean failed = false;
+        registry.start(router, NO_LISTENER);
+        failed |= check("started without routes", router, true, true);
+        registry.onRouteAdded("tv", "TV", 0);
+        failed |= check("route found", router, true, false);
+        registry.onRouteAdded("speaker", "Speaker", 0);
+        failed |= check("second route found", router, true, false);
+        registry.onRouteRemoved("tv", 0);
+        failed |= check("one of two routes lost", router, true, false);
+        registry.onRouteRemoved("speaker", 0);
+        failed |= check("last route lost", router, true, true);
+        registry.stop();
+        failed |= check("stopped", router, false, false);
+
+        // A route the router found while nobody listened is reported when discovery starts
+        router.mKnownRoutes.add("tv");
+        registry.start(router, NO_LISTENER);
+        failed |= check("started with a known route", router, true, false);
+        if (!registry.isAvailable("tv")) {
+            System.out.println("started with a known route: route not reported");
+            failed = true;
+        }
+        registry.stop();
+        failed |= check("stopped again", router, false, false);
+
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Prints the callback's state after a step. Returns true if it isn't what was expected.
+     */
+    private static boolean check(String step, FakeRouter router, boolean registered,
+            boolean scanning) {
+        boolean failed = router.mRegistered != registered || router.isScanning() != scanning;
+        System.out.println(String.format("%-28s registered %-5b scanning %-5b%s", step,
+                router.mRegistered, router.isScanning(),
+                failed ? "  <-- expected " + registered + " " + scanning : ""));
+        return failed;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Throughput of the {@link SceneProtocol}. Runs on a plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.SceneProtocolBenchmark [seconds]
+ * </pre>
+ * First encodes and decodes messages in a loop, then drives a {@link SceneSocketServer} on the
+ * loopback interface from a {@link SceneController} setting fields as fast as it can, and checks
+ * that the renderer side ends up with the last values set. Allocations of the sending and
+ * decoding threads are reported where the VM can count them. A few hundred bytes of one-off VM
+ * and lock bookkeeping show up, but more than
+ * {@link AllocationCounter#MAX_STEADY_STATE_BYTES} fails the run.
+ */
+public class SceneProtocolBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200000;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        boolean failed = runCodec(seconds);
+        failed |= runSocket(seconds);
+        if (!AllocationCounter.isSupported()) {
+            System.out.println("allocation counting not supported by this VM");
+        }
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static boolean runCodec(int seconds) {
+        SceneDelta in = new SceneDelta();
+        SceneDelta out = new SceneDelta();
+        ByteBuffer buffer = ByteBuffer.allocate(SceneProtocol.MAX_MESSAGE_SIZE);
+        long checksum = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            checksum += roundTrip(i, in, out, buffer);
+        }
+
+        long startBytes = AllocationCounter.getCurrentThreadBytes();
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L;
+        long messages = 0;
+        long bytes = 0;
+        long now;
+        do {
+            for (int i = 0; i < 10000; i++) {
+                bytes += roundTrip((int) messages + i, in, out, buffer);
+            }
+            messages += 10000;
+            now = System.nanoTime();
+        } while (now < end);
+        long allocated = AllocationCounter.getAllocatedSince(startBytes);
+
+        double elapsedSeconds = (now - start) / 1e9;
+        System.out.println(String.format(Locale.US,
+                "codec: %.1fM messages/s encoded and decoded, %.1f ns/message, %.1f MB/s, "
+                        + "%d bytes allocated (checksum %d)",
+                messages / elapsedSeconds / 1e6, (now - start) / (double) messages,
+                bytes / elapsedSeconds / 1e6, allocated, checksum));
+        return allocated > AllocationCounter.MAX_STEADY_STATE_BYTES;
+    }
+
+    /**
+     * Encodes and decodes a message changing one to all fields.
+     *
+     * @return The encoded size.
+     */
+    private static int roundTrip(int i, SceneDelta in, SceneDelta out, ByteBuffer buffer) {
+        in.clear();
+        in.setFloat(SceneProtocol.FIELD_ROTATION_SPEED, i);
+        if ((i & 1) != 0) {
+            in.setBoolean(SceneProtocol.FIELD_COLOR_CHANGED, (i & 2) != 0);
+        }
+        if ((i & 3) == 3) {
+            in.setBoolean(SceneProtocol.FIELD_DEBUG_HUD, true);
+            in.setBoolean(SceneProtocol.FIELD_PASS_TIMING, false);
+        }
+        in.setSequence(i);
+        buffer.clear();
+        SceneProtocol.encode(in, buffer);
+        buffer.flip();
+        int size = buffer.remaining();
+        if (!SceneProtocol.decode(buffer, out) || out.size() != in.size()
+                || out.getFloat(SceneProtocol.FIELD_ROTATION_SPEED) != i) {
+            throw new AssertionError("Round trip failed at " + i);
+        }
+        return size;
+    }
+
+    private static boolean runSocket(int seconds) throws Exception {
+        RecordingTarget target = new RecordingTarget();
+        SceneSocketServer server = new SceneSocketServer(target, 0);
+        server.start();
+        MessagePool pool = new MessagePool(8, SceneProtocol.MAX_MESSAGE_SIZE);
+        SceneSocketTransport transport = new SceneSocketTransport("127.0.0.1",
+                server.getLocalPort(), 8);
+        transport.connect();
+        SceneController controller = new SceneController(transport, pool);
+
+        long end = System.nanoTime() + seconds * 1000000000L;
+        long startBytes = -1;
+        long deferredFlushes = 0;
+        float speed = 0;
+        long start = 0;
+        long now;
+        do {
+            for (int i = 0; i < 1000; i++) {
+                speed = (speed + 1) % 1000000;
+                controller.setFloat(SceneProtocol.FIELD_ROTATION_SPEED, speed);
+                controller.setBoolean(SceneProtocol.FIELD_COLOR_CHANGED, (i & 64) != 0);
+                if (!controller.flush()) {
+                    deferredFlushes++;
+                }
+            }
+            now = System.nanoTime();
+            if (startBytes < 0 && controller.getSetCount() >= WARMUP_ITERATIONS) {
+                // Once the connection threads are up and the sending path is compiled
+                startBytes = AllocationCounter.getCurrentThreadBytes();
+                start = now;
+            }
+        } while (now < end);
+        long allocated = AllocationCounter.getAllocatedSince(startBytes);
+
+        // Let the last message through
+        while (!controller.flush()) {
+            Thread.sleep(1);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (target.getRotationSpeed() != speed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        transport.close();
+        server.stop();
+
+        double elapsedSeconds = (now - start) / 1e9;
+        long sets = controller.getSetCount();
+        System.out.println(String.format(Locale.US,
+                "socket: %.2fM fields set/s, %d messages sent (%.1fK/s), %d received, "
+                        + "%.1f%% of fields coalesced away, %d deferred flushes, "
+                        + "%d bytes allocated by the controller",
+                sets / elapsedSeconds / 1e6, controller.getMessageCount(),
+                controller.getMessageCount() / elapsedSeconds / 1e3, target.getMessageCount(),
+                100.0 * (sets - controller.getSentFieldCount()) / sets, deferredFlushes,
+                allocated));
+        boolean converged = target.getRotationSpeed() == speed;
+        if (!converged) {
+            System.out.println("renderer state did not converge: speed "
+                    + target.getRotationSpeed() + ", expected " + speed);
+        }
+        return !converged || allocated > AllocationCounter.MAX_STEADY_STATE_BYTES
+                || pool.getFreeCount() != 8;
+    }
+
+    private static final class RecordingTarget implements SceneReceiver.Target {
+        private volatile float mRotationSpeed;
+        private volatile long mMessageCount;
+
+        @Override
+        public void onSceneChanged(SceneDelta delta) {
+            if (delta.has(SceneProtocol.FIELD_ROTATION_SPEED)) {
+                mRotationSpeed = delta.getFloat(SceneProtocol.FIELD_ROTATION_SPEED);
+            }
+            mMessageCount++;
+        }
+
+        float getRotationSpeed() {
+            return mRotationSpeed;
+        }
+
+        long getMessageCount() {
+            return mMessageCount;
+        }
+    }
+}
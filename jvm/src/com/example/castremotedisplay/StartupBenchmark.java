@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.opengl.GLES20;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start benchmark for the remote display path that runs on a plain JVM.
+ * <p>
+ * Each iteration replays the startup lifecycle against a fake Cast session: route discovery
+ * through a {@link RouteRegistry} driven by a fake router, route selection, the service start,
+ * session negotiation and presentation creation with simulated latencies, and finally the first
+ * frame rendered by {@link Cube} into a {@link SoftwareGlApi}. The display independent work is
+ * warm started in parallel with the negotiation, like {@link WarmStart} does on the device.
+ * Stage durations come from a {@link StartupTrace} and are reported as percentiles; a run
+ * missing a stage fails, as does a reconnect whose trace keeps the previous session's stages.
+ * </p>
+ * <p>
+ * Usage: {@code StartupBenchmark [iterations] [negotiationMs] [displayMs]}, from the project
+ * root so that the shader sources are found.
+ * </p>
+ */
+public final class StartupBenchmark {
+
+    private static final int DEFAULT_ITERATIONS = 50;
+    private static final int DEFAULT_NEGOTIATION_MS = 20;
+    private static final int DEFAULT_DISPLAY_MS = 5;
+    private static final int WARMUP_ITERATIONS = 5;
+
+    private static final int FRAME_WIDTH = 320;
+    private static final int FRAME_HEIGHT = 180;
+    private static final String DEVICE_ID = "fake-device";
+    private static final File SHADER_DIRECTORY =
+            new File("assets", ShaderLibrary.ASSET_DIRECTORY);
+
+    /**
+     * The callbacks a Cast remote display session delivers to the app.
+     */
+    interface SessionCallbacks {
+        void onRemoteDisplaySessionStarted();
+
+        void onCreatePresentation();
+    }
+
+    /**
+     * Stands in for the Cast SDK: reports the session and the display after fixed latencies, on
+     * the benchmark's main thread.
+     */
+    static final class FakeCastSession {
+        private final ScheduledExecutorService mMainThread;
+        private final long mNegotiationMillis;
+        private final long mDisplayMillis;
+
+        FakeCastSession(ScheduledExecutorService mainThread, long negotiationMillis,
+                long displayMillis) {
+            mMainThread = mainThread;
+            mNegotiationMillis = negotiationMillis;
+            mDisplayMillis = displayMillis;
+        }
+
+        void start(final SessionCallbacks callbacks) {
+            mMainThread.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    callbacks.onRemoteDisplaySessionStarted();
+                    mMainThread.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            callbacks.onCreatePresentation();
+                        }
+                    }, mDisplayMillis, TimeUnit.MILLISECONDS);
+                }
+            }, mNegotiationMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+        int negotiationMillis = args.length > 1 ? Integer.parseInt(args[1])
+                : DEFAULT_NEGOTIATION_MS;
+        int displayMillis = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_DISPLAY_MS;
+
+        ScheduledExecutorService mainThread = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService warmStartPool = Executors.newFixedThreadPool(2);
+        long[][] stages = new long[StartupTrace.EVENT_COUNT][iterations];
+        long[] totals = new long[iterations];
+        StartupTrace trace = null;
+        try {
+            for (int i = -WARMUP_ITERATIONS; i < iterations; i++) {
+                trace = runOnce(mainThread, warmStartPool,
+                        new FakeCastSession(mainThread, negotiationMillis, displayMillis));
+                if (i < 0) {
+                    continue;
+                }
+                for (int event = 1; event < StartupTrace.EVENT_COUNT; event++) {
+                    stages[event][i] = trace.getDurationNanos(event - 1, event);
+                }
+                totals[i] = trace.getDurationNanos(StartupTrace.EVENT_MAIN_CREATE,
+                        StartupTrace.EVENT_FIRST_FRAME);
+            }
+        } finally {
+            mainThread.shutdown();
+            warmStartPool.shutdown();
+        }
+
+        System.out.println("Startup over " + iterations + " runs (negotiation "
+                + negotiationMillis + "ms, display " + displayMillis + "ms), in us:");
+        System.out.println(String.format("%-60s %10s %10s %10s", "stage", "min", "median",
+                "p90"));
+        for (int event = 1; event < StartupTrace.EVENT_COUNT; event++) {
+            report(StartupTrace.getEventName(event - 1) + " -> "
+                    + StartupTrace.getEventName(event), stages[event]);
+        }
+        report("total", totals);
+
+        // Every run must have recorded every stage, in order
+        boolean failed = false;
+        for (int event = 1; event < StartupTrace.EVENT_COUNT; event++) {
+            for (long nanos : stages[event]) {
+                failed |= nanos < 0;
+            }
+        }
+        failed |= trace != null && checkReconnect(trace);
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Selects a route again on a finished run's trace, as a reconnect does, and checks that the
+     * previous session's stages are gone. Returns true if any are left.
+     */
+    private static boolean checkReconnect(StartupTrace trace) {
+        trace.markSessionStart(StartupTrace.EVENT_ROUTE_SELECTED);
+        boolean failed = trace.size() != 1 || trace.hasEvent(StartupTrace.EVENT_MAIN_CREATE)
+                || trace.hasEvent(StartupTrace.EVENT_FIRST_FRAME);
+        if (failed) {
+            System.out.println("Reconnect kept " + (trace.size() - 1)
+                    + " events of the previous session");
+        }
+        return failed;
+    }
+
+    private static StartupTrace runOnce(final ScheduledExecutorService mainThread,
+            final ExecutorService warmStartPool, final FakeCastSession session)
+            throws Exception {
+        final StartupTrace trace = new StartupTrace(StartupTrace.DEFAULT_CAPACITY);
+        final CountDownLatch firstFrame = new CountDownLatch(1);
+        final RouteRegistry registry = new RouteRegistry(new MemoryStore());
+
+        mainThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                trace.mark(StartupTrace.EVENT_MAIN_CREATE);
+                registry.load(System.currentTimeMillis());
+                registry.start(new RouteRegistry.Discovery() {
+                    @Override
+                    public void setDiscoveryMode(int mode) {
+                    }
+                }, new RouteRegistry.Listener() {
+                    @Override
+                    public void onAvailableRoutesChanged(int count) {
+                    }
+
+                    @Override
+                    public void onLastUsedRouteAvailable(String deviceId) {
+                        // Reconnecting selects the route right away
+                        trace.markSessionStart(StartupTrace.EVENT_ROUTE_SELECTED);
+                        startCastService(trace, warmStartPool, session, firstFrame);
+                    }
+                });
+                // The fake router reports the last used device
+                registry.onRouteAdded(DEVICE_ID, "Fake TV", System.currentTimeMillis());
+            }
+        });
+        if (!firstFrame.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("First frame was never rendered");
+        }
+        return trace;
+    }
+
+    private static void startCastService(final StartupTrace trace,
+            ExecutorService warmStartPool, FakeCastSession session,
+            final CountDownLatch firstFrame) {
+        trace.markSessionStart(StartupTrace.EVENT_START_CAST_SERVICE);
+        final Future<Cube.Geometry> geometry = warmStartPool.submit(
+                new Callable<Cube.Geometry>() {
+                    @Override
+                    public Cube.Geometry call() {
+                        return Cube.createGeometry();
+                    }
+                });
+        session.start(new SessionCallbacks() {
+            @Override
+            public void onRemoteDisplaySessionStarted() {
+                trace.mark(StartupTrace.EVENT_SESSION_STARTED);
+            }
+
+            @Override
+            public void onCreatePresentation() {
+                trace.mark(StartupTrace.EVENT_CREATE_PRESENTATION);
+                SoftwareGlApi gl = new SoftwareGlApi(FRAME_WIDTH, FRAME_HEIGHT);
+                gl.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+                gl.glEnable(GLES20.GL_DEPTH_TEST);
+                gl.glEnable(GLES20.GL_BLEND);
+                gl.glBlendFunc(GLES20.GL_SRC_ALPHA,
+                        GLES20.GL_ONE_MINUS_SRC_ALPHA);
+                Cube cube;
+                try {
+                    cube = new Cube(gl, geometry.get(), new ShaderLibrary(gl,
+                            new ShaderLibrary.FileSourceLoader(SHADER_DIRECTORY)));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                trace.mark(StartupTrace.EVENT_SURFACE_CREATED);
+                gl.glClear(GLES20.GL_COLOR_BUFFER_BIT
+                        | GLES20.GL_DEPTH_BUFFER_BIT);
+                cube.draw(perspective(FRAME_WIDTH, FRAME_HEIGHT, 8.0f), false);
+                trace.markFirstFrame();
+                firstFrame.countDown();
+            }
+        });
+    }
+
+    /**
+     * {@link CubeRenderer}'s projection, looking down -z at a cube {@code distance} away.
+     */
+    private static float[] perspective(int width, int height, float distance) {
+        float[] projection = new float[16];
+        CubeRenderer.setProjection(projection, width, height);
+        float[] view = new float[16];
+        MatrixMath.setIdentityM(view, 0);
+        MatrixMath.translateM(view, 0, 0.0f, 0.0f, -distance);
+        float[] m = new float[16];
+        MatrixMath.multiplyMM(m, 0, projection, 0, view, 0);
+        return m;
+    }
+
+    private static void report(String name, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.println(String.format("%-60s %10d %10d %10d", name,
+                sorted[0] / 1000, sorted[sorted.length / 2] / 1000,
+                sorted[(int) (sorted.length * 0.9)] / 1000));
+    }
+
+    /**
+     * A registry store that remembers {@link #DEVICE_ID} as the last used device.
+     */
+    private static final class MemoryStore implements RouteRegistry.Store {
+        @Override
+        public void load(RouteRegistry registry) {
+            registry.restore(new RouteRegistry.DeviceRecord(DEVICE_ID, "Fake TV",
+                    System.currentTimeMillis()), true);
+        }
+
+        @Override
+        public void save(Collection<RouteRegistry.DeviceRecord> records,
+                String lastUsedDeviceId) {
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmark and self check of {@link Telemetry} and {@link TelemetryReader} on a plain JVM.
+ * <p>
+ * Measures the cost of reporting frames and events and what it allocates, then writes a
+ * scripted pair of Cast sessions and checks what the reader sums up, that rotation keeps the
+ * newest records within the file count and that a torn record ends a file. Files go to a
+ * temporary directory that is deleted afterwards.
+ * </p>
+ * <p>
+ * Usage: {@code TelemetryBenchmark [frames]}.
+ * </p>
+ */
+public final class TelemetryBenchmark {
+
+    private static final int DEFAULT_FRAMES = 2000000;
+    private static final int WARMUP_FRAMES = 1000000;
+    private static final long FRAME_NANOS = 16666667L;
+    // An event per this many frames
+    private static final int EVENT_INTERVAL = 100;
+
+    private TelemetryBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FRAMES;
+        File directory = new File(System.getProperty("java.io.tmpdir"),
+                "telemetry-benchmark-" + System.nanoTime());
+        boolean failed;
+        try {
+            failed = runRecording(new File(directory, "recording"), frames);
+            failed |= checkSessions(new File(directory, "sessions"));
+            failed |= checkRotation(new File(directory, "rotation"));
+            failed |= checkTornRecord(new File(directory, "torn"));
+        } finally {
+            delete(directory);
+        }
+        if (!AllocationCounter.isSupported()) {
+            System.out.println("allocation counting not supported by this VM");
+        }
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static boolean runRecording(File directory, int frames) throws IOException {
+        // Big enough not to rotate while measuring: an event and the window before it per
+        // interval, and a window per STATS_INTERVAL_NS in between
+        int total = WARMUP_FRAMES + frames;
+        int records = total / EVENT_INTERVAL * 2
+                + (int) (total / (Telemetry.STATS_INTERVAL_NS / FRAME_NANOS)) + 1024;
+        Telemetry telemetry = new Telemetry();
+        telemetry.open(directory, Telemetry.HEADER_SIZE + records * Telemetry.RECORD_SIZE, 1);
+        long time = System.nanoTime();
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            time = report(telemetry, i, time);
+        }
+
+        long startBytes = AllocationCounter.getCurrentThreadBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            time = report(telemetry, i, time);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = AllocationCounter.getAllocatedSince(startBytes);
+        telemetry.close();
+
+        int written = TelemetryReader.readAll(directory).size();
+        System.out.println(String.format(Locale.US,
+                "recording: %.1f ns per frame with an event every %d frames, %d records, "
+                        + "%d bytes allocated, %d dropped", elapsed / (double) frames,
+                EVENT_INTERVAL, written, allocated, telemetry.getDroppedCount()));
+        return allocated > AllocationCounter.MAX_STEADY_STATE_BYTES
+                || telemetry.getDroppedCount() != 0;
+    }
+
+    private static long report(Telemetry telemetry, int frame, long time) {
+        telemetry.onFrame(time, 5000000, false);
+        if (frame % EVENT_INTERVAL == EVENT_INTERVAL - 1) {
+            telemetry.mark(time, Telemetry.TYPE_QUALITY_TIER, frame % 5, 16666, 5000);
+        }
+        return time + FRAME_NANOS;
+    }
+
+    /**
+     * Two sessions: ten seconds at 60 fps with a hitch, a step down to 30 fps and a GL error,
+     * then a reconnect one and a half seconds before the second session, at 60 fps again.
+     */
+    private static boolean checkSessions(File directory) throws IOException {
+        Telemetry telemetry = new Telemetry();
+        telemetry.open(directory);
+        long time = System.nanoTime();
+        telemetry.mark(time, Telemetry.TYPE_SESSION, Telemetry.SESSION_SERVICE_CREATED, 0, 0);
+        telemetry.mark(time, Telemetry.TYPE_SESSION, Telemetry.SESSION_CAST_STARTED, 0, 0);
+        telemetry.mark(time, Telemetry.TYPE_SESSION, Telemetry.SESSION_PRESENTATION_CREATED, 7,
+                0);
+        time = frames(telemetry, time, 300, FRAME_NANOS);
+        time += 100000000L;
+        time = frames(telemetry, time, 300, FRAME_NANOS);
+        telemetry.mark(time, Telemetry.TYPE_QUALITY_TIER, 3, 21000, 15000);
+        time = frames(telemetry, time, 150, 2 * FRAME_NANOS);
+        telemetry.mark(time, Telemetry.TYPE_ERROR, Telemetry.ERROR_GL, 1282, 0);
+        telemetry.mark(time, Telemetry.TYPE_SESSION, Telemetry.SESSION_PRESENTATION_DISMISSED, 7,
+                0);
+        telemetry.mark(time, Telemetry.TYPE_SESSION, Telemetry.SESSION_SERVICE_DESTROYED, 0, 0);
+        telemetry.mark(time, Telemetry.TYPE_SESSION, Telemetry.SESSION_CAST_ENDED, 0, 0);
+
+        time += 5000000000L;
+        telemetry.mark(time, Telemetry.TYPE_RECONNECT, 0, 0, 0);
+        time += 1500000000L;
+        telemetry.mark(time, Telemetry.TYPE_SESSION, Telemetry.SESSION_SERVICE_CREATED, 0, 0);
+        telemetry.mark(time, Telemetry.TYPE_SESSION, Telemetry.SESSION_CAST_STARTED, 0, 0);
+        frames(telemetry, time, 600, FRAME_NANOS);
+        telemetry.close();
+
+        TelemetryReader.Summary summary = new TelemetryReader.Summary();
+        for (TelemetryReader.Record record : TelemetryReader.readAll(directory)) {
+            summary.add(record);
+        }
+        System.out.print(summary.format());
+        boolean ok = summary.getFrameCount() == 1350 && summary.getSessionCount() == 2
+                && summary.getTierFrameCount(0) == 1200 && summary.getTierFrameCount(3) == 150
+                && summary.getErrorCount(Telemetry.ERROR_GL) == 1
+                && summary.getRecordCount(Telemetry.TYPE_RECONNECT) == 1
+                && Math.abs(summary.getWindowIntervalPercentile(50) - FRAME_NANOS / 1000) <= 1;
+        if (!ok) {
+            System.out.println("sessions: summary doesn't match the script");
+        }
+        return !ok;
+    }
+
+    private static long frames(Telemetry telemetry, long time, int count, long interval) {
+        for (int i = 0; i < count; i++) {
+            telemetry.onFrame(time, interval / 3, false);
+            time += interval;
+        }
+        return time;
+    }
+
+    /**
+     * Ten files' worth of events into three files of 100 records.
+     */
+    private static boolean checkRotation(File directory) throws IOException {
+        int perFile = 100;
+        int fileCount = 3;
+        Telemetry telemetry = new Telemetry();
+        telemetry.open(directory, Telemetry.HEADER_SIZE + perFile * Telemetry.RECORD_SIZE,
+                fileCount);
+        int events = perFile * 10 + 42;
+        long time = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            telemetry.mark(time + i, Telemetry.TYPE_ERROR, Telemetry.ERROR_GL, i, 0);
+        }
+        telemetry.close();
+
+        int files = Telemetry.listFiles(directory).length;
+        List<TelemetryReader.Record> records = TelemetryReader.readAll(directory);
+        boolean ordered = true;
+        for (int i = 1; i < records.size(); i++) {
+            ordered &= records.get(i).getValue(0) == records.get(i - 1).getValue(0) + 1;
+        }
+        int last = records.isEmpty() ? -1 : records.get(records.size() - 1).getValue(0);
+        System.out.println(String.format(Locale.US,
+                "rotation: %d files, %d records, %s, last %d of %d", files, records.size(),
+                ordered ? "in order" : "out of order", last, events - 1));
+        return files != fileCount || records.size() != perFile * (fileCount - 1) + 42
+                || !ordered || last != events - 1;
+    }
+
+    /**
+     * A record whose type never made it to the file ends it.
+     */
+    private static boolean checkTornRecord(File directory) throws IOException {
+        Telemetry telemetry = new Telemetry();
+        telemetry.open(directory, 4096, 1);
+        long time = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            telemetry.mark(time + i, Telemetry.TYPE_RECONNECT, 0, 0, 0);
+        }
+        telemetry.close();
+
+        File file = Telemetry.listFiles(directory)[0];
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            access.seek(Telemetry.HEADER_SIZE + 7 * Telemetry.RECORD_SIZE + 8);
+            access.writeShort(0);
+        } finally {
+            access.close();
+        }
+        int records = TelemetryReader.read(file).size();
+        System.out.println("torn record: " + records + " of 10 read");
+        return records != 7;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
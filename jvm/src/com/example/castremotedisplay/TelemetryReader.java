@@ -0,0 +1,517 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads the files written by {@link Telemetry} and sums them up, on a plain JVM.
+ * <p>
+ * Usage: {@code TelemetryReader [-events] [-csv] <directory or file>...}, e.g. on a directory
+ * pulled with {@code adb pull /sdcard/Android/data/<package>/files/telemetry}. Prints a line
+ * per Cast session and a summary of everything: frame rate and intervals, time spent per
+ * quality tier, reconnects and errors. {@code -events} also prints every record but the frame
+ * records, {@code -csv} prints all records as CSV instead.
+ * </p>
+ */
+public final class TelemetryReader {
+
+    /**
+     * One record with its wall clock time.
+     */
+    public static final class Record {
+
+        private final int mSequence;
+        private final long mWallMillis;
+        private final long mTimeNanos;
+        private final int mType;
+        private final int mCode;
+        private final int[] mValues;
+
+        Record(int sequence, long wallMillis, long timeNanos, int type, int code, int[] values) {
+            mSequence = sequence;
+            mWallMillis = wallMillis;
+            mTimeNanos = timeNanos;
+            mType = type;
+            mCode = code;
+            mValues = values;
+        }
+
+        /**
+         * The sequence number of the file it was read from.
+         */
+        public int getSequence() {
+            return mSequence;
+        }
+
+        public long getWallMillis() {
+            return mWallMillis;
+        }
+
+        public long getTimeNanos() {
+            return mTimeNanos;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        public int getCode() {
+            return mCode;
+        }
+
+        public int getValue(int index) {
+            return mValues[index];
+        }
+
+        @Override
+        public String toString() {
+            String text = formatTime(mWallMillis) + " " + Telemetry.getTypeName(mType);
+            switch (mType) {
+                case Telemetry.TYPE_FRAME_STATS:
+                    return text + String.format(Locale.US,
+                            ": %d, interval %.1f ms, longest %.1f ms, work %.1f ms, longest "
+                                    + "%.1f ms%s", mValues[0], mValues[1] / 1000.0,
+                            mValues[2] / 1000.0, mValues[3] / 1000.0, mValues[4] / 1000.0,
+                            (mCode & Telemetry.FRAME_FLAG_BACKGROUND) != 0 ? ", background"
+                                    : "");
+                case Telemetry.TYPE_SESSION:
+                    return text + ": " + Telemetry.getSessionName(mCode)
+                            + (mValues[0] != 0 ? ", display " + mValues[0] : "");
+                case Telemetry.TYPE_QUALITY_TIER:
+                    return text + String.format(Locale.US,
+                            ": %d, at interval %.1f ms, work %.1f ms", mCode,
+                            mValues[0] / 1000.0, mValues[1] / 1000.0);
+                case Telemetry.TYPE_ERROR:
+                    return text + ": " + Telemetry.getErrorName(mCode) + " " + mValues[0];
+                default:
+                    return text;
+            }
+        }
+    }
+
+    /**
+     * Reads the records of one file, up to the first one without a type.
+     */
+    public static List<Record> read(File file) throws IOException {
+        byte[] bytes;
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+        try {
+            bytes = new byte[(int) access.length()];
+            access.readFully(bytes);
+        } finally {
+            access.close();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.length < Telemetry.HEADER_SIZE || buffer.getInt(0) != Telemetry.MAGIC) {
+            throw new IOException(file + " is not a telemetry file");
+        }
+        int version = buffer.getShort(4);
+        int recordSize = buffer.getShort(6);
+        if (version != Telemetry.VERSION || recordSize < Telemetry.RECORD_SIZE) {
+            throw new IOException(file + " has unknown version " + version);
+        }
+        int sequence = buffer.getInt(8);
+        long originMillis = buffer.getLong(16);
+        long originNanos = buffer.getLong(24);
+
+        List<Record> records = new ArrayList<Record>();
+        for (int position = Telemetry.HEADER_SIZE; position + recordSize <= bytes.length;
+                position += recordSize) {
+            int type = buffer.getShort(position + 8);
+            if (type == 0) {
+                break;
+            }
+            long timeNanos = buffer.getLong(position);
+            int[] values = new int[5];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer.getInt(position + 12 + i * 4);
+            }
+            records.add(new Record(sequence, originMillis + (timeNanos - originNanos) / 1000000,
+                    timeNanos, type, buffer.getShort(position + 10), values));
+        }
+        return records;
+    }
+
+    /**
+     * Reads a file, or every journal file in a directory, oldest first.
+     */
+    public static List<Record> readAll(File path) throws IOException {
+        File[] files = path.isDirectory() ? Telemetry.listFiles(path) : new File[] {path};
+        List<Record> records = new ArrayList<Record>();
+        for (File file : files) {
+            records.addAll(read(file));
+        }
+        return records;
+    }
+
+    /**
+     * Sums up records added in the order they were written.
+     */
+    public static final class Summary {
+
+        // A window whose longest interval is this many times its mean had a hitch
+        private static final int HITCH_FACTOR = 2;
+
+        private final int[] mTypeCounts = new int[Telemetry.TYPE_COUNT];
+        private int mOtherRecords;
+        private long mFirstWallMillis = Long.MAX_VALUE;
+        private long mLastWallMillis = Long.MIN_VALUE;
+
+        private long mFrames;
+        private long mRenderedMicros;
+        private long mWorkMicros;
+        private int mLongestIntervalMicros;
+        private int mLongestWorkMicros;
+        private int[] mWindowIntervals = new int[64];
+        private int mWindowCount;
+        private int mHitchWindows;
+        private int mBackgroundWindows;
+
+        private int mTier;
+        private long[] mTierFrames = new long[8];
+        private int mTierChanges;
+        private int mTierDowngrades;
+
+        private long mReconnectWallMillis = -1;
+        private int mReconnects;
+        private int mReconnectsWithSession;
+        private long mReconnectDelayMillis;
+
+        private final TreeMap<Integer, TreeMap<Integer, Integer>> mErrors =
+                new TreeMap<Integer, TreeMap<Integer, Integer>>();
+
+        private final List<Session> mSessions = new ArrayList<Session>();
+        private Session mSession;
+
+        public void add(Record record) {
+            int type = record.getType();
+            if (type > 0 && type < Telemetry.TYPE_COUNT) {
+                mTypeCounts[type]++;
+            } else {
+                mOtherRecords++;
+            }
+            long wall = record.getWallMillis();
+            mFirstWallMillis = Math.min(mFirstWallMillis, wall);
+            mLastWallMillis = Math.max(mLastWallMillis, wall);
+            if (mSession != null) {
+                mSession.mEndWallMillis = wall;
+            }
+            switch (type) {
+                case Telemetry.TYPE_FRAME_STATS:
+                    addFrames(record);
+                    break;
+                case Telemetry.TYPE_SESSION:
+                    addSession(record);
+                    break;
+                case Telemetry.TYPE_RECONNECT:
+                    mReconnects++;
+                    mReconnectWallMillis = wall;
+                    break;
+                case Telemetry.TYPE_QUALITY_TIER:
+                    mTierChanges++;
+                    if (record.getCode() > mTier) {
+                        mTierDowngrades++;
+                    }
+                    mTier = record.getCode();
+                    if (mSession != null) {
+                        mSession.mTierChanges++;
+                        mSession.mLowestTier = Math.max(mSession.mLowestTier, mTier);
+                    }
+                    break;
+                case Telemetry.TYPE_ERROR:
+                    addError(record);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void addFrames(Record record) {
+            int frames = record.getValue(0);
+            int meanInterval = record.getValue(1);
+            int longestInterval = record.getValue(2);
+            long rendered = (long) frames * meanInterval;
+            mFrames += frames;
+            mRenderedMicros += rendered;
+            mWorkMicros += (long) frames * record.getValue(3);
+            mLongestIntervalMicros = Math.max(mLongestIntervalMicros, longestInterval);
+            mLongestWorkMicros = Math.max(mLongestWorkMicros, record.getValue(4));
+            if (meanInterval > 0) {
+                if (mWindowCount == mWindowIntervals.length) {
+                    mWindowIntervals = Arrays.copyOf(mWindowIntervals, mWindowCount * 2);
+                }
+                mWindowIntervals[mWindowCount++] = meanInterval;
+                if (longestInterval > meanInterval * HITCH_FACTOR) {
+                    mHitchWindows++;
+                }
+            }
+            if ((record.getCode() & Telemetry.FRAME_FLAG_BACKGROUND) != 0) {
+                mBackgroundWindows++;
+            }
+            if (mTier >= mTierFrames.length) {
+                mTierFrames = Arrays.copyOf(mTierFrames, mTier + 1);
+            }
+            mTierFrames[mTier] += frames;
+            if (mSession != null) {
+                mSession.mFrames += frames;
+                mSession.mRenderedMicros += rendered;
+                mSession.mLongestIntervalMicros = Math.max(mSession.mLongestIntervalMicros,
+                        longestInterval);
+            }
+        }
+
+        private void addSession(Record record) {
+            switch (record.getCode()) {
+                case Telemetry.SESSION_CAST_STARTED:
+                    mSession = new Session(record.getWallMillis());
+                    mSession.mLowestTier = mTier;
+                    mSessions.add(mSession);
+                    if (mReconnectWallMillis >= 0) {
+                        mReconnectsWithSession++;
+                        mReconnectDelayMillis += record.getWallMillis() - mReconnectWallMillis;
+                        mReconnectWallMillis = -1;
+                    }
+                    break;
+                case Telemetry.SESSION_CAST_ENDED:
+                case Telemetry.SESSION_SERVICE_DESTROYED:
+                    if (mSession != null) {
+                        mSession.mEnded = true;
+                        mSession = null;
+                    }
+                    break;
+                case Telemetry.SESSION_SERVICE_CREATED:
+                    // A new governor starts at the best tier
+                    mTier = 0;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void addError(Record record) {
+            TreeMap<Integer, Integer> details = mErrors.get(record.getCode());
+            if (details == null) {
+                details = new TreeMap<Integer, Integer>();
+                mErrors.put(record.getCode(), details);
+            }
+            Integer count = details.get(record.getValue(0));
+            details.put(record.getValue(0), count == null ? 1 : count + 1);
+        }
+
+        public int getRecordCount(int type) {
+            return mTypeCounts[type];
+        }
+
+        public long getFrameCount() {
+            return mFrames;
+        }
+
+        /**
+         * Frames rendered at the given tier.
+         */
+        public long getTierFrameCount(int tier) {
+            return tier < mTierFrames.length ? mTierFrames[tier] : 0;
+        }
+
+        public int getSessionCount() {
+            return mSessions.size();
+        }
+
+        public int getErrorCount(int error) {
+            TreeMap<Integer, Integer> details = mErrors.get(error);
+            int count = 0;
+            if (details != null) {
+                for (int value : details.values()) {
+                    count += value;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Mean interval of the windows in the given percentile, in microseconds.
+         */
+        public int getWindowIntervalPercentile(int percentile) {
+            if (mWindowCount == 0) {
+                return 0;
+            }
+            int[] sorted = Arrays.copyOf(mWindowIntervals, mWindowCount);
+            Arrays.sort(sorted);
+            return sorted[Math.min(mWindowCount - 1, mWindowCount * percentile / 100)];
+        }
+
+        public String format() {
+            StringBuilder builder = new StringBuilder();
+            int records = mOtherRecords;
+            for (int count : mTypeCounts) {
+                records += count;
+            }
+            if (records == 0) {
+                return "no records\n";
+            }
+            builder.append(String.format(Locale.US, "%d records, %s to %s\n", records,
+                    formatTime(mFirstWallMillis), formatTime(mLastWallMillis)));
+            builder.append(String.format(Locale.US,
+                    "frames: %d in %s, %.1f fps, work %.1f ms; window interval p50 %.1f ms, "
+                            + "p95 %.1f ms; longest interval %.1f ms, work %.1f ms\n",
+                    mFrames, formatDuration(mRenderedMicros / 1000), fps(mFrames,
+                            mRenderedMicros), mFrames > 0 ? mWorkMicros / 1000.0 / mFrames : 0,
+                    getWindowIntervalPercentile(50) / 1000.0,
+                    getWindowIntervalPercentile(95) / 1000.0, mLongestIntervalMicros / 1000.0,
+                    mLongestWorkMicros / 1000.0));
+            builder.append(String.format(Locale.US,
+                    "  %d of %d windows with hitches, %d throttled in the background\n",
+                    mHitchWindows, mWindowCount, mBackgroundWindows));
+            builder.append("quality tiers:");
+            for (int tier = 0; tier < mTierFrames.length; tier++) {
+                if (mTierFrames[tier] > 0) {
+                    builder.append(String.format(Locale.US, " %d %.1f%%", tier,
+                            mTierFrames[tier] * 100.0 / mFrames));
+                }
+            }
+            builder.append(String.format(Locale.US, " of frames; %d changes, %d down\n",
+                    mTierChanges, mTierDowngrades));
+            builder.append(String.format(Locale.US, "reconnects: %d", mReconnects));
+            if (mReconnectsWithSession > 0) {
+                builder.append(String.format(Locale.US, ", session %.1f s later on average",
+                        mReconnectDelayMillis / 1000.0 / mReconnectsWithSession));
+            }
+            builder.append('\n');
+            builder.append("errors:");
+            if (mErrors.isEmpty()) {
+                builder.append(" none");
+            }
+            for (Map.Entry<Integer, TreeMap<Integer, Integer>> error : mErrors.entrySet()) {
+                builder.append(' ').append(Telemetry.getErrorName(error.getKey()))
+                        .append(' ').append(getErrorCount(error.getKey())).append(" (");
+                boolean first = true;
+                for (Map.Entry<Integer, Integer> detail : error.getValue().entrySet()) {
+                    builder.append(first ? "" : ", ").append(detail.getKey()).append(" x")
+                            .append(detail.getValue());
+                    first = false;
+                }
+                builder.append(')');
+            }
+            builder.append('\n');
+            builder.append(String.format(Locale.US, "sessions: %d\n", mSessions.size()));
+            for (Session session : mSessions) {
+                builder.append("  ").append(session).append('\n');
+            }
+            return builder.toString();
+        }
+    }
+
+    private static final class Session {
+
+        final long mStartWallMillis;
+        long mEndWallMillis;
+        boolean mEnded;
+        long mFrames;
+        long mRenderedMicros;
+        int mLongestIntervalMicros;
+        int mTierChanges;
+        int mLowestTier;
+
+        Session(long startWallMillis) {
+            mStartWallMillis = startWallMillis;
+            mEndWallMillis = startWallMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s %s%s: %d frames, %.1f fps, longest interval %.1f ms, %d tier changes, "
+                            + "lowest tier %d", formatTime(mStartWallMillis),
+                    formatDuration(mEndWallMillis - mStartWallMillis), mEnded ? "" : " (open)",
+                    mFrames, fps(mFrames, mRenderedMicros), mLongestIntervalMicros / 1000.0,
+                    mTierChanges, mLowestTier);
+        }
+    }
+
+    private static double fps(long frames, long micros) {
+        return micros > 0 ? frames * 1000000.0 / micros : 0;
+    }
+
+    static String formatTime(long wallMillis) {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US)
+                .format(new Date(wallMillis));
+    }
+
+    private static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        return seconds >= 3600
+                ? String.format(Locale.US, "%dh %02dm", seconds / 3600, seconds / 60 % 60)
+                : String.format(Locale.US, "%dm %02ds", seconds / 60, seconds % 60);
+    }
+
+    private static String toCsv(Record record) {
+        return String.format(Locale.US, "%d,%d,%d,%s,%d,%d,%d,%d,%d,%d", record.getSequence(),
+                record.getWallMillis(), record.getTimeNanos(),
+                Telemetry.getTypeName(record.getType()), record.getCode(), record.getValue(0),
+                record.getValue(1), record.getValue(2), record.getValue(3), record.getValue(4));
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean events = false;
+        boolean csv = false;
+        List<File> paths = new ArrayList<File>();
+        for (String arg : args) {
+            if (arg.equals("-events")) {
+                events = true;
+            } else if (arg.equals("-csv")) {
+                csv = true;
+            } else {
+                paths.add(new File(arg));
+            }
+        }
+        if (paths.isEmpty()) {
+            System.err.println("Usage: TelemetryReader [-events] [-csv] <directory or file>...");
+            System.exit(2);
+        }
+
+        if (csv) {
+            System.out.println("file,wall_ms,time_ns,type,code,v0,v1,v2,v3,v4");
+        }
+        Summary summary = new Summary();
+        for (File path : paths) {
+            for (Record record : readAll(path)) {
+                if (csv) {
+                    System.out.println(toCsv(record));
+                } else if (events && record.getType() != Telemetry.TYPE_FRAME_STATS) {
+                    System.out.println(record);
+                }
+                summary.add(record);
+            }
+        }
+        if (!csv) {
+            System.out.print(summary.format());
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.castremotedisplay;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the bookkeeping behind {@link TextureManager}: which textures {@link TextureBudget}
+ * evicts, and the order and slicing of {@link TextureUploadQueue} with a fake clock. Runs on a
+ * plain JVM:
+ * <pre>
+ * java com.example.castremotedisplay.TextureBudgetCheck
+ * </pre>
+ * The budget must evict the least recently used textures first, never one used during the
+ * current frame, and nothing for a texture larger than the whole budget. The queue must run
+ * uploads in the order they were queued, stay within its time budget each frame, retry a step
+ * that has to wait, and run a step too large for any frame once it has stalled for
+ * {@link TextureUploadQueue#MAX_STALLED_FRAMES}.
+ */
+public final class TextureBudgetCheck {
+
+    private static final long KB = 1024;
+    private static final long UPLOAD_BUDGET_NS = 1000000L;
+
+    /**
+     * Records what was evicted, in order.
+     */
+    private static final class RecordingEvictor implements TextureBudget.Evictor<String> {
+        final List<String> mEvicted = new ArrayList<String>();
+
+        @Override
+        public void evict(String key) {
+            mEvicted.add(key);
+        }
+    }
+
+    private static final class FakeClock implements TextureUploadQueue.Clock {
+        long mNanos;
+
+        @Override
+        public long nanoTime() {
+            return mNanos;
+        }
+    }
+
+    /**
+     * An upload whose steps take as long as the queue initially estimates, and log their name.
+     */
+    private static final class FakeUpload implements TextureUploadQueue.Upload {
+        final String mName;
+        final long mStepBytes;
+        final FakeClock mClock;
+        final List<String> mLog;
+        int mStepsLeft;
+        int mWaits;
+
+        FakeUpload(String name, int steps, long stepBytes, FakeClock clock, List<String> log) {
+            mName = name;
+            mStepsLeft = steps;
+            mStepBytes = stepBytes;
+            mClock = clock;
+            mLog = log;
+        }
+
+        @Override
+        public long getNextStepBytes() {
+            return mStepBytes;
+        }
+
+        @Override
+        public int runStep() {
+            if (mWaits > 0) {
+                mWaits--;
+                mLog.add(mName + " wait");
+                return TextureUploadQueue.STEP_WAIT;
+            }
+            mClock.mNanos += (long) (mStepBytes * TextureUploadQueue.INITIAL_NANOS_PER_BYTE);
+            mStepsLeft--;
+            mLog.add(mName);
+            return mStepsLeft > 0 ? TextureUploadQueue.STEP_CONTINUE
+                    : TextureUploadQueue.STEP_DONE;
+        }
+    }
+
+    private TextureBudgetCheck() {
+    }
+
+    public static void main(String[] args) {
+        boolean failed = checkBudget();
+        failed |= checkUploadQueue();
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static boolean checkBudget() {
+        boolean failed = false;
+        RecordingEvictor evictor = new RecordingEvictor();
+        TextureBudget<String> budget = new TextureBudget<String>(100 * KB);
+
+        budget.beginFrame();
+        budget.add("a", 40 * KB);
+        budget.add("b", 40 * KB);
+        failed |= check("no room while all are in use", !budget.reserve(40 * KB, evictor)
+                && evictor.mEvicted.isEmpty() && budget.getUsedBytes() == 80 * KB);
+
+        budget.beginFrame();
+        budget.touch("a");
+        failed |= check("evicts what the frame doesn't use", budget.reserve(40 * KB, evictor)
+                && evictor.mEvicted.equals(list("b")) && budget.contains("a"));
+        budget.add("c", 40 * KB);
+
+        // a was used before c was added, so it goes first even though both are old now
+        budget.beginFrame();
+        evictor.mEvicted.clear();
+        failed |= check("evicts the least recently used", budget.reserve(30 * KB, evictor)
+                && evictor.mEvicted.equals(list("a")) && budget.contains("c"));
+        budget.add("d", 30 * KB);
+
+        evictor.mEvicted.clear();
+        failed |= check("larger than the budget", !budget.reserve(101 * KB, evictor)
+                && evictor.mEvicted.isEmpty() && budget.getResidentCount() == 2);
+
+        budget.setBudgetBytes(50 * KB);
+        budget.beginFrame();
+        budget.touch("d");
+        failed |= check("lowered budget evicts on reserve", budget.reserve(10 * KB, evictor)
+                && evictor.mEvicted.equals(list("c")) && budget.getUsedBytes() == 30 * KB);
+
+        budget.add("e", 10 * KB);
+        budget.beginFrame();
+        budget.touch("e");
+        evictor.mEvicted.clear();
+        failed |= check("idle release keeps what the frame used",
+                budget.evictUnused(1, evictor) == 1 && evictor.mEvicted.equals(list("d"))
+                        && budget.contains("e") && budget.getUsedBytes() == 10 * KB);
+        failed |= check("eviction count", budget.getEvictionCount() == 4);
+        return failed;
+    }
+
+    private static boolean checkUploadQueue() {
+        boolean failed = false;
+        FakeClock clock = new FakeClock();
+        List<String> log = new ArrayList<String>();
+        TextureUploadQueue queue = new TextureUploadQueue(clock);
+
+        // 128 KB steps take 262 us, so three fit in a frame
+        queue.enqueue(new FakeUpload("a", 4, 128 * KB, clock, log));
+        queue.enqueue(new FakeUpload("b", 2, 128 * KB, clock, log));
+        List<Integer> stepsPerFrame = new ArrayList<Integer>();
+        boolean overran = false;
+        for (int frame = 0; frame < 10 && !queue.isEmpty(); frame++) {
+            long start = clock.mNanos;
+            stepsPerFrame.add(queue.process(UPLOAD_BUDGET_NS));
+            overran |= clock.mNanos - start > UPLOAD_BUDGET_NS;
+        }
+        failed |= check("uploads run in queue order",
+                log.equals(list("a", "a", "a", "a", "b", "b")));
+        failed |= check("steps sliced to the budget " + stepsPerFrame,
+                !overran && stepsPerFrame.equals(list(3, 3)));
+
+        // A step that has to wait ends the frame and is retried first next frame
+        log.clear();
+        FakeUpload waiting = new FakeUpload("a", 1, 128 * KB, clock, log);
+        waiting.mWaits = 1;
+        queue.enqueue(waiting);
+        queue.enqueue(new FakeUpload("b", 1, 128 * KB, clock, log));
+        int first = queue.process(UPLOAD_BUDGET_NS);
+        int second = queue.process(UPLOAD_BUDGET_NS);
+        failed |= check("waiting step retried in order", first == 0 && second == 2
+                && log.equals(list("a wait", "a", "b")));
+
+        // 1 MB is estimated at twice the budget
+        log.clear();
+        queue.enqueue(new FakeUpload("big", 1, 1024 * KB, clock, log));
+        int stalled = 0;
+        while (queue.process(UPLOAD_BUDGET_NS) == 0 && stalled <= 10) {
+            stalled++;
+        }
+        failed |= check("oversized step runs after " + stalled + " stalled frames",
+                stalled == TextureUploadQueue.MAX_STALLED_FRAMES && log.equals(list("big")));
+
+        FakeUpload cancelled = new FakeUpload("c", 2, 128 * KB, clock, log);
+        queue.enqueue(cancelled);
+        queue.enqueue(new FakeUpload("d", 1, 128 * KB, clock, log));
+        log.clear();
+        queue.cancel(cancelled);
+        queue.process(UPLOAD_BUDGET_NS);
+        failed |= check("cancelled upload skipped", log.equals(list("d")) && queue.isEmpty());
+        return failed;
+    }
+
+    private static List<String> list(String... items) {
+        List<String> list = new ArrayList<String>();
+        for (String item : items) {
+            list.add(item);
+        }
+        return list;
+    }
+
+    private static List<Integer> list(int... items) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int item : items) {
+            list.add(item);
+        }
+        return list;
+    }
+
+    /**
+     * Prints an expectation. Returns true if it failed.
+     */
+    private static boolean check(String expectation, boolean passed) {
+        System.out.println(String.format("%-48s %s", expectation, passed ? "ok" : "<-- failed"));
+        return !passed;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * Decides how hard to render while the phone UI isn't visible.
+ * <p>
+ * The presentation keeps running when the user switches to another app, but that app then
+ * competes with the GL loop for the CPU and GPU. Once no controller UI has been visible for
+ * {@link #BACKGROUND_DELAY_NS} the policy enters {@link #MODE_BACKGROUND}, and after
+ * {@link #IDLE_DELAY_NS} more, or right away under memory pressure, {@link #MODE_IDLE}. The
+ * delay keeps activity recreation, e.g. on rotation, from throttling. A UI becoming visible
+ * restores {@link #MODE_FOREGROUND} immediately.
+ * </p>
+ * <p>
+ * Like {@link QualityGovernor} the policy never reads a clock: lifecycle events carry their own
+ * timestamps, and {@link #update(long)} must be called at {@link #getNextUpdateNanos()} for the
+ * delays to expire, so a recorded sequence of events can be replayed to check its decisions.
+ * Methods are synchronized; the listener is called on the thread delivering the event.
+ * </p>
+ */
+public class BackgroundPolicy {
+
+    /**
+     * A controller UI is visible: render at full quality.
+     */
+    public static final int MODE_FOREGROUND = 0;
+
+    /**
+     * Frame rate capped at {@link #BACKGROUND_MAX_FPS}, rendering at lower priority and
+     * diagnostics like the HUD and pass timing suspended.
+     */
+    public static final int MODE_BACKGROUND = 1;
+
+    /**
+     * Background for long, so caches that are idle, like unused textures and diagnostics'
+     * GL objects, are released as well.
+     */
+    public static final int MODE_IDLE = 2;
+
+    public static final int BACKGROUND_MAX_FPS = 15;
+    public static final long BACKGROUND_DELAY_NS = 1000000000L;
+    public static final long IDLE_DELAY_NS = 30000000000L;
+
+    /**
+     * Notified when the mode changes.
+     */
+    public interface Listener {
+        void onBackgroundModeChanged(int mode);
+    }
+
+    private Listener mListener;
+    private int mMode = MODE_FOREGROUND;
+    private int mVisibleCount;
+    // When the last UI was hidden, or -1 while one is visible
+    private long mHiddenSinceNanos = -1;
+
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public synchronized int getMode() {
+        return mMode;
+    }
+
+    /**
+     * A controller UI became visible, e.g. its activity was started.
+     */
+    public synchronized void onUiShown(long nowNanos) {
+        mVisibleCount++;
+        mHiddenSinceNanos = -1;
+        setMode(MODE_FOREGROUND);
+    }
+
+    /**
+     * A controller UI is no longer visible, e.g. its activity was stopped.
+     */
+    public synchronized void onUiHidden(long nowNanos) {
+        // The UI may have been shown before the policy existed, so this can come unpaired
+        if (mVisibleCount > 0) {
+            mVisibleCount--;
+        }
+        if (mVisibleCount == 0 && mHiddenSinceNanos < 0) {
+            mHiddenSinceNanos = nowNanos;
+        }
+        update(nowNanos);
+    }
+
+    /**
+     * The system is running low on memory: release idle caches now if in the background.
+     */
+    public synchronized void onMemoryPressure(long nowNanos) {
+        if (mMode != MODE_FOREGROUND) {
+            setMode(MODE_IDLE);
+        }
+    }
+
+    /**
+     * Lets pending delays expire.
+     */
+    public synchronized void update(long nowNanos) {
+        if (mHiddenSinceNanos < 0) {
+            return;
+        }
+        long hiddenNanos = nowNanos - mHiddenSinceNanos;
+        if (hiddenNanos >= BACKGROUND_DELAY_NS + IDLE_DELAY_NS) {
+            setMode(MODE_IDLE);
+        } else if (hiddenNanos >= BACKGROUND_DELAY_NS && mMode == MODE_FOREGROUND) {
+            setMode(MODE_BACKGROUND);
+        }
+    }
+
+    /**
+     * When {@link #update(long)} has to be called next for a pending change, or -1 if none is
+     * pending.
+     */
+    public synchronized long getNextUpdateNanos() {
+        if (mHiddenSinceNanos < 0 || mMode == MODE_IDLE) {
+            return -1;
+        }
+        return mHiddenSinceNanos + (mMode == MODE_FOREGROUND ? BACKGROUND_DELAY_NS
+                : BACKGROUND_DELAY_NS + IDLE_DELAY_NS);
+    }
+
+    private void setMode(int mode) {
+        if (mode == mMode) {
+            return;
+        }
+        mMode = mode;
+        if (mListener != null) {
+            mListener.onBackgroundModeChanged(mode);
+        }
+    }
+}
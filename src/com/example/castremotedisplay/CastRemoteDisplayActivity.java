@@ -17,7 +17,6 @@
 package com.example.castremotedisplay;
 
 import com.google.android.gms.cast.CastDevice;
-import com.google.android.gms.cast.CastMediaControlIntent;
 import com.google.android.gms.cast.CastRemoteDisplayLocalService;
 import com.google.android.gms.common.api.Status;
 
@@ -38,6 +37,10 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * <h3>CastRemoteDisplayActivity</h3>
  * <p>
@@ -58,6 +61,10 @@ import android.widget.Toast;
 public class CastRemoteDisplayActivity extends ActionBarActivity {
 
     private final String TAG = "CastRDisplayActivity";
+    private static final String STARTUP_TRACE_FILE = "startup_trace.json";
+
+    // The trace session last written, as the activity stops and starts again while casting
+    private static int sExportedTraceSession = -1;
 
     // Second screen
     private Toolbar mToolbar;
@@ -68,6 +75,10 @@ public class CastRemoteDisplayActivity extends ActionBarActivity {
 
     private CastDevice mCastDevice;
 
+    // Sends scene changes to the presentation service
+    private final SceneController mSceneController = new SceneController(new ServiceTransport());
+    private final SceneDelta mServiceSceneState = new SceneDelta();
+
     /**
      * Initialization of the Activity after it is first created. Must at least
      * call {@link android.app.Activity#setContentView setContentView()} to
@@ -87,19 +98,34 @@ public class CastRemoteDisplayActivity extends ActionBarActivity {
             @Override
             public void onClick(View v) {
                 // Change the remote display animation color when the button is clicked
-                PresentationService presentationService
-                        = (PresentationService) CastRemoteDisplayLocalService.getInstance();
-                if (presentationService != null) {
-                    presentationService.changeColor();
+                if (!syncSceneState()) {
+                    return;
+                }
+                mSceneController.setBoolean(SceneProtocol.FIELD_COLOR_CHANGED,
+                        !mSceneController.getBoolean(SceneProtocol.FIELD_COLOR_CHANGED, false));
+                mSceneController.flush();
+            }
+        });
+        button.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                // Hidden gesture: toggle the performance HUD on the remote display
+                if (!syncSceneState()) {
+                    return false;
                 }
+                boolean shown = !mSceneController.getBoolean(SceneProtocol.FIELD_DEBUG_HUD, false);
+                mSceneController.setBoolean(SceneProtocol.FIELD_DEBUG_HUD, shown);
+                mSceneController.flush();
+                Toast.makeText(getApplicationContext(),
+                        shown ? R.string.debug_hud_shown : R.string.debug_hud_hidden,
+                        Toast.LENGTH_SHORT).show();
+                return true;
             }
         });
 
         mMediaRouter = MediaRouter.getInstance(getApplicationContext());
-        mMediaRouteSelector = new MediaRouteSelector.Builder()
-                .addControlCategory(
-                        CastMediaControlIntent.categoryForCast(getString(R.string.app_id)))
-                .build();
+        // The selector is shared with MainActivity so it isn't rebuilt on every launch
+        mMediaRouteSelector = CastRoutes.getSelector(this);
         if (isRemoteDisplaying()) {
             // The Activity has been recreated and we have an active remote display session,
             // so we need to set the selected device instance
@@ -113,8 +139,8 @@ public class CastRemoteDisplayActivity extends ActionBarActivity {
             }
         }
 
-        mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback,
-                MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY);
+        // Only route selection changes are needed here; MainActivity does the discovery
+        mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback, 0);
     }
 
     private void setupActionBar() {
@@ -157,12 +183,82 @@ public class CastRemoteDisplayActivity extends ActionBarActivity {
         }
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        setUiVisible(true);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        setUiVisible(false);
+        exportStartupTrace();
+    }
+
+    /**
+     * Starts the scene controller from the presentation service's state, which outlives this
+     * activity and may have been changed by other controllers, so toggles flip what the remote
+     * display actually shows.
+     *
+     * @return False if the service isn't running.
+     */
+    private boolean syncSceneState() {
+        PresentationService presentationService
+                = (PresentationService) CastRemoteDisplayLocalService.getInstance();
+        if (presentationService == null) {
+            return false;
+        }
+        presentationService.getSceneState(mServiceSceneState);
+        mSceneController.setSentState(mServiceSceneState);
+        return true;
+    }
+
+    /**
+     * Lets the presentation throttle while this activity isn't visible.
+     */
+    private static void setUiVisible(boolean visible) {
+        PresentationService presentationService
+                = (PresentationService) CastRemoteDisplayLocalService.getInstance();
+        if (presentationService != null) {
+            presentationService.onUiVisibilityChanged(visible);
+        }
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
         mMediaRouter.removeCallback(mMediaRouterCallback);
     }
 
+    /**
+     * Writes the startup trace to the app's external files directory once the first frame has
+     * been rendered, so it can be pulled with <code>adb pull</code>. Each session's trace is
+     * written once.
+     */
+    private void exportStartupTrace() {
+        final StartupTrace trace = StartupTrace.get();
+        final File directory = getExternalFilesDir(null);
+        int session = trace.getSession();
+        if (directory == null || !trace.hasEvent(StartupTrace.EVENT_FIRST_FRAME)
+                || session == sExportedTraceSession) {
+            return;
+        }
+        sExportedTraceSession = session;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                File file = new File(directory, STARTUP_TRACE_FILE);
+                try {
+                    trace.writeChromeTrace(file);
+                    Log.d(TAG, "Startup trace written to " + file);
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to write startup trace", e);
+                }
+            }
+        }, "StartupTraceExport").start();
+    }
+
     private boolean isRemoteDisplaying() {
         return CastRemoteDisplayLocalService.getInstance() != null;
     }
@@ -204,21 +300,28 @@ public class CastRemoteDisplayActivity extends ActionBarActivity {
 
                 @Override
                 public void onRouteUnselected(MediaRouter router, RouteInfo info) {
+                    Telemetry.get().markSession(Telemetry.SESSION_CAST_ENDED, 0);
+                    Telemetry.get().flush();
                     if (isRemoteDisplaying()) {
                         CastRemoteDisplayLocalService.stopService();
                     }
+                    WarmStart.reset();
                     mCastDevice = null;
                     CastRemoteDisplayActivity.this.finish();
                 }
             };
 
     private void startCastService(CastDevice castDevice) {
+        StartupTrace.get().markSessionStart(StartupTrace.EVENT_START_CAST_SERVICE);
         Intent intent = new Intent(CastRemoteDisplayActivity.this,
                 CastRemoteDisplayActivity.class);
         intent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
         PendingIntent notificationPendingIntent = PendingIntent.getActivity(
                 CastRemoteDisplayActivity.this, 0, intent, 0);
 
+        // Prepare the presentation's resources while the session is negotiated
+        WarmStart.start(this);
+
         CastRemoteDisplayLocalService.NotificationSettings settings =
                 new CastRemoteDisplayLocalService.NotificationSettings.Builder()
                         .setNotificationPendingIntent(notificationPendingIntent).build();
@@ -230,19 +333,44 @@ public class CastRemoteDisplayActivity extends ActionBarActivity {
                     @Override
                     public void onRemoteDisplaySessionStarted(
                             CastRemoteDisplayLocalService service) {
+                        StartupTrace.get().mark(StartupTrace.EVENT_SESSION_STARTED);
+                        Telemetry.get().markSession(Telemetry.SESSION_CAST_STARTED, 0);
                         Log.d(TAG, "onServiceStarted");
+                        if (mCastDevice != null) {
+                            // Offer this device next time for a quick reconnect
+                            CastRoutes.getRegistry(CastRemoteDisplayActivity.this).markUsed(
+                                    mCastDevice.getDeviceId(), mCastDevice.getFriendlyName(),
+                                    System.currentTimeMillis());
+                        }
                     }
 
                     @Override
                     public void onRemoteDisplaySessionError(Status errorReason) {
                         int code = errorReason.getStatusCode();
                         Log.d(TAG, "onServiceError: " + errorReason.getStatusCode());
+                        Telemetry.get().markError(Telemetry.ERROR_CAST_SESSION, code);
                         initError();
 
+                        CastRoutes.getRegistry(CastRemoteDisplayActivity.this).clearLastUsed();
+                        WarmStart.reset();
                         mCastDevice = null;
                         CastRemoteDisplayActivity.this.finish();
                     }
                 });
     }
 
+    /**
+     * Hands messages to the presentation service running in this process, if any.
+     */
+    private static final class ServiceTransport implements SceneController.Transport {
+        @Override
+        public boolean send(ByteBuffer message, MessagePool pool) {
+            PresentationService presentationService
+                    = (PresentationService) CastRemoteDisplayLocalService.getInstance();
+            boolean delivered = presentationService != null
+                    && presentationService.getSceneReceiver().onMessage(message);
+            pool.release(message);
+            return delivered;
+        }
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import com.google.android.gms.cast.CastDevice;
+import com.google.android.gms.cast.CastMediaControlIntent;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.v7.media.MediaRouteSelector;
+import android.support.v7.media.MediaRouter;
+import android.support.v7.media.MediaRouter.RouteInfo;
+import android.util.Log;
+
+import java.util.Collection;
+
+/**
+ * Process wide access to the Cast {@link MediaRouteSelector} and the {@link RouteRegistry}, plus
+ * the Android implementations of the registry's {@link RouteRegistry.Store} and
+ * {@link RouteRegistry.Discovery}.
+ */
+public final class CastRoutes {
+
+    private static final String TAG = "CastRoutes";
+
+    private static final String PREFS_NAME = "cast_routes";
+    private static final String PREF_DEVICES = "devices";
+    private static final String PREF_LAST_USED = "last_used";
+
+    private static final String JSON_ID = "id";
+    private static final String JSON_NAME = "name";
+    private static final String JSON_LAST_SEEN = "lastSeen";
+
+    private static MediaRouteSelector sSelector;
+    private static RouteRegistry sRegistry;
+
+    private CastRoutes() {
+    }
+
+    /**
+     * Returns the selector for this app's Cast routes. It is built once per process.
+     */
+    public static synchronized MediaRouteSelector getSelector(Context context) {
+        if (sSelector == null) {
+            sSelector = new MediaRouteSelector.Builder()
+                    .addControlCategory(CastMediaControlIntent.categoryForCast(
+                            context.getString(R.string.app_id)))
+                    .build();
+        }
+        return sSelector;
+    }
+
+    /**
+     * Returns the registry, loading the persisted records on first use.
+     */
+    public static synchronized RouteRegistry getRegistry(Context context) {
+        if (sRegistry == null) {
+            sRegistry = new RouteRegistry(
+                    new PreferencesStore(context.getApplicationContext()));
+            sRegistry.load(System.currentTimeMillis());
+        }
+        return sRegistry;
+    }
+
+    /**
+     * Returns the Cast device behind a route, or null if it isn't a Cast route.
+     */
+    public static CastDevice getCastDevice(RouteInfo route) {
+        return route.getExtras() != null ? CastDevice.getFromBundle(route.getExtras()) : null;
+    }
+
+    /**
+     * Finds a currently known route for the given device ID.
+     */
+    public static RouteInfo findRoute(MediaRouter router, MediaRouteSelector selector,
+            String deviceId) {
+        for (RouteInfo route : router.getRoutes()) {
+            if (!route.isDefault() && route.matchesSelector(selector)) {
+                CastDevice device = getCastDevice(route);
+                if (device != null && deviceId.equals(device.getDeviceId())) {
+                    return route;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Persists the registry in {@link SharedPreferences} as a JSON array.
+     */
+    private static final class PreferencesStore implements RouteRegistry.Store {
+
+        private final SharedPreferences mPreferences;
+
+        PreferencesStore(Context context) {
+            mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        }
+
+        @Override
+        public void load(RouteRegistry registry) {
+            String lastUsed = mPreferences.getString(PREF_LAST_USED, null);
+            try {
+                JSONArray devices = new JSONArray(mPreferences.getString(PREF_DEVICES, "[]"));
+                for (int i = 0; i < devices.length(); i++) {
+                    JSONObject device = devices.getJSONObject(i);
+                    String id = device.getString(JSON_ID);
+                    registry.restore(new RouteRegistry.DeviceRecord(id,
+                                    device.optString(JSON_NAME),
+                                    device.optLong(JSON_LAST_SEEN)),
+                            id.equals(lastUsed));
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "Discarding unreadable route registry", e);
+            }
+        }
+
+        @Override
+        public void save(Collection<RouteRegistry.DeviceRecord> records, String lastUsedDeviceId) {
+            JSONArray devices = new JSONArray();
+            try {
+                for (RouteRegistry.DeviceRecord record : records) {
+                    JSONObject device = new JSONObject();
+                    device.put(JSON_ID, record.getDeviceId());
+                    device.put(JSON_NAME, record.getFriendlyName());
+                    device.put(JSON_LAST_SEEN, record.getLastSeenMillis());
+                    devices.put(device);
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "Unable to save route registry", e);
+                return;
+            }
+            mPreferences.edit()
+                    .putString(PREF_DEVICES, devices.toString())
+                    .putString(PREF_LAST_USED, lastUsedDeviceId)
+                    .apply();
+        }
+    }
+
+    /**
+     * Drives {@link MediaRouter} discovery for the registry. Active scanning is expensive, so it
+     * is only requested until a route is known; after that the router is left to discover
+     * passively.
+     */
+    public static final class MediaRouterDiscovery extends RouteRegistry.CallbackDiscovery {
+
+        private final MediaRouter mRouter;
+        private final MediaRouteSelector mSelector;
+        private final MediaRouter.Callback mCallback;
+
+        public MediaRouterDiscovery(MediaRouter router, MediaRouteSelector selector,
+                MediaRouter.Callback callback) {
+            mRouter = router;
+            mSelector = selector;
+            mCallback = callback;
+        }
+
+        @Override
+        protected void addCallback(boolean activeScan) {
+            int flags = MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY;
+            if (activeScan) {
+                flags |= MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN;
+            }
+            mRouter.addCallback(mSelector, mCallback, flags);
+        }
+
+        @Override
+        protected void removeCallback() {
+            mRouter.removeCallback(mCallback);
+        }
+
+        @Override
+        protected void reportKnownRoutes() {
+            for (RouteInfo route : mRouter.getRoutes()) {
+                if (!route.isDefault() && route.matchesSelector(mSelector)) {
+                    mCallback.onRouteAdded(mRouter, route);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.nio.Buffer;
+
+/**
+ * Forwards to another {@link GlApi} and counts the calls, for the debug HUD.
+ * <p>
+ * Counting is a field increment per call, cheap enough to leave on. The counts are only
+ * touched on the GL thread.
+ * </p>
+ */
+public final class CountingGlApi implements GlApi {
+
+    private final GlApi mDelegate;
+    private int mCallCount;
+    private int mDrawCallCount;
+
+    public CountingGlApi(GlApi delegate) {
+        mDelegate = delegate;
+    }
+
+    public GlApi getDelegate() {
+        return mDelegate;
+    }
+
+    /**
+     * Calls since the last {@link #resetCounts()}.
+     */
+    public int getCallCount() {
+        return mCallCount;
+    }
+
+    public int getDrawCallCount() {
+        return mDrawCallCount;
+    }
+
+    public void resetCounts() {
+        mCallCount = 0;
+        mDrawCallCount = 0;
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        mCallCount++;
+        mDelegate.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        mCallCount++;
+        mDelegate.glClear(mask);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        mCallCount++;
+        mDelegate.glEnable(cap);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        mCallCount++;
+        mDelegate.glDisable(cap);
+    }
+
+    @Override
+    public void glDepthFunc(int func) {
+        mCallCount++;
+        mDelegate.glDepthFunc(func);
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        mCallCount++;
+        mDelegate.glBlendFunc(sfactor, dfactor);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        mCallCount++;
+        mDelegate.glViewport(x, y, width, height);
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        mCallCount++;
+        return mDelegate.glCreateShader(type);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        mCallCount++;
+        mDelegate.glShaderSource(shader, string);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        mCallCount++;
+        mDelegate.glCompileShader(shader);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        mCallCount++;
+        mDelegate.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        mCallCount++;
+        return mDelegate.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        mCallCount++;
+        mDelegate.glDeleteShader(shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        mCallCount++;
+        return mDelegate.glCreateProgram();
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        mCallCount++;
+        mDelegate.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        mCallCount++;
+        mDelegate.glLinkProgram(program);
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        mCallCount++;
+        mDelegate.glGetProgramiv(program, pname, params, offset);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        mCallCount++;
+        return mDelegate.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        mCallCount++;
+        mDelegate.glDeleteProgram(program);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        mCallCount++;
+        mDelegate.glUseProgram(program);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        mCallCount++;
+        return mDelegate.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        mCallCount++;
+        return mDelegate.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        mCallCount++;
+        mDelegate.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        mCallCount++;
+        mDelegate.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset) {
+        mCallCount++;
+        mDelegate.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+            Buffer ptr) {
+        mCallCount++;
+        mDelegate.glVertexAttribPointer(index, size, type, normalized, stride, ptr);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        mCallCount++;
+        mDrawCallCount++;
+        mDelegate.glDrawElements(mode, count, type, indices);
+    }
+
+    @Override
+    public int glGetError() {
+        mCallCount++;
+        return mDelegate.glGetError();
+    }
+}
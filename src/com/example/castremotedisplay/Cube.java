@@ -19,8 +19,7 @@ package com.example.castremotedisplay;
 import android.opengl.GLES20;
 import android.util.Log;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 
@@ -31,30 +30,10 @@ public class Cube {
 
     private static final String TAG = "Cube";
 
-    private static final String VERTEX_SHADER_CODE =
-            // This matrix member variable provides a hook to manipulate
-            // the coordinates of the objects that use this vertex shader
-            "uniform mat4 uMVPMatrix;" +
-                    "attribute vec4 vPosition;" +
-                    "attribute vec4 vColor;" +
-                    "varying vec4 aColor;" +
-                    "void main() {" +
-                    "aColor = vColor;" +
-                    // The matrix must be included as a modifier of gl_Position.
-                    // Note that the uMVPMatrix factor *must be first* in order
-                    // for the matrix multiplication product to be correct.
-                    "  gl_Position = uMVPMatrix * vPosition;" +
-                    "}";
-
-    private static final String FRAGMENT_SHADER_CODE =
-            "precision mediump float;" +
-                    "varying vec4 aColor;" +
-                    "void main() {" +
-                    "  gl_FragColor = aColor;" +
-                    "}";
-
-    private static final int BYTES_PER_FLOAT = 4;
-    private static final int BYTES_PER_SHORT = 2;
+    // Sources in the shader library, with per vertex colors
+    private static final String VERTEX_SHADER = "cube.vert";
+    private static final String FRAGMENT_SHADER = "cube.frag";
+    private static final int SHADER_FEATURES = ShaderLibrary.FEATURE_VERTEX_COLOR;
 
     // Number of coordinates per vertex in this array
     private static final int COORDS_PER_VERTEX = 3;
@@ -105,59 +84,131 @@ public class Cube {
             3, 0, 1, 3, 1, 2
     };
 
-    private int mProgram;
+    private final ShaderLibrary.Program mProgram;
     private int mPositionHandle;
     private int mColor;
     private int mMVPMatrixHandle;
 
-    private FloatBuffer mVertexBuffer;
-    private FloatBuffer mColor1Buffer;
-    private FloatBuffer mColor2Buffer;
-    private ShortBuffer mIndexBuffer;
-
-    public Cube() {
-        // Prepare shaders and OpenGL program
-        int vertexShader = loadShader(
-                GLES20.GL_VERTEX_SHADER,
-                VERTEX_SHADER_CODE);
-        if (vertexShader == 0) {
-            Log.e(TAG, "Vertex shader failed");
-            return;
-        }
-        int fragmentShader = loadShader(
-                GLES20.GL_FRAGMENT_SHADER,
-                FRAGMENT_SHADER_CODE);
-        if (fragmentShader == 0) {
-            Log.e(TAG, "Fragment shader failed");
-            return;
+    private final GlApi mGl;
+
+    // Geometry created by this cube rather than shared with others
+    private Geometry mOwnGeometry;
+    private final FloatBuffer mVertexBuffer;
+    private final FloatBuffer mColor1Buffer;
+    private final FloatBuffer mColor2Buffer;
+    private final ShortBuffer mIndexBuffer;
+    private final int mIndexCount;
+
+    /**
+     * Creates the cube using geometry that was prepared ahead of time, see
+     * {@link #createGeometry()}. Its program is built when first drawn.
+     *
+     * @param gl       - The GL implementation to issue calls to, for example a
+     *                 {@link SoftwareGlApi} when rendering without a GPU.
+     * @param geometry - Prepared geometry, or null to create it now.
+     * @param shaders  - Where to get the program from, for the current context.
+     */
+    public Cube(GlApi gl, Geometry geometry, ShaderLibrary shaders) {
+        mGl = gl;
+        if (geometry == null) {
+            geometry = createGeometry();
+            mOwnGeometry = geometry;
         }
+        mVertexBuffer = geometry.mVertexBuffer;
+        mColor1Buffer = geometry.mColor1Buffer;
+        mColor2Buffer = geometry.mColor2Buffer;
+        mIndexBuffer = geometry.mIndexBuffer;
+        mIndexCount = geometry.mIndexCount;
+        mProgram = shaders.getProgram(VERTEX_SHADER, FRAGMENT_SHADER, SHADER_FEATURES);
+    }
 
-        mProgram = GLES20.glCreateProgram();             // create empty OpenGL Program
-        GLES20.glAttachShader(mProgram, vertexShader);   // add the vertex shader to program
-        GLES20.glAttachShader(mProgram, fragmentShader); // add the fragment shader to program
-        GLES20.glLinkProgram(mProgram);                  // create OpenGL program executables
-
-        int[] linkStatus = new int[1];
-        GLES20.glGetProgramiv(mProgram, GLES20.GL_LINK_STATUS, linkStatus, 0);
-        if (linkStatus[0] != GLES20.GL_TRUE) {
-            Log.e(TAG, "Could not link program: ");
-            Log.e(TAG, GLES20.glGetProgramInfoLog(mProgram));
-            GLES20.glDeleteProgram(mProgram);
-            mProgram = 0;
-            return;
+    /**
+     * Returns geometry this cube created to the buffer pool. The program belongs to the shader
+     * library. The cube can't draw afterwards.
+     */
+    public void release() {
+        if (mOwnGeometry != null) {
+            mOwnGeometry.release();
+            mOwnGeometry = null;
         }
-        GLES20.glDeleteShader(vertexShader);
-        GLES20.glDeleteShader(fragmentShader);
+    }
 
+    /**
+     * Builds the cube's client side vertex data. This needs no GL context, so it can be done on
+     * a background thread before the surface exists.
+     */
+    public static Geometry createGeometry() {
+        Geometry geometry = new Geometry();
         // Initialize vertex byte buffer for shape coordinates
-        mVertexBuffer = allocateFloatBuffer(VERTICES);
+        geometry.mVertexBuffer = allocateFloatBuffer(VERTICES);
 
         // Initialize byte buffer for the colors
-        mColor1Buffer = allocateFloatBuffer(COLORS1);
-        mColor2Buffer = allocateFloatBuffer(COLORS2);
+        geometry.mColor1Buffer = allocateFloatBuffer(COLORS1);
+        geometry.mColor2Buffer = allocateFloatBuffer(COLORS2);
 
         // Initialize byte buffer for the draw list
-        mIndexBuffer = allocateShortBuffer(INDICES);
+        geometry.mIndexBuffer = allocateShortBuffer(INDICES);
+        geometry.mIndexCount = INDICES.length;
+        return geometry;
+    }
+
+    /**
+     * Builds vertex data for drawing a mesh, e.g. a level of a {@link LodMesh}, with the cube's
+     * program. Like {@link #createGeometry()} this needs no GL context.
+     *
+     * @param mesh - A mesh with {@link Mesh#CUBE_ATTRIBUTE_SIZE} attributes per vertex.
+     */
+    public static Geometry createGeometry(Mesh mesh) {
+        if (mesh.getAttributeSize() != Mesh.CUBE_ATTRIBUTE_SIZE) {
+            throw new IllegalArgumentException("Expected both colors per vertex");
+        }
+        // The colors are interleaved in the mesh but separate buffers here
+        float[] attributes = mesh.getAttributes();
+        int vertexCount = mesh.getVertexCount();
+        float[] colors1 = new float[vertexCount * COORDS_PER_COLORS];
+        float[] colors2 = new float[vertexCount * COORDS_PER_COLORS];
+        for (int i = 0; i < vertexCount; i++) {
+            System.arraycopy(attributes, i * Mesh.CUBE_ATTRIBUTE_SIZE, colors1,
+                    i * COORDS_PER_COLORS, COORDS_PER_COLORS);
+            System.arraycopy(attributes, i * Mesh.CUBE_ATTRIBUTE_SIZE + COORDS_PER_COLORS,
+                    colors2, i * COORDS_PER_COLORS, COORDS_PER_COLORS);
+        }
+        Geometry geometry = new Geometry();
+        geometry.mVertexBuffer = allocateFloatBuffer(mesh.getPositions());
+        geometry.mColor1Buffer = allocateFloatBuffer(colors1);
+        geometry.mColor2Buffer = allocateFloatBuffer(colors2);
+        geometry.mIndexBuffer = allocateShortBuffer(mesh.getIndices());
+        geometry.mIndexCount = mesh.getIndices().length;
+        return geometry;
+    }
+
+    /**
+     * The vertex, color and index buffers of the cube or a mesh. The buffers are only read when
+     * drawing, so a single instance can be shared by several cubes.
+     */
+    public static final class Geometry {
+        private FloatBuffer mVertexBuffer;
+        private FloatBuffer mColor1Buffer;
+        private FloatBuffer mColor2Buffer;
+        private ShortBuffer mIndexBuffer;
+        private int mIndexCount;
+
+        private Geometry() {
+        }
+
+        public int getTriangleCount() {
+            return mIndexCount / 3;
+        }
+
+        /**
+         * Returns the buffers to the pool. No cube may draw with this geometry afterwards.
+         */
+        public void release() {
+            releaseBuffer(mVertexBuffer);
+            releaseBuffer(mColor1Buffer);
+            releaseBuffer(mColor2Buffer);
+            releaseBuffer(mIndexBuffer);
+        }
     }
 
     /**
@@ -167,59 +218,102 @@ public class Cube {
      *                  this shape.
      */
     public void draw(float[] mvpMatrix, boolean changeColor) {
-        if (mProgram != 0) {
+        int program = mProgram.getId();
+        if (program != 0) {
             // Add program to OpenGL environment
-            GLES20.glUseProgram(mProgram);
+            mGl.glUseProgram(program);
 
             // Get handle to vertex shader's vPosition member
-            mPositionHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
+            mPositionHandle = mGl.glGetAttribLocation(program, "vPosition");
 
             // Enable a handle to the triangle vertices
-            GLES20.glEnableVertexAttribArray(mPositionHandle);
+            mGl.glEnableVertexAttribArray(mPositionHandle);
 
             // Get handle to fragment shader's vColor member
-            mColor = GLES20.glGetAttribLocation(mProgram, "vColor");
+            mColor = mGl.glGetAttribLocation(program, "vColor");
 
             // Enable a handle to the color vertices
-            GLES20.glEnableVertexAttribArray(mColor);
+            mGl.glEnableVertexAttribArray(mColor);
 
             // Get handle to shape's transformation matrix
-            mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
-            checkGlError("glGetUniformLocation");
+            mMVPMatrixHandle = mGl.glGetUniformLocation(program, "uMVPMatrix");
+            checkGlError(mGl, "glGetUniformLocation");
 
             // Apply the projection and view transformation
-            GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
-            checkGlError("glUniformMatrix4fv");
+            mGl.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
+            checkGlError(mGl, "glUniformMatrix4fv");
 
             // Prepare the coordinate data
-            GLES20.glVertexAttribPointer(
+            mGl.glVertexAttribPointer(
                     mPositionHandle, COORDS_PER_VERTEX,
                     GLES20.GL_FLOAT, false,
                     VERTEX_STRIDE, mVertexBuffer);
 
             // Prepare the color data
             if (changeColor) {
-                GLES20.glVertexAttribPointer(
+                mGl.glVertexAttribPointer(
                         mColor, COORDS_PER_COLORS,
                         GLES20.GL_FLOAT, false,
                         COLORS_STRIDE, mColor2Buffer);
             } else {
-                GLES20.glVertexAttribPointer(
+                mGl.glVertexAttribPointer(
                         mColor, COORDS_PER_COLORS,
                         GLES20.GL_FLOAT, false,
                         COLORS_STRIDE, mColor1Buffer);
             }
 
             // Draw the shape
-            GLES20.glDrawElements(
-                    GLES20.GL_TRIANGLES, INDICES.length,
+            mGl.glDrawElements(
+                    GLES20.GL_TRIANGLES, mIndexCount,
                     GLES20.GL_UNSIGNED_SHORT, mIndexBuffer);
 
             // Disable vertex array
-            GLES20.glDisableVertexAttribArray(mPositionHandle);
+            mGl.glDisableVertexAttribArray(mPositionHandle);
             // Disable color array
-            GLES20.glDisableVertexAttribArray(mColor);
+            mGl.glDisableVertexAttribArray(mColor);
+        }
+    }
+
+    /**
+     * Draws many cubes with the same colors, setting up the program and vertex data once.
+     *
+     * @param mvpMatrices Model View Projection matrices, 16 floats per cube.
+     * @param indices     Which matrices to draw.
+     * @param start       First entry of {@code indices} to draw.
+     * @param count       Number of cubes to draw.
+     */
+    public void drawBatch(float[] mvpMatrices, int[] indices, int start, int count,
+            boolean changeColor) {
+        int program = count != 0 ? mProgram.getId() : 0;
+        if (program == 0) {
+            return;
+        }
+        mGl.glUseProgram(program);
+        mPositionHandle = mGl.glGetAttribLocation(program, "vPosition");
+        mGl.glEnableVertexAttribArray(mPositionHandle);
+        mColor = mGl.glGetAttribLocation(program, "vColor");
+        mGl.glEnableVertexAttribArray(mColor);
+        mMVPMatrixHandle = mGl.glGetUniformLocation(program, "uMVPMatrix");
+        mGl.glVertexAttribPointer(
+                mPositionHandle, COORDS_PER_VERTEX,
+                GLES20.GL_FLOAT, false,
+                VERTEX_STRIDE, mVertexBuffer);
+        mGl.glVertexAttribPointer(
+                mColor, COORDS_PER_COLORS,
+                GLES20.GL_FLOAT, false,
+                COLORS_STRIDE, changeColor ? mColor2Buffer : mColor1Buffer);
+
+        // Only the matrix changes between cubes
+        for (int i = start; i < start + count; i++) {
+            mGl.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrices, indices[i] * 16);
+            mGl.glDrawElements(
+                    GLES20.GL_TRIANGLES, mIndexCount,
+                    GLES20.GL_UNSIGNED_SHORT, mIndexBuffer);
         }
+        checkGlError(mGl, "drawBatch");
+
+        mGl.glDisableVertexAttribArray(mPositionHandle);
+        mGl.glDisableVertexAttribArray(mColor);
     }
 
     /**
@@ -233,22 +327,29 @@ public class Cube {
      * @return - Returns an mId for the shader.
      */
     public static int loadShader(int type, String shaderCode) {
+        return loadShader(AndroidGlApi.INSTANCE, type, shaderCode);
+    }
+
+    /**
+     * Same as {@link #loadShader(int, String)} but against the given GL implementation.
+     */
+    public static int loadShader(GlApi gl, int type, String shaderCode) {
 
         // Create a vertex shader type (GLES20.GL_VERTEX_SHADER)
         // or a fragment shader type (GLES20.GL_FRAGMENT_SHADER)
-        int shader = GLES20.glCreateShader(type);
-        checkGlError("glCreateShader type=" + type);
+        int shader = gl.glCreateShader(type);
+        checkGlError(gl, "glCreateShader type=" + type);
 
         // Add the source code to the shader and compile it
-        GLES20.glShaderSource(shader, shaderCode);
-        GLES20.glCompileShader(shader);
+        gl.glShaderSource(shader, shaderCode);
+        gl.glCompileShader(shader);
 
         int[] compiled = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        gl.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
         if (compiled[0] == 0) {
             Log.e(TAG, "Could not compile shader " + type + ":");
-            Log.e(TAG, " " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
+            Log.e(TAG, " " + gl.glGetShaderInfoLog(shader));
+            gl.glDeleteShader(shader);
             shader = 0;
         }
 
@@ -268,39 +369,55 @@ public class Cube {
      * @param glOperation - Name of the OpenGL call to check.
      */
     public static void checkGlError(String glOperation) {
-        int error = GLES20.glGetError();
+        checkGlError(AndroidGlApi.INSTANCE, glOperation);
+    }
+
+    /**
+     * Same as {@link #checkGlError(String)} but against the given GL implementation.
+     */
+    public static void checkGlError(GlApi gl, String glOperation) {
+        int error = gl.glGetError();
         if (error != GLES20.GL_NO_ERROR) {
             Log.e(TAG, glOperation + ": glError " + error);
+            Telemetry.get().markError(Telemetry.ERROR_GL, error);
             throw new RuntimeException(glOperation + ": glError " + error);
         }
     }
 
     /**
-     * Creates a direct float buffer, and copy coords into it.
+     * Creates a direct float buffer from the shared pool, and copy coords into it. Return it
+     * with {@link #releaseBuffer(Buffer)}.
      *
      * @param coords - data to be copied.
      */
     public static FloatBuffer allocateFloatBuffer(float[] coords) {
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(coords.length * BYTES_PER_FLOAT);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        FloatBuffer floatBuffer = byteBuffer.asFloatBuffer();
+        FloatBuffer floatBuffer = MemoryGovernor.get().getBufferPool()
+                .acquireFloats(coords.length, TAG);
         floatBuffer.put(coords);
         floatBuffer.position(0);
         return floatBuffer;
     }
 
     /**
-     * Creates a direct short buffer, and copy coords into it.
+     * Creates a direct short buffer from the shared pool, and copy coords into it. Return it
+     * with {@link #releaseBuffer(Buffer)}.
      *
      * @param coords - data to be copied.
      */
     public static ShortBuffer allocateShortBuffer(short[] coords) {
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(coords.length * BYTES_PER_SHORT);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        ShortBuffer shortBuffer = byteBuffer.asShortBuffer();
+        ShortBuffer shortBuffer = MemoryGovernor.get().getBufferPool()
+                .acquireShorts(coords.length, TAG);
         shortBuffer.put(coords);
         shortBuffer.position(0);
         return shortBuffer;
     }
 
+    /**
+     * Returns a buffer from {@link #allocateFloatBuffer(float[])} or
+     * {@link #allocateShortBuffer(short[])} to the pool.
+     */
+    public static void releaseBuffer(Buffer buffer) {
+        MemoryGovernor.get().getBufferPool().release(buffer);
+    }
+
 }
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.Random;
+
+/**
+ * A grid of independently tumbling cubes, updated in parallel on a {@link JobSystem}.
+ * <p>
+ * Each update animates every cube, composes its model view projection matrix, culls it against
+ * the view frustum and builds the batched draw list, all into a {@link FrameData}. The objects
+ * are processed in fixed size chunks: the first pass transforms and culls each chunk and counts
+ * its visible objects per batch, a short serial pass turns the counts into offsets, and a second
+ * parallel pass writes the draw list. Chunks never share output, so no locking is needed.
+ * </p>
+ * <p>
+ * Given a {@link LodMesh}, each visible cube also gets a level of detail from its
+ * {@link LodSelector}, and the batches are repeated per level: batch
+ * {@code level * BATCH_COUNT + colors}.
+ * </p>
+ * <p>
+ * The math is plain Java with the same conventions as {@code android.opengl.Matrix}
+ * (column major), so the update can be benchmarked on a JVM.
+ * </p>
+ */
+public class CubeField {
+
+    /**
+     * Objects alternate between this many batches, per level of detail.
+     */
+    public static final int BATCH_COUNT = 2;
+
+    private static final int CHUNK_SIZE = 256;
+    private static final float SPACING = 3.0f;
+    private static final float CUBE_SCALE = 0.5f;
+    // Radius of a cube's bounding sphere
+    private static final float BOUNDING_RADIUS = CUBE_SCALE * 1.7320508f;
+
+    private final int mObjectCount;
+    private final int mChunkCount;
+    private final float[] mPositions;
+    private final float[] mAxes;
+    private final float[] mSpeeds;
+    private final LodSelector mLodSelector;
+    private final int mBatchCount;
+
+    // Per update scratch, written by one chunk each
+    private final int[] mBatchOfObject;
+    private final int[] mChunkCounts;
+
+    // Inputs of the update in progress
+    private final float[] mViewProjection = new float[16];
+    private final float[] mPlanes = new float[24];
+    private float mTimeSeconds;
+    private FrameData mOutput;
+
+    public CubeField(int objectCount) {
+        this(objectCount, null);
+    }
+
+    /**
+     * @param lod Levels of detail to select between, or null to draw a single level.
+     */
+    public CubeField(int objectCount, LodMesh lod) {
+        mObjectCount = objectCount;
+        mChunkCount = (objectCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        mPositions = new float[objectCount * 3];
+        mAxes = new float[objectCount * 3];
+        mSpeeds = new float[objectCount];
+        if (lod != null) {
+            mLodSelector = new LodSelector(lod.getTriangleCounts(), objectCount,
+                    lod.getBoundingRadius() * CUBE_SCALE);
+            mBatchCount = BATCH_COUNT * lod.getLevelCount();
+        } else {
+            mLodSelector = null;
+            mBatchCount = BATCH_COUNT;
+        }
+        mBatchOfObject = new int[objectCount];
+        mChunkCounts = new int[mChunkCount * mBatchCount];
+
+        // Fill a cube shaped grid centered on the origin
+        int side = (int) Math.ceil(Math.cbrt(objectCount));
+        float offset = (side - 1) * SPACING / 2;
+        Random random = new Random(objectCount);
+        for (int i = 0; i < objectCount; i++) {
+            mPositions[i * 3] = (i % side) * SPACING - offset;
+            mPositions[i * 3 + 1] = ((i / side) % side) * SPACING - offset;
+            mPositions[i * 3 + 2] = (i / (side * side)) * SPACING - offset;
+            float x = random.nextFloat() - 0.5f;
+            float y = random.nextFloat() - 0.5f;
+            float z = random.nextFloat() - 0.5f;
+            float length = (float) Math.sqrt(x * x + y * y + z * z);
+            if (length < 0.01f) {
+                x = 0;
+                y = 1;
+                z = 0;
+                length = 1;
+            }
+            mAxes[i * 3] = x / length;
+            mAxes[i * 3 + 1] = y / length;
+            mAxes[i * 3 + 2] = z / length;
+            mSpeeds[i] = 0.5f + random.nextFloat() * 2.0f;
+        }
+    }
+
+    public int getObjectCount() {
+        return mObjectCount;
+    }
+
+    /**
+     * Selects the cubes' levels of detail, or null without a {@link LodMesh}. Give it the
+     * projection before each update.
+     */
+    public LodSelector getLodSelector() {
+        return mLodSelector;
+    }
+
+    /**
+     * Creates frame data sized for this field.
+     */
+    public FrameData createFrameData() {
+        return new FrameData(mObjectCount, mBatchCount);
+    }
+
+    /**
+     * Computes a frame. Not reentrant: one update at a time per field.
+     *
+     * @param out            Receives the frame.
+     * @param viewProjection Column major view projection matrix.
+     * @param timeSeconds    Animation time.
+     * @param frameIndex     Recorded in the frame data.
+     * @param jobs           Job system to run on, or null to run on the calling thread.
+     */
+    public void update(FrameData out, float[] viewProjection, float timeSeconds,
+            long frameIndex, JobSystem jobs) {
+        System.arraycopy(viewProjection, 0, mViewProjection, 0, 16);
+        extractPlanes(mViewProjection, mPlanes);
+        mTimeSeconds = timeSeconds;
+        mOutput = out;
+
+        run(jobs, mTransformJob);
+
+        // Turn the per chunk counts into each chunk's first slot in the draw list
+        int[] batchOffsets = out.getBatchOffsets();
+        int slot = 0;
+        for (int batch = 0; batch < mBatchCount; batch++) {
+            batchOffsets[batch] = slot;
+            for (int chunk = 0; chunk < mChunkCount; chunk++) {
+                int index = chunk * mBatchCount + batch;
+                int count = mChunkCounts[index];
+                mChunkCounts[index] = slot;
+                slot += count;
+            }
+        }
+        batchOffsets[mBatchCount] = slot;
+
+        run(jobs, mBatchJob);
+
+        out.setDrawCount(slot);
+        out.setFrameIndex(frameIndex);
+        mOutput = null;
+    }
+
+    private void run(JobSystem jobs, JobSystem.RangeJob job) {
+        if (jobs != null) {
+            jobs.parallelFor(mChunkCount, 1, job);
+        } else {
+            job.run(0, mChunkCount);
+        }
+    }
+
+    private final JobSystem.RangeJob mTransformJob = new JobSystem.RangeJob() {
+        @Override
+        public void run(int startChunk, int endChunk) {
+            for (int chunk = startChunk; chunk < endChunk; chunk++) {
+                int countsOffset = chunk * mBatchCount;
+                for (int batch = 0; batch < mBatchCount; batch++) {
+                    mChunkCounts[countsOffset + batch] = 0;
+                }
+                float[] mvpMatrices = mOutput.getMvpMatrices();
+                int end = Math.min(mObjectCount, (chunk + 1) * CHUNK_SIZE);
+                for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                    if (isVisible(i)) {
+                        int batch = i % BATCH_COUNT;
+                        computeMvp(i, mvpMatrices);
+                        if (mLodSelector != null) {
+                            // The w of the cube's center in clip space is its view depth
+                            int level = mLodSelector.select(i, mvpMatrices[i * 16 + 15]);
+                            batch += level * BATCH_COUNT;
+                        }
+                        mBatchOfObject[i] = batch;
+                        mChunkCounts[countsOffset + batch]++;
+                    } else {
+                        mBatchOfObject[i] = -1;
+                    }
+                }
+            }
+        }
+    };
+
+    private final JobSystem.RangeJob mBatchJob = new JobSystem.RangeJob() {
+        @Override
+        public void run(int startChunk, int endChunk) {
+            int[] drawList = mOutput.getDrawList();
+            for (int chunk = startChunk; chunk < endChunk; chunk++) {
+                int countsOffset = chunk * mBatchCount;
+                int end = Math.min(mObjectCount, (chunk + 1) * CHUNK_SIZE);
+                for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                    int batch = mBatchOfObject[i];
+                    if (batch >= 0) {
+                        drawList[mChunkCounts[countsOffset + batch]++] = i;
+                    }
+                }
+            }
+        }
+    };
+
+    private boolean isVisible(int i) {
+        float x = mPositions[i * 3];
+        float y = mPositions[i * 3 + 1];
+        float z = mPositions[i * 3 + 2];
+        for (int p = 0; p < 24; p += 4) {
+            if (mPlanes[p] * x + mPlanes[p + 1] * y + mPlanes[p + 2] * z + mPlanes[p + 3]
+                    < -BOUNDING_RADIUS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes viewProjection * translate * rotate * scale for object i.
+     */
+    private void computeMvp(int i, float[] out) {
+        float angle = mSpeeds[i] * mTimeSeconds;
+        float s = (float) Math.sin(angle);
+        float c = (float) Math.cos(angle);
+        float nc = 1.0f - c;
+        float x = mAxes[i * 3];
+        float y = mAxes[i * 3 + 1];
+        float z = mAxes[i * 3 + 2];
+
+        // Rotation columns, as android.opengl.Matrix.setRotateM, scaled
+        float m0 = (x * x * nc + c) * CUBE_SCALE;
+        float m1 = (x * y * nc + z * s) * CUBE_SCALE;
+        float m2 = (z * x * nc - y * s) * CUBE_SCALE;
+        float m4 = (x * y * nc - z * s) * CUBE_SCALE;
+        float m5 = (y * y * nc + c) * CUBE_SCALE;
+        float m6 = (y * z * nc + x * s) * CUBE_SCALE;
+        float m8 = (z * x * nc + y * s) * CUBE_SCALE;
+        float m9 = (y * z * nc - x * s) * CUBE_SCALE;
+        float m10 = (z * z * nc + c) * CUBE_SCALE;
+        float px = mPositions[i * 3];
+        float py = mPositions[i * 3 + 1];
+        float pz = mPositions[i * 3 + 2];
+
+        float[] vp = mViewProjection;
+        int o = i * 16;
+        for (int row = 0; row < 4; row++) {
+            float r0 = vp[row];
+            float r1 = vp[4 + row];
+            float r2 = vp[8 + row];
+            float r3 = vp[12 + row];
+            out[o + row] = r0 * m0 + r1 * m1 + r2 * m2;
+            out[o + 4 + row] = r0 * m4 + r1 * m5 + r2 * m6;
+            out[o + 8 + row] = r0 * m8 + r1 * m9 + r2 * m10;
+            out[o + 12 + row] = r0 * px + r1 * py + r2 * pz + r3;
+        }
+    }
+
+    /**
+     * Extracts the six normalized frustum planes (a, b, c, d) from a view projection matrix.
+     */
+    private static void extractPlanes(float[] m, float[] planes) {
+        for (int i = 0; i < 6; i++) {
+            int row = i / 2;
+            float sign = (i % 2 == 0) ? 1.0f : -1.0f;
+            float a = m[3] + sign * m[row];
+            float b = m[7] + sign * m[4 + row];
+            float c = m[11] + sign * m[8 + row];
+            float d = m[15] + sign * m[12 + row];
+            float length = (float) Math.sqrt(a * a + b * b + c * c);
+            planes[i * 4] = a / length;
+            planes[i * 4 + 1] = b / length;
+            planes[i * 4 + 2] = c / length;
+            planes[i * 4 + 3] = d / length;
+        }
+    }
+}
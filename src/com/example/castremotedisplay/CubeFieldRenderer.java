@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.opengl.GLES20;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * Renders a {@link CubeField} of thousands of cubes, simulated on its own thread and updated in
+ * parallel on a {@link JobSystem}.
+ * <p>
+ * A {@link FrameProducer} writes complete frames into a {@link TripleBuffer} at the display rate,
+ * and the GL thread renders the most recent complete one. Simulation and submission never wait
+ * for each other: a late simulation step means the previous frame is submitted again rather than
+ * a frame being dropped, and a slow submission just skips a snapshot.
+ * </p>
+ * <p>
+ * Given a {@link LodMesh}, the cubes are drawn with its levels instead of the plain cube, each
+ * at the level its size on the TV calls for.
+ * </p>
+ */
+public class CubeFieldRenderer extends CubeRenderer {
+
+    private static final int SIMULATION_FPS = 60;
+    private static final float CAMERA_DISTANCE = 60.0f;
+    private static final float ROTATION_SPEED = 0.2f;
+
+    private final JobSystem mJobs;
+    private final CubeField mField;
+    private final TripleBuffer<FrameData> mFrames;
+    private final FrameProducer mProducer;
+    private final LodMesh mLodMesh;
+    // Per level of detail, created with the surface
+    private Cube.Geometry[] mLodGeometry;
+    private Cube[] mLodCubes;
+    private final long mStartNanos = System.nanoTime();
+
+    // Set on the GL thread, read by the simulation; a step may see a new width with the old
+    // height, which only skews that one frame
+    private volatile int mViewportWidth = 1920;
+    private volatile int mViewportHeight = 1080;
+
+    // Simulation thread only
+    private final float[] mSimulationProjection = new float[16];
+    private final float[] mSimulationViewProjection = new float[16];
+
+    public CubeFieldRenderer(GlApi gl, Cube.Geometry geometry, ShaderLibrary.SourceLoader shaders,
+            JobSystem jobs, int objectCount) {
+        this(gl, geometry, shaders, jobs, objectCount, null);
+    }
+
+    /**
+     * @param lod Levels of detail to draw the cubes with, or null for the plain cube.
+     * @see CubeRenderer#CubeRenderer(GlApi, Cube.Geometry, ShaderLibrary.SourceLoader)
+     */
+    public CubeFieldRenderer(GlApi gl, Cube.Geometry geometry, ShaderLibrary.SourceLoader shaders,
+            JobSystem jobs, int objectCount, LodMesh lod) {
+        super(gl, geometry, shaders);
+        mJobs = jobs;
+        mLodMesh = lod;
+        mField = new CubeField(objectCount, lod);
+        mFrames = new TripleBuffer<FrameData>(mField.createFrameData(),
+                mField.createFrameData(), mField.createFrameData());
+        mProducer = new FrameProducer(mFrames, mSimulation, SIMULATION_FPS);
+    }
+
+    @Override
+    public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+        super.onSurfaceCreated(unused, config);
+        if (mLodMesh != null) {
+            int levelCount = mLodMesh.getLevelCount();
+            if (mLodGeometry == null) {
+                mLodGeometry = new Cube.Geometry[levelCount];
+                for (int level = 0; level < levelCount; level++) {
+                    mLodGeometry[level] = Cube.createGeometry(mLodMesh.getLevel(level));
+                }
+            }
+            // The cubes only share the geometry, so there is nothing of theirs to release
+            mLodCubes = new Cube[levelCount];
+            for (int level = 0; level < levelCount; level++) {
+                mLodCubes[level] = new Cube(getGl(), mLodGeometry[level], getShaderLibrary());
+            }
+        }
+        mProducer.start();
+    }
+
+    @Override
+    public void onSurfaceChanged(GL10 unused, int width, int height) {
+        super.onSurfaceChanged(unused, width, height);
+        mViewportWidth = width;
+        mViewportHeight = height;
+    }
+
+    /**
+     * Stops the simulation thread and returns the levels' geometry to the buffer pool. Both are
+     * set up again with the next surface.
+     */
+    public void release() {
+        mProducer.stop();
+        if (mLodGeometry != null) {
+            for (Cube.Geometry geometry : mLodGeometry) {
+                geometry.release();
+            }
+            mLodGeometry = null;
+            mLodCubes = null;
+        }
+    }
+
+    @Override
+    public void onDrawFrame(GL10 unused) {
+        QualityGovernor governor = getQualityGovernor();
+        long frameStartNanos = beginFrame(governor != null ? governor.getTier() : null);
+        updateResources();
+        FrameData frame = mFrames.acquireLatest();
+
+        getGl().glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        for (int batch = 0; batch < frame.getBatchCount(); batch++) {
+            // Batches repeat per level of detail, and every other one uses the alternate colors
+            Cube cube = mLodCubes != null ? mLodCubes[batch / CubeField.BATCH_COUNT] : getCube();
+            boolean changeColor = frame.isColorChanged() ^ (batch % 2 == 1);
+            cube.drawBatch(frame.getMvpMatrices(), frame.getDrawList(),
+                    frame.getBatchStart(batch), frame.getBatchSize(batch), changeColor);
+        }
+        // Particles from the camera the snapshot was simulated with, so they orbit with the field
+        System.arraycopy(frame.getViewMatrix(), 0, mViewMatrix, 0, 16);
+        drawParticles(frameStartNanos);
+        StartupTrace.get().markFirstFrame();
+
+        long workNanos = System.nanoTime() - frameStartNanos;
+        boolean background = isInBackground();
+        if (governor != null && !background) {
+            governor.onFrame(frameStartNanos, workNanos);
+        }
+        Telemetry.get().onFrame(frameStartNanos, workNanos, background);
+        drawDebugHud(frameStartNanos, governor);
+    }
+
+    private final FrameProducer.Simulation mSimulation = new FrameProducer.Simulation() {
+        @Override
+        public void simulate(FrameData out, long frameIndex, long timeNanos) {
+            float timeSeconds = (timeNanos - mStartNanos) / 1000000000.0f;
+
+            // What the GL thread draws with, so culling and levels of detail match the screen
+            int viewportHeight = mViewportHeight;
+            setProjection(mSimulationProjection, mViewportWidth, viewportHeight);
+
+            // The camera slowly orbits the field
+            float angle = timeSeconds * ROTATION_SPEED;
+            float[] view = out.getViewMatrix();
+            MatrixMath.setLookAtM(view, 0,
+                    (float) Math.sin(angle) * CAMERA_DISTANCE, CAMERA_DISTANCE / 4,
+                    (float) -Math.cos(angle) * CAMERA_DISTANCE,
+                    0f, 0f, 0f, 0f, 1.0f, 0.0f);
+            MatrixMath.multiplyMM(mSimulationViewProjection, 0, mSimulationProjection, 0,
+                    view, 0);
+
+            LodSelector lodSelector = mField.getLodSelector();
+            if (lodSelector != null) {
+                lodSelector.setProjection(mSimulationProjection, viewportHeight);
+            }
+            mField.update(out, mSimulationViewProjection, timeSeconds, frameIndex, mJobs);
+            out.setColorChanged(isColorChanged());
+        }
+    };
+}
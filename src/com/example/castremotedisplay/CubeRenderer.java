@@ -16,12 +16,14 @@
 
 package com.example.castremotedisplay;
 
+import android.content.res.AssetManager;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.opengl.Matrix;
-import android.os.SystemClock;
+import android.os.Process;
 import android.util.Log;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -32,12 +34,32 @@ public class CubeRenderer implements GLSurfaceView.Renderer {
 
     private static final String TAG = "CubeRenderer";
 
-    private static final float ANGLE_INCREMENT = 1.2f;
+    // How fast the cubes tumble at speed 1, 1.2 degrees a frame at 60 fps
+    private static final float DEGREES_PER_SECOND = 72.0f;
+    // A longer gap between frames, e.g. while the surface is recreated, isn't animated across
+    private static final long MAX_ANIMATION_STEP_NANOS = 100000000L;
     private static final boolean CALCULATE_FPS = false;
+    // Frame rate caps at or above this are left to vsync
+    private static final int DISPLAY_FPS = 60;
+
+    // Perspective of the scene's camera
+    private static final float FIELD_OF_VIEW = 30.0f;
+    private static final float NEAR = 1.0f;
+    private static final float FAR = 100.0f;
+
+    // Render passes timed when pass timing is enabled
+    public static final int PASS_CLEAR = 0;
+    public static final int PASS_FIRST_CUBE = 1;
+    public static final int PASS_SECOND_CUBE = 2;
 
     private Cube mCube;
     private float mAngle;
-    private boolean mChangeColor;
+    private long mLastAnimationNanos;
+    private boolean mAnimationStarted;
+    private volatile boolean mChangeColor;
+    private volatile float mRotationSpeed = 1;
+    // From the output's motion budget, on top of the rotation speed
+    private volatile float mMotionScale = 1;
     private long mLastTime;
     private long mFpsCounter;
 
@@ -48,9 +70,151 @@ public class CubeRenderer implements GLSurfaceView.Renderer {
     protected final float[] mViewMatrix = new float[16];
     protected final float[] mRotationMatrix = new float[16];
 
+    // Counts the scene's GL calls for the debug HUD
+    private final CountingGlApi mCountingGl;
+    private final GlApi mGl;
+    private final Cube.Geometry mGeometry;
+    private final ShaderLibrary mShaderLibrary;
+
+    private volatile QualityGovernor mQualityGovernor;
+    private TextureManager mTextureManager;
+
+    private final PassTimings mPassTimings =
+            new PassTimings("clear", "first cube", "second cube");
+    private volatile boolean mPassTimingEnabled;
+    private GpuTimer mGpuTimer;
+    private long mLastFrameStartNanos;
+    private boolean mBlendEnabled;
+    private volatile boolean mDebugHudEnabled;
+    private DebugHud mDebugHud;
+    private int mWidth;
+    private int mHeight;
+
+    // Set by the service, applied on the GL thread at the start of a frame
+    private volatile int mBackgroundMode = BackgroundPolicy.MODE_FOREGROUND;
+    private int mAppliedBackgroundMode = BackgroundPolicy.MODE_FOREGROUND;
+    // The thread whose priority was lowered, and its priority before
+    private int mThrottledThreadId;
+    private int mForegroundThreadPriority;
+
+    // Effects requested by the phone UI, started on the GL thread
+    private final AtomicInteger mPendingBursts = new AtomicInteger();
+    // Created with the first effect, since the batches take a few hundred KB
+    private ParticleEffects mParticleEffects;
+    private ParticleRenderer mParticleRenderer;
+    private long mParticleEpochNanos = System.nanoTime();
+    private TextureUploadQueue.Clock mClock = TextureUploadQueue.SYSTEM_CLOCK;
+    private final float[] mViewProjectionMatrix = new float[16];
+
+    /**
+     * Creates a renderer drawing with the GPU, with the shaders in the app's assets.
+     *
+     * @param geometry Cube geometry prepared ahead of time, or null to create it on the GL thread.
+     */
+    public CubeRenderer(AssetManager assets, Cube.Geometry geometry) {
+        this(AndroidGlApi.INSTANCE, geometry,
+                new ShaderLibrary.AssetSourceLoader(assets, ShaderLibrary.ASSET_DIRECTORY));
+    }
+
+    /**
+     * Creates a renderer that issues its GL calls to the given implementation, for example a
+     * {@link SoftwareGlApi} when rendering golden images without a GPU.
+     *
+     * @param gl       The GL implementation to issue calls to.
+     * @param geometry Cube geometry prepared ahead of time, or null to create it on the GL thread.
+     * @param shaders  Where shader sources are read from, e.g. a
+     *                 {@link ShaderLibrary.FileSourceLoader} on {@code assets/shaders} when
+     *                 running on a plain JVM from the project root.
+     */
+    public CubeRenderer(GlApi gl, Cube.Geometry geometry, ShaderLibrary.SourceLoader shaders) {
+        mCountingGl = new CountingGlApi(gl);
+        mGl = mCountingGl;
+        mGeometry = geometry;
+        mShaderLibrary = new ShaderLibrary(mGl, shaders);
+    }
+
+    /**
+     * Replaces the system clock frames are timed and paced with, e.g. to render golden images
+     * at fixed times. Must be set before the first frame.
+     */
+    void setClock(TextureUploadQueue.Clock clock) {
+        mClock = clock;
+        mParticleEpochNanos = clock.nanoTime();
+    }
+
+    /**
+     * The renderer's shaders, e.g. to push edited sources to while developing.
+     */
+    public ShaderLibrary getShaderLibrary() {
+        return mShaderLibrary;
+    }
+
+    /**
+     * Lets a governor pick the frame rate and scene detail, and feeds it frame timings. Pass null
+     * to always render at full quality.
+     */
+    public void setQualityGovernor(QualityGovernor governor) {
+        mQualityGovernor = governor;
+    }
+
+    /**
+     * Gives pending texture uploads a slice of every frame. Must be set before the surface is
+     * created.
+     */
+    public void setTextureManager(TextureManager textureManager) {
+        mTextureManager = textureManager;
+    }
+
+    /**
+     * Turns per pass CPU and GPU timing on or off. GPU times need EXT_disjoint_timer_query.
+     */
+    public void setPassTimingEnabled(boolean enabled) {
+        mPassTimingEnabled = enabled;
+    }
+
+    /**
+     * Per pass timings, filled while pass timing is enabled.
+     */
+    public PassTimings getPassTimings() {
+        return mPassTimings;
+    }
+
+    /**
+     * Shows or hides the performance HUD over the scene. Only drawn when rendering with
+     * {@link AndroidGlApi}.
+     */
+    public void setDebugHudEnabled(boolean enabled) {
+        mDebugHudEnabled = enabled;
+    }
+
+    public boolean isDebugHudEnabled() {
+        return mDebugHudEnabled;
+    }
+
+    /**
+     * Throttles rendering while the phone UI is in the background, see {@link BackgroundPolicy}.
+     * Takes effect with the next frame.
+     */
+    public void setBackgroundMode(int mode) {
+        mBackgroundMode = mode;
+    }
+
     public void onDrawFrame(GL10 unused) {
+        QualityGovernor governor = mQualityGovernor;
+        QualityTier tier = governor != null ? governor.getTier() : null;
+        long frameStartNanos = beginFrame(tier);
+        boolean background = isInBackground();
+        boolean fullDetail = tier == null || tier.getDetail() == QualityTier.DETAIL_FULL;
+        setBlendEnabled(fullDetail);
+        updateResources();
+        GpuTimer timer = mPassTimingEnabled && !background ? getGpuTimer() : null;
+        if (timer != null) {
+            timer.beginFrame();
+        }
+        advanceAngle(frameStartNanos);
+
         if (CALCULATE_FPS) {
-            long currentTime = SystemClock.uptimeMillis();
+            long currentTime = mClock.nanoTime() / 1000000;
             if (mLastTime == 0) {
                 mLastTime = currentTime;
             } else {
@@ -58,75 +222,377 @@ public class CubeRenderer implements GLSurfaceView.Renderer {
                 long diffTime = currentTime - mLastTime;
                 if (diffTime >= 1000) {
                     Log.d(TAG, "fps=" + mFpsCounter);
+                    if (timer != null) {
+                        Log.d(TAG, mPassTimings.format());
+                    }
                     mFpsCounter = 0;
                     mLastTime = currentTime;
                 }
             }
         }
 
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        beginPass(timer, PASS_CLEAR);
+        mGl.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        endPass(timer, PASS_CLEAR);
 
         // Set the camera position
-        Matrix.setLookAtM(mViewMatrix, 0, 0, 0, -10, 0f, 0f, 0f, 0f, 1.0f, 0.0f);
+        MatrixMath.setLookAtM(mViewMatrix, 0, 0, 0, -10, 0f, 0f, 0f, 0f, 1.0f, 0.0f);
 
         // Configure matrices for first cube
-        Matrix.setIdentityM(mMMatrix, 0);
+        MatrixMath.setIdentityM(mMMatrix, 0);
 
-        Matrix.translateM(mMMatrix, 0, 0.0f, -0.5f, -1.5f);
+        MatrixMath.translateM(mMMatrix, 0, 0.0f, -0.5f, -1.5f);
 
-        Matrix.setRotateM(mRotationMatrix, 0, 2 * mAngle, 0.0f, 1.0f, 1.0f);
-        Matrix.multiplyMM(mMMatrix, 0, mRotationMatrix, 0, mMMatrix, 0);
+        MatrixMath.setRotateM(mRotationMatrix, 0, 2 * mAngle, 0.0f, 1.0f, 1.0f);
+        MatrixMath.multiplyMM(mMMatrix, 0, mRotationMatrix, 0, mMMatrix, 0);
 
-        Matrix.multiplyMM(mMVMatrix, 0, mViewMatrix, 0, mMMatrix, 0);
-        Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVMatrix, 0);
+        MatrixMath.multiplyMM(mMVMatrix, 0, mViewMatrix, 0, mMMatrix, 0);
+        MatrixMath.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVMatrix, 0);
 
+        beginPass(timer, PASS_FIRST_CUBE);
         mCube.draw(mMVPMatrix, mChangeColor);
+        endPass(timer, PASS_FIRST_CUBE);
+
+        if (fullDetail) {
+            beginPass(timer, PASS_SECOND_CUBE);
+            drawSecondCube();
+            endPass(timer, PASS_SECOND_CUBE);
+        }
+
+        drawParticles(frameStartNanos);
+
+        StartupTrace.get().markFirstFrame();
+
+        long workNanos = mClock.nanoTime() - frameStartNanos;
+        if (governor != null && !background) {
+            governor.onFrame(frameStartNanos, workNanos);
+        }
+        Telemetry.get().onFrame(frameStartNanos, workNanos, background);
+        drawDebugHud(frameStartNanos, governor);
+    }
+
+    /**
+     * Applies a background mode change and sleeps out the rest of the frame budget when the
+     * frame rate is capped, by the tier or by the background mode. Call at the start of every
+     * frame.
+     *
+     * @param tier The governor's current tier, or null without a governor.
+     * @return When the frame started, after pacing.
+     */
+    protected long beginFrame(QualityTier tier) {
+        int mode = mBackgroundMode;
+        if (mode != mAppliedBackgroundMode) {
+            applyBackgroundMode(mode);
+        }
+        int maxFps = tier != null ? tier.getMaxFps() : DISPLAY_FPS;
+        if (mode != BackgroundPolicy.MODE_FOREGROUND) {
+            // Also covers a new GL thread, e.g. after the surface was recreated
+            if (mThrottledThreadId != Process.myTid()) {
+                lowerThreadPriority();
+            }
+            maxFps = Math.min(maxFps, BackgroundPolicy.BACKGROUND_MAX_FPS);
+        }
+        paceFrame(maxFps);
+        mLastFrameStartNanos = mClock.nanoTime();
+        return mLastFrameStartNanos;
+    }
+
+    /**
+     * Swaps in reloaded shaders and gives pending texture uploads their slice of the frame. Call
+     * every frame before drawing.
+     */
+    protected void updateResources() {
+        mShaderLibrary.applyReloads();
+        if (mTextureManager != null) {
+            mTextureManager.onFrame();
+        }
+    }
+
+    /**
+     * Turns the cubes by the time since the previous frame, so a capped frame rate doesn't slow
+     * the animation down.
+     */
+    private void advanceAngle(long frameStartNanos) {
+        if (mAnimationStarted) {
+            long elapsed = Math.min(frameStartNanos - mLastAnimationNanos,
+                    MAX_ANIMATION_STEP_NANOS);
+            mAngle += DEGREES_PER_SECOND * mRotationSpeed * mMotionScale * elapsed / 1e9f;
+            // Keeps the precision of the angle over long sessions; the first cube turns twice
+            mAngle %= 360.0f;
+        }
+        mLastAnimationNanos = frameStartNanos;
+        mAnimationStarted = true;
+    }
+
+    /**
+     * Whether the phone UI is in the background, so diagnostics are suspended and the quality
+     * governor isn't fed the throttled frames.
+     */
+    protected boolean isInBackground() {
+        return mAppliedBackgroundMode != BackgroundPolicy.MODE_FOREGROUND;
+    }
+
+    private void applyBackgroundMode(int mode) {
+        mAppliedBackgroundMode = mode;
+        if (mode == BackgroundPolicy.MODE_FOREGROUND) {
+            if (mThrottledThreadId == Process.myTid()) {
+                Process.setThreadPriority(mForegroundThreadPriority);
+            }
+            mThrottledThreadId = 0;
+            // Throttled frames say nothing about what the device can do at full rate
+            QualityGovernor governor = mQualityGovernor;
+            if (governor != null) {
+                governor.resetFrameHistory();
+            }
+            Log.d(TAG, "Back in the foreground");
+            return;
+        }
+        if (mode == BackgroundPolicy.MODE_IDLE) {
+            releaseIdleResources();
+        }
+    }
+
+    /**
+     * Leaves the CPU to the app in the foreground.
+     */
+    private void lowerThreadPriority() {
+        mThrottledThreadId = Process.myTid();
+        mForegroundThreadPriority = Process.getThreadPriority(mThrottledThreadId);
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * Deletes what isn't needed to keep drawing the scene. It is created again when needed.
+     */
+    private void releaseIdleResources() {
+        if (mDebugHud != null) {
+            mDebugHud.release();
+            mDebugHud = null;
+        }
+        if (mGpuTimer != null) {
+            mGpuTimer.release();
+            mGpuTimer = null;
+        }
+        int textures = mTextureManager != null ? mTextureManager.releaseUnused() : 0;
+        Log.d(TAG, "Idle in the background, released diagnostics and " + textures
+                + " textures");
+    }
 
+    /**
+     * Draws the HUD if enabled, with the GL calls counted since the previous frame's HUD, and
+     * starts counting the next frame.
+     */
+    protected void drawDebugHud(long frameStartNanos, QualityGovernor governor) {
+        if (mDebugHudEnabled && !isInBackground()
+                && mCountingGl.getDelegate() == AndroidGlApi.INSTANCE) {
+            if (mDebugHud == null) {
+                mDebugHud = new DebugHud();
+                mDebugHud.setViewportSize(mWidth, mHeight);
+            }
+            mDebugHud.onFrame(frameStartNanos, mCountingGl.getCallCount(),
+                    mCountingGl.getDrawCallCount(),
+                    governor != null ? governor.getTierIndex() : -1);
+            mDebugHud.draw(mBlendEnabled);
+        }
+        mCountingGl.resetCounts();
+    }
+
+    /**
+     * Starts requested effects and draws the particles alive, over the cubes, seen from the
+     * camera in {@link #mViewMatrix}. Only drawn when rendering with {@link AndroidGlApi}.
+     */
+    protected void drawParticles(long frameStartNanos) {
+        int bursts = mPendingBursts.getAndSet(0);
+        if (mParticleEffects == null && bursts == 0) {
+            return;
+        }
+        float nowSeconds = (frameStartNanos - mParticleEpochNanos) / 1000000000.0f;
+        ParticleEffects effects = getParticleEffects();
+        for (; bursts > 0; bursts--) {
+            // Confetti from between the cubes, sparks off the first one
+            effects.confetti(0, 0.5f, 0, nowSeconds);
+            effects.sparks(0, -0.5f, -1.5f, nowSeconds);
+        }
+        ParticleSystem system = effects.getSystem();
+        system.update(nowSeconds);
+        if (system.getParticleCount() == 0
+                || mCountingGl.getDelegate() != AndroidGlApi.INSTANCE) {
+            return;
+        }
+        if (mParticleRenderer == null) {
+            mParticleRenderer = new ParticleRenderer(system, mShaderLibrary);
+        }
+        MatrixMath.multiplyMM(mViewProjectionMatrix, 0, mProjectionMatrix, 0, mViewMatrix, 0);
+        float pointScale = mProjectionMatrix[5] * mHeight / 2;
+        mParticleRenderer.draw(mViewProjectionMatrix, pointScale, nowSeconds, mBlendEnabled);
+    }
+
+    private void drawSecondCube() {
         // Configure matrices for second cube
-        Matrix.setIdentityM(mMMatrix, 0);
+        MatrixMath.setIdentityM(mMMatrix, 0);
 
-        Matrix.translateM(mMMatrix, 0, 0.0f, 2.0f, 0.0f);
+        MatrixMath.translateM(mMMatrix, 0, 0.0f, 2.0f, 0.0f);
 
-        Matrix.setRotateM(mRotationMatrix, 0, -mAngle, 0.0f, 1.0f, 1.0f);
-        Matrix.multiplyMM(mMMatrix, 0, mRotationMatrix, 0, mMMatrix, 0);
+        MatrixMath.setRotateM(mRotationMatrix, 0, -mAngle, 0.0f, 1.0f, 1.0f);
+        MatrixMath.multiplyMM(mMMatrix, 0, mRotationMatrix, 0, mMMatrix, 0);
 
-        Matrix.multiplyMM(mMVMatrix, 0, mViewMatrix, 0, mMMatrix, 0);
-        Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVMatrix, 0);
+        MatrixMath.multiplyMM(mMVMatrix, 0, mViewMatrix, 0, mMMatrix, 0);
+        MatrixMath.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVMatrix, 0);
 
         mCube.draw(mMVPMatrix, mChangeColor);
+    }
 
-        mAngle += ANGLE_INCREMENT;
+    private GpuTimer getGpuTimer() {
+        // Query objects belong to the context, so the timer is created with the surface
+        if (mGpuTimer == null && mCountingGl.getDelegate() == AndroidGlApi.INSTANCE) {
+            mGpuTimer = new GpuTimer(mPassTimings);
+        }
+        return mGpuTimer;
+    }
+
+    private static void beginPass(GpuTimer timer, int pass) {
+        if (timer != null) {
+            timer.beginPass(pass);
+        }
+    }
+
+    private static void endPass(GpuTimer timer, int pass) {
+        if (timer != null) {
+            timer.endPass(pass);
+        }
+    }
+
+    /**
+     * Sleeps out the rest of the frame budget when the frame rate is capped below the
+     * display's.
+     */
+    private void paceFrame(int maxFps) {
+        if (maxFps >= DISPLAY_FPS || mLastFrameStartNanos == 0) {
+            return;
+        }
+        long waitNanos = mLastFrameStartNanos + 1000000000L / maxFps - mClock.nanoTime();
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void setBlendEnabled(boolean enabled) {
+        if (enabled != mBlendEnabled) {
+            mBlendEnabled = enabled;
+            if (enabled) {
+                mGl.glEnable(GLES20.GL_BLEND);
+            } else {
+                mGl.glDisable(GLES20.GL_BLEND);
+            }
+        }
     }
 
     public void onSurfaceChanged(GL10 unused, int width, int height) {
-        float ratio = (float) width / height;
-        GLES20.glViewport(0, 0, width, height);
+        mGl.glViewport(0, 0, width, height);
+        mWidth = width;
+        mHeight = height;
+        if (mDebugHud != null) {
+            mDebugHud.setViewportSize(width, height);
+        }
+        setProjection(mProjectionMatrix, width, height);
+    }
 
-        // Configure perspective with field of view
-        float fov = 30.0f;
-        float near = 1.0f;
-        float far = 100.0f;
-        float top = (float) Math.tan(fov * Math.PI / 360.0f) * near;
-        float bottom = -top;
-        float left = ratio * bottom;
-        float right = ratio * top;
-        Matrix.frustumM(mProjectionMatrix, 0, left, right, bottom, top, near, far);
+    /**
+     * Sets {@code projection} to the scene's perspective for a viewport of the given size, for
+     * code that needs to see what the renderer sees.
+     */
+    static void setProjection(float[] projection, int width, int height) {
+        MatrixMath.perspectiveM(projection, 0, FIELD_OF_VIEW, (float) width / height, NEAR, FAR);
     }
 
     public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+        StartupTrace.get().mark(StartupTrace.EVENT_SURFACE_CREATED);
         // Set background color
-        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+        mGl.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
 
         // Depth handling
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-        GLES20.glDepthFunc(GLES20.GL_LEQUAL);
+        mGl.glEnable(GLES20.GL_DEPTH_TEST);
+        mGl.glDepthFunc(GLES20.GL_LEQUAL);
 
         // Set anti-aliasing
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        mGl.glEnable(GLES20.GL_BLEND);
+        mGl.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        mBlendEnabled = true;
 
-        // Important to initialize the graphics on the GL thread
-        mCube = new Cube();
+        // A new surface starts a new frame history, and a new context needs new queries
+        mLastFrameStartNanos = 0;
+        mGpuTimer = null;
+        if (mDebugHud != null) {
+            mDebugHud.onSurfaceCreated();
+        }
+        QualityGovernor governor = mQualityGovernor;
+        if (governor != null) {
+            governor.resetFrameHistory();
+        }
+
+        if (mTextureManager != null) {
+            mTextureManager.onSurfaceCreated();
+        }
+        if (mParticleRenderer != null) {
+            mParticleRenderer.onContextLost();
+        }
+
+        // Important to initialize the graphics on the GL thread. Programs are built when first
+        // drawn with, in the new context.
+        mShaderLibrary.onContextLost();
+        if (mCube != null) {
+            mCube.release();
+        }
+        mCube = new Cube(mGl, mGeometry, mShaderLibrary);
+    }
+
+    /**
+     * Forgets GL objects of a context that has been destroyed, e.g. once the presentation
+     * showing this renderer was dismissed, so they don't show up as leaks. Call when the GL
+     * thread has stopped.
+     */
+    public void onContextLost() {
+        if (mCube != null) {
+            mCube.release();
+            mCube = null;
+        }
+        if (mDebugHud != null) {
+            mDebugHud.onContextLost();
+            mDebugHud = null;
+        }
+        mShaderLibrary.onContextLost();
+        if (mTextureManager != null) {
+            mTextureManager.onContextLost();
+        }
+        if (mParticleRenderer != null) {
+            // Forgotten buffer objects aren't deleted, so this only returns pooled memory
+            mParticleRenderer.onContextLost();
+            mParticleRenderer.release();
+            mParticleRenderer = null;
+        }
+    }
+
+    protected GlApi getGl() {
+        return mGl;
+    }
+
+    /**
+     * The cube created for the current surface, shared with subclasses drawing more of them.
+     */
+    protected Cube getCube() {
+        return mCube;
+    }
+
+    protected boolean isColorChanged() {
+        return mChangeColor;
+    }
+
+    protected QualityGovernor getQualityGovernor() {
+        return mQualityGovernor;
     }
 
     /**
@@ -135,4 +601,41 @@ public class CubeRenderer implements GLSurfaceView.Renderer {
     public void changeColor() {
         mChangeColor = !mChangeColor;
     }
+
+    public void setColorChanged(boolean changeColor) {
+        mChangeColor = changeColor;
+    }
+
+    /**
+     * Bursts confetti and sparks over the cubes with the next frame. May be called on any
+     * thread.
+     */
+    public void burstParticles() {
+        mPendingBursts.incrementAndGet();
+    }
+
+    /**
+     * The effects drawn over the scene, for starting more of them. Use on the GL thread.
+     */
+    public ParticleEffects getParticleEffects() {
+        if (mParticleEffects == null) {
+            mParticleEffects = new ParticleEffects();
+        }
+        return mParticleEffects;
+    }
+
+    /**
+     * Scales how fast the cubes tumble; 1 is the default speed and 0 stops them.
+     */
+    public void setRotationSpeed(float speed) {
+        mRotationSpeed = speed;
+    }
+
+    /**
+     * Slows the scene down to keep frames cheap to encode, see {@link MotionBudget}. Applies
+     * on top of the rotation speed controllers set.
+     */
+    public void setMotionScale(float scale) {
+        mMotionScale = scale;
+    }
 }
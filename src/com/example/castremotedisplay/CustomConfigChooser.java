@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.opengl.GLSurfaceView;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLDisplay;
+
+/**
+ * OpenGL config to enable custom anti-aliasing
+ */
+public final class CustomConfigChooser implements GLSurfaceView.EGLConfigChooser {
+
+    public static final int DEFAULT_SAMPLES = 4;
+
+    private int[] mValue = new int[1];
+    protected int mRedSize = 8;
+    protected int mGreenSize = 8;
+    protected int mBlueSize = 8;
+    protected int mAlphaSize = 8;
+    protected int mDepthSize = 16;
+    protected int mStencilSize = 0;
+    protected final int mSamples;
+
+    public CustomConfigChooser() {
+        this(DEFAULT_SAMPLES);
+    }
+
+    /**
+     * @param samples Number of MSAA samples, or 0 for a single sampled config.
+     */
+    public CustomConfigChooser(int samples) {
+        mSamples = samples;
+    }
+
+    public int getSamples() {
+        return mSamples;
+    }
+
+    @Override
+    public EGLConfig chooseConfig(EGL10 egl, EGLDisplay display) {
+        int[] configSpec = {
+                EGL10.EGL_RED_SIZE, mRedSize,
+                EGL10.EGL_GREEN_SIZE, mGreenSize,
+                EGL10.EGL_BLUE_SIZE, mBlueSize,
+                EGL10.EGL_ALPHA_SIZE, mAlphaSize,
+                EGL10.EGL_DEPTH_SIZE, mDepthSize,
+                EGL10.EGL_STENCIL_SIZE, mStencilSize,
+                EGL10.EGL_RENDERABLE_TYPE, 4,
+                EGL10.EGL_SAMPLE_BUFFERS, mSamples > 0 ? 1 : 0,
+                EGL10.EGL_SAMPLES, mSamples,
+                EGL10.EGL_NONE
+        };
+        int[] num_config = new int[1];
+        if (!egl.eglChooseConfig(display, configSpec, null, 0, num_config)) {
+            return null;
+        }
+
+        int numConfigs = num_config[0];
+
+        if (numConfigs <= 0) {
+            return null;
+        }
+
+        EGLConfig[] configs = new EGLConfig[numConfigs];
+        if (!egl.eglChooseConfig(display, configSpec, configs, numConfigs, num_config)) {
+            return null;
+        }
+        EGLConfig config = findConfig(egl, display, configs);
+        if (config == null) {
+            return null;
+        }
+        return config;
+    }
+
+    private EGLConfig findConfig(EGL10 egl, EGLDisplay display, EGLConfig[] configs) {
+        for (EGLConfig config : configs) {
+            int d = findConfigAttrib(egl, display, config, EGL10.EGL_DEPTH_SIZE, 0);
+            int s = findConfigAttrib(egl, display, config, EGL10.EGL_STENCIL_SIZE, 0);
+            if ((d >= mDepthSize) && (s >= mStencilSize)) {
+                int r = findConfigAttrib(egl, display, config, EGL10.EGL_RED_SIZE, 0);
+                int g = findConfigAttrib(egl, display, config, EGL10.EGL_GREEN_SIZE, 0);
+                int b = findConfigAttrib(egl, display, config, EGL10.EGL_BLUE_SIZE, 0);
+                int a = findConfigAttrib(egl, display, config, EGL10.EGL_ALPHA_SIZE, 0);
+                if ((r == mRedSize) && (g == mGreenSize) && (b == mBlueSize) && (a
+                        == mAlphaSize)) {
+                    return config;
+                }
+            }
+        }
+        return null;
+    }
+
+    private int findConfigAttrib(EGL10 egl, EGLDisplay display, EGLConfig config,
+            int attribute,
+            int defaultValue) {
+        if (egl.eglGetConfigAttrib(display, config, attribute, mValue)) {
+            return mValue[0];
+        }
+        return defaultValue;
+    }
+}
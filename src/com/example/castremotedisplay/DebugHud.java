@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.opengl.GLES20;
+import android.os.Debug;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A performance overlay drawn over the scene on the remote display: FPS, a graph of recent frame
+ * times, GL calls per frame, GC count and allocation rate, and the quality tier.
+ * <p>
+ * Everything is drawn as colored quads, text included with a 3x5 pixel font, from vertex and
+ * index buffers allocated up front, and numbers are formatted into a reused char array, so an
+ * enabled HUD doesn't allocate per frame and skew the numbers it shows. The HUD issues its
+ * calls straight to {@link GLES20} so they aren't part of the scene's GL call count. Create and
+ * draw on the GL thread.
+ * </p>
+ */
+public class DebugHud {
+
+    private static final String TAG = "DebugHud";
+
+    private static final String VERTEX_SHADER_CODE =
+            // Positions are in pixels from the top left corner
+            "uniform vec2 uScale;" +
+                    "attribute vec2 aPosition;" +
+                    "attribute vec4 aColor;" +
+                    "varying vec4 vColor;" +
+                    "void main() {" +
+                    "  vColor = aColor;" +
+                    "  gl_Position = vec4(aPosition * uScale + vec2(-1.0, 1.0), 0.0, 1.0);" +
+                    "}";
+
+    private static final String FRAGMENT_SHADER_CODE =
+            "precision mediump float;" +
+                    "varying vec4 vColor;" +
+                    "void main() {" +
+                    "  gl_FragColor = vColor;" +
+                    "}";
+
+    private static final int MAX_QUADS = 2048;
+    private static final int FLOATS_PER_VERTEX = 6;
+    private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * 4;
+
+    // How often heap use is sampled, since reading the GC count allocates a little
+    private static final long MEMORY_SAMPLE_INTERVAL_NS = 250000000L;
+    private static final float FRAME_BUDGET_MS = 1000f / 60;
+    private static final float MIN_GRAPH_RANGE_MS = 2 * FRAME_BUDGET_MS;
+    private static final int GRAPH_HEIGHT = 30;
+    private static final int TEXT_LINE_HEIGHT = 7;
+    private static final int MARGIN = 2;
+
+    private static final float[] COLOR_BACKGROUND = {0f, 0f, 0f, 0.6f};
+    private static final float[] COLOR_TEXT = {1f, 1f, 1f, 1f};
+    private static final float[] COLOR_GOOD = {0.2f, 0.9f, 0.2f, 1f};
+    private static final float[] COLOR_SLOW = {1f, 0.8f, 0.1f, 1f};
+    private static final float[] COLOR_JANK = {1f, 0.2f, 0.2f, 1f};
+    private static final float[] COLOR_BUDGET = {1f, 1f, 1f, 0.5f};
+
+    // 3x5 glyphs, one bit per pixel, top row in the highest bits, rows spelled out alongside
+    private static final int[] GLYPHS = new int[128];
+
+    static {
+        GLYPHS['0'] = 0x7B6F; // 111 101 101 101 111
+        GLYPHS['1'] = 0x2C97; // 010 110 010 010 111
+        GLYPHS['2'] = 0x73E7; // 111 001 111 100 111
+        GLYPHS['3'] = 0x73CF; // 111 001 111 001 111
+        GLYPHS['4'] = 0x5BC9; // 101 101 111 001 001
+        GLYPHS['5'] = 0x79CF; // 111 100 111 001 111
+        GLYPHS['6'] = 0x79EF; // 111 100 111 101 111
+        GLYPHS['7'] = 0x7249; // 111 001 001 001 001
+        GLYPHS['8'] = 0x7BEF; // 111 101 111 101 111
+        GLYPHS['9'] = 0x7BCF; // 111 101 111 001 111
+        GLYPHS['.'] = 0x0002; // 000 000 000 000 010
+        GLYPHS['/'] = 0x12A4; // 001 001 010 100 100
+        GLYPHS['-'] = 0x01C0; // 000 000 111 000 000
+        GLYPHS['A'] = 0x2BED; // 010 101 111 101 101
+        GLYPHS['B'] = 0x6BAE; // 110 101 110 101 110
+        GLYPHS['C'] = 0x3923; // 011 100 100 100 011
+        GLYPHS['D'] = 0x6B6E; // 110 101 101 101 110
+        GLYPHS['E'] = 0x79A7; // 111 100 110 100 111
+        GLYPHS['F'] = 0x79A4; // 111 100 110 100 100
+        GLYPHS['G'] = 0x396B; // 011 100 101 101 011
+        GLYPHS['I'] = 0x7497; // 111 010 010 010 111
+        GLYPHS['K'] = 0x5BAD; // 101 101 110 101 101
+        GLYPHS['L'] = 0x4927; // 100 100 100 100 111
+        GLYPHS['M'] = 0x5FED; // 101 111 111 101 101
+        GLYPHS['O'] = 0x2B6A; // 010 101 101 101 010
+        GLYPHS['P'] = 0x6BA4; // 110 101 110 100 100
+        GLYPHS['R'] = 0x6BAD; // 110 101 110 101 101
+        GLYPHS['S'] = 0x388E; // 011 100 010 001 110
+        GLYPHS['T'] = 0x7492; // 111 010 010 010 010
+        GLYPHS['W'] = 0x5BFD; // 101 101 111 111 101
+        GLYPHS['X'] = 0x5AAD; // 101 101 010 101 101
+    }
+
+    private static final Method sGetRuntimeStat = findGetRuntimeStat();
+
+    private final HudStats mStats = new HudStats();
+    // From the buffer pool, until released
+    private FloatBuffer mVertexBuffer;
+    private ShortBuffer mIndexBuffer;
+    private final char[] mText = new char[64];
+    private int mTextLength;
+    private int mQuadCount;
+
+    private int mProgram;
+    private int mScaleHandle;
+    private int mPositionHandle;
+    private int mColorHandle;
+    private int mWidth;
+    private int mHeight;
+    private long mLastMemorySampleNanos;
+
+    public DebugHud() {
+        DirectBufferPool pool = MemoryGovernor.get().getBufferPool();
+        mVertexBuffer = pool.acquireFloats(MAX_QUADS * 4 * FLOATS_PER_VERTEX, TAG);
+        // The same two triangles for every quad
+        mIndexBuffer = pool.acquireShorts(MAX_QUADS * 6, TAG);
+        for (int quad = 0; quad < MAX_QUADS; quad++) {
+            short first = (short) (quad * 4);
+            mIndexBuffer.put(first).put((short) (first + 1)).put((short) (first + 2))
+                    .put(first).put((short) (first + 2)).put((short) (first + 3));
+        }
+        mIndexBuffer.position(0);
+    }
+
+    public HudStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Drops GL objects of a previous context. Call when the surface is created.
+     */
+    public void onSurfaceCreated() {
+        MemoryGovernor.get().getGlObjects().releaseOwner(this);
+        mProgram = 0;
+        mStats.reset();
+    }
+
+    /**
+     * Deletes the program and returns the vertex buffers. Call on the GL thread while the
+     * context is still current; the HUD can't be drawn afterwards.
+     */
+    public void release() {
+        if (mProgram != 0) {
+            GLES20.glDeleteProgram(mProgram);
+            MemoryGovernor.get().getGlObjects().unregister(this, GlObjectRegistry.TYPE_PROGRAM,
+                    mProgram);
+            mProgram = 0;
+        }
+        releaseBuffers();
+    }
+
+    /**
+     * Forgets the program of a destroyed context and returns the vertex buffers; the HUD can't be
+     * drawn afterwards.
+     */
+    public void onContextLost() {
+        MemoryGovernor.get().getGlObjects().releaseOwner(this);
+        mProgram = 0;
+        releaseBuffers();
+    }
+
+    private void releaseBuffers() {
+        if (mVertexBuffer != null) {
+            Cube.releaseBuffer(mVertexBuffer);
+            Cube.releaseBuffer(mIndexBuffer);
+            mVertexBuffer = null;
+            mIndexBuffer = null;
+        }
+    }
+
+    public void setViewportSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Records a frame of the scene.
+     *
+     * @param glCalls     GL calls the scene issued for the frame.
+     * @param drawCalls   Draw calls among them.
+     * @param qualityTier The current quality tier index, or -1 without a governor.
+     */
+    public void onFrame(long nowNanos, int glCalls, int drawCalls, int qualityTier) {
+        mStats.onFrame(nowNanos, glCalls, drawCalls);
+        mStats.setQualityTier(qualityTier);
+        if (nowNanos - mLastMemorySampleNanos >= MEMORY_SAMPLE_INTERVAL_NS) {
+            mLastMemorySampleNanos = nowNanos;
+            Runtime runtime = Runtime.getRuntime();
+            mStats.onMemorySample(nowNanos, runtime.totalMemory() - runtime.freeMemory(),
+                    getGcCount());
+        }
+    }
+
+    /**
+     * Draws the HUD over the current frame. Leaves depth testing enabled and blending in the
+     * given state, as the scene expects.
+     */
+    public void draw(boolean blendEnabled) {
+        if (mWidth == 0 || mHeight == 0 || !ensureProgram()) {
+            return;
+        }
+        // Font pixels scale with the display, 4 screen pixels each at 1080p
+        int unit = Math.max(1, mHeight / 270);
+        buildQuads(unit);
+
+        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+        if (!blendEnabled) {
+            GLES20.glEnable(GLES20.GL_BLEND);
+        }
+        GLES20.glUseProgram(mProgram);
+        GLES20.glUniform2f(mScaleHandle, 2f / mWidth, -2f / mHeight);
+        mVertexBuffer.position(0);
+        GLES20.glVertexAttribPointer(mPositionHandle, 2, GLES20.GL_FLOAT, false, VERTEX_STRIDE,
+                mVertexBuffer);
+        mVertexBuffer.position(2);
+        GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false, VERTEX_STRIDE,
+                mVertexBuffer);
+        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        GLES20.glEnableVertexAttribArray(mColorHandle);
+        mIndexBuffer.position(0);
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, mQuadCount * 6, GLES20.GL_UNSIGNED_SHORT,
+                mIndexBuffer);
+        GLES20.glDisableVertexAttribArray(mPositionHandle);
+        GLES20.glDisableVertexAttribArray(mColorHandle);
+
+        if (!blendEnabled) {
+            GLES20.glDisable(GLES20.GL_BLEND);
+        }
+        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+    }
+
+    private void buildQuads(int unit) {
+        mVertexBuffer.clear();
+        mQuadCount = 0;
+
+        FloatRingBuffer frameMillis = mStats.getFrameMillis();
+        int barWidth = unit;
+        int panelWidth = (HudStats.GRAPH_FRAMES + 2 * MARGIN) * barWidth;
+        int panelHeight = (MARGIN * 3 + 5 * TEXT_LINE_HEIGHT + GRAPH_HEIGHT) * unit;
+        int left = MARGIN * unit;
+        int top = MARGIN * unit;
+        addQuad(left, top, panelWidth, panelHeight, COLOR_BACKGROUND);
+
+        int x = left + MARGIN * unit;
+        int y = top + MARGIN * unit;
+
+        beginText().append("FPS ").appendDecimal(mStats.getFps());
+        drawText(x, y, unit, COLOR_TEXT);
+        y += TEXT_LINE_HEIGHT * unit;
+
+        beginText().append("MS ").appendDecimal(frameMillis.getLast()).append(" MAX ")
+                .appendDecimal(frameMillis.getMax());
+        drawText(x, y, unit, COLOR_TEXT);
+        y += TEXT_LINE_HEIGHT * unit;
+
+        beginText().append("GL ").appendInt(mStats.getGlCalls()).append(" DRAW ")
+                .appendInt(mStats.getDrawCalls());
+        drawText(x, y, unit, COLOR_TEXT);
+        y += TEXT_LINE_HEIGHT * unit;
+
+        beginText().append("GC ").appendInt(mStats.getGcCount()).append(" ALLOC ")
+                .appendInt(Math.round(mStats.getAllocationBytesPerSecond() / 1024))
+                .append(" KB/S");
+        drawText(x, y, unit, COLOR_TEXT);
+        y += TEXT_LINE_HEIGHT * unit;
+
+        beginText().append("TIER ");
+        if (mStats.getQualityTier() < 0) {
+            append("-");
+        } else {
+            appendInt(mStats.getQualityTier());
+        }
+        drawText(x, y, unit, COLOR_TEXT);
+        y += (TEXT_LINE_HEIGHT + MARGIN) * unit;
+
+        // Frame time bars, newest on the right, scaled to fit the slowest frame
+        float rangeMs = Math.max(MIN_GRAPH_RANGE_MS, frameMillis.getMax());
+        int graphHeight = GRAPH_HEIGHT * unit;
+        int graphBottom = y + graphHeight;
+        int graphLeft = x + (HudStats.GRAPH_FRAMES - frameMillis.size()) * barWidth;
+        for (int i = 0; i < frameMillis.size(); i++) {
+            float ms = frameMillis.get(i);
+            int barHeight = Math.max(1, Math.round(Math.min(ms, rangeMs) / rangeMs * graphHeight));
+            float[] color = ms <= FRAME_BUDGET_MS * 1.05f ? COLOR_GOOD
+                    : ms <= MIN_GRAPH_RANGE_MS * 1.05f ? COLOR_SLOW : COLOR_JANK;
+            addQuad(graphLeft + i * barWidth, graphBottom - barHeight, barWidth, barHeight,
+                    color);
+        }
+        int budgetY = graphBottom - Math.round(FRAME_BUDGET_MS / rangeMs * graphHeight);
+        addQuad(x, budgetY, HudStats.GRAPH_FRAMES * barWidth, Math.max(1, unit / 2),
+                COLOR_BUDGET);
+    }
+
+    private void drawText(int x, int y, int unit, float[] color) {
+        for (int i = 0; i < mTextLength; i++) {
+            char c = mText[i];
+            int glyph = c < GLYPHS.length ? GLYPHS[c] : 0;
+            for (int bit = 0; bit < 15; bit++) {
+                if ((glyph & (1 << (14 - bit))) != 0) {
+                    addQuad(x + (bit % 3) * unit, y + (bit / 3) * unit, unit, unit, color);
+                }
+            }
+            x += 4 * unit;
+        }
+    }
+
+    private void addQuad(int x, int y, int width, int height, float[] color) {
+        if (mQuadCount == MAX_QUADS) {
+            return;
+        }
+        addVertex(x, y, color);
+        addVertex(x + width, y, color);
+        addVertex(x + width, y + height, color);
+        addVertex(x, y + height, color);
+        mQuadCount++;
+    }
+
+    private void addVertex(float x, float y, float[] color) {
+        mVertexBuffer.put(x).put(y).put(color[0]).put(color[1]).put(color[2]).put(color[3]);
+    }
+
+    private DebugHud beginText() {
+        mTextLength = 0;
+        return this;
+    }
+
+    private DebugHud append(String text) {
+        for (int i = 0; i < text.length() && mTextLength < mText.length; i++) {
+            mText[mTextLength++] = text.charAt(i);
+        }
+        return this;
+    }
+
+    private DebugHud appendInt(long value) {
+        if (value < 0) {
+            append("-");
+            value = -value;
+        }
+        int start = mTextLength;
+        do {
+            if (mTextLength == mText.length) {
+                break;
+            }
+            mText[mTextLength++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // Digits were written least significant first
+        for (int i = start, j = mTextLength - 1; i < j; i++, j--) {
+            char c = mText[i];
+            mText[i] = mText[j];
+            mText[j] = c;
+        }
+        return this;
+    }
+
+    /**
+     * Appends the value with one decimal.
+     */
+    private DebugHud appendDecimal(float value) {
+        long tenths = Math.round(value * 10);
+        appendInt(tenths / 10);
+        append(".");
+        return appendInt(Math.abs(tenths % 10));
+    }
+
+    private boolean ensureProgram() {
+        if (mProgram != 0) {
+            return true;
+        }
+        int vertexShader = Cube.loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_CODE);
+        int fragmentShader = Cube.loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_CODE);
+        if (vertexShader == 0 || fragmentShader == 0) {
+            return false;
+        }
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            Log.e(TAG, "Could not link program: " + GLES20.glGetProgramInfoLog(program));
+            GLES20.glDeleteProgram(program);
+            return false;
+        }
+        mProgram = program;
+        MemoryGovernor.get().getGlObjects().register(this, GlObjectRegistry.TYPE_PROGRAM, program,
+                0, TAG);
+        mScaleHandle = GLES20.glGetUniformLocation(program, "uScale");
+        mPositionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+        mColorHandle = GLES20.glGetAttribLocation(program, "aColor");
+        return true;
+    }
+
+    /**
+     * Collections so far from the runtime's stats (API 23+), or -1 if they aren't available.
+     */
+    private static long getGcCount() {
+        if (sGetRuntimeStat == null) {
+            return -1;
+        }
+        try {
+            String count = (String) sGetRuntimeStat.invoke(null, "art.gc.gc-count");
+            return count != null ? Long.parseLong(count) : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static Method findGetRuntimeStat() {
+        try {
+            return Debug.class.getMethod("getRuntimeStat", String.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
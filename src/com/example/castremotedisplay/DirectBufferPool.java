@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A slab pool of direct buffers with explicit release and a budget.
+ * <p>
+ * Direct memory is only returned to the system when the GC finalizes a buffer, which may be long
+ * after the buffer became garbage. Instead, requests up to {@link #MAX_BLOCK_SIZE} are served
+ * from blocks of power of two size classes, carved from {@link #SLAB_SIZE} slabs, and released
+ * blocks are reused for later requests. Slabs are never given back, so the pool's footprint is
+ * its high water mark. Larger requests get a buffer of their own, which is dropped on release.
+ * </p>
+ * <p>
+ * Every buffer handed out stays tracked until released, with a serial number and an owner
+ * label, so callers can check for leaks with {@link #getLiveSince(long)}. Thread safe.
+ * </p>
+ */
+public class DirectBufferPool {
+
+    public static final int MIN_BLOCK_SIZE = 64;
+    public static final int MAX_BLOCK_SIZE = 64 * 1024;
+    public static final int SLAB_SIZE = 256 * 1024;
+
+    private static final int CLASS_COUNT =
+            Integer.numberOfTrailingZeros(MAX_BLOCK_SIZE / MIN_BLOCK_SIZE) + 1;
+
+    private static final Comparator<Allocation> SERIAL_ORDER = new Comparator<Allocation>() {
+        @Override
+        public int compare(Allocation a, Allocation b) {
+            return a.mSerial < b.mSerial ? -1 : (a.mSerial == b.mSerial ? 0 : 1);
+        }
+    };
+
+    private final long mBudgetBytes;
+    private final ArrayList<ArrayDeque<ByteBuffer>> mFreeBlocks =
+            new ArrayList<ArrayDeque<ByteBuffer>>(CLASS_COUNT);
+    // Keyed by the buffer handed out, which may be a view of the block
+    private final IdentityHashMap<Buffer, Allocation> mLive =
+            new IdentityHashMap<Buffer, Allocation>();
+    private long mSlabBytes;
+    private long mLargeBytes;
+    private long mInUseBytes;
+    private long mNextSerial = 1;
+
+    /**
+     * A buffer handed out and not released yet.
+     */
+    public static final class Allocation {
+        private final ByteBuffer mBlock;
+        private final int mRequestedBytes;
+        private final String mOwner;
+        private final long mSerial;
+
+        Allocation(ByteBuffer block, int requestedBytes, String owner, long serial) {
+            mBlock = block;
+            mRequestedBytes = requestedBytes;
+            mOwner = owner;
+            mSerial = serial;
+        }
+
+        public int getRequestedBytes() {
+            return mRequestedBytes;
+        }
+
+        /**
+         * Bytes taken from the pool, i.e. the size class of the request.
+         */
+        public int getBlockBytes() {
+            return mBlock.capacity();
+        }
+
+        public String getOwner() {
+            return mOwner;
+        }
+
+        public long getSerial() {
+            return mSerial;
+        }
+    }
+
+    /**
+     * @param budgetBytes Most direct memory the pool may hold, slabs and large buffers.
+     */
+    public DirectBufferPool(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            mFreeBlocks.add(new ArrayDeque<ByteBuffer>());
+        }
+    }
+
+    /**
+     * A native order buffer with room for {@code bytes}, positioned at 0 with its limit at
+     * {@code bytes}.
+     *
+     * @param owner Shown in leak reports.
+     * @throws OutOfMemoryError If the pool's budget doesn't allow for the buffer.
+     */
+    public synchronized ByteBuffer acquire(int bytes, String owner) {
+        ByteBuffer block = takeBlock(bytes);
+        register(block, block, bytes, owner);
+        return block;
+    }
+
+    /**
+     * A native order float buffer of {@code count} floats, see {@link #acquire(int, String)}.
+     */
+    public synchronized FloatBuffer acquireFloats(int count, String owner) {
+        ByteBuffer block = takeBlock(count * 4);
+        FloatBuffer floats = block.asFloatBuffer();
+        register(floats, block, count * 4, owner);
+        return floats;
+    }
+
+    /**
+     * A native order short buffer of {@code count} shorts, see {@link #acquire(int, String)}.
+     */
+    public synchronized ShortBuffer acquireShorts(int count, String owner) {
+        ByteBuffer block = takeBlock(count * 2);
+        ShortBuffer shorts = block.asShortBuffer();
+        register(shorts, block, count * 2, owner);
+        return shorts;
+    }
+
+    /**
+     * Returns a buffer obtained from this pool. It must not be used afterwards.
+     *
+     * @throws IllegalArgumentException If the buffer isn't from this pool or was already
+     *                                  released.
+     */
+    public synchronized void release(Buffer buffer) {
+        Allocation allocation = mLive.remove(buffer);
+        if (allocation == null) {
+            throw new IllegalArgumentException("Buffer not from this pool or already released");
+        }
+        ByteBuffer block = allocation.mBlock;
+        mInUseBytes -= block.capacity();
+        if (block.capacity() > MAX_BLOCK_SIZE) {
+            mLargeBytes -= block.capacity();
+        } else {
+            mFreeBlocks.get(getSizeClass(block.capacity())).push(block);
+        }
+    }
+
+    private ByteBuffer takeBlock(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("bytes < 0");
+        }
+        ByteBuffer block;
+        if (bytes > MAX_BLOCK_SIZE) {
+            checkBudget(bytes);
+            block = ByteBuffer.allocateDirect(bytes);
+            mLargeBytes += bytes;
+        } else {
+            int sizeClass = getSizeClass(bytes);
+            ArrayDeque<ByteBuffer> free = mFreeBlocks.get(sizeClass);
+            if (free.isEmpty()) {
+                addSlab(sizeClass, free);
+            }
+            block = free.pop();
+        }
+        mInUseBytes += block.capacity();
+        block.clear();
+        block.limit(bytes);
+        block.order(ByteOrder.nativeOrder());
+        return block;
+    }
+
+    private void addSlab(int sizeClass, ArrayDeque<ByteBuffer> free) {
+        checkBudget(SLAB_SIZE);
+        ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+        mSlabBytes += SLAB_SIZE;
+        int blockSize = MIN_BLOCK_SIZE << sizeClass;
+        for (int offset = 0; offset < SLAB_SIZE; offset += blockSize) {
+            slab.limit(offset + blockSize);
+            slab.position(offset);
+            free.push(slab.slice());
+        }
+    }
+
+    private void checkBudget(long bytes) {
+        if (mSlabBytes + mLargeBytes + bytes > mBudgetBytes) {
+            throw new OutOfMemoryError("Direct buffer budget of " + mBudgetBytes
+                    + " bytes exceeded, " + (mSlabBytes + mLargeBytes) + " in use");
+        }
+    }
+
+    private void register(Buffer buffer, ByteBuffer block, int bytes, String owner) {
+        mLive.put(buffer, new Allocation(block, bytes, owner, mNextSerial++));
+    }
+
+    private static int getSizeClass(int bytes) {
+        int size = Math.max(MIN_BLOCK_SIZE, Integer.highestOneBit(Math.max(1, bytes - 1)) << 1);
+        return Integer.numberOfTrailingZeros(size / MIN_BLOCK_SIZE);
+    }
+
+    /**
+     * A serial number such that every buffer acquired from now on has a greater one.
+     */
+    public synchronized long mark() {
+        return mNextSerial;
+    }
+
+    /**
+     * Buffers acquired since {@code mark} and not released, oldest first.
+     */
+    public synchronized List<Allocation> getLiveSince(long mark) {
+        List<Allocation> live = new ArrayList<Allocation>();
+        for (Allocation allocation : mLive.values()) {
+            if (allocation.mSerial >= mark) {
+                live.add(allocation);
+            }
+        }
+        Collections.sort(live, SERIAL_ORDER);
+        return live;
+    }
+
+    public synchronized int getLiveCount() {
+        return mLive.size();
+    }
+
+    /**
+     * Direct memory held by the pool: all slabs, free or not, and large buffers in use.
+     */
+    public synchronized long getReservedBytes() {
+        return mSlabBytes + mLargeBytes;
+    }
+
+    /**
+     * Bytes of blocks and large buffers currently handed out.
+     */
+    public synchronized long getInUseBytes() {
+        return mInUseBytes;
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+}
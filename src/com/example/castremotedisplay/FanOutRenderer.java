@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.view.Surface;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders one scene per frame into a shared texture and blits it to any number of display
+ * surfaces.
+ * <p>
+ * The scene renderer (normally a {@link CubeRenderer}) draws into a framebuffer object on a
+ * dedicated render thread. Each output is an EGL window surface with its own size and frame
+ * rate; a {@link FanOutScheduler} decides when the scene is rendered and which outputs get the
+ * result, cropped to each output's aspect ratio. Blitting uses a second EGL context that shares
+ * the scene texture, so the scene's GL state is never disturbed by the blit.
+ * </p>
+ * <p>
+ * Public methods may be called from any thread; the work is posted to the render thread.
+ * Multisampling is not available for the shared texture on OpenGL ES 2.0.
+ * </p>
+ */
+public class FanOutRenderer implements FanOutScheduler.Scene {
+
+    private static final String TAG = "FanOutRenderer";
+
+    private static final String BLIT_VERTEX_SHADER_CODE =
+            "attribute vec4 aPosition;" +
+                    "attribute vec2 aTexCoord;" +
+                    // Left, bottom, right, top of the scene region shown
+                    "uniform vec4 uCrop;" +
+                    "varying vec2 vTexCoord;" +
+                    "void main() {" +
+                    "  vTexCoord = mix(uCrop.xy, uCrop.zw, aTexCoord);" +
+                    "  gl_Position = aPosition;" +
+                    "}";
+
+    private static final String BLIT_FRAGMENT_SHADER_CODE =
+            "precision mediump float;" +
+                    "uniform sampler2D uTexture;" +
+                    "varying vec2 vTexCoord;" +
+                    "void main() {" +
+                    "  gl_FragColor = texture2D(uTexture, vTexCoord);" +
+                    "}";
+
+    // x, y, u, v for a full screen triangle strip
+    private static final float QUAD[] = {
+            -1.0f, -1.0f, 0.0f, 0.0f,
+            1.0f, -1.0f, 1.0f, 0.0f,
+            -1.0f, 1.0f, 0.0f, 1.0f,
+            1.0f, 1.0f, 1.0f, 1.0f,
+    };
+    private static final int QUAD_STRIDE = 4 * 4;
+
+    // How long removeOutput and stop wait for the render thread
+    private static final long REMOVE_TIMEOUT_MS = 1000;
+
+    private final GLSurfaceView.Renderer mSceneRenderer;
+    private final FanOutScheduler mScheduler;
+    private final List<WindowOutput> mOutputs = new ArrayList<WindowOutput>();
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    // Render thread state
+    private EGLDisplay mEglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLConfig mEglConfig;
+    private EGLContext mSceneContext = EGL14.EGL_NO_CONTEXT;
+    private EGLContext mBlitContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface mPbuffer = EGL14.EGL_NO_SURFACE;
+
+    private int mFramebuffer;
+    private int mSceneTexture;
+    private int mDepthRenderbuffer;
+    private int mSceneWidth;
+    private int mSceneHeight;
+    private boolean mSceneCreated;
+
+    private int mBlitProgram;
+    private int mBlitPositionHandle;
+    private int mBlitTexCoordHandle;
+    private int mBlitTextureHandle;
+    private int mBlitCropHandle;
+    private FloatBuffer mQuadBuffer;
+
+    public FanOutRenderer(GLSurfaceView.Renderer sceneRenderer) {
+        mSceneRenderer = sceneRenderer;
+        mScheduler = new FanOutScheduler(this);
+    }
+
+    /**
+     * Starts the render thread and sets up EGL.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                initEgl();
+            }
+        });
+    }
+
+    /**
+     * Releases all outputs and EGL resources and stops the render thread, waiting until it no
+     * longer uses the scene renderer.
+     */
+    public void stop() {
+        final CountDownLatch released = new CountDownLatch(1);
+        synchronized (this) {
+            if (mThread == null) {
+                return;
+            }
+            final Handler handler = mHandler;
+            handler.removeCallbacks(mTick);
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // A tick running while stopping may have scheduled the next one
+                        handler.removeCallbacks(mTick);
+                        releaseEgl();
+                    } finally {
+                        released.countDown();
+                    }
+                }
+            });
+            mThread.quitSafely();
+            mThread = null;
+            mHandler = null;
+        }
+        try {
+            if (!released.await(REMOVE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Timed out releasing EGL");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds a display surface. The surface must stay valid until {@link #removeOutput} returns.
+     */
+    public synchronized FanOutScheduler.Output addOutput(Surface surface, int width, int height,
+            int maxFps) {
+        final WindowOutput output = new WindowOutput(surface, width, height, maxFps);
+        if (mHandler != null) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    output.create();
+                    mOutputs.add(output);
+                    mScheduler.addOutput(output, System.nanoTime());
+                    scheduleTick();
+                }
+            });
+        }
+        return output;
+    }
+
+    /**
+     * Changes the size of an output, e.g. from {@code SurfaceHolder.Callback#surfaceChanged}.
+     */
+    public synchronized void resizeOutput(FanOutScheduler.Output output, final int width,
+            final int height) {
+        final WindowOutput windowOutput = (WindowOutput) output;
+        if (mHandler != null) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    windowOutput.mWidth = width;
+                    windowOutput.mHeight = height;
+                }
+            });
+        }
+    }
+
+    /**
+     * Removes an output and waits until the render thread no longer uses its surface.
+     */
+    public void removeOutput(FanOutScheduler.Output output) {
+        final WindowOutput windowOutput = (WindowOutput) output;
+        final CountDownLatch released = new CountDownLatch(1);
+        synchronized (this) {
+            if (mHandler == null) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mScheduler.removeOutput(windowOutput);
+                    mOutputs.remove(windowOutput);
+                    windowOutput.release();
+                    released.countDown();
+                }
+            });
+        }
+        try {
+            if (!released.await(REMOVE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Timed out releasing output");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scheduleTick() {
+        Handler handler;
+        synchronized (this) {
+            handler = mHandler;
+        }
+        if (handler == null) {
+            // Stopping
+            return;
+        }
+        handler.removeCallbacks(mTick);
+        long next = mScheduler.getNextDueNanos();
+        if (next == Long.MAX_VALUE) {
+            return;
+        }
+        long delayMillis = Math.max(0, (next - System.nanoTime()) / 1000000);
+        handler.postDelayed(mTick, delayMillis);
+    }
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            if (mSceneContext != EGL14.EGL_NO_CONTEXT) {
+                mScheduler.tick(System.nanoTime());
+            }
+            scheduleTick();
+        }
+    };
+
+    /**
+     * Called by the scheduler on the render thread.
+     */
+    @Override
+    public void renderScene(int width, int height, long frameNanos) {
+        EGL14.eglMakeCurrent(mEglDisplay, mPbuffer, mPbuffer, mSceneContext);
+        ensureFramebuffer(width, height);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        if (!mSceneCreated) {
+            mSceneRenderer.onSurfaceCreated(null, null);
+            mSceneRenderer.onSurfaceChanged(null, width, height);
+            mSceneCreated = true;
+        }
+        GLES20.glViewport(0, 0, width, height);
+        mSceneRenderer.onDrawFrame(null);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        // The texture is sampled from the blit context next
+        GLES20.glFinish();
+    }
+
+    private void ensureFramebuffer(int width, int height) {
+        if (width == mSceneWidth && height == mSceneHeight && mFramebuffer != 0) {
+            return;
+        }
+        deleteFramebuffer();
+        int[] ids = new int[1];
+
+        GLES20.glGenTextures(1, ids, 0);
+        mSceneTexture = ids[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mSceneTexture);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+
+        GLES20.glGenRenderbuffers(1, ids, 0);
+        mDepthRenderbuffer = ids[0];
+        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, mDepthRenderbuffer);
+        GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16,
+                width, height);
+
+        GLES20.glGenFramebuffers(1, ids, 0);
+        mFramebuffer = ids[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mSceneTexture, 0);
+        GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT,
+                GLES20.GL_RENDERBUFFER, mDepthRenderbuffer);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        // The scene can't be rendered without these, so they aren't held to the budget
+        GlObjectRegistry glObjects = MemoryGovernor.get().getGlObjects();
+        glObjects.register(this, GlObjectRegistry.TYPE_TEXTURE, mSceneTexture,
+                (long) width * height * 4, TAG);
+        glObjects.register(this, GlObjectRegistry.TYPE_RENDERBUFFER, mDepthRenderbuffer,
+                (long) width * height * 2, TAG);
+        glObjects.register(this, GlObjectRegistry.TYPE_FRAMEBUFFER, mFramebuffer, 0, TAG);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            throw new RuntimeException("Scene framebuffer incomplete: " + status);
+        }
+
+        if (mSceneCreated) {
+            mSceneRenderer.onSurfaceChanged(null, width, height);
+        }
+        mSceneWidth = width;
+        mSceneHeight = height;
+    }
+
+    private void deleteFramebuffer() {
+        if (mFramebuffer != 0) {
+            GLES20.glDeleteFramebuffers(1, new int[]{mFramebuffer}, 0);
+            GLES20.glDeleteRenderbuffers(1, new int[]{mDepthRenderbuffer}, 0);
+            GLES20.glDeleteTextures(1, new int[]{mSceneTexture}, 0);
+            GlObjectRegistry glObjects = MemoryGovernor.get().getGlObjects();
+            glObjects.unregister(this, GlObjectRegistry.TYPE_FRAMEBUFFER, mFramebuffer);
+            glObjects.unregister(this, GlObjectRegistry.TYPE_RENDERBUFFER, mDepthRenderbuffer);
+            glObjects.unregister(this, GlObjectRegistry.TYPE_TEXTURE, mSceneTexture);
+            mFramebuffer = 0;
+            mDepthRenderbuffer = 0;
+            mSceneTexture = 0;
+        }
+    }
+
+    private void initEgl() {
+        mEglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(mEglDisplay, version, 0, version, 1)) {
+            throw new RuntimeException("eglInitialize failed");
+        }
+        int[] configSpec = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT | EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(mEglDisplay, configSpec, 0, configs, 0, 1, numConfigs, 0)
+                || numConfigs[0] == 0) {
+            throw new RuntimeException("No EGL config for fan-out rendering");
+        }
+        mEglConfig = configs[0];
+        int[] contextAttribs = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        mSceneContext = EGL14.eglCreateContext(mEglDisplay, mEglConfig, EGL14.EGL_NO_CONTEXT,
+                contextAttribs, 0);
+        mBlitContext = EGL14.eglCreateContext(mEglDisplay, mEglConfig, mSceneContext,
+                contextAttribs, 0);
+        mPbuffer = EGL14.eglCreatePbufferSurface(mEglDisplay, mEglConfig,
+                new int[]{EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE}, 0);
+
+        EGL14.eglMakeCurrent(mEglDisplay, mPbuffer, mPbuffer, mBlitContext);
+        int vertexShader = Cube.loadShader(GLES20.GL_VERTEX_SHADER, BLIT_VERTEX_SHADER_CODE);
+        int fragmentShader = Cube.loadShader(GLES20.GL_FRAGMENT_SHADER,
+                BLIT_FRAGMENT_SHADER_CODE);
+        mBlitProgram = GLES20.glCreateProgram();
+        GLES20.glAttachShader(mBlitProgram, vertexShader);
+        GLES20.glAttachShader(mBlitProgram, fragmentShader);
+        GLES20.glLinkProgram(mBlitProgram);
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(mBlitProgram, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            Log.e(TAG, GLES20.glGetProgramInfoLog(mBlitProgram));
+            throw new RuntimeException("Could not link blit program");
+        }
+        mBlitPositionHandle = GLES20.glGetAttribLocation(mBlitProgram, "aPosition");
+        mBlitTexCoordHandle = GLES20.glGetAttribLocation(mBlitProgram, "aTexCoord");
+        mBlitTextureHandle = GLES20.glGetUniformLocation(mBlitProgram, "uTexture");
+        mBlitCropHandle = GLES20.glGetUniformLocation(mBlitProgram, "uCrop");
+        MemoryGovernor.get().getGlObjects().register(this, GlObjectRegistry.TYPE_PROGRAM,
+                mBlitProgram, 0, TAG);
+        mQuadBuffer = Cube.allocateFloatBuffer(QUAD);
+        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+        GLES20.glDisable(GLES20.GL_BLEND);
+    }
+
+    private void releaseEgl() {
+        if (mEglDisplay == EGL14.EGL_NO_DISPLAY) {
+            return;
+        }
+        for (WindowOutput output : mOutputs) {
+            mScheduler.removeOutput(output);
+            output.release();
+        }
+        mOutputs.clear();
+        EGL14.eglMakeCurrent(mEglDisplay, mPbuffer, mPbuffer, mSceneContext);
+        deleteFramebuffer();
+        EGL14.eglMakeCurrent(mEglDisplay, mPbuffer, mPbuffer, mBlitContext);
+        GLES20.glDeleteProgram(mBlitProgram);
+        MemoryGovernor.get().getGlObjects().unregister(this, GlObjectRegistry.TYPE_PROGRAM,
+                mBlitProgram);
+        Cube.releaseBuffer(mQuadBuffer);
+        mQuadBuffer = null;
+        EGL14.eglMakeCurrent(mEglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
+                EGL14.EGL_NO_CONTEXT);
+        EGL14.eglDestroySurface(mEglDisplay, mPbuffer);
+        EGL14.eglDestroyContext(mEglDisplay, mBlitContext);
+        EGL14.eglDestroyContext(mEglDisplay, mSceneContext);
+        // The default display is shared with the rest of the process, so it isn't terminated
+        EGL14.eglReleaseThread();
+        mEglDisplay = EGL14.EGL_NO_DISPLAY;
+        mSceneContext = EGL14.EGL_NO_CONTEXT;
+        mBlitContext = EGL14.EGL_NO_CONTEXT;
+        mPbuffer = EGL14.EGL_NO_SURFACE;
+        mSceneCreated = false;
+        mSceneWidth = 0;
+        mSceneHeight = 0;
+    }
+
+    /**
+     * An output backed by an EGL window surface. Only touched on the render thread once added.
+     */
+    private final class WindowOutput implements FanOutScheduler.Output {
+        private final Surface mSurface;
+        private final int mMaxFps;
+        private int mWidth;
+        private int mHeight;
+        private EGLSurface mEglSurface = EGL14.EGL_NO_SURFACE;
+
+        WindowOutput(Surface surface, int width, int height, int maxFps) {
+            mSurface = surface;
+            mWidth = width;
+            mHeight = height;
+            mMaxFps = maxFps;
+        }
+
+        void create() {
+            mEglSurface = EGL14.eglCreateWindowSurface(mEglDisplay, mEglConfig, mSurface,
+                    new int[]{EGL14.EGL_NONE}, 0);
+            if (mEglSurface == null || mEglSurface == EGL14.EGL_NO_SURFACE) {
+                Log.e(TAG, "Unable to create output surface: " + EGL14.eglGetError());
+                mEglSurface = EGL14.EGL_NO_SURFACE;
+                return;
+            }
+            EGL14.eglMakeCurrent(mEglDisplay, mEglSurface, mEglSurface, mBlitContext);
+            // The scheduler paces every output, so one output must not block on another's vsync
+            EGL14.eglSwapInterval(mEglDisplay, 0);
+        }
+
+        void release() {
+            if (mEglSurface != EGL14.EGL_NO_SURFACE) {
+                EGL14.eglMakeCurrent(mEglDisplay, mPbuffer, mPbuffer, mBlitContext);
+                EGL14.eglDestroySurface(mEglDisplay, mEglSurface);
+                mEglSurface = EGL14.EGL_NO_SURFACE;
+            }
+        }
+
+        @Override
+        public int getWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public int getMaxFps() {
+            return mMaxFps;
+        }
+
+        @Override
+        public void present(long frameNanos, float[] crop) {
+            if (mEglSurface == EGL14.EGL_NO_SURFACE) {
+                return;
+            }
+            EGL14.eglMakeCurrent(mEglDisplay, mEglSurface, mEglSurface, mBlitContext);
+            GLES20.glViewport(0, 0, mWidth, mHeight);
+            GLES20.glUseProgram(mBlitProgram);
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mSceneTexture);
+            GLES20.glUniform1i(mBlitTextureHandle, 0);
+            GLES20.glUniform4f(mBlitCropHandle, crop[0], crop[1], crop[2], crop[3]);
+            mQuadBuffer.position(0);
+            GLES20.glVertexAttribPointer(mBlitPositionHandle, 2, GLES20.GL_FLOAT, false,
+                    QUAD_STRIDE, mQuadBuffer);
+            GLES20.glEnableVertexAttribArray(mBlitPositionHandle);
+            mQuadBuffer.position(2);
+            GLES20.glVertexAttribPointer(mBlitTexCoordHandle, 2, GLES20.GL_FLOAT, false,
+                    QUAD_STRIDE, mQuadBuffer);
+            GLES20.glEnableVertexAttribArray(mBlitTexCoordHandle);
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+            GLES20.glDisableVertexAttribArray(mBlitPositionHandle);
+            GLES20.glDisableVertexAttribArray(mBlitTexCoordHandle);
+            if (!EGL14.eglSwapBuffers(mEglDisplay, mEglSurface)) {
+                Log.w(TAG, "eglSwapBuffers failed: " + EGL14.eglGetError());
+            }
+        }
+    }
+}
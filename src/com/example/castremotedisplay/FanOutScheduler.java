@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides when to render the shared scene and which outputs to present it to.
+ * <p>
+ * Every output has its own size and frame rate. On each {@link #tick(long)} the outputs whose
+ * next frame is due are collected, the {@link Scene} is rendered once at the largest output size
+ * and then presented to each due output. Each output is given the centered region of the scene
+ * with its own aspect ratio, so a 4:3 display next to a 16:9 one shows a crop rather than a
+ * squashed scene. Outputs due within {@link #GROUPING_WINDOW_NS} of each other share a scene
+ * render, so the scene logic runs once per tick no matter how many displays are attached.
+ * </p>
+ * <p>
+ * The scheduler has no GL or Android dependencies; {@link FanOutRenderer} drives it on its render
+ * thread with real surfaces, and fake outputs can drive it on a plain JVM. It is not thread safe.
+ * </p>
+ */
+public class FanOutScheduler {
+
+    /**
+     * Outputs due this close to the current tick are presented with it.
+     */
+    public static final long GROUPING_WINDOW_NS = 2000000L;
+
+    /**
+     * Renders the shared scene.
+     */
+    public interface Scene {
+        void renderScene(int width, int height, long frameNanos);
+    }
+
+    /**
+     * A display surface the scene is presented to.
+     */
+    public interface Output {
+        int getWidth();
+
+        int getHeight();
+
+        int getMaxFps();
+
+        /**
+         * Presents the most recently rendered scene.
+         *
+         * @param crop The region of the scene to show, in texture coordinates: left, bottom,
+         *             right, top. It has the output's aspect ratio. Only valid during the call.
+         */
+        void present(long frameNanos, float[] crop);
+    }
+
+    private static final class Entry {
+        final Output mOutput;
+        long mNextDueNanos;
+
+        Entry(Output output, long nextDueNanos) {
+            mOutput = output;
+            mNextDueNanos = nextDueNanos;
+        }
+    }
+
+    private final Scene mScene;
+    private final List<Entry> mEntries = new ArrayList<Entry>();
+    // Reused every tick
+    private final List<Entry> mDue = new ArrayList<Entry>();
+    private final float[] mCrop = new float[4];
+
+    private long mSceneRenderCount;
+    private long mPresentCount;
+    private long mDroppedCount;
+
+    public FanOutScheduler(Scene scene) {
+        mScene = scene;
+    }
+
+    /**
+     * Adds an output. Its first frame is due immediately.
+     */
+    public void addOutput(Output output, long nowNanos) {
+        if (indexOf(output) < 0) {
+            mEntries.add(new Entry(output, nowNanos));
+        }
+    }
+
+    public void removeOutput(Output output) {
+        int index = indexOf(output);
+        if (index >= 0) {
+            mEntries.remove(index);
+        }
+    }
+
+    public int getOutputCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * Renders and presents whatever is due.
+     *
+     * @return The number of outputs presented to.
+     */
+    public int tick(long nowNanos) {
+        mDue.clear();
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.get(i);
+            if (entry.mNextDueNanos <= nowNanos + GROUPING_WINDOW_NS) {
+                mDue.add(entry);
+            }
+        }
+        if (mDue.isEmpty()) {
+            return 0;
+        }
+
+        // The scene texture is sized for the largest output so it isn't reallocated as
+        // different subsets of outputs come due
+        int width = 0;
+        int height = 0;
+        for (int i = 0; i < mEntries.size(); i++) {
+            Output output = mEntries.get(i).mOutput;
+            width = Math.max(width, output.getWidth());
+            height = Math.max(height, output.getHeight());
+        }
+        mScene.renderScene(width, height, nowNanos);
+        mSceneRenderCount++;
+
+        for (int i = 0; i < mDue.size(); i++) {
+            Entry entry = mDue.get(i);
+            computeCrop(width, height, entry.mOutput.getWidth(), entry.mOutput.getHeight(),
+                    mCrop);
+            entry.mOutput.present(nowNanos, mCrop);
+            mPresentCount++;
+            long interval = 1000000000L / Math.max(1, entry.mOutput.getMaxFps());
+            entry.mNextDueNanos += interval;
+            if (entry.mNextDueNanos <= nowNanos) {
+                // Fell behind; skip the missed frames instead of bursting to catch up
+                mDroppedCount += (nowNanos - entry.mNextDueNanos) / interval + 1;
+                entry.mNextDueNanos = nowNanos + interval;
+            }
+        }
+        int presented = mDue.size();
+        mDue.clear();
+        return presented;
+    }
+
+    /**
+     * Computes the centered region of a scene that has the output's aspect ratio, in texture
+     * coordinates: left, bottom, right, top. The scene is cropped on the sides for a narrower
+     * output and at the top and bottom for a wider one.
+     */
+    static void computeCrop(int sceneWidth, int sceneHeight, int outputWidth, int outputHeight,
+            float[] crop) {
+        float sceneAspect = (float) sceneWidth / sceneHeight;
+        float outputAspect = (float) outputWidth / outputHeight;
+        float width = 1.0f;
+        float height = 1.0f;
+        if (outputAspect < sceneAspect) {
+            width = outputAspect / sceneAspect;
+        } else {
+            height = sceneAspect / outputAspect;
+        }
+        crop[0] = (1.0f - width) / 2;
+        crop[1] = (1.0f - height) / 2;
+        crop[2] = crop[0] + width;
+        crop[3] = crop[1] + height;
+    }
+
+    /**
+     * When the next output is due, or {@link Long#MAX_VALUE} if there are no outputs.
+     */
+    public long getNextDueNanos() {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < mEntries.size(); i++) {
+            next = Math.min(next, mEntries.get(i).mNextDueNanos);
+        }
+        return next;
+    }
+
+    public long getSceneRenderCount() {
+        return mSceneRenderCount;
+    }
+
+    public long getPresentCount() {
+        return mPresentCount;
+    }
+
+    /**
+     * Frames skipped because an output's frame came due while the previous one was late.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    private int indexOf(Output output) {
+        for (int i = 0; i < mEntries.size(); i++) {
+            if (mEntries.get(i).mOutput == output) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
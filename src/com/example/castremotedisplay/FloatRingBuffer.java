@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * A fixed size ring of the most recent float samples. Adding never allocates; once full, the
+ * oldest sample is overwritten. Not thread safe.
+ */
+public final class FloatRingBuffer {
+
+    private final float[] mValues;
+    private int mNext;
+    private int mSize;
+
+    public FloatRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        mValues = new float[capacity];
+    }
+
+    public void add(float value) {
+        mValues[mNext] = value;
+        mNext = (mNext + 1) % mValues.length;
+        if (mSize < mValues.length) {
+            mSize++;
+        }
+    }
+
+    public int getCapacity() {
+        return mValues.length;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * The i-th sample, oldest first.
+     */
+    public float get(int i) {
+        if (i < 0 || i >= mSize) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + mSize);
+        }
+        return mValues[(mNext - mSize + i + mValues.length) % mValues.length];
+    }
+
+    /**
+     * The most recent sample, or 0 when empty.
+     */
+    public float getLast() {
+        return mSize == 0 ? 0 : mValues[(mNext - 1 + mValues.length) % mValues.length];
+    }
+
+    public float getMax() {
+        float max = 0;
+        for (int i = 0; i < mSize; i++) {
+            max = Math.max(max, mValues[i]);
+        }
+        return max;
+    }
+
+    public float getAverage() {
+        if (mSize == 0) {
+            return 0;
+        }
+        float sum = 0;
+        for (int i = 0; i < mSize; i++) {
+            sum += mValues[i];
+        }
+        return sum / mSize;
+    }
+
+    public void clear() {
+        mNext = 0;
+        mSize = 0;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads back consecutive output frames and writes them as PPM files, frame0000.ppm and on, to
+ * be measured offline by {@code EncoderConditioningBenchmark}.
+ * <p>
+ * Files are written on a background thread. When it falls {@link #MAX_PENDING} frames behind,
+ * {@link #capture(int, int)} waits, which keeps memory bounded and the frames consecutive.
+ * Reading back stalls the GPU, so frame timing means nothing while capturing, and the cubes,
+ * which turn by elapsed time, move further between captured frames. The read back buffer comes
+ * from the {@link DirectBufferPool} and is returned once capturing is done or stopped.
+ * </p>
+ */
+public class FrameCapture {
+
+    private static final String TAG = "FrameCapture";
+
+    public static final int MAX_PENDING = 4;
+
+    private final File mDirectory;
+    private final int mCount;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    private final Semaphore mPending = new Semaphore(MAX_PENDING);
+    // From the buffer pool, while capturing
+    private ByteBuffer mPixels;
+    private int mCaptured;
+
+    public FrameCapture(File directory, int count) {
+        mDirectory = directory;
+        mCount = count;
+    }
+
+    public boolean isDone() {
+        return mCaptured >= mCount;
+    }
+
+    /**
+     * Reads back the bound framebuffer as the next frame. Call on the GL thread after drawing.
+     */
+    public void capture(int width, int height) {
+        if (isDone()) {
+            return;
+        }
+        if (mPixels == null || mPixels.limit() < width * height * 4) {
+            releasePixels();
+            mPixels = MemoryGovernor.get().getBufferPool().acquire(width * height * 4, TAG);
+        }
+        mPixels.position(0);
+        GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+                mPixels);
+        // GL's first row is the bottom one
+        final int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            int row = (height - 1 - y) * width * 4;
+            for (int x = 0; x < width; x++) {
+                int i = row + x * 4;
+                pixels[y * width + x] = 0xff000000 | (mPixels.get(i) & 0xff) << 16
+                        | (mPixels.get(i + 1) & 0xff) << 8 | (mPixels.get(i + 2) & 0xff);
+            }
+        }
+        final GoldenImage frame = new GoldenImage(width, height, pixels);
+        final File file = new File(mDirectory, String.format(Locale.US, "frame%04d.ppm",
+                mCaptured));
+        mCaptured++;
+        mPending.acquireUninterruptibly();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(frame, file);
+                } finally {
+                    mPending.release();
+                }
+            }
+        });
+        if (isDone()) {
+            Log.d(TAG, "Captured " + mCount + " frames into " + mDirectory);
+            mWriter.shutdown();
+            releasePixels();
+        }
+    }
+
+    private void releasePixels() {
+        if (mPixels != null) {
+            MemoryGovernor.get().getBufferPool().release(mPixels);
+            mPixels = null;
+        }
+    }
+
+    private static void write(GoldenImage frame, File file) {
+        try {
+            file.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(file);
+            try {
+                frame.writePpm(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't write " + file, e);
+        }
+    }
+
+    /**
+     * Stops capturing; frames read back already are still written.
+     */
+    public void stop() {
+        mCaptured = mCount;
+        mWriter.shutdown();
+        releasePixels();
+    }
+}
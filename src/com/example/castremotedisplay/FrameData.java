@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * Everything the GL thread needs to submit one frame of a {@link CubeField}: a model view
+ * projection matrix per object, the camera, the colors, and the visible objects grouped into
+ * batches.
+ * <p>
+ * Instances are written by the scene update and then handed to the GL thread, which only reads
+ * them; the arrays are allocated once and reused.
+ * </p>
+ */
+public final class FrameData {
+
+    private final float[] mMvpMatrices;
+    private final int[] mDrawList;
+    private final int[] mBatchOffsets;
+    private final float[] mViewMatrix = new float[16];
+    private int mDrawCount;
+    private long mFrameIndex;
+    private boolean mChangeColor;
+
+    /**
+     * @param capacity   Maximum number of objects.
+     * @param batchCount Number of batches objects are grouped into.
+     */
+    public FrameData(int capacity, int batchCount) {
+        mMvpMatrices = new float[capacity * 16];
+        mDrawList = new int[capacity];
+        mBatchOffsets = new int[batchCount + 1];
+    }
+
+    public int getCapacity() {
+        return mDrawList.length;
+    }
+
+    /**
+     * Column major matrices, 16 floats per object, indexed by object.
+     */
+    public float[] getMvpMatrices() {
+        return mMvpMatrices;
+    }
+
+    /**
+     * The camera the matrices were computed for, to draw the rest of the scene from.
+     */
+    public float[] getViewMatrix() {
+        return mViewMatrix;
+    }
+
+    /**
+     * Indices of the visible objects, sorted by batch.
+     */
+    public int[] getDrawList() {
+        return mDrawList;
+    }
+
+    public int getDrawCount() {
+        return mDrawCount;
+    }
+
+    public int getBatchCount() {
+        return mBatchOffsets.length - 1;
+    }
+
+    /**
+     * Where a batch starts in the draw list.
+     */
+    public int getBatchStart(int batch) {
+        return mBatchOffsets[batch];
+    }
+
+    public int getBatchSize(int batch) {
+        return mBatchOffsets[batch + 1] - mBatchOffsets[batch];
+    }
+
+    public long getFrameIndex() {
+        return mFrameIndex;
+    }
+
+    /**
+     * Whether the cubes are drawn in their alternate colors.
+     */
+    public boolean isColorChanged() {
+        return mChangeColor;
+    }
+
+    public void setColorChanged(boolean changeColor) {
+        mChangeColor = changeColor;
+    }
+
+    int[] getBatchOffsets() {
+        return mBatchOffsets;
+    }
+
+    void setDrawCount(int drawCount) {
+        mDrawCount = drawCount;
+    }
+
+    void setFrameIndex(long frameIndex) {
+        mFrameIndex = frameIndex;
+    }
+}
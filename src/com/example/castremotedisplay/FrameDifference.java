@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.Arrays;
+
+/**
+ * Measures what a video encoder has to spend on a frame sequence, without an encoder: how much
+ * changes from frame to frame and how much detail each frame holds.
+ * <p>
+ * All on luma, averaged over the sequence:
+ * </p>
+ * <ul>
+ * <li>difference energy, the mean squared change per pixel between consecutive frames, which
+ * drives the residual of inter coded blocks, and the mean absolute change, which
+ * {@link MotionBudget} works with,</li>
+ * <li>changed blocks, the fraction of 16x16 macroblocks with any pixel changing by more than
+ * {@link #CHANGE_THRESHOLD}; the others can be skipped at almost no cost,</li>
+ * <li>and detail, the mean absolute step to the right and lower neighbours within a frame,
+ * which drives the cost of intra coded blocks.</li>
+ * </ul>
+ * <p>
+ * Frames are ARGB pixels, as produced by {@link SoftwareGlApi} or read by {@link GoldenImage}.
+ * Plain Java.
+ * </p>
+ */
+public final class FrameDifference {
+
+    public static final int BLOCK_SIZE = 16;
+
+    /**
+     * Luma changes up to this, in 0-255, count as unchanged, as encoders quantize them away.
+     */
+    public static final int CHANGE_THRESHOLD = 2;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mBlocksX;
+    private final int mBlocksY;
+    private final boolean[] mChangedBlocks;
+
+    private int mFrames;
+    private int mPairs;
+    private double mEnergySum;
+    private double mChangeSum;
+    private double mChangedSum;
+    private double mDetailSum;
+    private double mMaxEnergy;
+
+    public FrameDifference(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mBlocksX = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        mBlocksY = (height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        mChangedBlocks = new boolean[mBlocksX * mBlocksY];
+    }
+
+    /**
+     * Adds a frame, compared with the one before it, null for the first.
+     */
+    public void add(int[] previous, int[] frame) {
+        mDetailSum += measureDetail(frame);
+        mFrames++;
+        if (previous == null) {
+            return;
+        }
+        long energy = 0;
+        long change = 0;
+        Arrays.fill(mChangedBlocks, false);
+        for (int y = 0; y < mHeight; y++) {
+            int blockRow = y / BLOCK_SIZE * mBlocksX;
+            for (int x = 0; x < mWidth; x++) {
+                int i = y * mWidth + x;
+                int difference = luma(frame[i]) - luma(previous[i]);
+                energy += difference * difference;
+                change += Math.abs(difference);
+                if (difference > CHANGE_THRESHOLD || difference < -CHANGE_THRESHOLD) {
+                    mChangedBlocks[blockRow + x / BLOCK_SIZE] = true;
+                }
+            }
+        }
+        int changed = 0;
+        for (boolean block : mChangedBlocks) {
+            if (block) {
+                changed++;
+            }
+        }
+        double meanEnergy = (double) energy / (mWidth * mHeight);
+        mEnergySum += meanEnergy;
+        mChangeSum += (double) change / (mWidth * mHeight);
+        mMaxEnergy = Math.max(mMaxEnergy, meanEnergy);
+        mChangedSum += (double) changed / mChangedBlocks.length;
+        mPairs++;
+    }
+
+    /**
+     * Adds a sequence of frames.
+     */
+    public void addAll(int[][] frames) {
+        int[] previous = null;
+        for (int[] frame : frames) {
+            add(previous, frame);
+            previous = frame;
+        }
+    }
+
+    private double measureDetail(int[] frame) {
+        long detail = 0;
+        for (int y = 0; y < mHeight - 1; y++) {
+            for (int x = 0; x < mWidth - 1; x++) {
+                int i = y * mWidth + x;
+                int luma = luma(frame[i]);
+                detail += Math.abs(luma - luma(frame[i + 1]))
+                        + Math.abs(luma - luma(frame[i + mWidth]));
+            }
+        }
+        return (double) detail / ((mWidth - 1) * (mHeight - 1));
+    }
+
+    /**
+     * BT.601 luma in 0-255, as encoders see it, in integers.
+     */
+    static int luma(int pixel) {
+        return (77 * ((pixel >> 16) & 0xff) + 150 * ((pixel >> 8) & 0xff) + 29 * (pixel & 0xff))
+                >> 8;
+    }
+
+    public int getFrameCount() {
+        return mFrames;
+    }
+
+    /**
+     * Mean over frame pairs of the mean squared luma change.
+     */
+    public double getEnergy() {
+        return mPairs > 0 ? mEnergySum / mPairs : 0;
+    }
+
+    /**
+     * Mean over frame pairs of the mean absolute luma change, 0-255.
+     */
+    public double getChange() {
+        return mPairs > 0 ? mChangeSum / mPairs : 0;
+    }
+
+    public double getMaxEnergy() {
+        return mMaxEnergy;
+    }
+
+    /**
+     * Mean over frame pairs of the fraction of macroblocks that changed.
+     */
+    public double getChangedBlocks() {
+        return mPairs > 0 ? mChangedSum / mPairs : 0;
+    }
+
+    /**
+     * Mean over frames of the mean absolute luma step between neighbours.
+     */
+    public double getDetail() {
+        return mFrames > 0 ? mDetailSum / mFrames : 0;
+    }
+
+    /**
+     * Peak signal to noise ratio of {@code frame} against {@code reference} in dB, on all
+     * three channels; infinite if they are equal.
+     */
+    public static double psnr(int[] reference, int[] frame) {
+        long squares = 0;
+        for (int i = 0; i < reference.length; i++) {
+            int a = reference[i];
+            int b = frame[i];
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int error = ((a >> shift) & 0xff) - ((b >> shift) & 0xff);
+                squares += error * error;
+            }
+        }
+        if (squares == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mse = (double) squares / (reference.length * 3);
+        return 10 * Math.log10(255.0 * 255.0 / mse);
+    }
+}
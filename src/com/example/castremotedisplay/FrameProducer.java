@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * A simulation thread that writes complete {@link FrameData} snapshots into a
+ * {@link TripleBuffer} for the GL thread to render.
+ * <p>
+ * Frames are produced at a fixed rate, independent of how fast they are rendered, so a slow
+ * simulation step delays at most one published frame instead of a submitted one. The loop
+ * allocates nothing once running.
+ * </p>
+ */
+public class FrameProducer {
+
+    /**
+     * Writes one frame.
+     */
+    public interface Simulation {
+        void simulate(FrameData out, long frameIndex, long timeNanos);
+    }
+
+    private final TripleBuffer<FrameData> mBuffer;
+    private final Simulation mSimulation;
+    private final long mPeriodNanos;
+    private Thread mThread;
+    private volatile boolean mRunning;
+    private volatile long mFrameCount;
+
+    /**
+     * @param fps Frames to produce per second, or 0 to produce them as fast as possible.
+     */
+    public FrameProducer(TripleBuffer<FrameData> buffer, Simulation simulation, int fps) {
+        mBuffer = buffer;
+        mSimulation = simulation;
+        mPeriodNanos = fps > 0 ? 1000000000L / fps : 0;
+    }
+
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(mLoop, "FrameProducer");
+        mThread.start();
+    }
+
+    /**
+     * Stops the thread and waits for it to finish the frame it is on.
+     */
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mRunning = false;
+        mThread.interrupt();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    private final Runnable mLoop = new Runnable() {
+        @Override
+        public void run() {
+            long frameIndex = mFrameCount;
+            long next = System.nanoTime();
+            while (mRunning) {
+                long now = System.nanoTime();
+                mSimulation.simulate(mBuffer.getWriteBuffer(), ++frameIndex, now);
+                mBuffer.publish();
+                mFrameCount = frameIndex;
+
+                if (mPeriodNanos == 0) {
+                    continue;
+                }
+                next += mPeriodNanos;
+                long wait = next - System.nanoTime();
+                if (wait <= -mPeriodNanos) {
+                    // Fell more than a frame behind; don't try to catch up
+                    next = System.nanoTime();
+                } else if (wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    };
+}
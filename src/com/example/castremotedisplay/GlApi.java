@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.nio.Buffer;
+
+/**
+ * The subset of OpenGL ES 2.0 used by {@link Cube} and {@link CubeRenderer}.
+ * <p>
+ * On the device this is backed by {@link AndroidGlApi}, which forwards every call to
+ * {@link android.opengl.GLES20}. On a plain JVM {@link SoftwareGlApi} can be used instead so
+ * that frames can be rendered without a GPU. Method names and arguments mirror GLES20 so the
+ * drawing code reads the same either way.
+ * </p>
+ */
+public interface GlApi {
+
+    void glClearColor(float red, float green, float blue, float alpha);
+
+    void glClear(int mask);
+
+    void glEnable(int cap);
+
+    void glDisable(int cap);
+
+    void glDepthFunc(int func);
+
+    void glBlendFunc(int sfactor, int dfactor);
+
+    void glViewport(int x, int y, int width, int height);
+
+    int glCreateShader(int type);
+
+    void glShaderSource(int shader, String string);
+
+    void glCompileShader(int shader);
+
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+
+    String glGetShaderInfoLog(int shader);
+
+    void glDeleteShader(int shader);
+
+    int glCreateProgram();
+
+    void glAttachShader(int program, int shader);
+
+    void glLinkProgram(int program);
+
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+
+    String glGetProgramInfoLog(int program);
+
+    void glDeleteProgram(int program);
+
+    void glUseProgram(int program);
+
+    int glGetAttribLocation(int program, String name);
+
+    int glGetUniformLocation(int program, String name);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glDisableVertexAttribArray(int index);
+
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+            Buffer ptr);
+
+    void glDrawElements(int mode, int count, int type, Buffer indices);
+
+    int glGetError();
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Bookkeeping of live GL objects and their estimated GPU memory.
+ * <p>
+ * Objects are registered by their owner when created and unregistered when deleted. Objects
+ * that go away with their context rather than being deleted are dropped together with
+ * {@link #releaseOwner(Object)}. Optional allocations, like textures that can be loaded again
+ * later, should check {@link #hasRoomFor(long)} against the budget first. Every object gets a
+ * serial number so that callers can check for leaks with {@link #getLiveSince(long)}. No GL
+ * calls are made, so this works on any thread. Thread safe.
+ * </p>
+ */
+public class GlObjectRegistry {
+
+    public static final int TYPE_PROGRAM = 0;
+    public static final int TYPE_SHADER = 1;
+    public static final int TYPE_BUFFER = 2;
+    public static final int TYPE_TEXTURE = 3;
+    public static final int TYPE_FRAMEBUFFER = 4;
+    public static final int TYPE_RENDERBUFFER = 5;
+    private static final String[] TYPE_NAMES = {
+            "program", "shader", "buffer", "texture", "framebuffer", "renderbuffer"
+    };
+
+    private final long mBudgetBytes;
+    private final IdentityHashMap<Object, List<Entry>> mEntries =
+            new IdentityHashMap<Object, List<Entry>>();
+    private final int[] mCounts = new int[TYPE_NAMES.length];
+    private final long[] mBytes = new long[TYPE_NAMES.length];
+    private long mNextSerial = 1;
+
+    /**
+     * A registered GL object.
+     */
+    public static final class Entry {
+        private final int mType;
+        private final int mName;
+        private final long mBytes;
+        private final String mLabel;
+        private final long mSerial;
+
+        Entry(int type, int name, long bytes, String label, long serial) {
+            mType = type;
+            mName = name;
+            mBytes = bytes;
+            mLabel = label;
+            mSerial = serial;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        public int getName() {
+            return mName;
+        }
+
+        public long getBytes() {
+            return mBytes;
+        }
+
+        public String getLabel() {
+            return mLabel;
+        }
+
+        public long getSerial() {
+            return mSerial;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %d (%s, %d bytes)", TYPE_NAMES[mType], mName,
+                    mLabel, mBytes);
+        }
+    }
+
+    /**
+     * @param budgetBytes Most estimated GPU memory that live objects may take.
+     */
+    public GlObjectRegistry(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    public static String getTypeName(int type) {
+        return TYPE_NAMES[type];
+    }
+
+    /**
+     * Whether objects of this many more bytes fit in the budget.
+     */
+    public synchronized boolean hasRoomFor(long bytes) {
+        return getTotalBytes() + bytes <= mBudgetBytes;
+    }
+
+    /**
+     * Records a newly created object.
+     *
+     * @param owner Whoever deletes the object, or whose context it lives in.
+     * @param bytes Estimated GPU memory, 0 for programs and shaders.
+     * @param label Shown in reports.
+     */
+    public synchronized void register(Object owner, int type, int name, long bytes,
+            String label) {
+        List<Entry> entries = mEntries.get(owner);
+        if (entries == null) {
+            entries = new ArrayList<Entry>();
+            mEntries.put(owner, entries);
+        }
+        entries.add(new Entry(type, name, bytes, label, mNextSerial++));
+        mCounts[type]++;
+        mBytes[type] += bytes;
+    }
+
+    /**
+     * Records that an object was deleted.
+     *
+     * @return False if it wasn't registered.
+     */
+    public synchronized boolean unregister(Object owner, int type, int name) {
+        List<Entry> entries = mEntries.get(owner);
+        if (entries == null) {
+            return false;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.mType == type && entry.mName == name) {
+                entries.remove(i);
+                if (entries.isEmpty()) {
+                    mEntries.remove(owner);
+                }
+                remove(entry);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops every object of an owner, e.g. when their context was destroyed.
+     *
+     * @return The number of objects dropped.
+     */
+    public synchronized int releaseOwner(Object owner) {
+        List<Entry> entries = mEntries.remove(owner);
+        if (entries == null) {
+            return 0;
+        }
+        for (Entry entry : entries) {
+            remove(entry);
+        }
+        return entries.size();
+    }
+
+    private void remove(Entry entry) {
+        mCounts[entry.mType]--;
+        mBytes[entry.mType] -= entry.mBytes;
+    }
+
+    /**
+     * A serial number such that every object registered from now on has a greater one.
+     */
+    public synchronized long mark() {
+        return mNextSerial;
+    }
+
+    /**
+     * Objects registered since {@code mark} that are still live.
+     */
+    public synchronized List<Entry> getLiveSince(long mark) {
+        List<Entry> live = new ArrayList<Entry>();
+        for (List<Entry> entries : mEntries.values()) {
+            for (Entry entry : entries) {
+                if (entry.mSerial >= mark) {
+                    live.add(entry);
+                }
+            }
+        }
+        return live;
+    }
+
+    public synchronized int getCount(int type) {
+        return mCounts[type];
+    }
+
+    public synchronized long getBytes(int type) {
+        return mBytes[type];
+    }
+
+    public synchronized int getTotalCount() {
+        int total = 0;
+        for (int count : mCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+    public synchronized long getTotalBytes() {
+        long total = 0;
+        for (long bytes : mBytes) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    /**
+     * One line summary, e.g. for logcat.
+     */
+    public synchronized String format() {
+        StringBuilder builder = new StringBuilder();
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(String.format(Locale.US, "%d %ss", mCounts[type], TYPE_NAMES[type]));
+        }
+        builder.append(String.format(Locale.US, ", %.1f of %.1f MB", getTotalBytes() / 1048576.0,
+                mBudgetBytes / 1048576.0));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reads, writes and compares frames produced by {@link SoftwareGlApi}.
+ * <p>
+ * Golden images are stored as binary PPM (P6) files, which need no image library on the JVM and
+ * can be opened by most image viewers. Alpha is not stored.
+ * </p>
+ */
+public final class GoldenImage {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mPixels;
+
+    public GoldenImage(int width, int height, int[] pixels) {
+        if (pixels.length != width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " pixels, got "
+                    + pixels.length);
+        }
+        mWidth = width;
+        mHeight = height;
+        mPixels = pixels;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    /**
+     * Counts the pixels whose red, green or blue channel differs from the reference by more than
+     * {@code tolerance} (0-255). Returns -1 if the sizes differ.
+     */
+    public int countMismatches(int[] pixels, int width, int height, int tolerance) {
+        if (width != mWidth || height != mHeight) {
+            return -1;
+        }
+        int mismatches = 0;
+        for (int i = 0; i < mPixels.length; i++) {
+            int a = mPixels[i];
+            int b = pixels[i];
+            if (Math.abs(((a >> 16) & 0xff) - ((b >> 16) & 0xff)) > tolerance
+                    || Math.abs(((a >> 8) & 0xff) - ((b >> 8) & 0xff)) > tolerance
+                    || Math.abs((a & 0xff) - (b & 0xff)) > tolerance) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * Writes the image as a binary PPM. The stream is not closed.
+     */
+    public void writePpm(OutputStream out) throws IOException {
+        BufferedOutputStream buffered = new BufferedOutputStream(out);
+        buffered.write(("P6\n" + mWidth + " " + mHeight + "\n255\n").getBytes("US-ASCII"));
+        for (int pixel : mPixels) {
+            buffered.write((pixel >> 16) & 0xff);
+            buffered.write((pixel >> 8) & 0xff);
+            buffered.write(pixel & 0xff);
+        }
+        buffered.flush();
+    }
+
+    /**
+     * Reads a binary PPM written by {@link #writePpm(OutputStream)}. The stream is not closed.
+     */
+    public static GoldenImage readPpm(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        if (!"P6".equals(readToken(buffered))) {
+            throw new IOException("Not a binary PPM");
+        }
+        int width = Integer.parseInt(readToken(buffered));
+        int height = Integer.parseInt(readToken(buffered));
+        if (Integer.parseInt(readToken(buffered)) != 255) {
+            throw new IOException("Only 8 bit PPM files are supported");
+        }
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            int r = buffered.read();
+            int g = buffered.read();
+            int b = buffered.read();
+            if (b < 0) {
+                throw new IOException("Truncated PPM");
+            }
+            pixels[i] = 0xff000000 | (r << 16) | (g << 8) | b;
+        }
+        return new GoldenImage(width, height, pixels);
+    }
+
+    private static String readToken(InputStream in) throws IOException {
+        StringBuilder token = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '#') {
+                while ((c = in.read()) != -1 && c != '\n') {
+                    // Skip comment
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (token.length() > 0) {
+                    break;
+                }
+            } else {
+                token.append((char) c);
+            }
+        }
+        if (token.length() == 0) {
+            throw new IOException("Unexpected end of PPM header");
+        }
+        return token.toString();
+    }
+}
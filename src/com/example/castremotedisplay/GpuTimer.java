@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * Times render passes on the CPU and, with {@code EXT_disjoint_timer_query}, on the GPU.
+ * <p>
+ * GPU results only become available a few frames after the commands are issued, so each frame
+ * uses its own slot in a ring of query objects and results are read back without waiting, once
+ * the GPU has caught up. If the GPU falls more than the ring behind, frames go unmeasured
+ * rather than stalling. Results measured while the GPU reported a disjoint operation are thrown
+ * away.
+ * </p>
+ * <p>
+ * The query entry points are the OpenGL ES 3.0 ones, so GPU timing needs a 3.0 context (which
+ * drivers usually return for a 2.0 request) as well as the extension. Without either only CPU
+ * times are recorded. Passes must not nest. Create, use and release on the GL thread.
+ * </p>
+ */
+public class GpuTimer {
+
+    // From EXT_disjoint_timer_query
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    // Frames of latency allowed before a result is read back
+    private static final int RING_SIZE = 4;
+
+    private final PassTimings mTimings;
+    private final int mPassCount;
+    private final boolean mGpuSupported;
+    private final int[] mQueries;
+    // Per slot: queried at all, and which passes were issued
+    private final boolean[] mPending = new boolean[RING_SIZE];
+    private final boolean[] mIssued;
+    private final long[] mCpuStart;
+    private final int[] mAvailable = new int[1];
+    private final int[] mResult = new int[1];
+    private final int[] mDisjoint = new int[1];
+
+    private int mSlot;
+    private boolean mFrameActive;
+
+    public GpuTimer(PassTimings timings) {
+        mTimings = timings;
+        mPassCount = timings.getPassCount();
+        mIssued = new boolean[RING_SIZE * mPassCount];
+        mCpuStart = new long[mPassCount];
+        mGpuSupported = isGpuTimingSupported();
+        mTimings.setGpuSupported(mGpuSupported);
+        if (mGpuSupported) {
+            mQueries = new int[RING_SIZE * mPassCount];
+            GLES30.glGenQueries(mQueries.length, mQueries, 0);
+            // Clear any disjoint state from before
+            GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mDisjoint, 0);
+        } else {
+            mQueries = null;
+        }
+    }
+
+    /**
+     * Whether the current context can time passes on the GPU.
+     */
+    public static boolean isGpuTimingSupported() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        return version != null && version.startsWith("OpenGL ES 3") && extensions != null
+                && extensions.contains("GL_EXT_disjoint_timer_query");
+    }
+
+    public boolean isGpuSupported() {
+        return mGpuSupported;
+    }
+
+    /**
+     * Collects finished GPU results and starts measuring a new frame.
+     */
+    public void beginFrame() {
+        if (!mGpuSupported) {
+            return;
+        }
+        collect();
+        mSlot = (mSlot + 1) % RING_SIZE;
+        // Skip the frame if the GPU hasn't finished the one that last used this slot
+        mFrameActive = !mPending[mSlot];
+        if (mFrameActive) {
+            for (int pass = 0; pass < mPassCount; pass++) {
+                mIssued[mSlot * mPassCount + pass] = false;
+            }
+        }
+    }
+
+    public void beginPass(int pass) {
+        mCpuStart[pass] = System.nanoTime();
+        if (mFrameActive) {
+            GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, mQueries[mSlot * mPassCount + pass]);
+        }
+    }
+
+    public void endPass(int pass) {
+        if (mFrameActive) {
+            GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+            mIssued[mSlot * mPassCount + pass] = true;
+            mPending[mSlot] = true;
+        }
+        mTimings.addCpuSample(pass, System.nanoTime() - mCpuStart[pass]);
+    }
+
+    /**
+     * Reads back every slot whose results are all available, oldest first.
+     */
+    private void collect() {
+        boolean disjointChecked = false;
+        boolean disjoint = false;
+        for (int i = 1; i <= RING_SIZE; i++) {
+            int slot = (mSlot + i) % RING_SIZE;
+            if (!mPending[slot] || !isSlotAvailable(slot)) {
+                continue;
+            }
+            if (!disjointChecked) {
+                // Reading the flag resets it, so it covers everything collected now
+                GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mDisjoint, 0);
+                disjoint = mDisjoint[0] != 0;
+                disjointChecked = true;
+            }
+            for (int pass = 0; pass < mPassCount; pass++) {
+                int index = slot * mPassCount + pass;
+                if (!mIssued[index]) {
+                    continue;
+                }
+                GLES30.glGetQueryObjectuiv(mQueries[index], GLES30.GL_QUERY_RESULT, mResult, 0);
+                if (!disjoint) {
+                    // Unsigned nanoseconds
+                    mTimings.addGpuSample(pass, mResult[0] & 0xFFFFFFFFL);
+                }
+            }
+            if (disjoint) {
+                mTimings.onDisjoint();
+            }
+            mPending[slot] = false;
+        }
+    }
+
+    private boolean isSlotAvailable(int slot) {
+        for (int pass = 0; pass < mPassCount; pass++) {
+            int index = slot * mPassCount + pass;
+            if (mIssued[index]) {
+                GLES30.glGetQueryObjectuiv(mQueries[index], GLES30.GL_QUERY_RESULT_AVAILABLE,
+                        mAvailable, 0);
+                if (mAvailable[0] == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the query objects. Call while the context is still current; after the context is
+     * lost, just drop the timer.
+     */
+    public void release() {
+        if (mQueries != null) {
+            GLES30.glDeleteQueries(mQueries.length, mQueries, 0);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * The numbers shown by the {@link DebugHud}, kept in fixed size ring buffers.
+ * <p>
+ * Inputs carry their own timestamps and nothing allocates after construction, so collecting
+ * stats doesn't disturb the frame times and allocation rate being measured. Not thread safe;
+ * fed and read on the GL thread.
+ * </p>
+ */
+public class HudStats {
+
+    /**
+     * Frames kept for the frame time graph.
+     */
+    public static final int GRAPH_FRAMES = 120;
+
+    private static final long SECOND_NS = 1000000000L;
+
+    private final FloatRingBuffer mFrameMillis = new FloatRingBuffer(GRAPH_FRAMES);
+    private long mLastFrameNanos = -1;
+    private long mFpsWindowStartNanos = -1;
+    private int mFpsWindowFrames;
+    private float mFps;
+    private int mGlCalls;
+    private int mDrawCalls;
+
+    private long mLastHeapBytes = -1;
+    private long mAllocatedInWindow;
+    private long mMemoryWindowStartNanos = -1;
+    private float mAllocationBytesPerSecond;
+    private long mGcCount;
+    private boolean mGcCountFromRuntime;
+
+    private int mQualityTier = -1;
+
+    /**
+     * Records a frame.
+     *
+     * @param glCalls   GL calls issued for the frame.
+     * @param drawCalls Draw calls among them.
+     */
+    public void onFrame(long nowNanos, int glCalls, int drawCalls) {
+        if (mLastFrameNanos >= 0) {
+            mFrameMillis.add((nowNanos - mLastFrameNanos) / 1000000.0f);
+        }
+        mLastFrameNanos = nowNanos;
+        mGlCalls = glCalls;
+        mDrawCalls = drawCalls;
+
+        if (mFpsWindowStartNanos < 0) {
+            mFpsWindowStartNanos = nowNanos;
+        } else {
+            mFpsWindowFrames++;
+            long elapsed = nowNanos - mFpsWindowStartNanos;
+            if (elapsed >= SECOND_NS) {
+                mFps = mFpsWindowFrames * (float) SECOND_NS / elapsed;
+                mFpsWindowFrames = 0;
+                mFpsWindowStartNanos = nowNanos;
+            }
+        }
+    }
+
+    /**
+     * Records the heap use.
+     *
+     * @param usedHeapBytes Bytes in use on the Java heap.
+     * @param gcCount       Collections so far as reported by the runtime, or -1 if unknown; in
+     *                      that case collections are counted from drops in heap use.
+     */
+    public void onMemorySample(long nowNanos, long usedHeapBytes, long gcCount) {
+        if (mLastHeapBytes >= 0) {
+            long delta = usedHeapBytes - mLastHeapBytes;
+            if (delta >= 0) {
+                mAllocatedInWindow += delta;
+            } else if (gcCount < 0) {
+                mGcCount++;
+            }
+        }
+        if (gcCount >= 0) {
+            mGcCount = gcCount;
+            mGcCountFromRuntime = true;
+        }
+        mLastHeapBytes = usedHeapBytes;
+
+        if (mMemoryWindowStartNanos < 0) {
+            mMemoryWindowStartNanos = nowNanos;
+        } else if (nowNanos - mMemoryWindowStartNanos >= SECOND_NS) {
+            mAllocationBytesPerSecond = mAllocatedInWindow * (float) SECOND_NS
+                    / (nowNanos - mMemoryWindowStartNanos);
+            mAllocatedInWindow = 0;
+            mMemoryWindowStartNanos = nowNanos;
+        }
+    }
+
+    public void setQualityTier(int tier) {
+        mQualityTier = tier;
+    }
+
+    /**
+     * Frames per second over the last full second.
+     */
+    public float getFps() {
+        return mFps;
+    }
+
+    /**
+     * Intervals between recent frames, in milliseconds.
+     */
+    public FloatRingBuffer getFrameMillis() {
+        return mFrameMillis;
+    }
+
+    public int getGlCalls() {
+        return mGlCalls;
+    }
+
+    public int getDrawCalls() {
+        return mDrawCalls;
+    }
+
+    public long getGcCount() {
+        return mGcCount;
+    }
+
+    /**
+     * Whether the GC count comes from the runtime rather than from drops in heap use.
+     */
+    public boolean isGcCountExact() {
+        return mGcCountFromRuntime;
+    }
+
+    /**
+     * Growth of the heap between collections over the last full second, approximating the
+     * allocation rate.
+     */
+    public float getAllocationBytesPerSecond() {
+        return mAllocationBytesPerSecond;
+    }
+
+    /**
+     * The quality governor's tier index, or -1 if unknown.
+     */
+    public int getQualityTier() {
+        return mQualityTier;
+    }
+
+    public void reset() {
+        mFrameMillis.clear();
+        mLastFrameNanos = -1;
+        mFpsWindowStartNanos = -1;
+        mFpsWindowFrames = 0;
+        mFps = 0;
+        mLastHeapBytes = -1;
+        mAllocatedInWindow = 0;
+        mMemoryWindowStartNanos = -1;
+        mAllocationBytesPerSecond = 0;
+    }
+}
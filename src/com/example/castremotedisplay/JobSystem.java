@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small fork/join job system with a work-stealing thread pool.
+ * <p>
+ * Each worker has its own deque: it pushes and pops forked work at the head, and idle workers
+ * steal from the tail, so big chunks of work migrate to idle cores while each worker keeps
+ * working on the data it just touched. {@link #parallelFor} splits a range in halves until
+ * the pieces are no larger than the grain size; a thread waiting for its range to finish runs
+ * pending jobs while there are any, so parallel loops may be nested, and otherwise sleeps until
+ * more jobs are queued or the range is done.
+ * </p>
+ * <p>
+ * {@code java.util.concurrent.ForkJoinPool} is only available from API level 21, which is why
+ * the pool is implemented here. It has no Android dependencies.
+ * </p>
+ */
+public class JobSystem {
+
+    /**
+     * Work on the elements {@code [start, end)} of a range.
+     */
+    public interface RangeJob {
+        void run(int start, int end);
+    }
+
+    private static final String CPU_MAX_FREQ_PATH =
+            "/sys/devices/system/cpu/cpu%d/cpufreq/cpuinfo_max_freq";
+
+    private final Worker[] mWorkers;
+    // Jobs pushed by threads outside the pool
+    private final LinkedBlockingDeque<Runnable> mSubmitted = new LinkedBlockingDeque<Runnable>();
+    private final AtomicInteger mQueuedCount = new AtomicInteger();
+    private final Object mIdleLock = new Object();
+    private volatile int mSleeperCount;
+    private volatile boolean mShutdown;
+
+    /**
+     * Creates a pool with one worker per big core, minus one for the GL thread.
+     */
+    public JobSystem() {
+        this(Math.max(1, getBigCoreCount() - 1));
+    }
+
+    public JobSystem(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount < 1");
+        }
+        mWorkers = new Worker[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            mWorkers[i] = new Worker(i);
+        }
+        for (Worker worker : mWorkers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Counts the cores with the highest maximum frequency, i.e. the big cores of a big.LITTLE
+     * CPU. Falls back to all available processors when the frequencies can't be read.
+     */
+    public static int getBigCoreCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        long maxFrequency = 0;
+        int count = 0;
+        for (int cpu = 0; cpu < processors; cpu++) {
+            long frequency = readMaxFrequency(cpu);
+            if (frequency < 0) {
+                return processors;
+            }
+            if (frequency > maxFrequency) {
+                maxFrequency = frequency;
+                count = 1;
+            } else if (frequency == maxFrequency) {
+                count++;
+            }
+        }
+        return Math.max(1, count);
+    }
+
+    private static long readMaxFrequency(int cpu) {
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new FileReader(String.format(CPU_MAX_FREQ_PATH, cpu)));
+            try {
+                return Long.parseLong(reader.readLine().trim());
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return -1;
+        } catch (RuntimeException e) {
+            // Missing or malformed contents
+            return -1;
+        }
+    }
+
+    public int getThreadCount() {
+        return mWorkers.length;
+    }
+
+    /**
+     * Runs a job on the pool without waiting for it. The job must not throw.
+     */
+    public void submit(Runnable job) {
+        push(job);
+    }
+
+    /**
+     * Runs {@code job} over {@code [0, count)} in parallel and returns when all of it is done.
+     * The calling thread takes part in the work.
+     *
+     * @param grain The largest piece of the range handed to a single call of the job.
+     */
+    public void parallelFor(int count, int grain, RangeJob job) {
+        if (count <= 0) {
+            return;
+        }
+        Join join = new Join();
+        new RangeTask(job, 0, count, Math.max(1, grain), join).run();
+        Worker self = currentWorker();
+        boolean interrupted = false;
+        while (join.mPending.get() > 0) {
+            Runnable task = take(self);
+            if (task != null) {
+                task.run();
+                continue;
+            }
+            // The rest of the range is running on other threads; a push or the last piece
+            // finishing wakes us
+            synchronized (mIdleLock) {
+                mSleeperCount++;
+                try {
+                    if (join.mPending.get() > 0 && mQueuedCount.get() == 0) {
+                        mIdleLock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    // The range still has to finish before its job's data may be used
+                    interrupted = true;
+                } finally {
+                    mSleeperCount--;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (join.mError != null) {
+            throw new RuntimeException("Job failed", join.mError);
+        }
+    }
+
+    /**
+     * Stops the workers once they finish the job they are running.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        synchronized (mIdleLock) {
+            mIdleLock.notifyAll();
+        }
+    }
+
+    private Worker currentWorker() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Worker && ((Worker) thread).getPool() == this) {
+            return (Worker) thread;
+        }
+        return null;
+    }
+
+    private void push(Runnable task) {
+        Worker worker = currentWorker();
+        if (worker != null) {
+            worker.mDeque.addFirst(task);
+        } else {
+            mSubmitted.addLast(task);
+        }
+        mQueuedCount.incrementAndGet();
+        if (mSleeperCount > 0) {
+            synchronized (mIdleLock) {
+                mIdleLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Takes a job: the worker's own newest first, then submitted ones, then the oldest job of
+     * another worker.
+     */
+    private Runnable take(Worker self) {
+        Runnable task = null;
+        if (self != null) {
+            task = self.mDeque.pollFirst();
+        }
+        if (task == null) {
+            task = mSubmitted.pollFirst();
+        }
+        if (task == null) {
+            int start = self != null ? self.mIndex + 1 : 0;
+            for (int i = 0; i < mWorkers.length && task == null; i++) {
+                Worker victim = mWorkers[(start + i) % mWorkers.length];
+                if (victim != self) {
+                    task = victim.mDeque.pollLast();
+                }
+            }
+        }
+        if (task != null) {
+            mQueuedCount.decrementAndGet();
+        }
+        return task;
+    }
+
+    private static final class Join {
+        // Ranges not yet finished; starts at one for the whole range
+        final AtomicInteger mPending = new AtomicInteger(1);
+        volatile Throwable mError;
+    }
+
+    private final class RangeTask implements Runnable {
+        private final RangeJob mJob;
+        private final int mStart;
+        private final int mEnd;
+        private final int mGrain;
+        private final Join mJoin;
+
+        RangeTask(RangeJob job, int start, int end, int grain, Join join) {
+            mJob = job;
+            mStart = start;
+            mEnd = end;
+            mGrain = grain;
+            mJoin = join;
+        }
+
+        @Override
+        public void run() {
+            int end = mEnd;
+            try {
+                // Fork off the upper halves and keep the lowest piece
+                while (end - mStart > mGrain) {
+                    int middle = (mStart + end) >>> 1;
+                    mJoin.mPending.incrementAndGet();
+                    push(new RangeTask(mJob, middle, end, mGrain, mJoin));
+                    end = middle;
+                }
+                if (mJoin.mError == null) {
+                    mJob.run(mStart, end);
+                }
+            } catch (Throwable t) {
+                mJoin.mError = t;
+            } finally {
+                if (mJoin.mPending.decrementAndGet() == 0 && mSleeperCount > 0) {
+                    synchronized (mIdleLock) {
+                        mIdleLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    private final class Worker extends Thread {
+        final int mIndex;
+        final LinkedBlockingDeque<Runnable> mDeque = new LinkedBlockingDeque<Runnable>();
+
+        Worker(int index) {
+            super("JobSystem-" + index);
+            mIndex = index;
+            setDaemon(true);
+        }
+
+        JobSystem getPool() {
+            return JobSystem.this;
+        }
+
+        @Override
+        public void run() {
+            while (!mShutdown) {
+                Runnable task = take(this);
+                if (task != null) {
+                    task.run();
+                    continue;
+                }
+                synchronized (mIdleLock) {
+                    mSleeperCount++;
+                    try {
+                        // Checked after announcing the sleep, so a push can't be missed
+                        if (mQueuedCount.get() == 0 && !mShutdown) {
+                            mIdleLock.wait();
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    } finally {
+                        mSleeperCount--;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * A mesh and simplified copies of it, from the full detail level 0 down to the coarsest.
+ * <p>
+ * Built once at load time, or offline with the levels stored, since simplifying takes tens of
+ * milliseconds for a mesh of thousands of triangles. Each level is simplified from the one
+ * before it, so errors accumulate gradually and every level costs less than the last.
+ * </p>
+ */
+public final class LodMesh {
+
+    private final Mesh[] mLevels;
+    private final double[] mErrors;
+
+    private LodMesh(Mesh[] levels, double[] errors) {
+        mLevels = levels;
+        mErrors = errors;
+    }
+
+    /**
+     * Wraps levels made elsewhere, e.g. loaded from storage, finest first.
+     */
+    public static LodMesh of(Mesh... levels) {
+        if (levels.length == 0) {
+            throw new IllegalArgumentException("No levels");
+        }
+        return new LodMesh(levels.clone(), new double[levels.length]);
+    }
+
+    /**
+     * Simplifies {@code base} into up to {@code levelCount} levels, each with about
+     * {@code reduction} times the triangles of the previous one. Stops early at
+     * {@code minTriangles} or when a level can't be simplified further.
+     *
+     * @param reduction Between 0 and 1, e.g. 0.25 to quarter the triangles per level.
+     */
+    public static LodMesh build(Mesh base, int levelCount, float reduction, int minTriangles) {
+        if (levelCount < 1 || reduction <= 0 || reduction >= 1) {
+            throw new IllegalArgumentException("Invalid levels " + levelCount + " " + reduction);
+        }
+        Mesh[] levels = new Mesh[levelCount];
+        double[] errors = new double[levelCount];
+        levels[0] = base;
+        int count = 1;
+        MeshSimplifier simplifier = new MeshSimplifier();
+        while (count < levelCount) {
+            Mesh previous = levels[count - 1];
+            int target = Math.max(minTriangles, (int) (previous.getTriangleCount() * reduction));
+            if (target >= previous.getTriangleCount()) {
+                break;
+            }
+            Mesh level = simplifier.simplify(previous, target);
+            if (level.getTriangleCount() >= previous.getTriangleCount()) {
+                break;
+            }
+            errors[count] = Math.max(errors[count - 1], simplifier.getMaxError());
+            levels[count++] = level;
+        }
+        Mesh[] built = new Mesh[count];
+        System.arraycopy(levels, 0, built, 0, count);
+        double[] builtErrors = new double[count];
+        System.arraycopy(errors, 0, builtErrors, 0, count);
+        return new LodMesh(built, builtErrors);
+    }
+
+    public int getLevelCount() {
+        return mLevels.length;
+    }
+
+    /**
+     * @param level 0 for full detail.
+     */
+    public Mesh getLevel(int level) {
+        return mLevels[level];
+    }
+
+    /**
+     * Triangles per level, finest first, as {@link LodSelector} takes them.
+     */
+    public int[] getTriangleCounts() {
+        int[] counts = new int[mLevels.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mLevels[i].getTriangleCount();
+        }
+        return counts;
+    }
+
+    /**
+     * The largest quadric error of any collapse leading to a level, 0 for level 0.
+     */
+    public double getError(int level) {
+        return mErrors[level];
+    }
+
+    /**
+     * The radius bounding every level, for selecting by screen size.
+     */
+    public float getBoundingRadius() {
+        float radius = 0;
+        for (Mesh level : mLevels) {
+            radius = Math.max(radius, level.getBoundingRadius());
+        }
+        return radius;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * Picks a level of a {@link LodMesh} per object from the object's projected size on screen.
+ * <p>
+ * An object whose bounding sphere covers A pixels is given about A / pixels per triangle
+ * triangles: the coarsest level with at least that many, so triangles drawn per frame follow
+ * how much of the screen objects cover rather than how many there are. To keep objects near a
+ * threshold from popping between two levels every frame, an object only changes level once its
+ * size is {@link #DEFAULT_HYSTERESIS} past the threshold.
+ * </p>
+ * <p>
+ * Plain Java. {@link #setProjection(float[], int)} must not run concurrently with
+ * {@link #select(int, float)}, but selections for different objects may run in parallel, as in
+ * the chunks of a {@link CubeField} update.
+ * </p>
+ */
+public class LodSelector {
+
+    public static final float DEFAULT_PIXELS_PER_TRIANGLE = 16.0f;
+
+    /**
+     * How far, as a fraction of the triangles wanted, an object's size has to move past a
+     * level's threshold before it switches.
+     */
+    public static final float DEFAULT_HYSTERESIS = 0.25f;
+
+    private final int[] mLevelTriangles;
+    private final float mBoundingRadius;
+    // The level each object was last drawn at, or -1
+    private final int[] mObjectLevels;
+    private float mPixelsPerTriangle = DEFAULT_PIXELS_PER_TRIANGLE;
+    private float mHysteresis = DEFAULT_HYSTERESIS;
+    // Pixels per world unit of radius at a view depth of 1
+    private float mPixelScale;
+
+    /**
+     * @param levelTriangles Triangles per level, finest first, e.g. from
+     *                       {@link LodMesh#getTriangleCounts()}.
+     * @param objectCount    Objects to keep selections for.
+     * @param boundingRadius Of an object in world units, with its scale applied.
+     */
+    public LodSelector(int[] levelTriangles, int objectCount, float boundingRadius) {
+        for (int i = 1; i < levelTriangles.length; i++) {
+            if (levelTriangles[i] > levelTriangles[i - 1]) {
+                throw new IllegalArgumentException("Levels must get coarser");
+            }
+        }
+        mLevelTriangles = levelTriangles.clone();
+        mBoundingRadius = boundingRadius;
+        mObjectLevels = new int[objectCount];
+        reset();
+    }
+
+    /**
+     * Takes the projection objects are drawn with, as built in
+     * {@code CubeRenderer.onSurfaceChanged}, and the viewport's height in pixels.
+     */
+    public void setProjection(float[] projection, int viewportHeight) {
+        // Element (1, 1) is the cotangent of half the vertical field of view
+        mPixelScale = projection[5] * viewportHeight / 2;
+    }
+
+    public void setPixelsPerTriangle(float pixelsPerTriangle) {
+        mPixelsPerTriangle = pixelsPerTriangle;
+    }
+
+    /**
+     * @param hysteresis 0 to switch exactly at the thresholds.
+     */
+    public void setHysteresis(float hysteresis) {
+        mHysteresis = hysteresis;
+    }
+
+    /**
+     * Forgets the objects' levels, e.g. after a cut, so they are picked without hysteresis.
+     */
+    public void reset() {
+        for (int i = 0; i < mObjectLevels.length; i++) {
+            mObjectLevels[i] = -1;
+        }
+    }
+
+    public int getLevelCount() {
+        return mLevelTriangles.length;
+    }
+
+    public int getLevelTriangles(int level) {
+        return mLevelTriangles[level];
+    }
+
+    /**
+     * The level to draw an object at this frame.
+     *
+     * @param viewDepth Distance in front of the camera, the w of its clip space position.
+     */
+    public int select(int object, float viewDepth) {
+        float wanted = getWantedTriangles(viewDepth);
+        int current = mObjectLevels[object];
+        int level;
+        if (current < 0) {
+            level = levelFor(wanted);
+        } else if (levelFor(wanted * (1 - mHysteresis)) < current
+                || levelFor(wanted * (1 + mHysteresis)) > current) {
+            // Clearly past a threshold one way or the other
+            level = levelFor(wanted);
+        } else {
+            level = current;
+        }
+        mObjectLevels[object] = level;
+        return level;
+    }
+
+    /**
+     * The level an object was last selected at, or -1.
+     */
+    public int getLevel(int object) {
+        return mObjectLevels[object];
+    }
+
+    /**
+     * Triangles an object at this depth should be drawn with, ignoring the levels there are.
+     */
+    public float getWantedTriangles(float viewDepth) {
+        if (viewDepth <= 0) {
+            // At or behind the camera, so as large as it gets
+            return Float.MAX_VALUE;
+        }
+        float radius = mBoundingRadius * mPixelScale / viewDepth;
+        return (float) Math.PI * radius * radius / mPixelsPerTriangle;
+    }
+
+    /**
+     * The coarsest level with at least {@code triangles}, or the finest if none has as many.
+     */
+    private int levelFor(float triangles) {
+        for (int level = mLevelTriangles.length - 1; level > 0; level--) {
+            if (mLevelTriangles[level] >= triangles) {
+                return level;
+            }
+        }
+        return 0;
+    }
+}
@@ -17,7 +17,6 @@
 package com.example.castremotedisplay;
 
 import com.google.android.gms.cast.CastDevice;
-import com.google.android.gms.cast.CastMediaControlIntent;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
 
@@ -35,6 +34,9 @@ import android.util.Log;
 import android.view.View;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * Main activity for application that displays a button to allow the user to select a Cast device
  * for the Remote Display API.
@@ -43,16 +45,22 @@ public class MainActivity extends ActionBarActivity {
 
     private static final String TAG = "MainActivity";
     protected static final String INTENT_EXTRA_CAST_DEVICE = "CastDevice";
+    private static final String TELEMETRY_DIRECTORY = "telemetry";
 
     private MediaRouter mMediaRouter;
     private MediaRouteSelector mMediaRouteSelector;
     private MediaRouteButton mMediaRouteButton;
-    private int mRouteCount = 0;
     private MediaRouterButtonView mMediaRouterButtonView;
+    private RouteRegistry mRouteRegistry;
+    private RouteRegistry.Discovery mRouteDiscovery;
+    // The last used device, offered on the button until the user picks a device
+    private RouteInfo mSuggestedRoute;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.get().mark(StartupTrace.EVENT_MAIN_CREATE);
         super.onCreate(savedInstanceState);
+        openTelemetry();
         checkGooglePlayServices();
 
         setContentView(R.layout.main_layout);
@@ -62,11 +70,11 @@ public class MainActivity extends ActionBarActivity {
         Typeface typeface = Typeface.createFromAsset(getAssets(), "fonts/Roboto-Light.ttf");
         titleTextView.setTypeface(typeface);
 
-        mMediaRouteSelector = new MediaRouteSelector.Builder()
-                .addControlCategory(
-                        CastMediaControlIntent.categoryForCast(getString(R.string.app_id)))
-                .build();
+        mMediaRouteSelector = CastRoutes.getSelector(this);
         mMediaRouter = MediaRouter.getInstance(getApplicationContext());
+        mRouteRegistry = CastRoutes.getRegistry(this);
+        mRouteDiscovery = new CastRoutes.MediaRouterDiscovery(mMediaRouter, mMediaRouteSelector,
+                mMediaRouterCallback);
 
         // Set the MediaRouteButton selector for device discovery.
         mMediaRouterButtonView = (MediaRouterButtonView) findViewById(R.id.media_route_button_view);
@@ -76,6 +84,27 @@ public class MainActivity extends ActionBarActivity {
         }
     }
 
+    /**
+     * Starts the telemetry journal in the app's external files directory, so it can be pulled
+     * with <code>adb pull</code> and read with {@code TelemetryReader}. Creating the file is
+     * left to a thread; the few records before that are dropped.
+     */
+    private void openTelemetry() {
+        File files = getExternalFilesDir(null);
+        final File directory = new File(files != null ? files : getFilesDir(),
+                TELEMETRY_DIRECTORY);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Telemetry.get().open(directory);
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to open telemetry in " + directory, e);
+                }
+            }
+        }, "TelemetryOpen").start();
+    }
+
     private void setFullScreen() {
         View decorView = getWindow().getDecorView();
         decorView.setSystemUiVisibility(
@@ -88,41 +117,95 @@ public class MainActivity extends ActionBarActivity {
     @Override
     protected void onStart() {
         super.onStart();
-        mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback,
-                MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY);
+        // Scans actively until a device is found, then falls back to passive discovery
+        mRouteRegistry.start(mRouteDiscovery, mRouteRegistryListener);
     }
 
     @Override
     protected void onStop() {
         super.onStop();
-        mMediaRouter.removeCallback(mMediaRouterCallback);
+        mRouteRegistry.stop();
+        mRouteRegistry.save();
+    }
+
+    private final RouteRegistry.Listener mRouteRegistryListener = new RouteRegistry.Listener() {
+        @Override
+        public void onAvailableRoutesChanged(int count) {
+            if (mMediaRouterButtonView != null) {
+                // Only show the button when there are devices discovered.
+                mMediaRouterButtonView.setVisibility(count > 0 ? View.VISIBLE : View.GONE);
+            }
+        }
+
+        @Override
+        public void onLastUsedRouteAvailable(String deviceId) {
+            if (!mMediaRouter.getSelectedRoute().isDefault()) {
+                // Already connected to something
+                return;
+            }
+            RouteInfo route = CastRoutes.findRoute(mMediaRouter, mMediaRouteSelector, deviceId);
+            if (route != null) {
+                suggestRoute(route);
+            }
+        }
+    };
+
+    /**
+     * Offers the device on the cast button; connecting is left to the user tapping it.
+     */
+    private void suggestRoute(final RouteInfo route) {
+        if (mMediaRouterButtonView == null) {
+            return;
+        }
+        mSuggestedRoute = route;
+        mMediaRouterButtonView.setSuggestion(
+                getString(R.string.play_on_last_used, route.getName()),
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        Log.d(TAG, "Reconnecting to last used device");
+                        Telemetry.get().markReconnect();
+                        clearSuggestedRoute();
+                        mMediaRouter.selectRoute(route);
+                    }
+                });
+    }
+
+    private void clearSuggestedRoute() {
+        if (mSuggestedRoute != null) {
+            mSuggestedRoute = null;
+            mMediaRouterButtonView.setSuggestion(null, null);
+        }
     }
 
     private final MediaRouter.Callback mMediaRouterCallback =
             new MediaRouter.Callback() {
                 @Override
                 public void onRouteAdded(MediaRouter router, RouteInfo route) {
-                    if (++mRouteCount == 1) {
-                        // Show the button when a device is discovered.
-                        if (mMediaRouterButtonView != null) {
-                            mMediaRouterButtonView.setVisibility(View.VISIBLE);
-                        }
+                    CastDevice castDevice = CastRoutes.getCastDevice(route);
+                    if (castDevice != null) {
+                        mRouteRegistry.onRouteAdded(castDevice.getDeviceId(),
+                                castDevice.getFriendlyName(), System.currentTimeMillis());
                     }
                 }
 
                 @Override
                 public void onRouteRemoved(MediaRouter router, RouteInfo route) {
-                    if (--mRouteCount == 0) {
-                        // Hide the button if there are no devices discovered.
-                        if (mMediaRouterButtonView != null) {
-                            mMediaRouterButtonView.setVisibility(View.GONE);
-                        }
+                    if (route == mSuggestedRoute) {
+                        clearSuggestedRoute();
+                    }
+                    CastDevice castDevice = CastRoutes.getCastDevice(route);
+                    if (castDevice != null) {
+                        mRouteRegistry.onRouteRemoved(castDevice.getDeviceId(),
+                                System.currentTimeMillis());
                     }
                 }
 
                 @Override
                 public void onRouteSelected(MediaRouter router, RouteInfo info) {
                     Log.d(TAG, "onRouteSelected");
+                    clearSuggestedRoute();
+                    StartupTrace.get().markSessionStart(StartupTrace.EVENT_ROUTE_SELECTED);
                     CastDevice castDevice = CastDevice.getFromBundle(info.getExtras());
                     if (castDevice != null) {
                         Intent intent = new Intent(MainActivity.this,
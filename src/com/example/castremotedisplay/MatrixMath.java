@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * The subset of {@code android.opengl.Matrix} the renderers use, in plain Java so that they
+ * also run in the JVM harnesses, where the framework's methods throw.
+ * <p>
+ * Matrices are column major 4x4 arrays of floats stored at an offset, with the same
+ * conventions and argument order as {@code android.opengl.Matrix}.
+ * </p>
+ */
+public final class MatrixMath {
+
+    private MatrixMath() {
+    }
+
+    public static void setIdentityM(float[] m, int offset) {
+        for (int i = 0; i < 16; i++) {
+            m[offset + i] = (i % 5 == 0) ? 1.0f : 0.0f;
+        }
+    }
+
+    /**
+     * Multiplies {@code lhs * rhs} into {@code result}. The result may be the same array as
+     * {@code rhs}, but must not overlap {@code lhs}.
+     */
+    public static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset,
+            float[] rhs, int rhsOffset) {
+        for (int column = 0; column < 4; column++) {
+            int r = rhsOffset + column * 4;
+            float r0 = rhs[r];
+            float r1 = rhs[r + 1];
+            float r2 = rhs[r + 2];
+            float r3 = rhs[r + 3];
+            for (int row = 0; row < 4; row++) {
+                int l = lhsOffset + row;
+                result[resultOffset + column * 4 + row] = lhs[l] * r0 + lhs[l + 4] * r1
+                        + lhs[l + 8] * r2 + lhs[l + 12] * r3;
+            }
+        }
+    }
+
+    /**
+     * Translates {@code m} in place, i.e. multiplies it by a translation on the right.
+     */
+    public static void translateM(float[] m, int offset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            int mi = offset + i;
+            m[12 + mi] += m[mi] * x + m[4 + mi] * y + m[8 + mi] * z;
+        }
+    }
+
+    /**
+     * Sets {@code m} to a rotation of {@code angle} degrees around the axis (x, y, z), which
+     * need not be normalized.
+     */
+    public static void setRotateM(float[] m, int offset, float angle, float x, float y,
+            float z) {
+        double radians = Math.toRadians(angle);
+        float s = (float) Math.sin(radians);
+        float c = (float) Math.cos(radians);
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        if (length != 1.0f) {
+            float recipLength = 1.0f / length;
+            x *= recipLength;
+            y *= recipLength;
+            z *= recipLength;
+        }
+        float nc = 1.0f - c;
+        float xy = x * y;
+        float yz = y * z;
+        float zx = z * x;
+        float xs = x * s;
+        float ys = y * s;
+        float zs = z * s;
+        m[offset] = x * x * nc + c;
+        m[offset + 1] = xy * nc + zs;
+        m[offset + 2] = zx * nc - ys;
+        m[offset + 3] = 0.0f;
+        m[offset + 4] = xy * nc - zs;
+        m[offset + 5] = y * y * nc + c;
+        m[offset + 6] = yz * nc + xs;
+        m[offset + 7] = 0.0f;
+        m[offset + 8] = zx * nc + ys;
+        m[offset + 9] = yz * nc - xs;
+        m[offset + 10] = z * z * nc + c;
+        m[offset + 11] = 0.0f;
+        m[offset + 12] = 0.0f;
+        m[offset + 13] = 0.0f;
+        m[offset + 14] = 0.0f;
+        m[offset + 15] = 1.0f;
+    }
+
+    /**
+     * Sets {@code m} to a view matrix for a camera at the eye point looking at the center point.
+     */
+    public static void setLookAtM(float[] m, int offset, float eyeX, float eyeY, float eyeZ,
+            float centerX, float centerY, float centerZ, float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float recipLength = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx *= recipLength;
+        fy *= recipLength;
+        fz *= recipLength;
+
+        // Side, f x up
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        recipLength = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx *= recipLength;
+        sy *= recipLength;
+        sz *= recipLength;
+
+        // Recomputed up, s x f
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        m[offset] = sx;
+        m[offset + 1] = ux;
+        m[offset + 2] = -fx;
+        m[offset + 3] = 0.0f;
+        m[offset + 4] = sy;
+        m[offset + 5] = uy;
+        m[offset + 6] = -fy;
+        m[offset + 7] = 0.0f;
+        m[offset + 8] = sz;
+        m[offset + 9] = uz;
+        m[offset + 10] = -fz;
+        m[offset + 11] = 0.0f;
+        m[offset + 12] = 0.0f;
+        m[offset + 13] = 0.0f;
+        m[offset + 14] = 0.0f;
+        m[offset + 15] = 1.0f;
+        translateM(m, offset, -eyeX, -eyeY, -eyeZ);
+    }
+
+    /**
+     * Sets {@code m} to a perspective projection of the given frustum.
+     *
+     * @throws IllegalArgumentException If the frustum is empty or near isn't in front of far.
+     */
+    public static void frustumM(float[] m, int offset, float left, float right, float bottom,
+            float top, float near, float far) {
+        if (left == right || top == bottom || near == far || near <= 0.0f || far <= 0.0f) {
+            throw new IllegalArgumentException("Invalid frustum");
+        }
+        float recipWidth = 1.0f / (right - left);
+        float recipHeight = 1.0f / (top - bottom);
+        float recipDepth = 1.0f / (near - far);
+        for (int i = 0; i < 16; i++) {
+            m[offset + i] = 0.0f;
+        }
+        m[offset] = 2.0f * near * recipWidth;
+        m[offset + 5] = 2.0f * near * recipHeight;
+        m[offset + 8] = (right + left) * recipWidth;
+        m[offset + 9] = (top + bottom) * recipHeight;
+        m[offset + 10] = (far + near) * recipDepth;
+        m[offset + 11] = -1.0f;
+        m[offset + 14] = 2.0f * far * near * recipDepth;
+    }
+
+    /**
+     * Sets {@code m} to a symmetric perspective projection.
+     *
+     * @param fovy   Vertical field of view in degrees.
+     * @param aspect Width over height of the viewport.
+     */
+    public static void perspectiveM(float[] m, int offset, float fovy, float aspect, float near,
+            float far) {
+        float top = (float) Math.tan(fovy * Math.PI / 360.0f) * near;
+        frustumM(m, offset, -aspect * top, aspect * top, -top, top, near, far);
+    }
+}
@@ -32,6 +32,8 @@ public class MediaRouterButtonView extends LinearLayout {
 
     private MediaRouteButton mMediaRouteButton;
     private TextView mTextView;
+    private String mButtonText;
+    private OnClickListener mSuggestionListener;
 
     public MediaRouterButtonView(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -48,6 +50,7 @@ public class MediaRouterButtonView extends LinearLayout {
         mMediaRouteButton = (MediaRouteButton) getChildAt(0);
 
         mTextView = (TextView) getChildAt(1);
+        mButtonText = buttonText;
         mTextView.setText(buttonText);
     }
 
@@ -59,10 +62,23 @@ public class MediaRouterButtonView extends LinearLayout {
         return mMediaRouteButton;
     }
 
+    /**
+     * Offers a one tap action on the label, e.g. connecting to the last used device, while the
+     * cast icon still opens the chooser. A null listener restores the label.
+     */
+    public void setSuggestion(CharSequence text, OnClickListener listener) {
+        mSuggestionListener = listener;
+        mTextView.setText(listener != null ? text : mButtonText);
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent e) {
-        // Simulate a click on the button as a click on the cast icon
-        mMediaRouteButton.performClick();
+        if (mSuggestionListener != null) {
+            mSuggestionListener.onClick(this);
+        } else {
+            // Simulate a click on the button as a click on the cast icon
+            mMediaRouteButton.performClick();
+        }
         return false;
     }
 
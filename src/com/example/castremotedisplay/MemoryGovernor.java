@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The app's native memory footprint: a {@link DirectBufferPool} for vertex and image data and a
+ * {@link GlObjectRegistry} for GL objects, each with a budget, plus leak checks across
+ * presentations.
+ * <p>
+ * Take a {@link #mark()} when a presentation is shown and call {@link #findLeaks(Mark)} once it
+ * has been torn down: anything allocated in between and still live is reported. Buffers meant
+ * to outlive a presentation, like the warm start's geometry, must be allocated before the mark.
+ * </p>
+ */
+public class MemoryGovernor {
+
+    public static final long DEFAULT_DIRECT_BUDGET_BYTES = 32 * 1024 * 1024;
+    public static final long DEFAULT_GPU_BUDGET_BYTES = 192 * 1024 * 1024;
+
+    private static MemoryGovernor sInstance;
+
+    private final DirectBufferPool mBufferPool;
+    private final GlObjectRegistry mGlObjects;
+
+    /**
+     * A point in time to check for leaks against.
+     */
+    public static final class Mark {
+        private final long mBufferSerial;
+        private final long mGlObjectSerial;
+
+        Mark(long bufferSerial, long glObjectSerial) {
+            mBufferSerial = bufferSerial;
+            mGlObjectSerial = glObjectSerial;
+        }
+    }
+
+    public MemoryGovernor(long directBudgetBytes, long gpuBudgetBytes) {
+        mBufferPool = new DirectBufferPool(directBudgetBytes);
+        mGlObjects = new GlObjectRegistry(gpuBudgetBytes);
+    }
+
+    /**
+     * The process wide instance, with the default budgets.
+     */
+    public static synchronized MemoryGovernor get() {
+        if (sInstance == null) {
+            sInstance = new MemoryGovernor(DEFAULT_DIRECT_BUDGET_BYTES, DEFAULT_GPU_BUDGET_BYTES);
+        }
+        return sInstance;
+    }
+
+    public DirectBufferPool getBufferPool() {
+        return mBufferPool;
+    }
+
+    public GlObjectRegistry getGlObjects() {
+        return mGlObjects;
+    }
+
+    public Mark mark() {
+        return new Mark(mBufferPool.mark(), mGlObjects.mark());
+    }
+
+    /**
+     * Describes the buffers and GL objects allocated since the mark and still live, or returns
+     * null if there are none.
+     */
+    public String findLeaks(Mark mark) {
+        List<DirectBufferPool.Allocation> buffers = mBufferPool.getLiveSince(mark.mBufferSerial);
+        List<GlObjectRegistry.Entry> glObjects = mGlObjects.getLiveSince(mark.mGlObjectSerial);
+        if (buffers.isEmpty() && glObjects.isEmpty()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(String.format(Locale.US,
+                "%d direct buffers and %d GL objects leaked:", buffers.size(), glObjects.size()));
+        for (DirectBufferPool.Allocation buffer : buffers) {
+            builder.append(String.format(Locale.US, "\n  buffer (%s, %d bytes)",
+                    buffer.getOwner(), buffer.getRequestedBytes()));
+        }
+        for (GlObjectRegistry.Entry entry : glObjects) {
+            builder.append("\n  ").append(entry);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * One line summary, e.g. for logcat.
+     */
+    public String format() {
+        return String.format(Locale.US,
+                "direct: %d buffers, %.1f MB in use, %.1f of %.1f MB reserved | gl: %s",
+                mBufferPool.getLiveCount(), mBufferPool.getInUseBytes() / 1048576.0,
+                mBufferPool.getReservedBytes() / 1048576.0,
+                mBufferPool.getBudgetBytes() / 1048576.0, mGlObjects.format());
+    }
+}
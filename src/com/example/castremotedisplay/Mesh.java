@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.HashMap;
+
+/**
+ * An indexed triangle mesh on the heap: positions, a fixed number of extra floats per vertex
+ * that are interpolated when simplifying, e.g. colors, and 16 bit indices.
+ * <p>
+ * Meshes meant for {@link Cube#createGeometry(Mesh)} carry {@link #CUBE_ATTRIBUTE_SIZE}
+ * attributes: the vertex color and the alternate color, RGBA each. Plain Java, no GL.
+ * </p>
+ */
+public final class Mesh {
+
+    public static final int CUBE_ATTRIBUTE_SIZE = 8;
+
+    private final float[] mPositions;
+    private final float[] mAttributes;
+    private final int mAttributeSize;
+    private final short[] mIndices;
+
+    /**
+     * @param positions     x, y, z per vertex.
+     * @param attributes    {@code attributeSize} floats per vertex.
+     * @param attributeSize May be 0.
+     * @param indices       Three per triangle, counter clockwise.
+     */
+    public Mesh(float[] positions, float[] attributes, int attributeSize, short[] indices) {
+        int vertexCount = positions.length / 3;
+        if (positions.length % 3 != 0 || attributes.length != vertexCount * attributeSize
+                || indices.length % 3 != 0 || vertexCount > 65536) {
+            throw new IllegalArgumentException("Inconsistent mesh arrays");
+        }
+        mPositions = positions;
+        mAttributes = attributes;
+        mAttributeSize = attributeSize;
+        mIndices = indices;
+    }
+
+    public float[] getPositions() {
+        return mPositions;
+    }
+
+    public float[] getAttributes() {
+        return mAttributes;
+    }
+
+    public int getAttributeSize() {
+        return mAttributeSize;
+    }
+
+    public short[] getIndices() {
+        return mIndices;
+    }
+
+    public int getVertexCount() {
+        return mPositions.length / 3;
+    }
+
+    public int getTriangleCount() {
+        return mIndices.length / 3;
+    }
+
+    /**
+     * Radius of the smallest sphere around the origin that holds every vertex.
+     */
+    public float getBoundingRadius() {
+        float max = 0;
+        for (int i = 0; i < mPositions.length; i += 3) {
+            float x = mPositions[i];
+            float y = mPositions[i + 1];
+            float z = mPositions[i + 2];
+            max = Math.max(max, x * x + y * y + z * z);
+        }
+        return (float) Math.sqrt(max);
+    }
+
+    /**
+     * A cube from -1 to 1 with every face split into {@code divisions} squared quads, and its
+     * vertices pushed towards the sphere through the corners by {@code roundness}, 0 for the
+     * plain cube and 1 for the sphere. A closed mesh with shared vertices and the same colors
+     * as {@link Cube}'s corners, interpolated in between, standing in for detailed content.
+     */
+    public static Mesh createRoundedCube(int divisions, float roundness) {
+        if (divisions < 1 || 6 * (divisions + 1) * (divisions + 1) > 65536) {
+            throw new IllegalArgumentException("Invalid divisions " + divisions);
+        }
+        // Vertices on the cube's edges are shared by two or three faces, so weld by grid
+        // coordinates
+        HashMap<Integer, Integer> vertexIndex = new HashMap<Integer, Integer>();
+        float[] positions = new float[6 * (divisions + 1) * (divisions + 1) * 3];
+        int vertexCount = 0;
+        short[] indices = new short[6 * divisions * divisions * 6];
+        int indexCount = 0;
+        int[] corner = new int[3];
+        int[] quad = new int[4];
+        for (int face = 0; face < 6; face++) {
+            int axis = face / 2;
+            int side = face % 2 == 0 ? divisions : 0;
+            // u and v run along the other two axes, ordered for outward facing triangles
+            int uAxis = (axis + (face % 2 == 0 ? 1 : 2)) % 3;
+            int vAxis = (axis + (face % 2 == 0 ? 2 : 1)) % 3;
+            for (int v = 0; v < divisions; v++) {
+                for (int u = 0; u < divisions; u++) {
+                    for (int k = 0; k < 4; k++) {
+                        corner[axis] = side;
+                        corner[uAxis] = u + (k == 1 || k == 2 ? 1 : 0);
+                        corner[vAxis] = v + (k >= 2 ? 1 : 0);
+                        int key = (corner[0] * (divisions + 1) + corner[1]) * (divisions + 1)
+                                + corner[2];
+                        Integer index = vertexIndex.get(key);
+                        if (index == null) {
+                            index = vertexCount++;
+                            vertexIndex.put(key, index);
+                            for (int c = 0; c < 3; c++) {
+                                positions[index * 3 + c] = corner[c] * 2.0f / divisions - 1;
+                            }
+                        }
+                        quad[k] = index;
+                    }
+                    indices[indexCount++] = (short) quad[0];
+                    indices[indexCount++] = (short) quad[1];
+                    indices[indexCount++] = (short) quad[2];
+                    indices[indexCount++] = (short) quad[0];
+                    indices[indexCount++] = (short) quad[2];
+                    indices[indexCount++] = (short) quad[3];
+                }
+            }
+        }
+
+        float[] trimmed = new float[vertexCount * 3];
+        float[] attributes = new float[vertexCount * CUBE_ATTRIBUTE_SIZE];
+        float sphereRadius = (float) Math.sqrt(3);
+        for (int i = 0; i < vertexCount; i++) {
+            float x = positions[i * 3];
+            float y = positions[i * 3 + 1];
+            float z = positions[i * 3 + 2];
+            // Colors come from the cube position, so they match Cube's at the corners
+            int a = i * CUBE_ATTRIBUTE_SIZE;
+            attributes[a] = (x + 1) / 2;
+            attributes[a + 1] = (y + 1) / 2;
+            attributes[a + 2] = (z + 1) / 2;
+            attributes[a + 3] = 1;
+            float white = (1 - x * y) / 2;
+            attributes[a + 4] = white;
+            attributes[a + 5] = white;
+            attributes[a + 6] = 1;
+            attributes[a + 7] = 1;
+
+            float scale = sphereRadius / (float) Math.sqrt(x * x + y * y + z * z);
+            scale = 1 + (scale - 1) * roundness;
+            trimmed[i * 3] = x * scale;
+            trimmed[i * 3 + 1] = y * scale;
+            trimmed[i * 3 + 2] = z * scale;
+        }
+        return new Mesh(trimmed, attributes, CUBE_ATTRIBUTE_SIZE, indices);
+    }
+}
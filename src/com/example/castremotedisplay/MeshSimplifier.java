@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.PriorityQueue;
+
+/**
+ * Reduces a {@link Mesh}'s triangle count by quadric error edge collapse (Garland and Heckbert).
+ * <p>
+ * Every vertex accumulates the planes of its triangles as a quadric, whose value at a point is
+ * the sum of squared distances to those planes. Edges are collapsed cheapest first into the
+ * point minimizing the sum of both ends' quadrics, or the best of the ends and the midpoint when
+ * that point is ill defined. Collapses that would flip a triangle are skipped. Attributes of the
+ * merged vertex are interpolated along the edge.
+ * </p>
+ * <p>
+ * Meant for load time or offline use: it allocates freely. Not thread safe; use an instance per
+ * thread.
+ * </p>
+ */
+public class MeshSimplifier {
+
+    // Collapses turning a triangle's normal by more than about 80 degrees are rejected
+    private static final double MIN_NORMAL_COSINE = 0.2;
+    private static final double MIN_DETERMINANT = 1e-12;
+
+    private double mMaxError;
+    private int mCollapseCount;
+
+    // Working state of the simplification in progress
+    private float[] mPositions;
+    private float[] mAttributes;
+    private int mAttributeSize;
+    private int[] mTriangles;
+    private boolean[] mTriangleRemoved;
+    private int mTriangleCount;
+    private double[] mQuadrics;
+    private int[] mVersions;
+    private boolean[] mVertexRemoved;
+    private int[][] mVertexTriangles;
+    private int[] mVertexTriangleCounts;
+    private final double[] mCandidate = new double[3];
+
+    private static final class Collapse implements Comparable<Collapse> {
+        final int mKeep;
+        final int mRemove;
+        final int mKeepVersion;
+        final int mRemoveVersion;
+        final double mCost;
+        final float mX;
+        final float mY;
+        final float mZ;
+
+        Collapse(int keep, int remove, int keepVersion, int removeVersion, double cost,
+                double[] position) {
+            mKeep = keep;
+            mRemove = remove;
+            mKeepVersion = keepVersion;
+            mRemoveVersion = removeVersion;
+            mCost = cost;
+            mX = (float) position[0];
+            mY = (float) position[1];
+            mZ = (float) position[2];
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(mCost, other.mCost);
+        }
+    }
+
+    /**
+     * Returns a copy of the mesh with at most {@code targetTriangles} triangles, or as close as
+     * collapses without flipped triangles get.
+     */
+    public Mesh simplify(Mesh mesh, int targetTriangles) {
+        init(mesh);
+        PriorityQueue<Collapse> queue = new PriorityQueue<Collapse>(mTriangles.length);
+        for (int t = 0; t < mTriangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                int a = mTriangles[t * 3 + k];
+                int b = mTriangles[t * 3 + (k + 1) % 3];
+                // Each interior edge is seen from both triangles; queue it once
+                if (a < b || !hasEdge(b, a)) {
+                    queue.add(evaluate(a, b));
+                }
+            }
+        }
+
+        while (mTriangleCount > targetTriangles && !queue.isEmpty()) {
+            Collapse collapse = queue.poll();
+            if (mVertexRemoved[collapse.mKeep] || mVertexRemoved[collapse.mRemove]
+                    || mVersions[collapse.mKeep] != collapse.mKeepVersion
+                    || mVersions[collapse.mRemove] != collapse.mRemoveVersion) {
+                // Either end changed since this was queued
+                continue;
+            }
+            if (flips(collapse)) {
+                continue;
+            }
+            apply(collapse);
+            mMaxError = Math.max(mMaxError, collapse.mCost);
+            mCollapseCount++;
+            queueNeighbors(collapse.mKeep, queue);
+        }
+        return compact();
+    }
+
+    /**
+     * Largest quadric error, a sum of squared distances, of the collapses made by the last
+     * {@link #simplify}.
+     */
+    public double getMaxError() {
+        return mMaxError;
+    }
+
+    public int getCollapseCount() {
+        return mCollapseCount;
+    }
+
+    private void init(Mesh mesh) {
+        mMaxError = 0;
+        mCollapseCount = 0;
+        mPositions = mesh.getPositions().clone();
+        mAttributes = mesh.getAttributes().clone();
+        mAttributeSize = mesh.getAttributeSize();
+        short[] indices = mesh.getIndices();
+        mTriangleCount = indices.length / 3;
+        mTriangles = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            mTriangles[i] = indices[i] & 0xffff;
+        }
+        mTriangleRemoved = new boolean[mTriangleCount];
+
+        int vertexCount = mesh.getVertexCount();
+        mQuadrics = new double[vertexCount * 10];
+        mVersions = new int[vertexCount];
+        mVertexRemoved = new boolean[vertexCount];
+        mVertexTriangleCounts = new int[vertexCount];
+        for (int index : mTriangles) {
+            mVertexTriangleCounts[index]++;
+        }
+        mVertexTriangles = new int[vertexCount][];
+        for (int v = 0; v < vertexCount; v++) {
+            mVertexTriangles[v] = new int[Math.max(4, mVertexTriangleCounts[v])];
+            mVertexTriangleCounts[v] = 0;
+        }
+        double[] plane = new double[4];
+        for (int t = 0; t < mTriangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                addVertexTriangle(mTriangles[t * 3 + k], t);
+            }
+            if (getPlane(t, plane)) {
+                for (int k = 0; k < 3; k++) {
+                    addPlane(mTriangles[t * 3 + k], plane);
+                }
+            }
+        }
+    }
+
+    private void addVertexTriangle(int vertex, int triangle) {
+        int[] triangles = mVertexTriangles[vertex];
+        int count = mVertexTriangleCounts[vertex];
+        if (count == triangles.length) {
+            int[] grown = new int[count * 2];
+            System.arraycopy(triangles, 0, grown, 0, count);
+            mVertexTriangles[vertex] = grown;
+            triangles = grown;
+        }
+        triangles[count] = triangle;
+        mVertexTriangleCounts[vertex] = count + 1;
+    }
+
+    private boolean hasEdge(int a, int b) {
+        int[] triangles = mVertexTriangles[a];
+        for (int i = 0; i < mVertexTriangleCounts[a]; i++) {
+            int t = triangles[i] * 3;
+            for (int k = 0; k < 3; k++) {
+                if (mTriangles[t + k] == a && mTriangles[t + (k + 1) % 3] == b) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The unit normal plane (a, b, c, d) of a triangle, false if it is degenerate.
+     */
+    private boolean getPlane(int triangle, double[] plane) {
+        int i0 = mTriangles[triangle * 3] * 3;
+        int i1 = mTriangles[triangle * 3 + 1] * 3;
+        int i2 = mTriangles[triangle * 3 + 2] * 3;
+        double ux = mPositions[i1] - mPositions[i0];
+        double uy = mPositions[i1 + 1] - mPositions[i0 + 1];
+        double uz = mPositions[i1 + 2] - mPositions[i0 + 2];
+        double vx = mPositions[i2] - mPositions[i0];
+        double vy = mPositions[i2 + 1] - mPositions[i0 + 1];
+        double vz = mPositions[i2 + 2] - mPositions[i0 + 2];
+        double nx = uy * vz - uz * vy;
+        double ny = uz * vx - ux * vz;
+        double nz = ux * vy - uy * vx;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length == 0) {
+            return false;
+        }
+        plane[0] = nx / length;
+        plane[1] = ny / length;
+        plane[2] = nz / length;
+        plane[3] = -(plane[0] * mPositions[i0] + plane[1] * mPositions[i0 + 1]
+                + plane[2] * mPositions[i0 + 2]);
+        return true;
+    }
+
+    /**
+     * Adds the plane's quadric, stored as the upper triangle of the symmetric 4x4 matrix.
+     */
+    private void addPlane(int vertex, double[] p) {
+        int q = vertex * 10;
+        mQuadrics[q] += p[0] * p[0];
+        mQuadrics[q + 1] += p[0] * p[1];
+        mQuadrics[q + 2] += p[0] * p[2];
+        mQuadrics[q + 3] += p[0] * p[3];
+        mQuadrics[q + 4] += p[1] * p[1];
+        mQuadrics[q + 5] += p[1] * p[2];
+        mQuadrics[q + 6] += p[1] * p[3];
+        mQuadrics[q + 7] += p[2] * p[2];
+        mQuadrics[q + 8] += p[2] * p[3];
+        mQuadrics[q + 9] += p[3] * p[3];
+    }
+
+    private static double error(double[] q, double x, double y, double z) {
+        return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + 2 * q[3] * x
+                + q[4] * y * y + 2 * q[5] * y * z + 2 * q[6] * y
+                + q[7] * z * z + 2 * q[8] * z + q[9];
+    }
+
+    /**
+     * Finds where collapsing edge (a, b) should put the merged vertex, and at what cost.
+     */
+    private Collapse evaluate(int a, int b) {
+        double[] q = new double[10];
+        for (int i = 0; i < 10; i++) {
+            q[i] = mQuadrics[a * 10 + i] + mQuadrics[b * 10 + i];
+        }
+        double[] best = mCandidate;
+        double bestCost;
+        // Minimize the quadric: solve A p = -b for its upper left 3x3 block A
+        double det = q[0] * (q[4] * q[7] - q[5] * q[5]) - q[1] * (q[1] * q[7] - q[5] * q[2])
+                + q[2] * (q[1] * q[5] - q[4] * q[2]);
+        if (Math.abs(det) > MIN_DETERMINANT) {
+            double bx = -q[3];
+            double by = -q[6];
+            double bz = -q[8];
+            best[0] = (bx * (q[4] * q[7] - q[5] * q[5]) - q[1] * (by * q[7] - q[5] * bz)
+                    + q[2] * (by * q[5] - q[4] * bz)) / det;
+            best[1] = (q[0] * (by * q[7] - bz * q[5]) - bx * (q[1] * q[7] - q[5] * q[2])
+                    + q[2] * (q[1] * bz - by * q[2])) / det;
+            best[2] = (q[0] * (q[4] * bz - q[5] * by) - q[1] * (q[1] * bz - by * q[2])
+                    + bx * (q[1] * q[5] - q[4] * q[2])) / det;
+            bestCost = error(q, best[0], best[1], best[2]);
+        } else {
+            bestCost = Double.MAX_VALUE;
+        }
+        // Fall back to, or beat the solution with, the ends and the midpoint
+        for (int k = 0; k < 3; k++) {
+            double x = k == 0 ? mPositions[a * 3] : k == 1 ? mPositions[b * 3]
+                    : (mPositions[a * 3] + mPositions[b * 3]) / 2.0;
+            double y = k == 0 ? mPositions[a * 3 + 1] : k == 1 ? mPositions[b * 3 + 1]
+                    : (mPositions[a * 3 + 1] + mPositions[b * 3 + 1]) / 2.0;
+            double z = k == 0 ? mPositions[a * 3 + 2] : k == 1 ? mPositions[b * 3 + 2]
+                    : (mPositions[a * 3 + 2] + mPositions[b * 3 + 2]) / 2.0;
+            double cost = error(q, x, y, z);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best[0] = x;
+                best[1] = y;
+                best[2] = z;
+            }
+        }
+        // Rounding can make the error slightly negative
+        return new Collapse(a, b, mVersions[a], mVersions[b], Math.max(0, bestCost), best);
+    }
+
+    /**
+     * Whether moving both ends to the collapse point would turn any remaining triangle over.
+     */
+    private boolean flips(Collapse collapse) {
+        return flips(collapse.mKeep, collapse.mRemove, collapse)
+                || flips(collapse.mRemove, collapse.mKeep, collapse);
+    }
+
+    private boolean flips(int vertex, int other, Collapse collapse) {
+        int[] triangles = mVertexTriangles[vertex];
+        for (int i = 0; i < mVertexTriangleCounts[vertex]; i++) {
+            int t = triangles[i];
+            if (mTriangleRemoved[t]) {
+                continue;
+            }
+            int base = t * 3;
+            if (mTriangles[base] == other || mTriangles[base + 1] == other
+                    || mTriangles[base + 2] == other) {
+                // Removed by the collapse
+                continue;
+            }
+            double[] before = normal(base, -1, collapse);
+            double[] after = normal(base, vertex, collapse);
+            if (after == null) {
+                return true;
+            }
+            if (before != null && before[0] * after[0] + before[1] * after[1]
+                    + before[2] * after[2] < MIN_NORMAL_COSINE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The unit normal of a triangle with {@code moved} placed at the collapse point, or null if
+     * that makes it degenerate.
+     */
+    private double[] normal(int base, int moved, Collapse collapse) {
+        double[] p = new double[9];
+        for (int k = 0; k < 3; k++) {
+            int v = mTriangles[base + k];
+            if (v == moved) {
+                p[k * 3] = collapse.mX;
+                p[k * 3 + 1] = collapse.mY;
+                p[k * 3 + 2] = collapse.mZ;
+            } else {
+                p[k * 3] = mPositions[v * 3];
+                p[k * 3 + 1] = mPositions[v * 3 + 1];
+                p[k * 3 + 2] = mPositions[v * 3 + 2];
+            }
+        }
+        double ux = p[3] - p[0];
+        double uy = p[4] - p[1];
+        double uz = p[5] - p[2];
+        double vx = p[6] - p[0];
+        double vy = p[7] - p[1];
+        double vz = p[8] - p[2];
+        double nx = uy * vz - uz * vy;
+        double ny = uz * vx - ux * vz;
+        double nz = ux * vy - uy * vx;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length < 1e-12) {
+            return null;
+        }
+        return new double[]{nx / length, ny / length, nz / length};
+    }
+
+    private void apply(Collapse collapse) {
+        int keep = collapse.mKeep;
+        int remove = collapse.mRemove;
+
+        // Interpolate attributes by where the point projects onto the edge
+        float ex = mPositions[remove * 3] - mPositions[keep * 3];
+        float ey = mPositions[remove * 3 + 1] - mPositions[keep * 3 + 1];
+        float ez = mPositions[remove * 3 + 2] - mPositions[keep * 3 + 2];
+        float lengthSquared = ex * ex + ey * ey + ez * ez;
+        float t = 0;
+        if (lengthSquared > 0) {
+            t = ((collapse.mX - mPositions[keep * 3]) * ex
+                    + (collapse.mY - mPositions[keep * 3 + 1]) * ey
+                    + (collapse.mZ - mPositions[keep * 3 + 2]) * ez) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+        }
+        for (int i = 0; i < mAttributeSize; i++) {
+            float a = mAttributes[keep * mAttributeSize + i];
+            float b = mAttributes[remove * mAttributeSize + i];
+            mAttributes[keep * mAttributeSize + i] = a + (b - a) * t;
+        }
+        mPositions[keep * 3] = collapse.mX;
+        mPositions[keep * 3 + 1] = collapse.mY;
+        mPositions[keep * 3 + 2] = collapse.mZ;
+        for (int i = 0; i < 10; i++) {
+            mQuadrics[keep * 10 + i] += mQuadrics[remove * 10 + i];
+        }
+
+        int[] triangles = mVertexTriangles[remove];
+        for (int i = 0; i < mVertexTriangleCounts[remove]; i++) {
+            int tri = triangles[i];
+            if (mTriangleRemoved[tri]) {
+                continue;
+            }
+            int base = tri * 3;
+            boolean hasKeep = mTriangles[base] == keep || mTriangles[base + 1] == keep
+                    || mTriangles[base + 2] == keep;
+            if (hasKeep) {
+                mTriangleRemoved[tri] = true;
+                mTriangleCount--;
+            } else {
+                for (int k = 0; k < 3; k++) {
+                    if (mTriangles[base + k] == remove) {
+                        mTriangles[base + k] = keep;
+                    }
+                }
+                addVertexTriangle(keep, tri);
+            }
+        }
+        mVertexRemoved[remove] = true;
+        mVersions[keep]++;
+        compactVertexTriangles(keep);
+    }
+
+    /**
+     * Drops removed triangles from a vertex's list.
+     */
+    private void compactVertexTriangles(int vertex) {
+        int[] triangles = mVertexTriangles[vertex];
+        int count = 0;
+        for (int i = 0; i < mVertexTriangleCounts[vertex]; i++) {
+            if (!mTriangleRemoved[triangles[i]]) {
+                triangles[count++] = triangles[i];
+            }
+        }
+        mVertexTriangleCounts[vertex] = count;
+    }
+
+    private void queueNeighbors(int vertex, PriorityQueue<Collapse> queue) {
+        int[] triangles = mVertexTriangles[vertex];
+        for (int i = 0; i < mVertexTriangleCounts[vertex]; i++) {
+            int base = triangles[i] * 3;
+            for (int k = 0; k < 3; k++) {
+                int other = mTriangles[base + k];
+                // Edges around the vertex appear in two of its triangles; queue them from the
+                // triangle where the vertex comes first
+                if (other != vertex && mTriangles[base + (k + 2) % 3] == vertex) {
+                    queue.add(evaluate(vertex, other));
+                }
+            }
+        }
+        // Edges on a boundary only appear in one direction
+        for (int i = 0; i < mVertexTriangleCounts[vertex]; i++) {
+            int base = triangles[i] * 3;
+            for (int k = 0; k < 3; k++) {
+                int other = mTriangles[base + k];
+                if (other != vertex && mTriangles[base + (k + 1) % 3] == vertex
+                        && !hasEdge(vertex, other)) {
+                    queue.add(evaluate(vertex, other));
+                }
+            }
+        }
+    }
+
+    private Mesh compact() {
+        int vertexCount = mVertexRemoved.length;
+        int[] remap = new int[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            remap[v] = -1;
+        }
+        short[] indices = new short[mTriangleCount * 3];
+        int indexCount = 0;
+        int used = 0;
+        for (int t = 0; t < mTriangleRemoved.length; t++) {
+            if (mTriangleRemoved[t]) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                int v = mTriangles[t * 3 + k];
+                if (remap[v] < 0) {
+                    remap[v] = used++;
+                }
+                indices[indexCount++] = (short) remap[v];
+            }
+        }
+        float[] positions = new float[used * 3];
+        float[] attributes = new float[used * mAttributeSize];
+        for (int v = 0; v < vertexCount; v++) {
+            int to = remap[v];
+            if (to >= 0) {
+                System.arraycopy(mPositions, v * 3, positions, to * 3, 3);
+                System.arraycopy(mAttributes, v * mAttributeSize, attributes,
+                        to * mAttributeSize, mAttributeSize);
+            }
+        }
+        Mesh mesh = new Mesh(positions, attributes, mAttributeSize, indices);
+        // Let the working state go
+        mPositions = null;
+        mAttributes = null;
+        mTriangles = null;
+        mTriangleRemoved = null;
+        mQuadrics = null;
+        mVersions = null;
+        mVertexRemoved = null;
+        mVertexTriangles = null;
+        mVertexTriangleCounts = null;
+        return mesh;
+    }
+}
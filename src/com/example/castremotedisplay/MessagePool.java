@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A fixed set of message buffers allocated up front and passed between threads.
+ * <p>
+ * The pool never grows: when every buffer is in flight {@link #acquire()} returns null and the
+ * sender is expected to hold on to its changes until one comes back, which is what makes a
+ * slow transport coalesce updates instead of queueing them. Thread safe.
+ * </p>
+ */
+public final class MessagePool {
+
+    private final ArrayBlockingQueue<ByteBuffer> mFree;
+    private final int mBufferSize;
+
+    public MessagePool(int bufferCount, int bufferSize) {
+        mBufferSize = bufferSize;
+        mFree = new ArrayBlockingQueue<ByteBuffer>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            // Heap buffers, so stream transports can write their backing array directly
+            mFree.add(ByteBuffer.allocate(bufferSize));
+        }
+    }
+
+    /**
+     * A cleared buffer, or null if all of them are in use.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = mFree.poll();
+        if (buffer != null) {
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire()}.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != mBufferSize || !mFree.offer(buffer)) {
+            throw new IllegalArgumentException("Buffer not from this pool");
+        }
+    }
+
+    public int getFreeCount() {
+        return mFree.size();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * Tells the scene how fast it may move so that frames stay cheap to encode.
+ * <p>
+ * Fed the mean absolute luma change per pixel between output frames, as measured by the output
+ * conditioning's probe, the budget keeps a smoothed average and adjusts a motion scale for the
+ * content, e.g. the cubes' rotation speed: down as soon as the average exceeds the budget, in
+ * proportion, and back up slowly once it is well below. Content keeps moving, only slower, and
+ * the scale never drops below {@link #MIN_SCALE}.
+ * </p>
+ * <p>
+ * The mean change rather than the fraction of changed macroblocks is measured since it follows
+ * the speed of the content: half the speed, half the change, while a moving object touches
+ * about as many blocks at any speed.
+ * </p>
+ * <p>
+ * Like {@link QualityGovernor} it never reads a clock, so a recorded sequence of measurements
+ * can be replayed. Methods are synchronized.
+ * </p>
+ */
+public class MotionBudget {
+
+    /**
+     * Mean absolute luma change per pixel and frame allowed by default, 0-255.
+     */
+    public static final float DEFAULT_BUDGET = 0.5f;
+
+    public static final float MIN_SCALE = 0.25f;
+
+    // Weight of a new measurement in the average
+    private static final float SMOOTHING = 0.3f;
+    // Below this fraction of the budget the scale grows back
+    private static final float RECOVERY_MARGIN = 0.8f;
+    private static final float RECOVERY_STEP = 1.05f;
+    // Largest cut per measurement, so one outlier can't stop the scene
+    private static final float MAX_CUT = 0.7f;
+
+    private final float mBudget;
+    private float mAverage = -1;
+    private float mScale = 1;
+
+    public MotionBudget() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param budget Mean absolute luma change per pixel allowed per frame, 0-255.
+     */
+    public MotionBudget(float budget) {
+        if (budget <= 0 || budget > 255) {
+            throw new IllegalArgumentException("Invalid budget " + budget);
+        }
+        mBudget = budget;
+    }
+
+    public float getBudget() {
+        return mBudget;
+    }
+
+    /**
+     * Adds a measurement and returns the new motion scale.
+     *
+     * @param change Mean absolute luma change per pixel since the previous frame, 0-255.
+     */
+    public synchronized float update(float change) {
+        mAverage = mAverage < 0 ? change : mAverage + (change - mAverage) * SMOOTHING;
+        if (mAverage > mBudget) {
+            mScale *= Math.max(MAX_CUT, mBudget / mAverage);
+        } else if (mAverage < mBudget * RECOVERY_MARGIN) {
+            mScale *= RECOVERY_STEP;
+        }
+        mScale = Math.max(MIN_SCALE, Math.min(1, mScale));
+        return mScale;
+    }
+
+    public synchronized float getScale() {
+        return mScale;
+    }
+
+    public synchronized float getAverage() {
+        return Math.max(0, mAverage);
+    }
+
+    /**
+     * Starts over, e.g. for a new surface.
+     */
+    public synchronized void reset() {
+        mAverage = -1;
+        mScale = 1;
+    }
+}
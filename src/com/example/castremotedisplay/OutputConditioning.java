@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * Settings of the output conditioning pass that makes frames cheaper for the Cast video encoder,
+ * and a CPU reference of it for measuring offline.
+ * <p>
+ * The encoder spends its bits on what changes between frames and on fine detail within them.
+ * Conditioning trades a little fidelity for both:
+ * </p>
+ * <ul>
+ * <li>Stabilization keeps the previous output wherever no channel of the new frame differs
+ * from it by more than the threshold, so shimmer in static regions, e.g. from bloom or
+ * filtering, costs no residual. The error is bounded by the threshold.</li>
+ * <li>Pixels that do change are quantized to fewer levels per channel, flattening gradients
+ * into bands the encoder codes cheaply. Dithering hides the bands at the cost of detail; the
+ * pattern is ordered and fixed to the screen, so it doesn't change between frames.</li>
+ * </ul>
+ * <p>
+ * Immutable. {@link #apply(int[], int[], int[], int, int)} is what {@code condition.frag}
+ * computes, up to the GPU's precision.
+ * </p>
+ */
+public final class OutputConditioning {
+
+    /**
+     * Passes frames through unchanged.
+     */
+    public static final OutputConditioning NONE = new OutputConditioning(0, 256, 0);
+
+    /**
+     * Stabilizes differences of up to 5 in 255 and quantizes to 64 levels, half dithered.
+     */
+    public static final OutputConditioning DEFAULT = new OutputConditioning(5, 64, 0.5f);
+
+    /**
+     * 4x4 ordered dither thresholds, (rank + 0.5) / 16 in 0-255, row by row. Uploaded as a
+     * texture repeating over the screen.
+     */
+    static final byte[] DITHER_PATTERN = new byte[16];
+
+    static {
+        int[] ranks = {0, 8, 2, 10, 12, 4, 14, 6, 3, 11, 1, 9, 15, 7, 13, 5};
+        for (int i = 0; i < ranks.length; i++) {
+            DITHER_PATTERN[i] = (byte) (ranks[i] * 16 + 8);
+        }
+    }
+
+    private final int mThreshold;
+    private final int mLevels;
+    private final float mDither;
+
+    /**
+     * @param threshold Largest change of a channel, 0-255, that keeps the previous output; 0
+     *                  disables stabilization.
+     * @param levels    Levels per channel, 2-256.
+     * @param dither    How much of the ordered dither replaces rounding, 0-1.
+     */
+    public OutputConditioning(int threshold, int levels, float dither) {
+        if (threshold < 0 || threshold > 255 || levels < 2 || levels > 256 || dither < 0
+                || dither > 1) {
+            throw new IllegalArgumentException("Invalid conditioning " + threshold + ", "
+                    + levels + ", " + dither);
+        }
+        mThreshold = threshold;
+        mLevels = levels;
+        mDither = dither;
+    }
+
+    public int getThreshold() {
+        return mThreshold;
+    }
+
+    public int getLevels() {
+        return mLevels;
+    }
+
+    public float getDither() {
+        return mDither;
+    }
+
+    public boolean isStabilizing() {
+        return mThreshold > 0;
+    }
+
+    /**
+     * Conditions one frame of ARGB pixels, the first row at the top.
+     *
+     * @param history The previous output, or null for the first frame.
+     * @param output  May be {@code history}.
+     */
+    public void apply(int[] frame, int[] history, int[] output, int width, int height) {
+        int steps = mLevels - 1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                int pixel = frame[i];
+                int red = (pixel >> 16) & 0xff;
+                int green = (pixel >> 8) & 0xff;
+                int blue = pixel & 0xff;
+                if (history != null && mThreshold > 0) {
+                    int previous = history[i];
+                    if (Math.abs(red - ((previous >> 16) & 0xff)) <= mThreshold
+                            && Math.abs(green - ((previous >> 8) & 0xff)) <= mThreshold
+                            && Math.abs(blue - (previous & 0xff)) <= mThreshold) {
+                        output[i] = previous;
+                        continue;
+                    }
+                }
+                // The pattern is anchored at the bottom left, like gl_FragCoord
+                float pattern = (DITHER_PATTERN[((height - 1 - y) & 3) * 4 + (x & 3)] & 0xff)
+                        / 255.0f;
+                float bias = 0.5f + mDither * (pattern - 0.5f);
+                red = quantize(red, steps, bias);
+                green = quantize(green, steps, bias);
+                blue = quantize(blue, steps, bias);
+                output[i] = 0xff000000 | (red << 16) | (green << 8) | blue;
+            }
+        }
+    }
+
+    private static int quantize(int value, int steps, float bias) {
+        float level = (float) Math.floor(value / 255.0f * steps + bias);
+        return Math.min(255, Math.round(level / steps * 255));
+    }
+
+    /**
+     * Applies the settings to a frame sequence, in place.
+     */
+    public void applyAll(int[][] frames, int width, int height) {
+        int[] history = null;
+        for (int[] frame : frames) {
+            apply(frame, history, frame, width, height);
+            history = frame;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "threshold " + mThreshold + ", " + mLevels + " levels, dither " + mDither;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * The particles of one {@link ParticleMaterial}'s emitters, kept as structure of arrays: one
+ * primitive array per property, indexed by particle.
+ * <p>
+ * Each started emitter gets a contiguous range of particles, and a particle is nothing but
+ * random seeds and a birth offset. Where it is at a given time follows from those and its
+ * emitter's parameters alone, so nothing is updated per frame: the GPU path uploads a range once
+ * when its emitter starts and lets {@code particle.vert} do the math, and the CPU fallback,
+ * {@link #evaluate(float, float[])}, runs the same math over the arrays. The velocities the
+ * seeds lead to are cached per particle, since they only change with a looping emitter's cycle.
+ * </p>
+ * <p>
+ * Plain Java, not thread safe.
+ * </p>
+ */
+public class ParticleBatch {
+
+    /**
+     * Floats per particle written by {@link #writeVertices}: seeds and birth offset, origin and
+     * start, emitter velocity and lifetime, direction and speed, spread, size and looping, color.
+     */
+    public static final int VERTEX_FLOATS = 24;
+
+    /**
+     * Floats per particle written by {@link #evaluate}: position, size and color.
+     */
+    public static final int OUTPUT_FLOATS = 8;
+
+    // Seeds of a looping emitter's next cycle are offset by the golden ratio, as in the shader
+    private static final float CYCLE_SEED_STEP = 0.618034f;
+
+    private final ParticleMaterial mMaterial;
+    private final int mCapacity;
+    private final Random mRandom;
+
+    // Per particle, fixed when its emitter starts
+    private final float[] mSeeds0;
+    private final float[] mSeeds1;
+    private final float[] mSeeds2;
+    private final float[] mBirthOffsets;
+    // Per particle cache of what the seeds lead to, for the cycle in mCycles
+    private final int[] mCycles;
+    private final float[] mVelocitiesX;
+    private final float[] mVelocitiesY;
+    private final float[] mVelocitiesZ;
+    private final float[] mPhases;
+
+    // Started emitters, ordered by their first particle
+    private final ArrayList<ParticleEmitter> mEmitters = new ArrayList<ParticleEmitter>();
+    private int mParticleCount;
+    // Particles whose vertices changed since the last upload
+    private int mDirtyStart;
+    private int mDirtyEnd;
+
+    public ParticleBatch(ParticleMaterial material, long randomSeed) {
+        mMaterial = material;
+        mCapacity = material.getCapacity();
+        mRandom = new Random(randomSeed);
+        mSeeds0 = new float[mCapacity];
+        mSeeds1 = new float[mCapacity];
+        mSeeds2 = new float[mCapacity];
+        mBirthOffsets = new float[mCapacity];
+        mCycles = new int[mCapacity];
+        mVelocitiesX = new float[mCapacity];
+        mVelocitiesY = new float[mCapacity];
+        mVelocitiesZ = new float[mCapacity];
+        mPhases = new float[mCapacity];
+        // Enough for an emitter of a single particle per slot without growing
+        mEmitters.ensureCapacity(Math.min(mCapacity, 1024));
+        clearDirty();
+    }
+
+    public ParticleMaterial getMaterial() {
+        return mMaterial;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int getEmitterCount() {
+        return mEmitters.size();
+    }
+
+    public ParticleEmitter getEmitter(int index) {
+        return mEmitters.get(index);
+    }
+
+    /**
+     * Particles of the started emitters, alive or not.
+     */
+    public int getParticleCount() {
+        return mParticleCount;
+    }
+
+    /**
+     * One past the last particle in use: the GPU path draws this many, the gaps included.
+     */
+    public int getRangeEnd() {
+        int count = mEmitters.size();
+        if (count == 0) {
+            return 0;
+        }
+        ParticleEmitter last = mEmitters.get(count - 1);
+        return last.mFirst + last.mCount;
+    }
+
+    /**
+     * Gives a started emitter a range of particles and seeds them.
+     *
+     * @return False if no contiguous range of its count is free.
+     */
+    boolean add(ParticleEmitter emitter, float startSeconds) {
+        int count = emitter.mCount;
+        int index = 0;
+        int first = 0;
+        // First fit: emitters come and go in roughly the order they started
+        while (index < mEmitters.size()) {
+            ParticleEmitter other = mEmitters.get(index);
+            if (other.mFirst - first >= count) {
+                break;
+            }
+            first = other.mFirst + other.mCount;
+            index++;
+        }
+        if (mCapacity - first < count) {
+            return false;
+        }
+        emitter.mFirst = first;
+        emitter.mStartSeconds = startSeconds;
+        mEmitters.add(index, emitter);
+        mParticleCount += count;
+
+        float spacing = emitter.mDuration / count;
+        for (int i = 0; i < count; i++) {
+            int p = first + i;
+            mSeeds0[p] = mRandom.nextFloat();
+            mSeeds1[p] = mRandom.nextFloat();
+            mSeeds2[p] = mRandom.nextFloat();
+            mBirthOffsets[p] = i * spacing;
+            mCycles[p] = -1;
+        }
+        markDirty(first, first + count);
+        return true;
+    }
+
+    /**
+     * Frees an emitter's range. Its particles stay in the uploaded vertices, where they have died
+     * unless the emitter was looping, so a looping emitter's range is marked to be cleared.
+     */
+    void remove(ParticleEmitter emitter) {
+        mEmitters.remove(emitter);
+        mParticleCount -= emitter.mCount;
+        if (emitter.mLooping) {
+            markDirty(emitter.mFirst, emitter.mFirst + emitter.mCount);
+        }
+        emitter.mFirst = -1;
+    }
+
+    /**
+     * Whether vertices have to be uploaded again, from {@link #getDirtyStart()} to
+     * {@link #getDirtyEnd()}.
+     */
+    public boolean isDirty() {
+        return mDirtyStart < mDirtyEnd;
+    }
+
+    public int getDirtyStart() {
+        return mDirtyStart;
+    }
+
+    public int getDirtyEnd() {
+        return mDirtyEnd;
+    }
+
+    /**
+     * Marks every particle for upload, e.g. into a new buffer.
+     */
+    public void markAllDirty() {
+        markDirty(0, mCapacity);
+    }
+
+    public void clearDirty() {
+        mDirtyStart = mCapacity;
+        mDirtyEnd = 0;
+    }
+
+    private void markDirty(int start, int end) {
+        mDirtyStart = Math.min(mDirtyStart, start);
+        mDirtyEnd = Math.max(mDirtyEnd, end);
+    }
+
+    /**
+     * Writes the GPU vertices of particles {@code start} to {@code end}, {@link #VERTEX_FLOATS}
+     * each, at the buffer's position. Particles of no emitter are written as zeros, which the
+     * shader treats as dead.
+     */
+    public void writeVertices(FloatBuffer out, int start, int end) {
+        int next = start;
+        for (int e = 0; e < mEmitters.size() && next < end; e++) {
+            ParticleEmitter emitter = mEmitters.get(e);
+            int first = Math.max(next, emitter.mFirst);
+            int last = Math.min(end, emitter.mFirst + emitter.mCount);
+            if (last <= first) {
+                continue;
+            }
+            writeZeros(out, first - next);
+            for (int p = first; p < last; p++) {
+                out.put(mSeeds0[p]).put(mSeeds1[p]).put(mSeeds2[p]).put(mBirthOffsets[p]);
+                out.put(emitter.mOriginX).put(emitter.mOriginY).put(emitter.mOriginZ)
+                        .put(emitter.mStartSeconds);
+                out.put(emitter.mVelocityX).put(emitter.mVelocityY).put(emitter.mVelocityZ)
+                        .put(emitter.mLifetime);
+                out.put(emitter.mDirectionX).put(emitter.mDirectionY).put(emitter.mDirectionZ)
+                        .put(emitter.mSpeed);
+                out.put(emitter.mSpreadCosine).put(emitter.mSize)
+                        .put(emitter.mLooping ? 1 : 0).put(0);
+                out.put(emitter.mRed).put(emitter.mGreen).put(emitter.mBlue).put(emitter.mAlpha);
+            }
+            next = last;
+        }
+        writeZeros(out, end - next);
+    }
+
+    private static void writeZeros(FloatBuffer out, int particles) {
+        for (int i = 0; i < particles * VERTEX_FLOATS; i++) {
+            out.put(0);
+        }
+    }
+
+    /**
+     * Simulates the particles alive at a time on the CPU, the same way {@code particle.vert}
+     * does, and writes them packed, {@link #OUTPUT_FLOATS} each.
+     *
+     * @param out At least {@link #getCapacity()} times {@link #OUTPUT_FLOATS} long.
+     * @return The number of particles written.
+     */
+    public int evaluate(float timeSeconds, float[] out) {
+        float[] gravity = mMaterial.getGravity();
+        float gravityX = gravity[0] * 0.5f;
+        float gravityY = gravity[1] * 0.5f;
+        float gravityZ = gravity[2] * 0.5f;
+        float wobbleAmplitude = mMaterial.getWobbleAmplitude();
+        float wobbleFrequency = mMaterial.getWobbleFrequency();
+        int o = 0;
+        for (int e = 0; e < mEmitters.size(); e++) {
+            ParticleEmitter emitter = mEmitters.get(e);
+            float lifetime = emitter.mLifetime;
+            float emitterTime = timeSeconds - emitter.mStartSeconds;
+            if (emitterTime < 0) {
+                continue;
+            }
+            boolean looping = emitter.mLooping;
+            int end = emitter.mFirst + emitter.mCount;
+            for (int p = emitter.mFirst; p < end; p++) {
+                float local = emitterTime - mBirthOffsets[p];
+                if (local < 0) {
+                    // Later particles are born later still
+                    break;
+                }
+                int cycle = looping ? (int) Math.floor(local / lifetime) : 0;
+                float age = local - cycle * lifetime;
+                if (age >= lifetime) {
+                    continue;
+                }
+                if (mCycles[p] != cycle) {
+                    computeVelocity(emitter, p, cycle);
+                }
+                // Where the emitter was when the particle was born
+                float born = emitterTime - age;
+                float x = emitter.mOriginX + emitter.mVelocityX * born
+                        + (mVelocitiesX[p] + gravityX * age) * age;
+                float y = emitter.mOriginY + emitter.mVelocityY * born
+                        + (mVelocitiesY[p] + gravityY * age) * age;
+                float z = emitter.mOriginZ + emitter.mVelocityZ * born
+                        + (mVelocitiesZ[p] + gravityZ * age) * age;
+                if (wobbleAmplitude != 0) {
+                    float flutter = wobbleFrequency * age + mPhases[p];
+                    x += wobbleAmplitude * (float) Math.sin(flutter);
+                    z += wobbleAmplitude * (float) Math.cos(flutter);
+                }
+                float fade = age / lifetime;
+                out[o] = x;
+                out[o + 1] = y;
+                out[o + 2] = z;
+                out[o + 3] = emitter.mSize * (1 - 0.5f * fade);
+                out[o + 4] = emitter.mRed;
+                out[o + 5] = emitter.mGreen;
+                out[o + 6] = emitter.mBlue;
+                out[o + 7] = emitter.mAlpha * (1 - fade);
+                o += OUTPUT_FLOATS;
+            }
+        }
+        return o / OUTPUT_FLOATS;
+    }
+
+    /**
+     * The initial velocity and flutter phase of a particle in a cycle, from its seeds: a
+     * direction in its emitter's cone and between half and all of the emitter's speed.
+     */
+    private void computeVelocity(ParticleEmitter emitter, int p, int cycle) {
+        float seed0 = mSeeds0[p];
+        float seed1 = mSeeds1[p];
+        float seed2 = mSeeds2[p];
+        if (cycle != 0) {
+            float offset = cycle * CYCLE_SEED_STEP;
+            seed0 = fract(seed0 + offset);
+            seed1 = fract(seed1 + offset);
+            seed2 = fract(seed2 + offset);
+        }
+        float dx = emitter.mDirectionX;
+        float dy = emitter.mDirectionY;
+        float dz = emitter.mDirectionZ;
+        // u = normalize(cross(helper, direction)), w = cross(direction, u)
+        float ux;
+        float uy;
+        float uz;
+        if (Math.abs(dy) < 0.99f) {
+            ux = dz;
+            uy = 0;
+            uz = -dx;
+        } else {
+            ux = 0;
+            uy = -dz;
+            uz = dy;
+        }
+        float length = (float) Math.sqrt(ux * ux + uy * uy + uz * uz);
+        ux /= length;
+        uy /= length;
+        uz /= length;
+        float wx = dy * uz - dz * uy;
+        float wy = dz * ux - dx * uz;
+        float wz = dx * uy - dy * ux;
+
+        float cosTheta = 1 - seed0 * (1 - emitter.mSpreadCosine);
+        float sinTheta = (float) Math.sqrt(Math.max(0, 1 - cosTheta * cosTheta));
+        float phi = 6.2831853f * seed1;
+        float cosPhi = (float) Math.cos(phi);
+        float sinPhi = (float) Math.sin(phi);
+        float speed = emitter.mSpeed * (0.5f + 0.5f * seed2);
+        mVelocitiesX[p] = speed * (dx * cosTheta + (ux * cosPhi + wx * sinPhi) * sinTheta);
+        mVelocitiesY[p] = speed * (dy * cosTheta + (uy * cosPhi + wy * sinPhi) * sinTheta);
+        mVelocitiesZ[p] = speed * (dz * cosTheta + (uz * cosPhi + wz * sinPhi) * sinTheta);
+        mPhases[p] = phi;
+        mCycles[p] = cycle;
+    }
+
+    private static float fract(float value) {
+        return value - (float) Math.floor(value);
+    }
+}
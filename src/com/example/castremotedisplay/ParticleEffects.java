@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * The presentation's stock effects on a {@link ParticleSystem}: confetti, sparks and trails, in
+ * two materials so all of them take two draw calls. Plain Java, use on the GL thread.
+ */
+public class ParticleEffects {
+
+    private static final int CONFETTI_CAPACITY = 8192;
+    private static final int SPARKS_CAPACITY = 8192;
+
+    private static final float[][] CONFETTI_COLORS = {
+            {1f, 0.2f, 0.3f}, {1f, 0.8f, 0.1f}, {0.2f, 0.8f, 0.3f}, {0.2f, 0.5f, 1f},
+            {0.8f, 0.3f, 1f}
+    };
+
+    private final ParticleSystem mSystem = new ParticleSystem();
+    private final ParticleMaterial mConfetti;
+    private final ParticleMaterial mSparks;
+
+    public ParticleEffects() {
+        mConfetti = new ParticleMaterial("confetti", ParticleMaterial.BLEND_ALPHA,
+                CONFETTI_CAPACITY);
+        mConfetti.setGravity(0, -1.5f, 0);
+        mConfetti.setWobble(0.15f, 6);
+        mSparks = new ParticleMaterial("sparks", ParticleMaterial.BLEND_ADDITIVE,
+                SPARKS_CAPACITY);
+        mSparks.setGravity(0, -6, 0);
+        mSystem.addMaterial(mConfetti);
+        mSystem.addMaterial(mSparks);
+    }
+
+    public ParticleSystem getSystem() {
+        return mSystem;
+    }
+
+    /**
+     * Shoots confetti upwards in every color, falling and fluttering for three seconds.
+     */
+    public void confetti(float x, float y, float z, float nowSeconds) {
+        for (float[] color : CONFETTI_COLORS) {
+            ParticleEmitter emitter = mSystem.obtainEmitter();
+            emitter.setOrigin(x, y, z);
+            emitter.setSpeed(3, 35);
+            emitter.setSize(0.06f);
+            emitter.setColor(color[0], color[1], color[2], 1);
+            emitter.setEmission(300, 3, 0.1f);
+            mSystem.start(emitter, mConfetti, nowSeconds);
+        }
+    }
+
+    /**
+     * A short, bright burst in every direction.
+     */
+    public void sparks(float x, float y, float z, float nowSeconds) {
+        ParticleEmitter emitter = mSystem.obtainEmitter();
+        emitter.setOrigin(x, y, z);
+        emitter.setSpeed(4, 180);
+        emitter.setSize(0.04f);
+        emitter.setColor(1f, 0.6f, 0.2f, 1);
+        emitter.setEmission(400, 0.6f, 0);
+        mSystem.start(emitter, mSparks, nowSeconds);
+    }
+
+    /**
+     * Sparks streaming from a point moving at a velocity, e.g. behind a projectile.
+     */
+    public void trail(float x, float y, float z, float velocityX, float velocityY,
+            float velocityZ, float durationSeconds, float nowSeconds) {
+        ParticleEmitter emitter = mSystem.obtainEmitter();
+        emitter.setOrigin(x, y, z);
+        emitter.setVelocity(velocityX, velocityY, velocityZ);
+        emitter.setDirection(-velocityX, -velocityY, -velocityZ);
+        emitter.setSpeed(0.5f, 20);
+        emitter.setSize(0.05f);
+        emitter.setColor(0.5f, 0.8f, 1f, 1);
+        emitter.setEmission(Math.max(1, (int) (durationSeconds * 200)), 0.8f, durationSeconds);
+        mSystem.start(emitter, mSparks, nowSeconds);
+    }
+}
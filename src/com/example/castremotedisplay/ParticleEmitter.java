@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * A source of particles: where they come from, how they fly and what they look like. Obtained
+ * from a {@link ParticleSystem}, set up and started there. Parameters are read when the emitter
+ * starts; changing them afterwards has no effect on its particles.
+ * <p>
+ * Emitters are pooled. A one-shot emitter goes back to the pool by itself once its last particle
+ * has died, so only keep references to looping ones, which go back when stopped.
+ * </p>
+ */
+public final class ParticleEmitter {
+
+    // Parameters
+    float mOriginX;
+    float mOriginY;
+    float mOriginZ;
+    float mVelocityX;
+    float mVelocityY;
+    float mVelocityZ;
+    float mDirectionX;
+    float mDirectionY;
+    float mDirectionZ;
+    float mSpeed;
+    float mSpreadCosine;
+    float mSize;
+    float mRed;
+    float mGreen;
+    float mBlue;
+    float mAlpha;
+    int mCount;
+    float mLifetime;
+    float mDuration;
+    boolean mLooping;
+
+    // Set by the system while started
+    ParticleMaterial mMaterial;
+    int mFirst = -1;
+    float mStartSeconds;
+
+    ParticleEmitter() {
+        reset();
+    }
+
+    /**
+     * Restores the defaults: 100 white particles bursting upwards from the origin for a second.
+     */
+    void reset() {
+        setOrigin(0, 0, 0);
+        setVelocity(0, 0, 0);
+        setDirection(0, 1, 0);
+        mSpeed = 1;
+        mSpreadCosine = -1;
+        mSize = 0.1f;
+        setColor(1, 1, 1, 1);
+        mCount = 100;
+        mLifetime = 1;
+        mDuration = 0;
+        mLooping = false;
+        mMaterial = null;
+        mFirst = -1;
+    }
+
+    public void setOrigin(float x, float y, float z) {
+        mOriginX = x;
+        mOriginY = y;
+        mOriginZ = z;
+    }
+
+    /**
+     * Moves the emitter while it emits, so particles born over its duration form a trail.
+     */
+    public void setVelocity(float x, float y, float z) {
+        mVelocityX = x;
+        mVelocityY = y;
+        mVelocityZ = z;
+    }
+
+    /**
+     * The center of the cone particles are emitted in. Normalized here.
+     */
+    public void setDirection(float x, float y, float z) {
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        if (length == 0) {
+            throw new IllegalArgumentException("No direction");
+        }
+        mDirectionX = x / length;
+        mDirectionY = y / length;
+        mDirectionZ = z / length;
+    }
+
+    /**
+     * @param speed  Of the fastest particles, in world units per second. Each is given between
+     *               half and all of it.
+     * @param spread Half angle of the cone in degrees, 180 for every direction.
+     */
+    public void setSpeed(float speed, float spread) {
+        mSpeed = speed;
+        mSpreadCosine = (float) Math.cos(Math.toRadians(Math.min(180, spread)));
+    }
+
+    /**
+     * @param size Diameter of a new particle in world units. Particles shrink to half of it.
+     */
+    public void setSize(float size) {
+        mSize = size;
+    }
+
+    /**
+     * Particles fade out from this color over their lifetime.
+     */
+    public void setColor(float red, float green, float blue, float alpha) {
+        mRed = red;
+        mGreen = green;
+        mBlue = blue;
+        mAlpha = alpha;
+    }
+
+    /**
+     * @param count    Particles emitted.
+     * @param lifetime Seconds each particle lives.
+     * @param duration Seconds over which they are emitted, evenly spaced, 0 for a burst.
+     */
+    public void setEmission(int count, float lifetime, float duration) {
+        if (count <= 0 || lifetime <= 0 || duration < 0) {
+            throw new IllegalArgumentException("Invalid emission " + count + " " + lifetime);
+        }
+        mCount = count;
+        mLifetime = lifetime;
+        mDuration = duration;
+    }
+
+    /**
+     * Whether particles are emitted again every lifetime until the emitter is stopped, e.g. for
+     * a fountain. For a steady stream set the duration to the lifetime.
+     */
+    public void setLooping(boolean looping) {
+        mLooping = looping;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Whether the emitter has been started and not yet finished or stopped.
+     */
+    public boolean isActive() {
+        return mFirst >= 0;
+    }
+
+    /**
+     * When the last particle of a one-shot emitter dies, relative to when it started.
+     */
+    float getEndSeconds() {
+        return mDuration + mLifetime;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * How a group of particles is drawn and moves: blending, gravity and flutter. Every emitter of a
+ * material shares one {@link ParticleBatch} and is drawn with it in a single call, so effects
+ * that can share a look should share a material.
+ */
+public final class ParticleMaterial {
+
+    /**
+     * Blended over the scene by alpha, e.g. confetti.
+     */
+    public static final int BLEND_ALPHA = 0;
+
+    /**
+     * Added to the scene, so overlapping particles glow, e.g. sparks.
+     */
+    public static final int BLEND_ADDITIVE = 1;
+
+    private final String mName;
+    private final int mBlendMode;
+    private final int mCapacity;
+    private final float[] mGravity = new float[3];
+    private float mWobbleAmplitude;
+    private float mWobbleFrequency;
+
+    /**
+     * @param capacity Particles of all the material's emitters alive at once.
+     */
+    public ParticleMaterial(String name, int blendMode, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        mName = name;
+        mBlendMode = blendMode;
+        mCapacity = capacity;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getBlendMode() {
+        return mBlendMode;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Acceleration in world units per second squared.
+     */
+    public void setGravity(float x, float y, float z) {
+        mGravity[0] = x;
+        mGravity[1] = y;
+        mGravity[2] = z;
+    }
+
+    public float[] getGravity() {
+        return mGravity;
+    }
+
+    /**
+     * Sways particles sideways in circles, like falling paper.
+     *
+     * @param amplitude In world units.
+     * @param frequency In radians per second.
+     */
+    public void setWobble(float amplitude, float frequency) {
+        mWobbleAmplitude = amplitude;
+        mWobbleFrequency = frequency;
+    }
+
+    public float getWobbleAmplitude() {
+        return mWobbleAmplitude;
+    }
+
+    public float getWobbleFrequency() {
+        return mWobbleFrequency;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
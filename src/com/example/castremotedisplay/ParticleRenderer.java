@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Draws a {@link ParticleSystem}, one draw call of {@code GL_POINTS} per material.
+ * <p>
+ * On the GPU path every batch has a vertex buffer object holding its particles' seeds and
+ * emitter parameters, updated only where emitters started or stopped, and
+ * {@code particle.vert} simulates the particles from the time uniform. Nothing crosses the bus
+ * per frame but the uniforms. If that program doesn't build, or the CPU path is forced, the
+ * batches are simulated by {@link ParticleBatch#evaluate(float, float[])} and drawn from a
+ * client side buffer instead, as {@link Cube} draws.
+ * </p>
+ * <p>
+ * Like {@link DebugHud} the renderer issues its calls straight to {@link GLES20}, so it only
+ * draws on the device. Use on the GL thread.
+ * </p>
+ */
+public class ParticleRenderer {
+
+    private static final String TAG = "ParticleRenderer";
+
+    private static final String VERTEX_SHADER = "particle.vert";
+    private static final String FRAGMENT_SHADER = "particle.frag";
+
+    private static final String[] GPU_ATTRIBUTES = {
+            "aSeed", "aOrigin", "aMotion", "aDirection", "aShape", "aColor"
+    };
+    private static final int GPU_STRIDE = ParticleBatch.VERTEX_FLOATS * 4;
+    private static final int CPU_STRIDE = ParticleBatch.OUTPUT_FLOATS * 4;
+
+    private final ParticleSystem mSystem;
+    private final ShaderLibrary.Program mGpuProgram;
+    private final ShaderLibrary.Program mCpuProgram;
+    private final int[] mAttributes = new int[GPU_ATTRIBUTES.length];
+    private volatile boolean mCpuSimulationForced;
+    private boolean mGpuFailed;
+
+    // GPU path: a buffer object per batch, created on first draw
+    private int[] mBuffers = new int[0];
+    // CPU path: the simulated particles of the batch being drawn
+    private float[] mOutput;
+    private FloatBuffer mOutputBuffer;
+
+    public ParticleRenderer(ParticleSystem system, ShaderLibrary shaders) {
+        mSystem = system;
+        mGpuProgram = shaders.getProgram(VERTEX_SHADER, FRAGMENT_SHADER, 0);
+        mCpuProgram = shaders.getProgram(VERTEX_SHADER, FRAGMENT_SHADER,
+                ShaderLibrary.FEATURE_CPU_PARTICLES);
+    }
+
+    /**
+     * Simulates on the CPU even when the GPU program works, e.g. to compare the two.
+     */
+    public void setCpuSimulationForced(boolean forced) {
+        mCpuSimulationForced = forced;
+    }
+
+    /**
+     * Whether the last frame was simulated on the CPU.
+     */
+    public boolean isCpuSimulation() {
+        return mCpuSimulationForced || mGpuFailed;
+    }
+
+    /**
+     * Draws every batch with particles. Leaves depth testing enabled, depth writes on and
+     * blending in the given state, as the scene expects.
+     *
+     * @param viewProjection Column major view projection matrix.
+     * @param pointScale     Pixels per world unit at a clip space w of 1: element (1, 1) of the
+     *                       projection times half the viewport height.
+     */
+    public void draw(float[] viewProjection, float pointScale, float timeSeconds,
+            boolean blendEnabled) {
+        boolean cpu = isCpuSimulation();
+        int program = 0;
+        if (!cpu) {
+            program = mGpuProgram.getId();
+            if (program == 0) {
+                Log.w(TAG, "GPU particle program failed, simulating on the CPU");
+                mGpuFailed = true;
+                cpu = true;
+            }
+        }
+        if (cpu) {
+            program = mCpuProgram.getId();
+        }
+        if (program == 0 || mSystem.getParticleCount() == 0) {
+            return;
+        }
+
+        GLES20.glUseProgram(program);
+        GLES20.glUniformMatrix4fv(GLES20.glGetUniformLocation(program, "uMVPMatrix"), 1, false,
+                viewProjection, 0);
+        GLES20.glUniform1f(GLES20.glGetUniformLocation(program, "uPointScale"), pointScale);
+        if (!cpu) {
+            GLES20.glUniform1f(GLES20.glGetUniformLocation(program, "uTime"), timeSeconds);
+        }
+        // Particles are sorted by nothing, so they test against the scene but don't write depth
+        GLES20.glDepthMask(false);
+        if (!blendEnabled) {
+            GLES20.glEnable(GLES20.GL_BLEND);
+        }
+        for (int b = 0; b < mSystem.getBatchCount(); b++) {
+            ParticleBatch batch = mSystem.getBatch(b);
+            if (batch.getParticleCount() == 0) {
+                continue;
+            }
+            setBlendMode(batch.getMaterial().getBlendMode());
+            if (cpu) {
+                drawCpu(program, batch, timeSeconds);
+            } else {
+                drawGpu(program, b, batch);
+            }
+        }
+        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        if (!blendEnabled) {
+            GLES20.glDisable(GLES20.GL_BLEND);
+        }
+        GLES20.glDepthMask(true);
+    }
+
+    private void drawGpu(int program, int index, ParticleBatch batch) {
+        int buffer = getBuffer(index, batch);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+        if (batch.isDirty()) {
+            upload(batch);
+        }
+        ParticleMaterial material = batch.getMaterial();
+        float[] gravity = material.getGravity();
+        GLES20.glUniform3f(GLES20.glGetUniformLocation(program, "uGravity"),
+                gravity[0], gravity[1], gravity[2]);
+        GLES20.glUniform2f(GLES20.glGetUniformLocation(program, "uWobble"),
+                material.getWobbleAmplitude(), material.getWobbleFrequency());
+        for (int i = 0; i < GPU_ATTRIBUTES.length; i++) {
+            mAttributes[i] = GLES20.glGetAttribLocation(program, GPU_ATTRIBUTES[i]);
+            GLES20.glEnableVertexAttribArray(mAttributes[i]);
+            GLES20.glVertexAttribPointer(mAttributes[i], 4, GLES20.GL_FLOAT, false, GPU_STRIDE,
+                    i * 16);
+        }
+        // Ranges of stopped emitters in between are drawn too, and culled by the shader
+        GLES20.glDrawArrays(GLES20.GL_POINTS, 0, batch.getRangeEnd());
+        for (int attribute : mAttributes) {
+            GLES20.glDisableVertexAttribArray(attribute);
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    private int getBuffer(int index, ParticleBatch batch) {
+        if (index >= mBuffers.length) {
+            int[] buffers = new int[mSystem.getBatchCount()];
+            System.arraycopy(mBuffers, 0, buffers, 0, mBuffers.length);
+            mBuffers = buffers;
+        }
+        if (mBuffers[index] == 0) {
+            int[] ids = new int[1];
+            GLES20.glGenBuffers(1, ids, 0);
+            mBuffers[index] = ids[0];
+            long bytes = (long) batch.getCapacity() * GPU_STRIDE;
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, ids[0]);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, (int) bytes, null,
+                    GLES20.GL_DYNAMIC_DRAW);
+            MemoryGovernor.get().getGlObjects().register(this, GlObjectRegistry.TYPE_BUFFER,
+                    ids[0], bytes, batch.getMaterial().getName());
+            // A new buffer holds nothing yet
+            batch.markAllDirty();
+        }
+        return mBuffers[index];
+    }
+
+    /**
+     * Uploads the changed range of a batch into its bound buffer.
+     */
+    private static void upload(ParticleBatch batch) {
+        int start = batch.getDirtyStart();
+        int end = batch.getDirtyEnd();
+        int floats = (end - start) * ParticleBatch.VERTEX_FLOATS;
+        DirectBufferPool pool = MemoryGovernor.get().getBufferPool();
+        FloatBuffer staging = pool.acquireFloats(floats, TAG);
+        try {
+            batch.writeVertices(staging, start, end);
+            staging.position(0);
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, start * GPU_STRIDE, floats * 4,
+                    staging);
+        } finally {
+            pool.release(staging);
+        }
+        batch.clearDirty();
+    }
+
+    private void drawCpu(int program, ParticleBatch batch, float timeSeconds) {
+        int floats = batch.getCapacity() * ParticleBatch.OUTPUT_FLOATS;
+        if (mOutput == null || mOutput.length < floats) {
+            if (mOutputBuffer != null) {
+                Cube.releaseBuffer(mOutputBuffer);
+            }
+            mOutput = new float[floats];
+            mOutputBuffer = MemoryGovernor.get().getBufferPool().acquireFloats(floats, TAG);
+        }
+        int count = batch.evaluate(timeSeconds, mOutput);
+        if (count == 0) {
+            return;
+        }
+        mOutputBuffer.position(0);
+        mOutputBuffer.put(mOutput, 0, count * ParticleBatch.OUTPUT_FLOATS);
+
+        int position = GLES20.glGetAttribLocation(program, "aPosition");
+        int color = GLES20.glGetAttribLocation(program, "aColor");
+        GLES20.glEnableVertexAttribArray(position);
+        GLES20.glEnableVertexAttribArray(color);
+        mOutputBuffer.position(0);
+        GLES20.glVertexAttribPointer(position, 4, GLES20.GL_FLOAT, false, CPU_STRIDE,
+                mOutputBuffer);
+        mOutputBuffer.position(4);
+        GLES20.glVertexAttribPointer(color, 4, GLES20.GL_FLOAT, false, CPU_STRIDE,
+                mOutputBuffer);
+        GLES20.glDrawArrays(GLES20.GL_POINTS, 0, count);
+        GLES20.glDisableVertexAttribArray(position);
+        GLES20.glDisableVertexAttribArray(color);
+    }
+
+    private static void setBlendMode(int blendMode) {
+        if (blendMode == ParticleMaterial.BLEND_ADDITIVE) {
+            GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE);
+        } else {
+            GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        }
+    }
+
+    /**
+     * Forgets the buffer objects, which went away with their context, so every batch is
+     * uploaded again into new ones. The GPU program gets another chance too.
+     */
+    public void onContextLost() {
+        MemoryGovernor.get().getGlObjects().releaseOwner(this);
+        mBuffers = new int[0];
+        mGpuFailed = false;
+    }
+
+    /**
+     * Deletes the buffer objects and returns the CPU path's buffer to the pool.
+     */
+    public void release() {
+        for (int buffer : mBuffers) {
+            if (buffer != 0) {
+                GLES20.glDeleteBuffers(1, new int[]{buffer}, 0);
+                MemoryGovernor.get().getGlObjects().unregister(this,
+                        GlObjectRegistry.TYPE_BUFFER, buffer);
+            }
+        }
+        mBuffers = new int[0];
+        if (mOutputBuffer != null) {
+            Cube.releaseBuffer(mOutputBuffer);
+            mOutputBuffer = null;
+            mOutput = null;
+        }
+    }
+}
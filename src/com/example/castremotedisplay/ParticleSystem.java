@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.ArrayList;
+
+/**
+ * Emitters and the particle batches of their materials, for effects like confetti, sparks and
+ * trails. Drawn by a {@link ParticleRenderer}.
+ * <p>
+ * Emitters come from a pool: {@link #obtainEmitter()}, set it up, then
+ * {@link #start(ParticleEmitter, ParticleMaterial, float)}. Once started an emitter costs nothing
+ * per frame on the GPU path, since its particles are simulated statelessly, so the system's own
+ * per frame work is {@link #update(float)} returning finished emitters to the pool.
+ * </p>
+ * <p>
+ * Times are seconds as floats, so keep them relative to a recent epoch, e.g. when the renderer
+ * was created, for the precision to last. Plain Java and not thread safe: use it on the GL
+ * thread.
+ * </p>
+ */
+public class ParticleSystem {
+
+    private final ArrayList<ParticleBatch> mBatches = new ArrayList<ParticleBatch>();
+    private final ArrayList<ParticleEmitter> mFreeEmitters = new ArrayList<ParticleEmitter>();
+    private int mEmitterCount;
+
+    /**
+     * Adds a material to draw emitters with. Each gets its own batch and one draw call.
+     */
+    public void addMaterial(ParticleMaterial material) {
+        if (findBatch(material) == null) {
+            mBatches.add(new ParticleBatch(material, mBatches.size() + 1));
+        }
+    }
+
+    public int getBatchCount() {
+        return mBatches.size();
+    }
+
+    public ParticleBatch getBatch(int index) {
+        return mBatches.get(index);
+    }
+
+    /**
+     * An emitter with default parameters, from the pool.
+     */
+    public ParticleEmitter obtainEmitter() {
+        int free = mFreeEmitters.size();
+        if (free > 0) {
+            return mFreeEmitters.remove(free - 1);
+        }
+        mEmitterCount++;
+        return new ParticleEmitter();
+    }
+
+    /**
+     * Starts emitting. The emitter goes back to the pool, when finished for a one-shot emitter
+     * or when stopped for a looping one.
+     *
+     * @param material A material added to this system.
+     * @return False if the material's batch has no room for the particles, in which case the
+     *         emitter went back to the pool right away.
+     */
+    public boolean start(ParticleEmitter emitter, ParticleMaterial material, float nowSeconds) {
+        if (emitter.isActive()) {
+            throw new IllegalStateException("Emitter already started");
+        }
+        ParticleBatch batch = findBatch(material);
+        if (batch == null) {
+            throw new IllegalArgumentException("Unknown material " + material);
+        }
+        emitter.mMaterial = material;
+        if (!batch.add(emitter, nowSeconds)) {
+            recycle(emitter);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops an emitter right away, its particles disappearing, and returns it to the pool.
+     */
+    public void stop(ParticleEmitter emitter) {
+        if (!emitter.isActive()) {
+            return;
+        }
+        findBatch(emitter.mMaterial).remove(emitter);
+        recycle(emitter);
+    }
+
+    /**
+     * Returns one-shot emitters whose particles have all died to the pool. Call once a frame.
+     */
+    public void update(float nowSeconds) {
+        for (int b = 0; b < mBatches.size(); b++) {
+            ParticleBatch batch = mBatches.get(b);
+            for (int e = batch.getEmitterCount() - 1; e >= 0; e--) {
+                ParticleEmitter emitter = batch.getEmitter(e);
+                if (!emitter.mLooping
+                        && nowSeconds - emitter.mStartSeconds >= emitter.getEndSeconds()) {
+                    batch.remove(emitter);
+                    recycle(emitter);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops every emitter.
+     */
+    public void clear() {
+        for (int b = 0; b < mBatches.size(); b++) {
+            ParticleBatch batch = mBatches.get(b);
+            for (int e = batch.getEmitterCount() - 1; e >= 0; e--) {
+                ParticleEmitter emitter = batch.getEmitter(e);
+                batch.remove(emitter);
+                recycle(emitter);
+            }
+        }
+    }
+
+    /**
+     * Particles of all started emitters, alive or not yet born.
+     */
+    public int getParticleCount() {
+        int count = 0;
+        for (int b = 0; b < mBatches.size(); b++) {
+            count += mBatches.get(b).getParticleCount();
+        }
+        return count;
+    }
+
+    /**
+     * Emitters ever created, pooled or in use.
+     */
+    public int getEmitterCount() {
+        return mEmitterCount;
+    }
+
+    public int getFreeEmitterCount() {
+        return mFreeEmitters.size();
+    }
+
+    private ParticleBatch findBatch(ParticleMaterial material) {
+        for (int b = 0; b < mBatches.size(); b++) {
+            ParticleBatch batch = mBatches.get(b);
+            if (batch.getMaterial() == material) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private void recycle(ParticleEmitter emitter) {
+        emitter.reset();
+        mFreeEmitters.add(emitter);
+    }
+}
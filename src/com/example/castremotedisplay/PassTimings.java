@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.Locale;
+
+/**
+ * CPU and GPU time per render pass, averaged over the last {@link #WINDOW} frames.
+ * <p>
+ * GPU samples arrive a few frames after the CPU ones, from {@link GpuTimer}; when GPU timing
+ * isn't supported only CPU times are reported. Samples are added on the GL thread and may be
+ * read from any thread.
+ * </p>
+ */
+public class PassTimings {
+
+    public static final int WINDOW = 60;
+
+    private final String[] mPassNames;
+    private final Samples[] mCpu;
+    private final Samples[] mGpu;
+    private boolean mGpuSupported;
+    private long mDisjointCount;
+
+    public PassTimings(String... passNames) {
+        mPassNames = passNames.clone();
+        mCpu = new Samples[passNames.length];
+        mGpu = new Samples[passNames.length];
+        for (int i = 0; i < passNames.length; i++) {
+            mCpu[i] = new Samples();
+            mGpu[i] = new Samples();
+        }
+    }
+
+    public int getPassCount() {
+        return mPassNames.length;
+    }
+
+    public String getPassName(int pass) {
+        return mPassNames[pass];
+    }
+
+    public synchronized void addCpuSample(int pass, long nanos) {
+        mCpu[pass].add(nanos);
+    }
+
+    public synchronized void addGpuSample(int pass, long nanos) {
+        mGpu[pass].add(nanos);
+    }
+
+    public synchronized void setGpuSupported(boolean supported) {
+        mGpuSupported = supported;
+    }
+
+    public synchronized boolean isGpuSupported() {
+        return mGpuSupported;
+    }
+
+    /**
+     * Counts GPU results thrown away because the GPU reported a disjoint operation, e.g. a
+     * frequency change, while they were measured.
+     */
+    public synchronized void onDisjoint() {
+        mDisjointCount++;
+    }
+
+    public synchronized long getDisjointCount() {
+        return mDisjointCount;
+    }
+
+    /**
+     * Average CPU time of a pass in nanoseconds, or NaN without samples.
+     */
+    public synchronized float getCpuAverageNanos(int pass) {
+        return mCpu[pass].getAverage();
+    }
+
+    /**
+     * Average GPU time of a pass in nanoseconds, or NaN without samples.
+     */
+    public synchronized float getGpuAverageNanos(int pass) {
+        return mGpu[pass].getAverage();
+    }
+
+    public synchronized long getGpuMaxNanos(int pass) {
+        return mGpu[pass].getMax();
+    }
+
+    /**
+     * Sum of the average GPU times of all passes, or NaN without samples.
+     */
+    public synchronized float getGpuFrameAverageNanos() {
+        float total = Float.NaN;
+        for (Samples samples : mGpu) {
+            float average = samples.getAverage();
+            if (!Float.isNaN(average)) {
+                total = Float.isNaN(total) ? average : total + average;
+            }
+        }
+        return total;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < mPassNames.length; i++) {
+            mCpu[i].clear();
+            mGpu[i].clear();
+        }
+        mDisjointCount = 0;
+    }
+
+    /**
+     * One line summary, e.g. for logcat.
+     */
+    public synchronized String format() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < mPassNames.length; i++) {
+            if (i > 0) {
+                builder.append(" | ");
+            }
+            builder.append(String.format(Locale.US, "%s cpu %.2fms", mPassNames[i],
+                    mCpu[i].getAverage() / 1000000));
+            if (mGpuSupported) {
+                builder.append(String.format(Locale.US, " gpu %.2fms",
+                        mGpu[i].getAverage() / 1000000));
+            }
+        }
+        if (!mGpuSupported) {
+            builder.append(" | gpu n/a");
+        }
+        return builder.toString();
+    }
+
+    private static final class Samples {
+        private final long[] mValues = new long[WINDOW];
+        private int mCount;
+        private int mNext;
+        private long mSum;
+
+        void add(long value) {
+            if (mCount == WINDOW) {
+                mSum -= mValues[mNext];
+            } else {
+                mCount++;
+            }
+            mValues[mNext] = value;
+            mSum += value;
+            mNext = (mNext + 1) % WINDOW;
+        }
+
+        float getAverage() {
+            return mCount == 0 ? Float.NaN : (float) mSum / mCount;
+        }
+
+        long getMax() {
+            long max = 0;
+            for (int i = 0; i < mCount; i++) {
+                max = Math.max(max, mValues[i]);
+            }
+            return max;
+        }
+
+        void clear() {
+            mCount = 0;
+            mNext = 0;
+            mSum = 0;
+        }
+    }
+}
@@ -0,0 +1,543 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * Draws a {@link CubeRenderer}'s scene through a bloom, conditioning for the video encoder, or
+ * both.
+ * <p>
+ * The bloom renders the scene into a texture, blurs its bright parts at half resolution and
+ * adds them back. The passes are a {@link RenderGraph}, so the bright and vertically blurred
+ * targets share a texture and the targets' contents are discarded rather than stored when no
+ * later pass needs them. The scene's framebuffer object is not multisampled, so anti-aliasing
+ * of the EGL config only applies to the passes drawing into the window.
+ * </p>
+ * <p>
+ * Output conditioning, see {@link OutputConditioning}, draws into one of two history targets
+ * that take turns, reading the other as the previous output, and the result is copied to the
+ * window. With a {@link MotionBudget}, a probe compares the last two outputs per macroblock
+ * every {@link #PROBE_INTERVAL} frames and the budget's motion scale is passed to the scene.
+ * The probe is read back right away, which stalls the GPU once per interval.
+ * </p>
+ */
+public class PostProcessRenderer implements GLSurfaceView.Renderer {
+
+    private static final String TAG = "PostProcessRenderer";
+
+    private static final String VERTEX_SHADER = "post.vert";
+
+    public static final int PROBE_INTERVAL = 10;
+
+    // Scale of the probe's output; blocks changing by more than 255 / 16 luma steps on
+    // average saturate, which only hides changes far over any budget
+    private static final int PROBE_GAIN = 16;
+
+    private static final float[] QUAD = {
+            -1, -1, 1, -1, -1, 1, 1, 1
+    };
+
+    private final CubeRenderer mScene;
+    private final boolean mBloom;
+    private final boolean mConditioned;
+    private final RenderGraphExecutor mExecutor = new RenderGraphExecutor();
+    private final ShaderLibrary.Program mBrightProgram;
+    private final ShaderLibrary.Program mBlurProgram;
+    private final ShaderLibrary.Program mCompositeProgram;
+    private final ShaderLibrary.Program mConditionProgram;
+    private final ShaderLibrary.Program mProbeProgram;
+    private final ShaderLibrary.Program mCopyProgram;
+
+    private volatile float mThreshold = 0.6f;
+    private volatile float mBloomIntensity = 0.8f;
+    private volatile float mVignette = 0.6f;
+    private volatile OutputConditioning mConditioning = OutputConditioning.DEFAULT;
+    private MotionBudget mMotionBudget;
+    private volatile FrameCapture mCapture;
+
+    private FloatBuffer mQuad;
+    private RenderGraph mGraph;
+    private int mWidth;
+    private int mHeight;
+    private int mSceneTarget;
+    private int mBrightTarget;
+    private int mBlurTarget;
+    private int mBloomTarget;
+    // What the conditioning reads: the bloom's output, or the scene without it
+    private int mSourceTarget;
+    private int mHistoryInTarget;
+    private int mHistoryOutTarget;
+    private int mProbeTarget;
+    // Whether the scene left blending on, to restore it after the full screen passes
+    private boolean mBlendEnabled;
+
+    // Conditioning: the outputs of the last two frames, the dither pattern and the probe
+    private final RenderTarget[] mHistory = new RenderTarget[2];
+    private int mDitherTexture;
+    private RenderTarget mProbe;
+    private ByteBuffer mProbePixels;
+    // Frames drawn into the history since it was created
+    private int mFrame;
+
+    public PostProcessRenderer(CubeRenderer scene) {
+        this(scene, true, false);
+    }
+
+    /**
+     * @param bloom       Whether to draw the bloom.
+     * @param conditioned Whether to condition the output for the video encoder.
+     */
+    public PostProcessRenderer(CubeRenderer scene, boolean bloom, boolean conditioned) {
+        if (!bloom && !conditioned) {
+            throw new IllegalArgumentException("Nothing to post-process");
+        }
+        mScene = scene;
+        mBloom = bloom;
+        mConditioned = conditioned;
+        ShaderLibrary shaders = scene.getShaderLibrary();
+        mBrightProgram = shaders.getProgram(VERTEX_SHADER, "bright.frag", 0);
+        mBlurProgram = shaders.getProgram(VERTEX_SHADER, "blur.frag", 0);
+        mCompositeProgram = shaders.getProgram(VERTEX_SHADER, "composite.frag", 0);
+        mConditionProgram = shaders.getProgram(VERTEX_SHADER, "condition.frag", 0);
+        mProbeProgram = shaders.getProgram(VERTEX_SHADER, "probe.frag", 0);
+        mCopyProgram = shaders.getProgram(VERTEX_SHADER, "copy.frag", 0);
+    }
+
+    /**
+     * @param threshold Luma above which the scene blooms, from 0 to 1.
+     * @param intensity How much of the blurred bright parts is added back.
+     */
+    public void setBloom(float threshold, float intensity) {
+        mThreshold = threshold;
+        mBloomIntensity = intensity;
+    }
+
+    /**
+     * How much the corners are darkened, 0 for not at all.
+     */
+    public void setVignette(float vignette) {
+        mVignette = vignette;
+    }
+
+    /**
+     * Changes the conditioning of a renderer created with it, e.g. to
+     * {@link OutputConditioning#NONE} for comparison.
+     */
+    public void setOutputConditioning(OutputConditioning conditioning) {
+        mConditioning = conditioning;
+    }
+
+    /**
+     * Probes the output's changes and slows the scene down to stay within the budget. Call
+     * before the surface is created; needs conditioning.
+     */
+    public void setMotionBudget(MotionBudget budget) {
+        mMotionBudget = budget;
+    }
+
+    /**
+     * Writes the next {@code count} output frames into {@code directory}, see
+     * {@link FrameCapture}. Frames drawn while the phone UI is in the background aren't
+     * captured: they are throttled, so they don't show what the encoder gets in use, and reading
+     * them back would take time from the app in the foreground.
+     */
+    public void captureFrames(File directory, int count) {
+        mCapture = new FrameCapture(directory, count);
+    }
+
+    public RenderGraph getRenderGraph() {
+        return mGraph;
+    }
+
+    @Override
+    public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+        mScene.onSurfaceCreated(unused, config);
+        mExecutor.onSurfaceCreated();
+        forgetConditioningObjects();
+        if (mQuad == null) {
+            mQuad = Cube.allocateFloatBuffer(QUAD);
+        }
+    }
+
+    @Override
+    public void onSurfaceChanged(GL10 unused, int width, int height) {
+        mScene.onSurfaceChanged(unused, width, height);
+        mWidth = width;
+        mHeight = height;
+        mGraph = createGraph(width, height);
+        if (mConditioned) {
+            releaseConditioningObjects();
+            for (int i = 0; i < mHistory.length; i++) {
+                mHistory[i] = new RenderTarget("history" + i, width, height,
+                        RenderGraph.FORMAT_RGBA8888, false);
+            }
+            if (mMotionBudget != null) {
+                mProbe = new RenderTarget("probe", mGraph.getTargetWidth(mProbeTarget),
+                        mGraph.getTargetHeight(mProbeTarget), RenderGraph.FORMAT_RGBA8888,
+                        false);
+            }
+            mFrame = 0;
+        }
+    }
+
+    @Override
+    public void onDrawFrame(GL10 unused) {
+        if (mConditioned) {
+            RenderTarget output = mHistory[mFrame & 1];
+            mExecutor.setImportedFramebuffer(mHistoryOutTarget, output.getFramebuffer());
+            mExecutor.setImportedTexture(mHistoryOutTarget, output.getTexture());
+            mExecutor.setImportedTexture(mHistoryInTarget, mHistory[~mFrame & 1].getTexture());
+            if (mProbe != null) {
+                mExecutor.setImportedFramebuffer(mProbeTarget, mProbe.getFramebuffer());
+            }
+        }
+        mExecutor.execute(mGraph);
+        mFrame++;
+        FrameCapture capture = mCapture;
+        if (capture != null && !mScene.isInBackground()) {
+            capture.capture(mWidth, mHeight);
+            if (capture.isDone()) {
+                mCapture = null;
+            }
+        }
+        // Back to the state the scene expects
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        if (mBlendEnabled) {
+            GLES20.glEnable(GLES20.GL_BLEND);
+        }
+    }
+
+    /**
+     * Forgets the render targets of a destroyed context and returns the quad's and the probe's
+     * buffers. The scene renderer is told separately.
+     */
+    public void onContextLost() {
+        mExecutor.onContextLost();
+        forgetConditioningObjects();
+        releaseQuad();
+        releaseProbePixels();
+        FrameCapture capture = mCapture;
+        if (capture != null) {
+            capture.stop();
+            mCapture = null;
+        }
+    }
+
+    /**
+     * Deletes the render targets. Call on the GL thread.
+     */
+    public void release() {
+        mExecutor.release();
+        releaseConditioningObjects();
+        releaseQuad();
+        releaseProbePixels();
+    }
+
+    private void releaseQuad() {
+        if (mQuad != null) {
+            Cube.releaseBuffer(mQuad);
+            mQuad = null;
+        }
+    }
+
+    private void releaseProbePixels() {
+        if (mProbePixels != null) {
+            Cube.releaseBuffer(mProbePixels);
+            mProbePixels = null;
+        }
+    }
+
+    private void forgetConditioningObjects() {
+        for (RenderTarget target : mHistory) {
+            if (target != null) {
+                target.onContextLost();
+            }
+        }
+        if (mProbe != null) {
+            mProbe.onContextLost();
+        }
+        MemoryGovernor.get().getGlObjects().releaseOwner(this);
+        mDitherTexture = 0;
+    }
+
+    private void releaseConditioningObjects() {
+        for (RenderTarget target : mHistory) {
+            if (target != null) {
+                target.release();
+            }
+        }
+        if (mProbe != null) {
+            mProbe.release();
+        }
+        if (mDitherTexture != 0) {
+            GLES20.glDeleteTextures(1, new int[] {mDitherTexture}, 0);
+            MemoryGovernor.get().getGlObjects().unregister(this, GlObjectRegistry.TYPE_TEXTURE,
+                    mDitherTexture);
+            mDitherTexture = 0;
+        }
+    }
+
+    private RenderGraph createGraph(int width, int height) {
+        RenderGraph graph = new RenderGraph();
+        int display = graph.importTarget("display", width, height, false);
+        mSceneTarget = graph.createTarget("scene", width, height, RenderGraph.FORMAT_RGBA8888,
+                true);
+        int scene = graph.addPass("scene", new RenderGraph.Pass() {
+            @Override
+            public void execute(RenderGraph.Resources resources) {
+                mScene.onDrawFrame(null);
+                // The full screen passes neither test depth nor blend
+                mBlendEnabled = GLES20.glIsEnabled(GLES20.GL_BLEND);
+                GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+                GLES20.glDisable(GLES20.GL_BLEND);
+            }
+        });
+        graph.write(scene, mSceneTarget);
+
+        int output = mSceneTarget;
+        if (mBloom) {
+            output = mConditioned ? graph.createTarget("graded", width, height,
+                    RenderGraph.FORMAT_RGBA8888, false) : display;
+            addBloom(graph, width, height, output);
+        }
+        if (mConditioned) {
+            addConditioning(graph, width, height, output, display);
+        }
+        graph.compile();
+        return graph;
+    }
+
+    private void addBloom(RenderGraph graph, int width, int height, int output) {
+        int halfWidth = Math.max(1, width / 2);
+        int halfHeight = Math.max(1, height / 2);
+        // The bloom is blurry anyway, so 16 bit color costs nothing visible
+        mBrightTarget = graph.createTarget("bright", halfWidth, halfHeight,
+                RenderGraph.FORMAT_RGB565, false);
+        mBlurTarget = graph.createTarget("blur", halfWidth, halfHeight,
+                RenderGraph.FORMAT_RGB565, false);
+        mBloomTarget = graph.createTarget("bloom", halfWidth, halfHeight,
+                RenderGraph.FORMAT_RGB565, false);
+
+        int bright = graph.addPass("bright", new RenderGraph.Pass() {
+            @Override
+            public void execute(RenderGraph.Resources resources) {
+                int program = beginQuad(mBrightProgram, resources.getTexture(mSceneTarget));
+                GLES20.glUniform1f(GLES20.glGetUniformLocation(program, "uThreshold"),
+                        mThreshold);
+                drawQuad(program);
+            }
+        });
+        graph.read(bright, mSceneTarget);
+        graph.write(bright, mBrightTarget);
+
+        int blurH = graph.addPass("blur-h", new RenderGraph.Pass() {
+            @Override
+            public void execute(RenderGraph.Resources resources) {
+                int program = beginQuad(mBlurProgram, resources.getTexture(mBrightTarget));
+                GLES20.glUniform2f(GLES20.glGetUniformLocation(program, "uStep"),
+                        1.0f / resources.getWidth(mBrightTarget), 0);
+                drawQuad(program);
+            }
+        });
+        graph.read(blurH, mBrightTarget);
+        graph.write(blurH, mBlurTarget);
+
+        int blurV = graph.addPass("blur-v", new RenderGraph.Pass() {
+            @Override
+            public void execute(RenderGraph.Resources resources) {
+                int program = beginQuad(mBlurProgram, resources.getTexture(mBlurTarget));
+                GLES20.glUniform2f(GLES20.glGetUniformLocation(program, "uStep"),
+                        0, 1.0f / resources.getHeight(mBlurTarget));
+                drawQuad(program);
+            }
+        });
+        graph.read(blurV, mBlurTarget);
+        graph.write(blurV, mBloomTarget);
+
+        int composite = graph.addPass("composite", new RenderGraph.Pass() {
+            @Override
+            public void execute(RenderGraph.Resources resources) {
+                int program = beginQuad(mCompositeProgram, resources.getTexture(mSceneTarget));
+                GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "uScene"), 0);
+                bindTexture(program, "uBloom", 1, resources.getTexture(mBloomTarget));
+                GLES20.glUniform1f(GLES20.glGetUniformLocation(program, "uBloomIntensity"),
+                        mBloomIntensity);
+                GLES20.glUniform1f(GLES20.glGetUniformLocation(program, "uVignette"),
+                        mVignette);
+                drawQuad(program);
+            }
+        });
+        graph.read(composite, mSceneTarget);
+        graph.read(composite, mBloomTarget);
+        graph.write(composite, output);
+    }
+
+    private void addConditioning(RenderGraph graph, int width, int height, int source,
+            int display) {
+        mSourceTarget = source;
+        mHistoryInTarget = graph.importTarget("history-in", width, height, false);
+        mHistoryOutTarget = graph.importTarget("history-out", width, height, false);
+
+        int condition = graph.addPass("condition", new RenderGraph.Pass() {
+            @Override
+            public void execute(RenderGraph.Resources resources) {
+                OutputConditioning conditioning = mConditioning;
+                int program = beginQuad(mConditionProgram, resources.getTexture(mSourceTarget));
+                bindTexture(program, "uHistory", 1, resources.getTexture(mHistoryInTarget));
+                bindTexture(program, "uDitherPattern", 2, getDitherTexture());
+                GLES20.glUniform1f(GLES20.glGetUniformLocation(program, "uSteps"),
+                        conditioning.getLevels() - 1);
+                GLES20.glUniform1f(GLES20.glGetUniformLocation(program, "uDither"),
+                        conditioning.getDither());
+                // The first frame has no previous output to keep
+                boolean stabilizing = conditioning.isStabilizing() && mFrame > 0;
+                GLES20.glUniform1f(GLES20.glGetUniformLocation(program, "uThreshold"),
+                        stabilizing ? (conditioning.getThreshold() + 0.5f) / 255 : -1);
+                drawQuad(program);
+            }
+        });
+        graph.read(condition, source);
+        graph.read(condition, mHistoryInTarget);
+        graph.write(condition, mHistoryOutTarget);
+
+        if (mMotionBudget != null) {
+            int blockSize = FrameDifference.BLOCK_SIZE;
+            mProbeTarget = graph.importTarget("probe", (width + blockSize - 1) / blockSize,
+                    (height + blockSize - 1) / blockSize, false);
+            int probe = graph.addPass("probe", new RenderGraph.Pass() {
+                @Override
+                public void execute(RenderGraph.Resources resources) {
+                    if (mFrame % PROBE_INTERVAL == PROBE_INTERVAL - 1) {
+                        probe(resources);
+                    }
+                }
+            });
+            graph.read(probe, mHistoryOutTarget);
+            graph.read(probe, mHistoryInTarget);
+            graph.write(probe, mProbeTarget);
+        }
+
+        int present = graph.addPass("present", new RenderGraph.Pass() {
+            @Override
+            public void execute(RenderGraph.Resources resources) {
+                drawQuad(beginQuad(mCopyProgram, resources.getTexture(mHistoryOutTarget)));
+            }
+        });
+        graph.read(present, mHistoryOutTarget);
+        graph.write(present, display);
+    }
+
+    /**
+     * Measures the mean luma change per macroblock since the previous output, reads it back and
+     * updates the motion budget.
+     */
+    private void probe(RenderGraph.Resources resources) {
+        int program = beginQuad(mProbeProgram, resources.getTexture(mHistoryOutTarget));
+        bindTexture(program, "uHistory", 1, resources.getTexture(mHistoryInTarget));
+        float tap = FrameDifference.BLOCK_SIZE / 4.0f;
+        GLES20.glUniform2f(GLES20.glGetUniformLocation(program, "uTapOffset"),
+                tap / resources.getWidth(mHistoryOutTarget),
+                tap / resources.getHeight(mHistoryOutTarget));
+        GLES20.glUniform1f(GLES20.glGetUniformLocation(program, "uGain"), PROBE_GAIN);
+        drawQuad(program);
+
+        int width = resources.getWidth(mProbeTarget);
+        int height = resources.getHeight(mProbeTarget);
+        if (mProbePixels == null || mProbePixels.limit() < width * height * 4) {
+            releaseProbePixels();
+            mProbePixels = MemoryGovernor.get().getBufferPool().acquire(width * height * 4, TAG);
+        }
+        mProbePixels.position(0);
+        GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+                mProbePixels);
+        long sum = 0;
+        for (int i = 0; i < width * height; i++) {
+            sum += mProbePixels.get(i * 4) & 0xff;
+        }
+        // Back to luma steps per pixel
+        float change = (float) sum / (width * height * PROBE_GAIN);
+        mScene.setMotionScale(mMotionBudget.update(change));
+    }
+
+    private int getDitherTexture() {
+        if (mDitherTexture == 0) {
+            int[] ids = new int[1];
+            GLES20.glGenTextures(1, ids, 0);
+            mDitherTexture = ids[0];
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mDitherTexture);
+            byte[] thresholds = OutputConditioning.DITHER_PATTERN;
+            DirectBufferPool pool = MemoryGovernor.get().getBufferPool();
+            ByteBuffer pattern = pool.acquire(thresholds.length, TAG);
+            try {
+                pattern.put(thresholds).position(0);
+                // Rows of 4 bytes keep the default unpack alignment
+                GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, 4, 4, 0,
+                        GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, pattern);
+            } finally {
+                pool.release(pattern);
+            }
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                    GLES20.GL_NEAREST);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                    GLES20.GL_NEAREST);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                    GLES20.GL_REPEAT);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                    GLES20.GL_REPEAT);
+            MemoryGovernor.get().getGlObjects().register(this, GlObjectRegistry.TYPE_TEXTURE,
+                    mDitherTexture, OutputConditioning.DITHER_PATTERN.length, "dither");
+        }
+        return mDitherTexture;
+    }
+
+    /**
+     * Sets up a full screen pass sampling {@code texture} on unit 0, and returns its program.
+     */
+    private int beginQuad(ShaderLibrary.Program program, int texture) {
+        int id = program.getId();
+        GLES20.glUseProgram(id);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(id, "uTexture"), 0);
+        return id;
+    }
+
+    private static void bindTexture(int program, String uniform, int unit, int texture) {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(program, uniform), unit);
+    }
+
+    private void drawQuad(int program) {
+        int position = GLES20.glGetAttribLocation(program, "aPosition");
+        GLES20.glEnableVertexAttribArray(position);
+        mQuad.position(0);
+        GLES20.glVertexAttribPointer(position, 2, GLES20.GL_FLOAT, false, 0, mQuad);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        GLES20.glDisableVertexAttribArray(position);
+    }
+}
@@ -19,19 +19,29 @@ package com.example.castremotedisplay;
 import com.google.android.gms.cast.CastPresentation;
 import com.google.android.gms.cast.CastRemoteDisplayLocalService;
 
+import android.app.Dialog;
+import android.app.Presentation;
 import android.content.Context;
-import android.graphics.Typeface;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Point;
+import android.hardware.display.DisplayManager;
 import android.media.MediaPlayer;
 import android.opengl.GLSurfaceView;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.Display;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.ViewGroup;
 import android.view.WindowManager;
 import android.widget.TextView;
 
-import javax.microedition.khronos.egl.EGL10;
-import javax.microedition.khronos.egl.EGLConfig;
-import javax.microedition.khronos.egl.EGLDisplay;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Service to keep the remote display running even when the app goes into the background
@@ -40,22 +50,210 @@ public class PresentationService extends CastRemoteDisplayLocalService {
 
     private static final String TAG = "PresentationService";
 
+    // Render the scene once per frame and blit it to the Cast display and to every other
+    // presentation display, e.g. for installations where several TVs show the same content
+    private static final boolean RENDER_FAN_OUT = false;
+    private static final int MAX_FAN_OUT_FPS = 60;
+    // Render a field of this many cubes, updated on a job system, instead of the cube pair
+    private static final boolean RENDER_CUBE_FIELD = false;
+    private static final int CUBE_FIELD_SIZE = 4096;
+    // Draw the field with a detailed mesh, simplified into levels picked by size on screen
+    private static final boolean CUBE_FIELD_LOD = false;
+    // Accept scene controllers, e.g. another phone acting as a remote, on this loopback port in
+    // debuggable builds. The socket needs the INTERNET permission, which only the debug manifest
+    // asks for
+    private static final int REMOTE_CONTROL_PORT = 47900;
+    // Accept edited shader sources on this loopback port in debuggable builds, to see changes
+    // without restarting the presentation. See ShaderReloadServer for how to push a file
+    private static final int SHADER_RELOAD_PORT = 47901;
+    // Celebrate color changes with confetti and sparks drawn by the GPU
+    private static final boolean ENABLE_PARTICLES = false;
+    // Draw the scene through a bloom, in render targets shared between passes
+    private static final boolean ENABLE_BLOOM = false;
+    // Condition frames to be cheap for the Cast video encoder, and slow the cubes down when too
+    // much of the screen changes per frame
+    private static final boolean ENABLE_OUTPUT_CONDITIONING = false;
+    // With bloom or conditioning, write this many output frames as PPM files into the app's
+    // external files directory, to be measured offline with EncoderConditioningBenchmark
+    private static final int CAPTURE_FRAME_COUNT = 0;
+
     // First screen
     private CastPresentation mPresentation;
     private MediaPlayer mMediaPlayer;
-    private CubeRenderer mCubeRenderer;
+    private volatile CubeRenderer mCubeRenderer;
+    private PostProcessRenderer mPostProcessRenderer;
+
+    // Scene state set by controllers, kept across renderers
+    private final SceneDelta mSceneState = new SceneDelta();
+    private SceneReceiver mSceneReceiver;
+    private SceneSocketServer mSceneServer;
+
+    // Shader sources pushed while developing, by file name, kept across renderers
+    private final HashMap<String, String> mReloadedShaders = new HashMap<String, String>();
+    private ShaderReloadServer mShaderReloadServer;
+
+    // Graceful degradation when the phone heats up or misses frames
+    private QualityGovernor mQualityGovernor;
+    private ThermalMonitor mThermalMonitor;
+    private Handler mHandler;
+
+    // Throttling while the phone UI is in the background
+    private final BackgroundPolicy mBackgroundPolicy = new BackgroundPolicy();
+
+    // Fan-out mode
+    private FanOutRenderer mFanOutRenderer;
+    private DisplayManager mDisplayManager;
+    private final SparseArray<Presentation> mMirrorPresentations =
+            new SparseArray<Presentation>();
+
+    private JobSystem mJobSystem;
+
+    // Native memory in use when the presentation was created, to find leaks at teardown
+    private MemoryGovernor.Mark mMemoryMark;
+    // Shared by every renderer of the service, so decoded textures survive a new presentation
+    private TextureManager mTextureManager;
+    // The cubes' buffers, shared the same way and taken from the warm start
+    private Cube.Geometry mGeometry;
 
     @Override
     public void onCreate() {
         super.onCreate();
-        // Audio
-        mMediaPlayer = MediaPlayer.create(this, R.raw.sound);
-        mMediaPlayer.setVolume((float) 0.1, (float) 0.1);
-        mMediaPlayer.setLooping(true);
+        Telemetry.get().markSession(Telemetry.SESSION_SERVICE_CREATED, 0);
+        // Audio, usually decoded already while the session was being set up
+        WarmStart warmStart = WarmStart.getInstance();
+        mMediaPlayer = warmStart != null ? warmStart.takeMediaPlayer()
+                : WarmStart.createMediaPlayer(this);
+
+        mHandler = new Handler();
+        mQualityGovernor = new QualityGovernor();
+        mQualityGovernor.setListener(mQualityListener);
+        mThermalMonitor = new ThermalMonitor(this, mQualityGovernor);
+        mBackgroundPolicy.setListener(mBackgroundListener);
+        mTextureManager = new TextureManager(getAssets());
+
+        mSceneReceiver = new SceneReceiver(mSceneTarget);
+        boolean debuggable = (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        if (debuggable) {
+            mSceneServer = new SceneSocketServer(mSceneTarget, REMOTE_CONTROL_PORT);
+            try {
+                mSceneServer.start();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to accept remote controllers", e);
+                mSceneServer = null;
+            }
+        }
+        if (debuggable) {
+            mShaderReloadServer = new ShaderReloadServer(mShaderReloadTarget, SHADER_RELOAD_PORT);
+            try {
+                mShaderReloadServer.start();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to accept shader sources", e);
+                mShaderReloadServer = null;
+            }
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mSceneServer != null) {
+            mSceneServer.stop();
+            mSceneServer = null;
+        }
+        if (mShaderReloadServer != null) {
+            mShaderReloadServer.stop();
+            mShaderReloadServer = null;
+        }
+        if (mJobSystem != null) {
+            mJobSystem.shutdown();
+            mJobSystem = null;
+        }
+        mHandler.removeCallbacks(mBackgroundUpdate);
+        // The GL threads have stopped, so forget the textures before releasing; nothing is left
+        // to delete without a context
+        mTextureManager.onContextLost();
+        mTextureManager.release();
+        if (mGeometry != null) {
+            mGeometry.release();
+            mGeometry = null;
+        }
+        Telemetry.get().markSession(Telemetry.SESSION_SERVICE_DESTROYED, 0);
+        // The process may go any time now; get the session to storage
+        Telemetry.get().flush();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            mBackgroundPolicy.onMemoryPressure(System.nanoTime());
+        }
+    }
+
+    /**
+     * Called on the main thread when a controller UI is shown or hidden, to render at full
+     * quality only while the user may be looking at the phone too.
+     */
+    public void onUiVisibilityChanged(boolean visible) {
+        long now = System.nanoTime();
+        if (visible) {
+            mBackgroundPolicy.onUiShown(now);
+        } else {
+            mBackgroundPolicy.onUiHidden(now);
+        }
+        scheduleBackgroundUpdate();
+    }
+
+    private void scheduleBackgroundUpdate() {
+        mHandler.removeCallbacks(mBackgroundUpdate);
+        long next = mBackgroundPolicy.getNextUpdateNanos();
+        if (next >= 0) {
+            long delayMs = Math.max(0, next - System.nanoTime()) / 1000000 + 1;
+            mHandler.postDelayed(mBackgroundUpdate, delayMs);
+        }
     }
 
+    private final Runnable mBackgroundUpdate = new Runnable() {
+        @Override
+        public void run() {
+            mBackgroundPolicy.update(System.nanoTime());
+            scheduleBackgroundUpdate();
+        }
+    };
+
+    private final BackgroundPolicy.Listener mBackgroundListener = new BackgroundPolicy.Listener() {
+        @Override
+        public void onBackgroundModeChanged(int mode) {
+            Log.d(TAG, "Background mode changed to " + mode);
+            CubeRenderer renderer = mCubeRenderer;
+            if (renderer != null) {
+                renderer.setBackgroundMode(mode);
+            }
+        }
+    };
+
+    private final QualityGovernor.Listener mQualityListener = new QualityGovernor.Listener() {
+        @Override
+        public void onQualityTierChanged(final QualityTier tier, int index) {
+            // This thread holds the governor's lock, so reading its averages can't block
+            Telemetry.get().markQualityTier(index, mQualityGovernor.getAverageFrameNanos(),
+                    mQualityGovernor.getAverageWorkNanos());
+            // Called on the GL or main thread; the surface is changed on the main thread
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Log.d(TAG, "Quality tier changed to " + tier);
+                    if (mPresentation instanceof FirstScreenPresentation) {
+                        ((FirstScreenPresentation) mPresentation).applyQualityTier(tier);
+                    }
+                }
+            });
+        }
+    };
+
     @Override
     public void onCreatePresentation(Display display) {
+        StartupTrace.get().mark(StartupTrace.EVENT_CREATE_PRESENTATION);
         createPresentation(display);
     }
 
@@ -65,31 +263,234 @@ public class PresentationService extends CastRemoteDisplayLocalService {
     }
 
     private void dismissPresentation() {
+        if (mPresentation != null || mFanOutRenderer != null) {
+            Telemetry.get().markSession(Telemetry.SESSION_PRESENTATION_DISMISSED, 0);
+        }
         if (mPresentation != null) {
+            mThermalMonitor.stop();
             mMediaPlayer.stop();
             mPresentation.dismiss();
             mPresentation = null;
         }
+        if (mCubeRenderer instanceof CubeFieldRenderer) {
+            ((CubeFieldRenderer) mCubeRenderer).release();
+        }
+        if (mFanOutRenderer != null) {
+            mDisplayManager.unregisterDisplayListener(mDisplayListener);
+            for (int i = 0; i < mMirrorPresentations.size(); i++) {
+                mMirrorPresentations.valueAt(i).dismiss();
+            }
+            mMirrorPresentations.clear();
+            mFanOutRenderer.stop();
+            mFanOutRenderer = null;
+        }
+        if (mCubeRenderer != null) {
+            // The GL threads have stopped and the renderer's context is gone with them
+            mCubeRenderer.onContextLost();
+        }
+        if (mPostProcessRenderer != null) {
+            mPostProcessRenderer.onContextLost();
+            mPostProcessRenderer = null;
+        }
+        if (mMemoryMark != null) {
+            MemoryGovernor memoryGovernor = MemoryGovernor.get();
+            String leaks = memoryGovernor.findLeaks(mMemoryMark);
+            if (leaks != null) {
+                Log.w(TAG, leaks);
+            }
+            Log.d(TAG, "Memory after teardown: " + memoryGovernor.format());
+            mMemoryMark = null;
+        }
     }
 
     private void createPresentation(Display display) {
         dismissPresentation();
+        // The geometry outlives the presentation, so it is taken, and allocated if the warm start
+        // couldn't, before the leak check's mark
+        if (mGeometry == null) {
+            mGeometry = WarmStart.start(this).takeGeometry();
+        }
+        mMemoryMark = MemoryGovernor.get().mark();
+        Telemetry.get().markSession(Telemetry.SESSION_PRESENTATION_CREATED,
+                display.getDisplayId());
+        if (RENDER_FAN_OUT) {
+            createFanOutPresentations(display);
+            return;
+        }
         mPresentation = new FirstScreenPresentation(this, display);
 
         try {
             mPresentation.show();
             mMediaPlayer.start();
+            mThermalMonitor.start();
         } catch (WindowManager.InvalidDisplayException ex) {
             Log.e(TAG, "Unable to show presentation, display was removed.", ex);
+            Telemetry.get().markError(Telemetry.ERROR_DISPLAY_REMOVED, 0);
             dismissPresentation();
         }
     }
 
+    private void createFanOutPresentations(Display castDisplay) {
+        // One renderer shared by all displays; the quality governor only manages the
+        // single display mode
+        mCubeRenderer = new CubeRenderer(getAssets(), mGeometry);
+        mCubeRenderer.setBackgroundMode(mBackgroundPolicy.getMode());
+        mCubeRenderer.setTextureManager(mTextureManager);
+        configureShaders(mCubeRenderer);
+        applySceneState(mCubeRenderer);
+        mFanOutRenderer = new FanOutRenderer(mCubeRenderer);
+        mFanOutRenderer.start();
+        mPresentation = new FanOutCastPresentation(this, castDisplay);
+
+        try {
+            mPresentation.show();
+            mMediaPlayer.start();
+        } catch (WindowManager.InvalidDisplayException ex) {
+            Log.e(TAG, "Unable to show presentation, display was removed.", ex);
+            Telemetry.get().markError(Telemetry.ERROR_DISPLAY_REMOVED, 0);
+            dismissPresentation();
+            return;
+        }
+
+        mDisplayManager = (DisplayManager) getSystemService(Context.DISPLAY_SERVICE);
+        mDisplayManager.registerDisplayListener(mDisplayListener, mHandler);
+        for (Display display : mDisplayManager.getDisplays(
+                DisplayManager.DISPLAY_CATEGORY_PRESENTATION)) {
+            addMirrorPresentation(display);
+        }
+    }
+
+    private void addMirrorPresentation(Display display) {
+        if (mPresentation == null
+                || display.getDisplayId() == mPresentation.getDisplay().getDisplayId()
+                || mMirrorPresentations.get(display.getDisplayId()) != null
+                || (display.getFlags() & Display.FLAG_PRESENTATION) == 0) {
+            return;
+        }
+        Presentation presentation = new FanOutMirrorPresentation(this, display);
+        try {
+            presentation.show();
+            mMirrorPresentations.put(display.getDisplayId(), presentation);
+        } catch (WindowManager.InvalidDisplayException ex) {
+            Log.w(TAG, "Unable to show mirror presentation, display was removed.", ex);
+        }
+    }
+
+    private void removeMirrorPresentation(int displayId) {
+        Presentation presentation = mMirrorPresentations.get(displayId);
+        if (presentation != null) {
+            mMirrorPresentations.remove(displayId);
+            presentation.dismiss();
+        }
+    }
+
+    private final DisplayManager.DisplayListener mDisplayListener =
+            new DisplayManager.DisplayListener() {
+                @Override
+                public void onDisplayAdded(int displayId) {
+                    Display display = mDisplayManager.getDisplay(displayId);
+                    if (display != null) {
+                        addMirrorPresentation(display);
+                    }
+                }
+
+                @Override
+                public void onDisplayRemoved(int displayId) {
+                    removeMirrorPresentation(displayId);
+                }
+
+                @Override
+                public void onDisplayChanged(int displayId) {
+                }
+            };
+
     /**
-     * Utility method to allow the user to change the cube color.
+     * Receives {@link SceneProtocol} messages from controllers in this process.
      */
-    public void changeColor() {
-        mCubeRenderer.changeColor();
+    public SceneReceiver getSceneReceiver() {
+        return mSceneReceiver;
+    }
+
+    /**
+     * Copies the scene state received so far into {@code out}, for a new controller to start
+     * from.
+     */
+    public void getSceneState(SceneDelta out) {
+        synchronized (mSceneState) {
+            out.clear();
+            out.mergeFrom(mSceneState);
+        }
+    }
+
+    private final SceneReceiver.Target mSceneTarget = new SceneReceiver.Target() {
+        @Override
+        public void onSceneChanged(SceneDelta delta) {
+            // Called on the controller's thread; the renderer's setters are thread safe
+            boolean colorChanged;
+            synchronized (mSceneState) {
+                colorChanged = delta.has(SceneProtocol.FIELD_COLOR_CHANGED)
+                        && delta.getBoolean(SceneProtocol.FIELD_COLOR_CHANGED)
+                        != (mSceneState.has(SceneProtocol.FIELD_COLOR_CHANGED)
+                        && mSceneState.getBoolean(SceneProtocol.FIELD_COLOR_CHANGED));
+                mSceneState.mergeFrom(delta);
+            }
+            CubeRenderer renderer = mCubeRenderer;
+            applySceneState(renderer);
+            if (ENABLE_PARTICLES && colorChanged && renderer != null) {
+                // In fan-out mode the renderer is shared, so the burst shows on every display
+                renderer.burstParticles();
+            }
+        }
+    };
+
+    private final ShaderReloadServer.Target mShaderReloadTarget =
+            new ShaderReloadServer.Target() {
+                @Override
+                public void onShaderSource(String name, String source) {
+                    Log.i(TAG, "Reloading shader " + name);
+                    synchronized (mReloadedShaders) {
+                        mReloadedShaders.put(name, source);
+                    }
+                    CubeRenderer renderer = mCubeRenderer;
+                    if (renderer != null) {
+                        renderer.getShaderLibrary().reload(name, source);
+                    }
+                }
+            };
+
+    /**
+     * Gives a new renderer the shader sources pushed since the service started.
+     */
+    private void configureShaders(CubeRenderer renderer) {
+        ShaderLibrary shaders = renderer.getShaderLibrary();
+        synchronized (mReloadedShaders) {
+            for (Map.Entry<String, String> entry : mReloadedShaders.entrySet()) {
+                shaders.reload(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void applySceneState(CubeRenderer renderer) {
+        if (renderer == null) {
+            return;
+        }
+        synchronized (mSceneState) {
+            if (mSceneState.has(SceneProtocol.FIELD_COLOR_CHANGED)) {
+                renderer.setColorChanged(
+                        mSceneState.getBoolean(SceneProtocol.FIELD_COLOR_CHANGED));
+            }
+            if (mSceneState.has(SceneProtocol.FIELD_ROTATION_SPEED)) {
+                renderer.setRotationSpeed(
+                        mSceneState.getFloat(SceneProtocol.FIELD_ROTATION_SPEED));
+            }
+            if (mSceneState.has(SceneProtocol.FIELD_DEBUG_HUD)) {
+                renderer.setDebugHudEnabled(mSceneState.getBoolean(SceneProtocol.FIELD_DEBUG_HUD));
+            }
+            if (mSceneState.has(SceneProtocol.FIELD_PASS_TIMING)) {
+                renderer.setPassTimingEnabled(
+                        mSceneState.getBoolean(SceneProtocol.FIELD_PASS_TIMING));
+            }
+        }
     }
 
     /**
@@ -104,6 +505,11 @@ public class PresentationService extends CastRemoteDisplayLocalService {
 
         private final String TAG = "FirstScreenPresentation";
 
+        private GLSurfaceView mSurfaceView;
+        // Highest sample count the device supports, and the one currently in use
+        private int mMaxSamples;
+        private int mSamples;
+
         public FirstScreenPresentation(Context context, Display display) {
             super(context, display);
         }
@@ -114,97 +520,196 @@ public class PresentationService extends CastRemoteDisplayLocalService {
 
             setContentView(R.layout.first_screen_layout);
 
+            // Display independent resources are prepared while the session starts
+            WarmStart warmStart = WarmStart.start(getContext());
+
             TextView titleTextView = (TextView) findViewById(R.id.title);
             // Use TrueType font to get best looking text on remote display
-            Typeface typeface = Typeface.createFromAsset(getAssets(), "fonts/Roboto-Light.ttf");
-            titleTextView.setTypeface(typeface);
+            titleTextView.setTypeface(warmStart.getTypeface());
+
+            if (RENDER_CUBE_FIELD) {
+                if (mJobSystem == null) {
+                    mJobSystem = new JobSystem();
+                }
+                LodMesh lod = CUBE_FIELD_LOD ? LodMesh.build(Mesh.createRoundedCube(16, 0.5f),
+                        5, 0.25f, 12) : null;
+                ShaderLibrary.SourceLoader shaders = new ShaderLibrary.AssetSourceLoader(
+                        getAssets(), ShaderLibrary.ASSET_DIRECTORY);
+                mCubeRenderer = new CubeFieldRenderer(AndroidGlApi.INSTANCE,
+                        mGeometry, shaders, mJobSystem, CUBE_FIELD_SIZE, lod);
+            } else {
+                mCubeRenderer = new com.example.castremotedisplay.CubeRenderer(getAssets(),
+                        mGeometry);
+            }
+            mCubeRenderer.setQualityGovernor(mQualityGovernor);
+            mCubeRenderer.setBackgroundMode(mBackgroundPolicy.getMode());
+            mCubeRenderer.setTextureManager(mTextureManager);
+            configureShaders(mCubeRenderer);
+            applySceneState(mCubeRenderer);
+            mPostProcessRenderer = createPostProcessRenderer(mCubeRenderer);
+
+            // Enable anti-aliasing, with the sample count found by the warm start's EGL probe,
+            // unless the quality governor has already turned it down
+            QualityTier tier = mQualityGovernor.getTier();
+            mMaxSamples = warmStart.getConfigChooser().getSamples();
+            mSamples = Math.min(mMaxSamples, tier.getSamples());
+            mSurfaceView = (GLSurfaceView) findViewById(R.id.surface_view);
+            setupSurfaceView(mSurfaceView, mSamples);
+            setResolutionScale(tier.getResolutionScale());
+            warmStart.logTimings();
+        }
+
+        private PostProcessRenderer createPostProcessRenderer(CubeRenderer scene) {
+            if (!ENABLE_BLOOM && !ENABLE_OUTPUT_CONDITIONING) {
+                return null;
+            }
+            PostProcessRenderer renderer = new PostProcessRenderer(scene, ENABLE_BLOOM,
+                    ENABLE_OUTPUT_CONDITIONING);
+            if (ENABLE_OUTPUT_CONDITIONING) {
+                renderer.setMotionBudget(new MotionBudget());
+            }
+            if (CAPTURE_FRAME_COUNT > 0) {
+                File directory = getContext().getExternalFilesDir(null);
+                if (directory == null) {
+                    directory = getContext().getFilesDir();
+                }
+                renderer.captureFrames(new File(directory, "frames"), CAPTURE_FRAME_COUNT);
+            }
+            return renderer;
+        }
 
-            GLSurfaceView firstScreenSurfaceView = (GLSurfaceView) findViewById(R.id.surface_view);
+        private void setupSurfaceView(GLSurfaceView surfaceView, int samples) {
             // Create an OpenGL ES 2.0 context.
-            firstScreenSurfaceView.setEGLContextClientVersion(2);
+            surfaceView.setEGLContextClientVersion(2);
             // Allow UI elements above this surface; used for text overlay
-            firstScreenSurfaceView.setZOrderMediaOverlay(true);
-            // Enable anti-aliasing
-            firstScreenSurfaceView.setEGLConfigChooser(new CustomConfigChooser());
-            mCubeRenderer = new com.example.castremotedisplay.CubeRenderer();
-            firstScreenSurfaceView.setRenderer(mCubeRenderer);
+            surfaceView.setZOrderMediaOverlay(true);
+            surfaceView.setEGLConfigChooser(new CustomConfigChooser(samples));
+            if (mPostProcessRenderer != null) {
+                surfaceView.setRenderer(mPostProcessRenderer);
+            } else {
+                surfaceView.setRenderer(mCubeRenderer);
+            }
         }
 
         /**
-         * OpenGL config to enable custom anti-aliasing
+         * Applies the surface related parts of a quality tier. Frame rate and scene detail are
+         * handled by the renderer itself.
          */
-        private final class CustomConfigChooser implements GLSurfaceView.EGLConfigChooser {
-
-            private int[] mValue = new int[1];
-            protected int mRedSize = 8;
-            protected int mGreenSize = 8;
-            protected int mBlueSize = 8;
-            protected int mAlphaSize = 8;
-            protected int mDepthSize = 16;
-            protected int mStencilSize = 0;
-
-            @Override
-            public EGLConfig chooseConfig(EGL10 egl, EGLDisplay display) {
-                int[] configSpec = {
-                        EGL10.EGL_RED_SIZE, mRedSize,
-                        EGL10.EGL_GREEN_SIZE, mGreenSize,
-                        EGL10.EGL_BLUE_SIZE, mBlueSize,
-                        EGL10.EGL_ALPHA_SIZE, mAlphaSize,
-                        EGL10.EGL_DEPTH_SIZE, mDepthSize,
-                        EGL10.EGL_STENCIL_SIZE, mStencilSize,
-                        EGL10.EGL_RENDERABLE_TYPE, 4,
-                        EGL10.EGL_SAMPLE_BUFFERS, 1,
-                        EGL10.EGL_SAMPLES, 4,
-                        EGL10.EGL_NONE
-                };
-                int[] num_config = new int[1];
-                if (!egl.eglChooseConfig(display, configSpec, null, 0, num_config)) {
-                    return null;
-                }
+        void applyQualityTier(QualityTier tier) {
+            int samples = Math.min(mMaxSamples, tier.getSamples());
+            if (samples != mSamples) {
+                // The EGL config can't be changed on a live surface, so swap in a new view
+                mSamples = samples;
+                ViewGroup parent = (ViewGroup) mSurfaceView.getParent();
+                int index = parent.indexOfChild(mSurfaceView);
+                ViewGroup.LayoutParams layoutParams = mSurfaceView.getLayoutParams();
+                parent.removeView(mSurfaceView);
+                mSurfaceView = new GLSurfaceView(getContext());
+                mSurfaceView.setId(R.id.surface_view);
+                setupSurfaceView(mSurfaceView, samples);
+                parent.addView(mSurfaceView, index, layoutParams);
+            }
+            setResolutionScale(tier.getResolutionScale());
+        }
 
-                int numConfigs = num_config[0];
+        /**
+         * Renders into a smaller buffer that the compositor scales up to the display.
+         */
+        private void setResolutionScale(float scale) {
+            if (scale >= 1.0f) {
+                mSurfaceView.getHolder().setSizeFromLayout();
+                return;
+            }
+            Point size = new Point();
+            getDisplay().getRealSize(size);
+            mSurfaceView.getHolder().setFixedSize(Math.round(size.x * scale),
+                    Math.round(size.y * scale));
+        }
+    }
 
-                if (numConfigs <= 0) {
-                    return null;
-                }
+    /**
+     * Sets up fan-out content on a presentation: the display's surface becomes an output of the
+     * shared {@link FanOutRenderer} for as long as it exists.
+     */
+    private void setupFanOutContent(Dialog dialog, Display display) {
+        dialog.setContentView(R.layout.fan_out_screen_layout);
 
-                EGLConfig[] configs = new EGLConfig[numConfigs];
-                if (!egl.eglChooseConfig(display, configSpec, configs, numConfigs, num_config)) {
-                    return null;
-                }
-                EGLConfig config = findConfig(egl, display, configs);
-                if (config == null) {
-                    return null;
-                }
-                return config;
-            }
-
-            private EGLConfig findConfig(EGL10 egl, EGLDisplay display, EGLConfig[] configs) {
-                for (EGLConfig config : configs) {
-                    int d = findConfigAttrib(egl, display, config, EGL10.EGL_DEPTH_SIZE, 0);
-                    int s = findConfigAttrib(egl, display, config, EGL10.EGL_STENCIL_SIZE, 0);
-                    if ((d >= mDepthSize) && (s >= mStencilSize)) {
-                        int r = findConfigAttrib(egl, display, config, EGL10.EGL_RED_SIZE, 0);
-                        int g = findConfigAttrib(egl, display, config, EGL10.EGL_GREEN_SIZE, 0);
-                        int b = findConfigAttrib(egl, display, config, EGL10.EGL_BLUE_SIZE, 0);
-                        int a = findConfigAttrib(egl, display, config, EGL10.EGL_ALPHA_SIZE, 0);
-                        if ((r == mRedSize) && (g == mGreenSize) && (b == mBlueSize) && (a
-                                == mAlphaSize)) {
-                            return config;
-                        }
-                    }
-                }
-                return null;
+        TextView titleTextView = (TextView) dialog.findViewById(R.id.title);
+        titleTextView.setTypeface(WarmStart.start(this).getTypeface());
+
+        int maxFps = Math.min(MAX_FAN_OUT_FPS, Math.round(display.getRefreshRate()));
+        SurfaceView surfaceView = (SurfaceView) dialog.findViewById(R.id.surface_view);
+        surfaceView.setZOrderMediaOverlay(true);
+        surfaceView.getHolder().addCallback(new FanOutSurfaceCallback(Math.max(1, maxFps)));
+    }
+
+    /**
+     * Adds a surface to the shared renderer while it exists.
+     */
+    private class FanOutSurfaceCallback implements SurfaceHolder.Callback {
+
+        private final int mMaxFps;
+        private FanOutScheduler.Output mOutput;
+
+        FanOutSurfaceCallback(int maxFps) {
+            mMaxFps = maxFps;
+        }
+
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            if (mFanOutRenderer == null) {
+                return;
+            }
+            if (mOutput == null) {
+                mOutput = mFanOutRenderer.addOutput(holder.getSurface(), width, height, mMaxFps);
+            } else {
+                mFanOutRenderer.resizeOutput(mOutput, width, height);
             }
+        }
 
-            private int findConfigAttrib(EGL10 egl, EGLDisplay display, EGLConfig config,
-                    int attribute,
-                    int defaultValue) {
-                if (egl.eglGetConfigAttrib(display, config, attribute, mValue)) {
-                    return mValue[0];
-                }
-                return defaultValue;
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            if (mOutput != null && mFanOutRenderer != null) {
+                // Blocks until the render thread has let go of the surface
+                mFanOutRenderer.removeOutput(mOutput);
             }
+            mOutput = null;
+        }
+    }
+
+    /**
+     * The Cast display in fan-out mode.
+     */
+    private class FanOutCastPresentation extends CastPresentation {
+
+        public FanOutCastPresentation(Context context, Display display) {
+            super(context, display);
+        }
+
+        @Override
+        protected void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            setupFanOutContent(this, getDisplay());
+        }
+    }
+
+    /**
+     * Any other presentation display in fan-out mode.
+     */
+    private class FanOutMirrorPresentation extends Presentation {
+
+        public FanOutMirrorPresentation(Context context, Display display) {
+            super(context, display);
+        }
+
+        @Override
+        protected void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            setupFanOutContent(this, getDisplay());
         }
     }
 
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * Chooses a {@link QualityTier} from frame times, battery temperature and thermal status.
+ * <p>
+ * The governor is pure Java and never reads a clock: every input carries its own timestamp, so
+ * a recorded trace of frames and temperatures can be replayed to check its decisions.
+ * </p>
+ * <p>
+ * Hysteresis keeps it from oscillating. Stepping down requires pressure to last for
+ * {@link #DOWNGRADE_DELAY_NS} (or {@link #CRITICAL_DOWNGRADE_DELAY_NS} when the device is
+ * critically hot), stepping up requires everything to be comfortably within limits for the much
+ * longer {@link #UPGRADE_DELAY_NS}, and after any change the tier is held for at least
+ * {@link #MIN_DWELL_NS}. An upgrade that has to be undone shortly after doubles the upgrade
+ * delay, up to {@link #MAX_UPGRADE_DELAY_NS}. The temperature thresholds for recovering are also
+ * lower than the ones for degrading.
+ * </p>
+ * <p>
+ * Methods are synchronized, so inputs may come from different threads. The listener is called
+ * on the thread that delivered the input causing the change.
+ * </p>
+ */
+public class QualityGovernor {
+
+    // Mirrors android.os.PowerManager.THERMAL_STATUS_* (API 29)
+    public static final int THERMAL_STATUS_NONE = 0;
+    public static final int THERMAL_STATUS_LIGHT = 1;
+    public static final int THERMAL_STATUS_MODERATE = 2;
+    public static final int THERMAL_STATUS_SEVERE = 3;
+
+    public static final long DOWNGRADE_DELAY_NS = 2000000000L;
+    public static final long CRITICAL_DOWNGRADE_DELAY_NS = 500000000L;
+    public static final long UPGRADE_DELAY_NS = 15000000000L;
+    public static final long MIN_DWELL_NS = 3000000000L;
+    public static final long MAX_UPGRADE_DELAY_NS = 8 * UPGRADE_DELAY_NS;
+
+    static final float HOT_TEMPERATURE_C = 42.0f;
+    static final float CRITICAL_TEMPERATURE_C = 45.0f;
+    static final float COOL_TEMPERATURE_C = 39.0f;
+
+    // A frame interval more than this over budget counts as a missed frame
+    private static final float OVER_BUDGET_FACTOR = 1.2f;
+    // Frame work must be under this fraction of the better tier's budget to step up
+    private static final float HEADROOM_FACTOR = 0.8f;
+    // Weight of the newest sample in the frame interval moving average
+    private static final float FRAME_SMOOTHING = 0.1f;
+    // Intervals longer than this are pauses (e.g. surface recreation), not slow frames
+    private static final long MAX_FRAME_INTERVAL_NS = 500000000L;
+
+    private static final int PRESSURE_NONE = 0;
+    private static final int PRESSURE_HIGH = 1;
+    private static final int PRESSURE_CRITICAL = 2;
+
+    /**
+     * Notified when the governor picks a different tier.
+     */
+    public interface Listener {
+        void onQualityTierChanged(QualityTier tier, int index);
+    }
+
+    private final QualityTier[] mTiers;
+    private Listener mListener;
+
+    private int mTierIndex;
+    private long mLastChangeNanos = Long.MIN_VALUE;
+    private long mPressureSinceNanos = -1;
+    private long mHeadroomSinceNanos = -1;
+    private long mUpgradeDelayNanos = UPGRADE_DELAY_NS;
+    private boolean mLastChangeWasUpgrade;
+
+    private long mLastFrameNanos = -1;
+    private float mAverageFrameNanos;
+    private float mAverageWorkNanos;
+
+    private float mTemperatureC = Float.NaN;
+    private int mThermalStatus = THERMAL_STATUS_NONE;
+
+    public QualityGovernor() {
+        this(QualityTier.DEFAULT_TIERS);
+    }
+
+    public QualityGovernor(QualityTier[] tiers) {
+        if (tiers.length == 0) {
+            throw new IllegalArgumentException("No quality tiers");
+        }
+        mTiers = tiers.clone();
+    }
+
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public synchronized QualityTier getTier() {
+        return mTiers[mTierIndex];
+    }
+
+    public synchronized int getTierIndex() {
+        return mTierIndex;
+    }
+
+    /**
+     * Smoothed interval between frames, in nanoseconds, or 0 before the second frame.
+     */
+    public synchronized float getAverageFrameNanos() {
+        return mAverageFrameNanos;
+    }
+
+    /**
+     * Smoothed time spent rendering each frame, in nanoseconds, or 0 before the first frame.
+     */
+    public synchronized float getAverageWorkNanos() {
+        return mAverageWorkNanos;
+    }
+
+    /**
+     * Reports a rendered frame.
+     *
+     * @param nowNanos  When the frame started.
+     * @param workNanos How long rendering it took, excluding any frame rate pacing. Missed
+     *                  frames are detected from the interval between frames, but only the work
+     *                  time says whether a higher frame rate tier would fit.
+     */
+    public synchronized void onFrame(long nowNanos, long workNanos) {
+        if (mLastFrameNanos >= 0) {
+            long interval = nowNanos - mLastFrameNanos;
+            if (interval > 0 && interval < MAX_FRAME_INTERVAL_NS) {
+                mAverageFrameNanos = smooth(mAverageFrameNanos, interval);
+            }
+        }
+        mAverageWorkNanos = smooth(mAverageWorkNanos, workNanos);
+        mLastFrameNanos = nowNanos;
+        evaluate(nowNanos);
+    }
+
+    private static float smooth(float average, long sample) {
+        return average == 0 ? sample : average + FRAME_SMOOTHING * (sample - average);
+    }
+
+    public synchronized void onBatteryTemperature(long nowNanos, float temperatureC) {
+        mTemperatureC = temperatureC;
+        evaluate(nowNanos);
+    }
+
+    public synchronized void onThermalStatus(long nowNanos, int status) {
+        mThermalStatus = status;
+        evaluate(nowNanos);
+    }
+
+    /**
+     * Forgets frame history, e.g. after rendering was paused, so the gap isn't counted.
+     */
+    public synchronized void resetFrameHistory() {
+        mLastFrameNanos = -1;
+        mAverageFrameNanos = 0;
+        mAverageWorkNanos = 0;
+        mPressureSinceNanos = -1;
+        mHeadroomSinceNanos = -1;
+    }
+
+    private void evaluate(long nowNanos) {
+        int pressure = getPressure();
+        if (pressure != PRESSURE_NONE) {
+            mHeadroomSinceNanos = -1;
+            if (mPressureSinceNanos < 0) {
+                mPressureSinceNanos = nowNanos;
+            }
+            long delay = pressure == PRESSURE_CRITICAL ? CRITICAL_DOWNGRADE_DELAY_NS
+                    : DOWNGRADE_DELAY_NS;
+            if (mTierIndex < mTiers.length - 1 && nowNanos - mPressureSinceNanos >= delay
+                    && canChange(nowNanos, pressure == PRESSURE_CRITICAL)) {
+                setTier(mTierIndex + 1, nowNanos);
+            }
+            return;
+        }
+
+        mPressureSinceNanos = -1;
+        if (mLastChangeWasUpgrade && nowNanos - mLastChangeNanos >= UPGRADE_DELAY_NS) {
+            // The last upgrade held up, so stop backing off
+            mUpgradeDelayNanos = UPGRADE_DELAY_NS;
+            mLastChangeWasUpgrade = false;
+        }
+        if (!hasHeadroom()) {
+            mHeadroomSinceNanos = -1;
+            return;
+        }
+        if (mHeadroomSinceNanos < 0) {
+            mHeadroomSinceNanos = nowNanos;
+        }
+        if (mTierIndex > 0 && nowNanos - mHeadroomSinceNanos >= mUpgradeDelayNanos
+                && canChange(nowNanos, false)) {
+            setTier(mTierIndex - 1, nowNanos);
+        }
+    }
+
+    private int getPressure() {
+        if (mThermalStatus >= THERMAL_STATUS_SEVERE || mTemperatureC >= CRITICAL_TEMPERATURE_C) {
+            return PRESSURE_CRITICAL;
+        }
+        if (mThermalStatus >= THERMAL_STATUS_MODERATE || mTemperatureC >= HOT_TEMPERATURE_C) {
+            return PRESSURE_HIGH;
+        }
+        if (mAverageFrameNanos > mTiers[mTierIndex].getFrameBudgetNanos() * OVER_BUDGET_FACTOR) {
+            return PRESSURE_HIGH;
+        }
+        return PRESSURE_NONE;
+    }
+
+    /**
+     * Whether the better tier would also be comfortable: cool device and frames well within
+     * the better tier's budget.
+     */
+    private boolean hasHeadroom() {
+        if (mTierIndex == 0 || mThermalStatus > THERMAL_STATUS_LIGHT) {
+            return false;
+        }
+        // An unknown temperature doesn't block recovery
+        if (mTemperatureC >= COOL_TEMPERATURE_C) {
+            return false;
+        }
+        long betterBudget = mTiers[mTierIndex - 1].getFrameBudgetNanos();
+        return mAverageWorkNanos > 0 && mAverageWorkNanos < betterBudget * HEADROOM_FACTOR;
+    }
+
+    private boolean canChange(long nowNanos, boolean critical) {
+        long dwell = critical ? CRITICAL_DOWNGRADE_DELAY_NS : MIN_DWELL_NS;
+        return mLastChangeNanos == Long.MIN_VALUE || nowNanos - mLastChangeNanos >= dwell;
+    }
+
+    private void setTier(int index, long nowNanos) {
+        boolean upgrade = index < mTierIndex;
+        if (!upgrade && mLastChangeWasUpgrade
+                && nowNanos - mLastChangeNanos < UPGRADE_DELAY_NS) {
+            // The better tier didn't hold; wait longer before trying it again
+            mUpgradeDelayNanos = Math.min(mUpgradeDelayNanos * 2, MAX_UPGRADE_DELAY_NS);
+        }
+        mLastChangeWasUpgrade = upgrade;
+        mTierIndex = index;
+        mLastChangeNanos = nowNanos;
+        mPressureSinceNanos = -1;
+        mHeadroomSinceNanos = -1;
+        // Frame times measured at the old tier don't describe the new one
+        mAverageFrameNanos = 0;
+        mAverageWorkNanos = 0;
+        mLastFrameNanos = -1;
+        if (mListener != null) {
+            mListener.onQualityTierChanged(mTiers[index], index);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * One rendering quality level chosen by the {@link QualityGovernor}.
+ */
+public final class QualityTier {
+
+    /**
+     * Only the first cube is drawn, without blending.
+     */
+    public static final int DETAIL_LOW = 0;
+
+    /**
+     * The full scene.
+     */
+    public static final int DETAIL_FULL = 1;
+
+    /**
+     * The tiers the governor steps through, from best to cheapest. Each step gives up one
+     * thing, starting with the ones that are least visible on a TV: MSAA, then resolution, then
+     * frame rate and finally scene detail.
+     */
+    public static final QualityTier[] DEFAULT_TIERS = {
+            new QualityTier(4, 1.0f, 60, DETAIL_FULL),
+            new QualityTier(0, 1.0f, 60, DETAIL_FULL),
+            new QualityTier(0, 0.75f, 60, DETAIL_FULL),
+            new QualityTier(0, 0.75f, 30, DETAIL_FULL),
+            new QualityTier(0, 0.5f, 30, DETAIL_LOW),
+    };
+
+    private final int mSamples;
+    private final float mResolutionScale;
+    private final int mMaxFps;
+    private final int mDetail;
+
+    /**
+     * @param samples         MSAA samples, 0 for none.
+     * @param resolutionScale Surface size relative to the display, in (0, 1].
+     * @param maxFps          Frame rate cap.
+     * @param detail          {@link #DETAIL_LOW} or {@link #DETAIL_FULL}.
+     */
+    public QualityTier(int samples, float resolutionScale, int maxFps, int detail) {
+        if (resolutionScale <= 0 || resolutionScale > 1 || maxFps <= 0) {
+            throw new IllegalArgumentException("Invalid quality tier");
+        }
+        mSamples = samples;
+        mResolutionScale = resolutionScale;
+        mMaxFps = maxFps;
+        mDetail = detail;
+    }
+
+    public int getSamples() {
+        return mSamples;
+    }
+
+    public float getResolutionScale() {
+        return mResolutionScale;
+    }
+
+    public int getMaxFps() {
+        return mMaxFps;
+    }
+
+    public int getDetail() {
+        return mDetail;
+    }
+
+    /**
+     * The frame interval the tier is budgeted for, in nanoseconds.
+     */
+    public long getFrameBudgetNanos() {
+        return 1000000000L / mMaxFps;
+    }
+
+    @Override
+    public String toString() {
+        return "QualityTier{samples=" + mSamples + ", scale=" + mResolutionScale + ", fps="
+                + mMaxFps + ", detail=" + mDetail + "}";
+    }
+}
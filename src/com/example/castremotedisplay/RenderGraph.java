@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Post-processing, and anything else rendering into offscreen targets, described as passes that
+ * declare which targets they read and write, for {@link #compile()} to work out the rest.
+ * <p>
+ * Targets are either transient, created by the graph and only valid during the frame, or
+ * imported, like the display's framebuffer, which outlive it. Compiling:
+ * </p>
+ * <ul>
+ * <li>culls passes that contribute nothing to an imported target,</li>
+ * <li>orders the rest, which with declaration order defining what each read sees is the
+ * declaration order, and rejects reads of transient targets nothing wrote,</li>
+ * <li>aliases transient targets whose lifetimes don't overlap onto one allocation of the same
+ * size and format, so a chain of half resolution blurs needs two buffers rather than one per
+ * step,</li>
+ * <li>and flags where contents don't have to be loaded into or stored from tile memory: a
+ * target overwritten by a pass is {@link #FLAG_CLEAR}ed rather than loaded, and its depth is
+ * {@link #FLAG_DISCARD_DEPTH}ed once the last pass drawing into it is done, since no pass can
+ * sample depth.</li>
+ * </ul>
+ * <p>
+ * Colors are always stored: a pass whose color nothing reads later is culled, unless it draws
+ * into an imported target, which has to keep it.
+ * </p>
+ * <p>
+ * Plain Java: the passes run, and the allocations become framebuffers, in a
+ * {@link RenderGraphExecutor}. Compile when passes or target sizes change, not every frame.
+ * </p>
+ */
+public class RenderGraph {
+
+    public static final int FORMAT_RGBA8888 = 0;
+    public static final int FORMAT_RGB565 = 1;
+    private static final int[] FORMAT_BYTES = {4, 2};
+    // Depth attachments are 16 bit renderbuffers
+    private static final int DEPTH_BYTES = 2;
+
+    /**
+     * The pass overwrites its target, so the previous contents aren't loaded: it starts
+     * cleared, and invalidated where supported.
+     */
+    public static final int FLAG_CLEAR = 1;
+
+    /**
+     * No later pass draws into the target, so its depth needn't be stored after the pass.
+     */
+    public static final int FLAG_DISCARD_DEPTH = 1 << 1;
+
+    /**
+     * The work of a pass, issued by the executor with the pass's target bound.
+     */
+    public interface Pass {
+        void execute(Resources resources);
+    }
+
+    /**
+     * What a running pass can look up.
+     */
+    public interface Resources {
+        /**
+         * The GL texture holding a target, for a pass reading it. Imported targets only have
+         * one if their owner gave it to the executor.
+         */
+        int getTexture(int target);
+
+        int getWidth(int target);
+
+        int getHeight(int target);
+    }
+
+    private static final class Target {
+        final String mName;
+        final int mWidth;
+        final int mHeight;
+        final int mFormat;
+        final boolean mDepth;
+        final boolean mImported;
+        int mFirstStep;
+        int mLastStep;
+        int mAllocation;
+
+        Target(String name, int width, int height, int format, boolean depth,
+                boolean imported) {
+            mName = name;
+            mWidth = width;
+            mHeight = height;
+            mFormat = format;
+            mDepth = depth;
+            mImported = imported;
+        }
+
+        boolean isCompatible(Target other) {
+            return mWidth == other.mWidth && mHeight == other.mHeight
+                    && mFormat == other.mFormat && mDepth == other.mDepth;
+        }
+
+        long getBytes() {
+            return (long) mWidth * mHeight * (FORMAT_BYTES[mFormat] + (mDepth ? DEPTH_BYTES : 0));
+        }
+    }
+
+    private static final class PassNode {
+        final String mName;
+        final Pass mPass;
+        int mWrite = -1;
+        boolean mLoads;
+        final ArrayList<Integer> mReads = new ArrayList<Integer>();
+
+        PassNode(String name, Pass pass) {
+            mName = name;
+            mPass = pass;
+        }
+    }
+
+    private final ArrayList<Target> mTargets = new ArrayList<Target>();
+    private final ArrayList<PassNode> mPasses = new ArrayList<PassNode>();
+
+    // Compiled
+    private boolean mCompiled;
+    private int[] mStepPasses;
+    private int[] mStepFlags;
+    // The first transient target of each allocation, describing its size and format
+    private final ArrayList<Target> mAllocations = new ArrayList<Target>();
+
+    /**
+     * Declares a target the graph allocates, valid only between the passes using it.
+     *
+     * @param format {@code FORMAT_} constant.
+     * @param depth  Whether passes drawing into it get a depth buffer.
+     * @return The target's handle.
+     */
+    public int createTarget(String name, int width, int height, int format, boolean depth) {
+        if (width <= 0 || height <= 0 || format < 0 || format >= FORMAT_BYTES.length) {
+            throw new IllegalArgumentException("Invalid target " + name);
+        }
+        return addTarget(new Target(name, width, height, format, depth, false));
+    }
+
+    /**
+     * Declares a target that exists outside the graph, e.g. the display. Passes writing into
+     * imported targets are the graph's outputs; its color is never discarded. Passes may read
+     * what it held before the frame, e.g. a previous frame's output.
+     */
+    public int importTarget(String name, int width, int height, boolean depth) {
+        return addTarget(new Target(name, width, height, FORMAT_RGBA8888, depth, true));
+    }
+
+    private int addTarget(Target target) {
+        mTargets.add(target);
+        mCompiled = false;
+        return mTargets.size() - 1;
+    }
+
+    /**
+     * Adds a pass, after every pass added so far.
+     *
+     * @return The pass's handle.
+     */
+    public int addPass(String name, Pass pass) {
+        mPasses.add(new PassNode(name, pass));
+        mCompiled = false;
+        return mPasses.size() - 1;
+    }
+
+    /**
+     * The pass samples a target, as last written by a pass added before it.
+     */
+    public void read(int pass, int target) {
+        checkTarget(target);
+        mPasses.get(pass).mReads.add(target);
+        mCompiled = false;
+    }
+
+    /**
+     * The pass draws into a target, replacing all of its contents. Every pass has one target.
+     */
+    public void write(int pass, int target) {
+        setWrite(pass, target, false);
+    }
+
+    /**
+     * The pass draws into a target over what earlier passes drew, e.g. an overlay.
+     */
+    public void modify(int pass, int target) {
+        setWrite(pass, target, true);
+    }
+
+    private void setWrite(int pass, int target, boolean loads) {
+        checkTarget(target);
+        PassNode node = mPasses.get(pass);
+        if (node.mWrite >= 0) {
+            throw new IllegalStateException(node.mName + " already has a target");
+        }
+        node.mWrite = target;
+        node.mLoads = loads;
+        mCompiled = false;
+    }
+
+    private void checkTarget(int target) {
+        if (target < 0 || target >= mTargets.size()) {
+            throw new IllegalArgumentException("Unknown target " + target);
+        }
+    }
+
+    /**
+     * Works out which passes run in which order, with which allocations and flags.
+     *
+     * @throws IllegalStateException If a pass has no target, reads its own target or reads a
+     *                               transient one no earlier pass wrote.
+     */
+    public void compile() {
+        int passCount = mPasses.size();
+        int targetCount = mTargets.size();
+
+        // Cull from the outputs backwards: a pass is needed if a later needed pass, or the end
+        // of the frame for imported targets, sees what it wrote
+        boolean[] needed = new boolean[targetCount];
+        for (int t = 0; t < targetCount; t++) {
+            needed[t] = mTargets.get(t).mImported;
+        }
+        boolean[] live = new boolean[passCount];
+        int liveCount = 0;
+        for (int p = passCount - 1; p >= 0; p--) {
+            PassNode node = mPasses.get(p);
+            if (node.mWrite < 0) {
+                throw new IllegalStateException(node.mName + " has no target");
+            }
+            if (node.mReads.contains(node.mWrite)) {
+                throw new IllegalStateException(node.mName + " reads the target it draws into");
+            }
+            if (!needed[node.mWrite]) {
+                continue;
+            }
+            live[p] = true;
+            liveCount++;
+            // Earlier contents are needed only if this pass draws over them
+            needed[node.mWrite] = node.mLoads;
+            for (int read : node.mReads) {
+                needed[read] = true;
+            }
+        }
+
+        int[] steps = new int[liveCount];
+        int step = 0;
+        for (int p = 0; p < passCount; p++) {
+            if (live[p]) {
+                steps[step++] = p;
+            }
+        }
+
+        // Lifetimes in steps, and reads of targets nothing has written. Imported targets come
+        // with contents
+        boolean[] written = new boolean[targetCount];
+        for (int t = 0; t < targetCount; t++) {
+            written[t] = mTargets.get(t).mImported;
+        }
+        for (Target target : mTargets) {
+            target.mFirstStep = -1;
+            target.mLastStep = -1;
+            target.mAllocation = -1;
+        }
+        for (step = 0; step < steps.length; step++) {
+            PassNode node = mPasses.get(steps[step]);
+            for (int read : node.mReads) {
+                if (!written[read]) {
+                    throw new IllegalStateException(node.mName + " reads "
+                            + mTargets.get(read).mName + " before any pass writes it");
+                }
+                touch(mTargets.get(read), step);
+            }
+            written[node.mWrite] = true;
+            touch(mTargets.get(node.mWrite), step);
+        }
+
+        allocate(steps);
+
+        int[] flags = new int[steps.length];
+        for (step = 0; step < steps.length; step++) {
+            PassNode node = mPasses.get(steps[step]);
+            Target target = mTargets.get(node.mWrite);
+            int stepFlags = 0;
+            if (!node.mLoads) {
+                stepFlags |= FLAG_CLEAR;
+            }
+            if (target.mDepth && !drawnIntoLater(steps, step, node.mWrite)) {
+                stepFlags |= FLAG_DISCARD_DEPTH;
+            }
+            flags[step] = stepFlags;
+        }
+
+        mStepPasses = steps;
+        mStepFlags = flags;
+        mCompiled = true;
+    }
+
+    private static void touch(Target target, int step) {
+        if (target.mFirstStep < 0) {
+            target.mFirstStep = step;
+        }
+        target.mLastStep = step;
+    }
+
+    /**
+     * Whether a later step draws over the target, needing its depth.
+     */
+    private boolean drawnIntoLater(int[] steps, int step, int target) {
+        for (int s = step + 1; s < steps.length; s++) {
+            PassNode node = mPasses.get(steps[s]);
+            if (node.mWrite == target) {
+                return node.mLoads;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Greedily assigns transient targets, in the order they come alive, to the first
+     * compatible allocation free by then. A target comes alive at its first write, since
+     * reading before that was rejected.
+     */
+    private void allocate(int[] steps) {
+        mAllocations.clear();
+        // Per allocation, the last step of the target holding it
+        ArrayList<Integer> busyUntil = new ArrayList<Integer>();
+        for (int step = 0; step < steps.length; step++) {
+            Target target = mTargets.get(mPasses.get(steps[step]).mWrite);
+            if (target.mImported || target.mFirstStep != step) {
+                continue;
+            }
+            for (int a = 0; a < mAllocations.size() && target.mAllocation < 0; a++) {
+                if (busyUntil.get(a) < step && mAllocations.get(a).isCompatible(target)) {
+                    target.mAllocation = a;
+                    busyUntil.set(a, target.mLastStep);
+                }
+            }
+            if (target.mAllocation < 0) {
+                target.mAllocation = mAllocations.size();
+                mAllocations.add(target);
+                busyUntil.add(target.mLastStep);
+            }
+        }
+    }
+
+    public boolean isCompiled() {
+        return mCompiled;
+    }
+
+    /**
+     * Passes to run, culled ones left out.
+     */
+    public int getStepCount() {
+        checkCompiled();
+        return mStepPasses.length;
+    }
+
+    /**
+     * The handle of the pass to run at a step.
+     */
+    public int getStepPass(int step) {
+        checkCompiled();
+        return mStepPasses[step];
+    }
+
+    /**
+     * {@code FLAG_} bits of a step.
+     */
+    public int getStepFlags(int step) {
+        checkCompiled();
+        return mStepFlags[step];
+    }
+
+    public Pass getPass(int pass) {
+        return mPasses.get(pass).mPass;
+    }
+
+    public String getPassName(int pass) {
+        return mPasses.get(pass).mName;
+    }
+
+    /**
+     * The target a pass draws into.
+     */
+    public int getPassTarget(int pass) {
+        return mPasses.get(pass).mWrite;
+    }
+
+    public int getTargetCount() {
+        return mTargets.size();
+    }
+
+    public String getTargetName(int target) {
+        return mTargets.get(target).mName;
+    }
+
+    public int getTargetWidth(int target) {
+        return mTargets.get(target).mWidth;
+    }
+
+    public int getTargetHeight(int target) {
+        return mTargets.get(target).mHeight;
+    }
+
+    public int getTargetFormat(int target) {
+        return mTargets.get(target).mFormat;
+    }
+
+    public boolean hasDepth(int target) {
+        return mTargets.get(target).mDepth;
+    }
+
+    public boolean isImported(int target) {
+        return mTargets.get(target).mImported;
+    }
+
+    /**
+     * The allocation backing a transient target, or -1 for imported and unused targets.
+     */
+    public int getAllocation(int target) {
+        checkCompiled();
+        return mTargets.get(target).mAllocation;
+    }
+
+    /**
+     * Framebuffers the executor has to create.
+     */
+    public int getAllocationCount() {
+        checkCompiled();
+        return mAllocations.size();
+    }
+
+    /**
+     * A target of the size and format an allocation has to be created with.
+     */
+    public int getAllocationTarget(int allocation) {
+        checkCompiled();
+        return mTargets.indexOf(mAllocations.get(allocation));
+    }
+
+    /**
+     * Memory of the allocations, color and depth.
+     */
+    public long getAllocatedBytes() {
+        checkCompiled();
+        long bytes = 0;
+        for (Target target : mAllocations) {
+            bytes += target.getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Memory the used transient targets would take without aliasing.
+     */
+    public long getUnaliasedBytes() {
+        checkCompiled();
+        long bytes = 0;
+        for (Target target : mTargets) {
+            if (target.mAllocation >= 0) {
+                bytes += target.getBytes();
+            }
+        }
+        return bytes;
+    }
+
+    private void checkCompiled() {
+        if (!mCompiled) {
+            throw new IllegalStateException("Graph changed since compiled");
+        }
+    }
+
+    /**
+     * One line per step, for logging.
+     */
+    public String describe() {
+        checkCompiled();
+        StringBuilder builder = new StringBuilder();
+        for (int step = 0; step < mStepPasses.length; step++) {
+            PassNode node = mPasses.get(mStepPasses[step]);
+            Target target = mTargets.get(node.mWrite);
+            int flags = mStepFlags[step];
+            builder.append(String.format(Locale.US, "%d %s -> %s%s%s%s%n", step, node.mName,
+                    target.mName,
+                    target.mImported ? "" : " #" + target.mAllocation,
+                    (flags & FLAG_CLEAR) != 0 ? " clear" : " load",
+                    (flags & FLAG_DISCARD_DEPTH) != 0 ? " discard-depth" : ""));
+        }
+        builder.append(String.format(Locale.US, "%d allocations, %d KB, %d KB unaliased",
+                mAllocations.size(), getAllocatedBytes() / 1024, getUnaliasedBytes() / 1024));
+        return builder.toString();
+    }
+}
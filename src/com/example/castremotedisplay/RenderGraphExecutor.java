@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+/**
+ * Runs a compiled {@link RenderGraph}: creates a framebuffer per allocation, a texture with an
+ * optional 16 bit depth renderbuffer, and runs the steps with their targets bound.
+ * <p>
+ * A step flagged {@link RenderGraph#FLAG_CLEAR} starts by invalidating its attachments on
+ * OpenGL ES 3, then clears them, which on ES 2 is what tells a tiled GPU not to load the old
+ * contents. Depth flagged {@link RenderGraph#FLAG_DISCARD_DEPTH} is invalidated after the step
+ * on ES 3; ES 2 has no way to say so, {@code EXT_discard_framebuffer} not being exposed to
+ * Java. Like {@link FanOutRenderer} the executor calls {@link GLES20} directly. Use on the GL
+ * thread.
+ * </p>
+ */
+public class RenderGraphExecutor implements RenderGraph.Resources {
+
+    private static final String TAG = "RenderGraphExecutor";
+
+    private RenderGraph mGraph;
+    private boolean mInvalidateSupported;
+    private final int[] mAttachments = new int[2];
+
+    // Per allocation of the graph the targets were created for
+    private RenderTarget[] mTargets = new RenderTarget[0];
+
+    // Framebuffers of imported targets, by target; 0, the window, by default
+    private int[] mImportedFramebuffers = new int[0];
+    // Textures of imported targets passes read, by target
+    private int[] mImportedTextures = new int[0];
+
+    /**
+     * Call on the GL thread when the surface is created. Objects of a previous context are
+     * forgotten.
+     */
+    public void onSurfaceCreated() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        mInvalidateSupported = version != null && version.startsWith("OpenGL ES 3");
+        onContextLost();
+    }
+
+    /**
+     * Draws an imported target into a framebuffer other than the window's.
+     */
+    public void setImportedFramebuffer(int target, int framebuffer) {
+        mImportedFramebuffers = set(mImportedFramebuffers, target, framebuffer);
+    }
+
+    /**
+     * Lets passes read an imported target, e.g. the previous frame's output, from a texture.
+     */
+    public void setImportedTexture(int target, int texture) {
+        mImportedTextures = set(mImportedTextures, target, texture);
+    }
+
+    private static int[] set(int[] values, int index, int value) {
+        if (index >= values.length) {
+            int[] grown = new int[index + 1];
+            System.arraycopy(values, 0, grown, 0, values.length);
+            values = grown;
+        }
+        values[index] = value;
+        return values;
+    }
+
+    /**
+     * Runs the graph's steps. Leaves the window's framebuffer bound.
+     */
+    public void execute(RenderGraph graph) {
+        if (!graph.isCompiled()) {
+            graph.compile();
+        }
+        mGraph = graph;
+        ensureAllocations(graph);
+        for (int step = 0; step < graph.getStepCount(); step++) {
+            int pass = graph.getStepPass(step);
+            int target = graph.getPassTarget(pass);
+            int flags = graph.getStepFlags(step);
+            boolean imported = graph.isImported(target);
+            boolean depth = graph.hasDepth(target);
+            int framebuffer = imported ? getImportedFramebuffer(target)
+                    : mTargets[graph.getAllocation(target)].getFramebuffer();
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+            GLES20.glViewport(0, 0, graph.getTargetWidth(target), graph.getTargetHeight(target));
+
+            if ((flags & RenderGraph.FLAG_CLEAR) != 0) {
+                if (mInvalidateSupported) {
+                    invalidate(framebuffer, true, depth);
+                }
+                GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT
+                        | (depth ? GLES20.GL_DEPTH_BUFFER_BIT : 0));
+            }
+            graph.getPass(pass).execute(this);
+            if ((flags & RenderGraph.FLAG_DISCARD_DEPTH) != 0 && mInvalidateSupported) {
+                invalidate(framebuffer, false, true);
+            }
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        mGraph = null;
+    }
+
+    private void invalidate(int framebuffer, boolean color, boolean depth) {
+        int count = 0;
+        // The window's buffers have their own names
+        if (color) {
+            mAttachments[count++] = framebuffer == 0 ? GLES30.GL_COLOR
+                    : GLES20.GL_COLOR_ATTACHMENT0;
+        }
+        if (depth) {
+            mAttachments[count++] = framebuffer == 0 ? GLES30.GL_DEPTH
+                    : GLES20.GL_DEPTH_ATTACHMENT;
+        }
+        GLES30.glInvalidateFramebuffer(GLES20.GL_FRAMEBUFFER, count, mAttachments, 0);
+    }
+
+    private int getImportedFramebuffer(int target) {
+        return target < mImportedFramebuffers.length ? mImportedFramebuffers[target] : 0;
+    }
+
+    @Override
+    public int getTexture(int target) {
+        int texture;
+        if (mGraph.isImported(target)) {
+            texture = target < mImportedTextures.length ? mImportedTextures[target] : 0;
+        } else {
+            int allocation = mGraph.getAllocation(target);
+            texture = allocation >= 0 ? mTargets[allocation].getTexture() : 0;
+        }
+        if (texture == 0) {
+            throw new IllegalArgumentException(mGraph.getTargetName(target)
+                    + " has no texture");
+        }
+        return texture;
+    }
+
+    @Override
+    public int getWidth(int target) {
+        return mGraph.getTargetWidth(target);
+    }
+
+    @Override
+    public int getHeight(int target) {
+        return mGraph.getTargetHeight(target);
+    }
+
+    /**
+     * Creates the graph's allocations, reusing targets of the same size and format created for
+     * a previous compile.
+     */
+    private void ensureAllocations(RenderGraph graph) {
+        int count = graph.getAllocationCount();
+        boolean same = count == mTargets.length;
+        for (int a = 0; a < count && same; a++) {
+            int target = graph.getAllocationTarget(a);
+            same = mTargets[a].matches(graph.getTargetWidth(target),
+                    graph.getTargetHeight(target), graph.getTargetFormat(target),
+                    graph.hasDepth(target));
+        }
+        if (same) {
+            return;
+        }
+        release();
+        mTargets = new RenderTarget[count];
+        for (int a = 0; a < count; a++) {
+            int target = graph.getAllocationTarget(a);
+            mTargets[a] = new RenderTarget(graph.getTargetName(target),
+                    graph.getTargetWidth(target), graph.getTargetHeight(target),
+                    graph.getTargetFormat(target), graph.hasDepth(target));
+        }
+        Log.d(TAG, "Allocated render targets:\n" + graph.describe());
+    }
+
+    /**
+     * Forgets the objects, which went away with their context.
+     */
+    public void onContextLost() {
+        for (RenderTarget target : mTargets) {
+            target.onContextLost();
+        }
+    }
+
+    /**
+     * Deletes the framebuffers and their attachments.
+     */
+    public void release() {
+        for (RenderTarget target : mTargets) {
+            target.release();
+        }
+        mTargets = new RenderTarget[0];
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * A framebuffer object drawing into a texture, with an optional 16 bit depth renderbuffer.
+ * Registered with the {@link GlObjectRegistry} under the target itself. Use on the GL thread.
+ */
+public class RenderTarget {
+
+    private static final String TAG = "RenderTarget";
+
+    private final String mName;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFormat;
+    private final boolean mDepth;
+
+    private int mFramebuffer;
+    private int mTexture;
+    private int mDepthBuffer;
+
+    /**
+     * @param format {@code RenderGraph.FORMAT_} constant.
+     */
+    public RenderTarget(String name, int width, int height, int format, boolean depth) {
+        mName = name;
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mDepth = depth;
+    }
+
+    public boolean matches(int width, int height, int format, boolean depth) {
+        return width == mWidth && height == mHeight && format == mFormat && depth == mDepth;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * The framebuffer, created on first use.
+     */
+    public int getFramebuffer() {
+        if (mFramebuffer == 0) {
+            create();
+        }
+        return mFramebuffer;
+    }
+
+    /**
+     * The color texture, created on first use.
+     */
+    public int getTexture() {
+        if (mFramebuffer == 0) {
+            create();
+        }
+        return mTexture;
+    }
+
+    private void create() {
+        GlObjectRegistry glObjects = MemoryGovernor.get().getGlObjects();
+        int[] ids = new int[1];
+
+        GLES20.glGenTextures(1, ids, 0);
+        mTexture = ids[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        boolean rgb565 = mFormat == RenderGraph.FORMAT_RGB565;
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, rgb565 ? GLES20.GL_RGB : GLES20.GL_RGBA,
+                mWidth, mHeight, 0, rgb565 ? GLES20.GL_RGB : GLES20.GL_RGBA,
+                rgb565 ? GLES20.GL_UNSIGNED_SHORT_5_6_5 : GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        glObjects.register(this, GlObjectRegistry.TYPE_TEXTURE, mTexture,
+                (long) mWidth * mHeight * (rgb565 ? 2 : 4), mName);
+
+        if (mDepth) {
+            GLES20.glGenRenderbuffers(1, ids, 0);
+            mDepthBuffer = ids[0];
+            GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, mDepthBuffer);
+            GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16,
+                    mWidth, mHeight);
+            glObjects.register(this, GlObjectRegistry.TYPE_RENDERBUFFER, mDepthBuffer,
+                    (long) mWidth * mHeight * 2, mName);
+        }
+
+        GLES20.glGenFramebuffers(1, ids, 0);
+        mFramebuffer = ids[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTexture, 0);
+        if (mDepth) {
+            GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT,
+                    GLES20.GL_RENDERBUFFER, mDepthBuffer);
+        }
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        glObjects.register(this, GlObjectRegistry.TYPE_FRAMEBUFFER, mFramebuffer, 0, mName);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.e(TAG, "Framebuffer for " + mName + " incomplete: " + status);
+        }
+    }
+
+    /**
+     * Forgets the objects, which went away with their context. They are created again on next
+     * use.
+     */
+    public void onContextLost() {
+        MemoryGovernor.get().getGlObjects().releaseOwner(this);
+        mFramebuffer = 0;
+        mTexture = 0;
+        mDepthBuffer = 0;
+    }
+
+    /**
+     * Deletes the framebuffer and its attachments.
+     */
+    public void release() {
+        if (mFramebuffer == 0) {
+            return;
+        }
+        int[] ids = {mFramebuffer, mTexture, mDepthBuffer};
+        GLES20.glDeleteFramebuffers(1, ids, 0);
+        GLES20.glDeleteTextures(1, ids, 1);
+        if (mDepthBuffer != 0) {
+            GLES20.glDeleteRenderbuffers(1, ids, 2);
+        }
+        onContextLost();
+    }
+}
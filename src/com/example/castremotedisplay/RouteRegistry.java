@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the Cast devices seen by the app, keyed by device ID, so that the last used device can
+ * be reconnected to as soon as it is rediscovered.
+ * <p>
+ * The registry does not talk to the {@link android.support.v7.media.MediaRouter} directly: route
+ * events are fed in through {@link #onRouteAdded}/{@link #onRouteRemoved} and the registry tells a
+ * {@link Discovery} how aggressively to scan. It scans actively until at least one route is
+ * available and then throttles down to passive discovery. Records are loaded from and saved to a
+ * {@link Store} so they survive across launches. Both interfaces can be implemented by fakes to
+ * drive the registry without a real router.
+ * </p>
+ * <p>
+ * All methods must be called on the same thread (the main thread in the app).
+ * </p>
+ */
+public class RouteRegistry {
+
+    public static final int DISCOVERY_NONE = 0;
+    public static final int DISCOVERY_PASSIVE = 1;
+    public static final int DISCOVERY_ACTIVE = 2;
+
+    /**
+     * Records not seen for this long are dropped when the registry is loaded.
+     */
+    public static final long DEFAULT_MAX_RECORD_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Controls route discovery on behalf of the registry.
+     */
+    public interface Discovery {
+        /**
+         * @param mode One of {@link #DISCOVERY_NONE}, {@link #DISCOVERY_PASSIVE} or
+         *             {@link #DISCOVERY_ACTIVE}.
+         */
+        void setDiscoveryMode(int mode);
+    }
+
+    /**
+     * A {@link Discovery} that registers a router callback, with the active scan flag while
+     * scanning actively. Routers merge the flags of a callback that is added again, so switching
+     * between scanning modes removes the callback before adding it back.
+     */
+    public abstract static class CallbackDiscovery implements Discovery {
+
+        private int mMode = DISCOVERY_NONE;
+
+        @Override
+        public final void setDiscoveryMode(int mode) {
+            int previousMode = mMode;
+            if (mode == previousMode) {
+                return;
+            }
+            mMode = mode;
+            if (previousMode != DISCOVERY_NONE) {
+                removeCallback();
+            }
+            if (mode == DISCOVERY_NONE) {
+                return;
+            }
+            addCallback(mode == DISCOVERY_ACTIVE);
+            if (previousMode == DISCOVERY_NONE) {
+                reportKnownRoutes();
+            }
+        }
+
+        /**
+         * Registers the callback, requesting discovery and, if {@code activeScan}, an active
+         * scan. Only called while the callback isn't registered.
+         */
+        protected abstract void addCallback(boolean activeScan);
+
+        protected abstract void removeCallback();
+
+        /**
+         * Reports routes the router discovered before the callback was added, which it doesn't
+         * report again.
+         */
+        protected abstract void reportKnownRoutes();
+    }
+
+    /**
+     * Persists device records between launches.
+     */
+    public interface Store {
+        /**
+         * Loads previously saved records into the registry using {@link RouteRegistry#restore}.
+         */
+        void load(RouteRegistry registry);
+
+        void save(Collection<DeviceRecord> records, String lastUsedDeviceId);
+    }
+
+    /**
+     * Receives notifications about routes that the registry considers interesting.
+     */
+    public interface Listener {
+        /**
+         * Called when the number of currently available routes changes.
+         */
+        void onAvailableRoutesChanged(int count);
+
+        /**
+         * Called when the last used device is rediscovered and can be offered for reconnecting.
+         * This happens at most once per {@link #load}, so returning to a screen after the user
+         * disconnected does not offer it again.
+         */
+        void onLastUsedRouteAvailable(String deviceId);
+    }
+
+    /**
+     * What the registry knows about a single Cast device.
+     */
+    public static final class DeviceRecord {
+        private final String mDeviceId;
+        private String mFriendlyName;
+        private long mLastSeenMillis;
+
+        public DeviceRecord(String deviceId, String friendlyName, long lastSeenMillis) {
+            mDeviceId = deviceId;
+            mFriendlyName = friendlyName;
+            mLastSeenMillis = lastSeenMillis;
+        }
+
+        public String getDeviceId() {
+            return mDeviceId;
+        }
+
+        public String getFriendlyName() {
+            return mFriendlyName;
+        }
+
+        public long getLastSeenMillis() {
+            return mLastSeenMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "DeviceRecord{" + mDeviceId + ", " + mFriendlyName + ", " + mLastSeenMillis
+                    + "}";
+        }
+    }
+
+    private final Map<String, DeviceRecord> mRecords = new LinkedHashMap<String, DeviceRecord>();
+    private final Set<String> mAvailable = new HashSet<String>();
+    private final Store mStore;
+    private final long mMaxRecordAgeMillis;
+
+    private Discovery mDiscovery;
+    private Listener mListener;
+    private int mDiscoveryMode = DISCOVERY_NONE;
+    private String mLastUsedDeviceId;
+    private boolean mReconnectOffered;
+
+    public RouteRegistry(Store store) {
+        this(store, DEFAULT_MAX_RECORD_AGE_MS);
+    }
+
+    public RouteRegistry(Store store, long maxRecordAgeMillis) {
+        mStore = store;
+        mMaxRecordAgeMillis = maxRecordAgeMillis;
+    }
+
+    /**
+     * Loads the persisted records, dropping any older than the maximum record age.
+     *
+     * @param nowMillis The current wall clock time.
+     */
+    public void load(long nowMillis) {
+        mRecords.clear();
+        mLastUsedDeviceId = null;
+        mReconnectOffered = false;
+        if (mStore != null) {
+            mStore.load(this);
+        }
+        Iterator<DeviceRecord> iterator = mRecords.values().iterator();
+        while (iterator.hasNext()) {
+            DeviceRecord record = iterator.next();
+            if (nowMillis - record.mLastSeenMillis > mMaxRecordAgeMillis
+                    && !record.mDeviceId.equals(mLastUsedDeviceId)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Used by {@link Store#load} to add a persisted record.
+     */
+    public void restore(DeviceRecord record, boolean lastUsed) {
+        mRecords.put(record.mDeviceId, record);
+        if (lastUsed) {
+            mLastUsedDeviceId = record.mDeviceId;
+        }
+    }
+
+    /**
+     * Starts driving discovery. Scans actively until a route is found.
+     */
+    public void start(Discovery discovery, Listener listener) {
+        mDiscovery = discovery;
+        mListener = listener;
+        mDiscoveryMode = DISCOVERY_NONE;
+        updateDiscoveryMode();
+    }
+
+    /**
+     * Stops discovery. The available routes are forgotten, the records are kept.
+     */
+    public void stop() {
+        if (mDiscovery != null) {
+            mDiscovery.setDiscoveryMode(DISCOVERY_NONE);
+        }
+        mDiscovery = null;
+        mListener = null;
+        mDiscoveryMode = DISCOVERY_NONE;
+        mAvailable.clear();
+    }
+
+    public void onRouteAdded(String deviceId, String friendlyName, long nowMillis) {
+        if (deviceId == null) {
+            return;
+        }
+        DeviceRecord record = mRecords.get(deviceId);
+        if (record == null) {
+            record = new DeviceRecord(deviceId, friendlyName, nowMillis);
+            mRecords.put(deviceId, record);
+        } else {
+            record.mFriendlyName = friendlyName;
+            record.mLastSeenMillis = nowMillis;
+        }
+        if (mAvailable.add(deviceId)) {
+            onAvailabilityChanged();
+            if (!mReconnectOffered && deviceId.equals(mLastUsedDeviceId) && mListener != null) {
+                mReconnectOffered = true;
+                mListener.onLastUsedRouteAvailable(deviceId);
+            }
+        }
+    }
+
+    public void onRouteRemoved(String deviceId, long nowMillis) {
+        if (deviceId != null && mAvailable.remove(deviceId)) {
+            DeviceRecord record = mRecords.get(deviceId);
+            if (record != null) {
+                record.mLastSeenMillis = nowMillis;
+            }
+            onAvailabilityChanged();
+        }
+    }
+
+    /**
+     * Records that a session was started on the device so that it is offered next time.
+     */
+    public void markUsed(String deviceId, String friendlyName, long nowMillis) {
+        DeviceRecord record = mRecords.get(deviceId);
+        if (record == null) {
+            mRecords.put(deviceId, new DeviceRecord(deviceId, friendlyName, nowMillis));
+        } else {
+            record.mLastSeenMillis = nowMillis;
+        }
+        mLastUsedDeviceId = deviceId;
+        // The user picked this device explicitly; don't offer to reconnect to it again
+        mReconnectOffered = true;
+        save();
+    }
+
+    /**
+     * Forgets the last used device, for example when a session to it failed.
+     */
+    public void clearLastUsed() {
+        mLastUsedDeviceId = null;
+        save();
+    }
+
+    public void save() {
+        if (mStore != null) {
+            mStore.save(Collections.unmodifiableCollection(mRecords.values()), mLastUsedDeviceId);
+        }
+    }
+
+    public String getLastUsedDeviceId() {
+        return mLastUsedDeviceId;
+    }
+
+    public DeviceRecord getRecord(String deviceId) {
+        return mRecords.get(deviceId);
+    }
+
+    /**
+     * Returns all known records, most recently seen first.
+     */
+    public List<DeviceRecord> getRecords() {
+        List<DeviceRecord> records = new ArrayList<DeviceRecord>(mRecords.values());
+        Collections.sort(records, new Comparator<DeviceRecord>() {
+            @Override
+            public int compare(DeviceRecord lhs, DeviceRecord rhs) {
+                return lhs.mLastSeenMillis < rhs.mLastSeenMillis ? 1
+                        : (lhs.mLastSeenMillis == rhs.mLastSeenMillis ? 0 : -1);
+            }
+        });
+        return records;
+    }
+
+    public boolean isAvailable(String deviceId) {
+        return mAvailable.contains(deviceId);
+    }
+
+    public int getAvailableCount() {
+        return mAvailable.size();
+    }
+
+    public int getDiscoveryMode() {
+        return mDiscoveryMode;
+    }
+
+    private void onAvailabilityChanged() {
+        updateDiscoveryMode();
+        if (mListener != null) {
+            mListener.onAvailableRoutesChanged(mAvailable.size());
+        }
+    }
+
+    private void updateDiscoveryMode() {
+        if (mDiscovery == null) {
+            return;
+        }
+        int mode = mAvailable.isEmpty() ? DISCOVERY_ACTIVE : DISCOVERY_PASSIVE;
+        if (mode != mDiscoveryMode) {
+            mDiscoveryMode = mode;
+            mDiscovery.setDiscoveryMode(mode);
+        }
+    }
+}
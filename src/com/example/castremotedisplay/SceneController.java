@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The controller side of the scene protocol: collects state changes from a UI and sends them to
+ * the renderer as {@link SceneProtocol} messages.
+ * <p>
+ * Changes are coalesced until {@link #flush()}: setting a field several times sends only the
+ * last value, and setting it back to the value the renderer already has sends nothing. When the
+ * transport falls behind and every pooled buffer is in flight, flushing is deferred and the
+ * changes keep coalescing, so a controller can set fields as fast as it likes without
+ * allocating or building up a backlog. Thread safe.
+ * </p>
+ */
+public class SceneController {
+
+    private static final int POOL_SIZE = 8;
+
+    /**
+     * Carries encoded messages to a {@link SceneReceiver}.
+     */
+    public interface Transport {
+        /**
+         * Sends a message, between the buffer's position and limit. The transport owns the
+         * buffer from now on and must release it to {@code pool} once done with it.
+         *
+         * @return False if the message was dropped, e.g. while the receiver is gone.
+         */
+        boolean send(ByteBuffer message, MessagePool pool);
+    }
+
+    private final Transport mTransport;
+    private final MessagePool mPool;
+    private final SceneDelta mPending = new SceneDelta();
+    // What the renderer has been sent so far
+    private final SceneDelta mSent = new SceneDelta();
+    private int mSequence;
+    private long mSetCount;
+    private long mSentFieldCount;
+    private long mMessageCount;
+
+    public SceneController(Transport transport) {
+        this(transport, new MessagePool(POOL_SIZE, SceneProtocol.MAX_MESSAGE_SIZE));
+    }
+
+    public SceneController(Transport transport, MessagePool pool) {
+        mTransport = transport;
+        mPool = pool;
+    }
+
+    public MessagePool getPool() {
+        return mPool;
+    }
+
+    public synchronized void setBoolean(int field, boolean value) {
+        mPending.setBoolean(field, value);
+        onSet(field);
+    }
+
+    public synchronized void setFloat(int field, float value) {
+        mPending.setFloat(field, value);
+        onSet(field);
+    }
+
+    private void onSet(int field) {
+        mSetCount++;
+        if (mPending.sameValue(field, mSent)) {
+            mPending.remove(field);
+        }
+    }
+
+    /**
+     * Takes {@code state} as what the renderer has, e.g. the state of a receiver that outlived
+     * an earlier controller. Pending changes to other values stay pending.
+     */
+    public synchronized void setSentState(SceneDelta state) {
+        mSent.clear();
+        mSent.mergeFrom(state);
+        for (int field = 0; field < SceneProtocol.FIELD_COUNT; field++) {
+            if (mPending.sameValue(field, mSent)) {
+                mPending.remove(field);
+            }
+        }
+    }
+
+    /**
+     * The value last set for a field, sent or not, or {@code defaultValue} if it was never set.
+     */
+    public synchronized boolean getBoolean(int field, boolean defaultValue) {
+        if (mPending.has(field)) {
+            return mPending.getBoolean(field);
+        }
+        return mSent.has(field) ? mSent.getBoolean(field) : defaultValue;
+    }
+
+    public synchronized float getFloat(int field, float defaultValue) {
+        if (mPending.has(field)) {
+            return mPending.getFloat(field);
+        }
+        return mSent.has(field) ? mSent.getFloat(field) : defaultValue;
+    }
+
+    /**
+     * Sends the pending changes as one message.
+     *
+     * @return False if no buffer was free or the transport dropped the message; the changes stay
+     *         pending for the next flush.
+     */
+    public synchronized boolean flush() {
+        if (mPending.isEmpty()) {
+            return true;
+        }
+        ByteBuffer buffer = mPool.acquire();
+        if (buffer == null) {
+            return false;
+        }
+        mPending.setSequence(++mSequence);
+        SceneProtocol.encode(mPending, buffer);
+        buffer.flip();
+        if (!mTransport.send(buffer, mPool)) {
+            return false;
+        }
+        mSentFieldCount += mPending.size();
+        mMessageCount++;
+        mSent.mergeFrom(mPending);
+        mPending.clear();
+        return true;
+    }
+
+    /**
+     * Fields set so far, including those coalesced away.
+     */
+    public synchronized long getSetCount() {
+        return mSetCount;
+    }
+
+    /**
+     * Field values actually sent.
+     */
+    public synchronized long getSentFieldCount() {
+        return mSentFieldCount;
+    }
+
+    public synchronized long getMessageCount() {
+        return mMessageCount;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+/**
+ * A set of scene state fields and their new values, as carried by one {@link SceneProtocol}
+ * message. Fields are the {@code SceneProtocol.FIELD_*} constants; each has a fixed type.
+ * <p>
+ * Deltas are reusable: {@link #clear()} and fill again rather than allocating a new one per
+ * message. Not thread safe.
+ * </p>
+ */
+public final class SceneDelta {
+
+    private int mMask;
+    // Booleans as 0 or 1, floats as their raw bits
+    private final int[] mValues = new int[SceneProtocol.FIELD_COUNT];
+    private int mSequence;
+
+    public boolean has(int field) {
+        return (mMask & (1 << field)) != 0;
+    }
+
+    public boolean isEmpty() {
+        return mMask == 0;
+    }
+
+    /**
+     * The number of fields set.
+     */
+    public int size() {
+        return Integer.bitCount(mMask);
+    }
+
+    public boolean getBoolean(int field) {
+        checkType(field, SceneProtocol.TYPE_BOOLEAN);
+        return mValues[field] != 0;
+    }
+
+    public float getFloat(int field) {
+        checkType(field, SceneProtocol.TYPE_FLOAT);
+        return Float.intBitsToFloat(mValues[field]);
+    }
+
+    public SceneDelta setBoolean(int field, boolean value) {
+        checkType(field, SceneProtocol.TYPE_BOOLEAN);
+        return setRaw(field, value ? 1 : 0);
+    }
+
+    public SceneDelta setFloat(int field, float value) {
+        checkType(field, SceneProtocol.TYPE_FLOAT);
+        return setRaw(field, Float.floatToIntBits(value));
+    }
+
+    public void remove(int field) {
+        mMask &= ~(1 << field);
+    }
+
+    public void clear() {
+        mMask = 0;
+    }
+
+    /**
+     * The sender's sequence number of the message this delta was decoded from or will be
+     * encoded into.
+     */
+    public int getSequence() {
+        return mSequence;
+    }
+
+    public void setSequence(int sequence) {
+        mSequence = sequence;
+    }
+
+    /**
+     * Sets every field of {@code other} here, overwriting older values.
+     */
+    public void mergeFrom(SceneDelta other) {
+        for (int field = 0; field < SceneProtocol.FIELD_COUNT; field++) {
+            if (other.has(field)) {
+                setRaw(field, other.mValues[field]);
+            }
+        }
+        mSequence = other.mSequence;
+    }
+
+    /**
+     * Whether the field is set here and in {@code other}, to the same value.
+     */
+    public boolean sameValue(int field, SceneDelta other) {
+        return has(field) && other.has(field) && mValues[field] == other.mValues[field];
+    }
+
+    int getRaw(int field) {
+        return mValues[field];
+    }
+
+    SceneDelta setRaw(int field, int value) {
+        mValues[field] = value;
+        mMask |= 1 << field;
+        return this;
+    }
+
+    private static void checkType(int field, int type) {
+        if (SceneProtocol.getFieldType(field) != type) {
+            throw new IllegalArgumentException("Field " + field + " is not of type " + type);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding of scene state changes sent from a controller UI to the renderer.
+ * <p>
+ * A message is a version byte, a field count byte and a 32 bit sequence number, followed by
+ * one entry per changed field: a tag byte holding the field's type in the top 3 bits and its id
+ * in the low 5, then the value (1 byte for booleans, 4 for floats), all big endian. Only
+ * changed fields are sent, so a typical message is 8 bytes.
+ * </p>
+ * <p>
+ * Later versions may add fields and types but must keep the sizes of existing types. A decoder
+ * skips fields it doesn't know, so older renderers accept messages from newer controllers, and
+ * rejects messages with a type it doesn't know or an older version than it supports.
+ * </p>
+ */
+public final class SceneProtocol {
+
+    public static final int VERSION = 1;
+    public static final int MIN_VERSION = 1;
+
+    public static final int TYPE_BOOLEAN = 0;
+    public static final int TYPE_FLOAT = 1;
+
+    // Whether the cubes use their alternate colors
+    public static final int FIELD_COLOR_CHANGED = 0;
+    // Rotation speed of the cube pair relative to the default
+    public static final int FIELD_ROTATION_SPEED = 1;
+    public static final int FIELD_DEBUG_HUD = 2;
+    public static final int FIELD_PASS_TIMING = 3;
+    public static final int FIELD_COUNT = 4;
+
+    private static final int[] FIELD_TYPES = {
+            TYPE_BOOLEAN, TYPE_FLOAT, TYPE_BOOLEAN, TYPE_BOOLEAN
+    };
+
+    private static final int HEADER_SIZE = 6;
+    private static final int TYPE_SHIFT = 5;
+    private static final int FIELD_MASK = (1 << TYPE_SHIFT) - 1;
+
+    /**
+     * Largest message this version encodes.
+     */
+    public static final int MAX_MESSAGE_SIZE = HEADER_SIZE + FIELD_COUNT * 5;
+
+    private SceneProtocol() {
+    }
+
+    public static int getFieldType(int field) {
+        if (field < 0 || field >= FIELD_COUNT) {
+            throw new IllegalArgumentException("Unknown field " + field);
+        }
+        return FIELD_TYPES[field];
+    }
+
+    /**
+     * Writes the fields set in {@code delta} as one message at the buffer's position, advancing
+     * it.
+     *
+     * @throws BufferOverflowException If the message doesn't fit.
+     */
+    public static void encode(SceneDelta delta, ByteBuffer out) {
+        out.put((byte) VERSION);
+        out.put((byte) delta.size());
+        out.putInt(delta.getSequence());
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if (!delta.has(field)) {
+                continue;
+            }
+            int type = FIELD_TYPES[field];
+            out.put((byte) (type << TYPE_SHIFT | field));
+            if (type == TYPE_BOOLEAN) {
+                out.put((byte) delta.getRaw(field));
+            } else {
+                out.putInt(delta.getRaw(field));
+            }
+        }
+    }
+
+    /**
+     * Reads one message from the buffer's position to its limit into {@code delta}, which is
+     * cleared first. Fields unknown to this version are skipped.
+     *
+     * @return False if the message is malformed or from an unsupported version, in which case
+     * {@code delta} is left empty.
+     */
+    public static boolean decode(ByteBuffer in, SceneDelta delta) {
+        delta.clear();
+        if (in.remaining() < HEADER_SIZE) {
+            return false;
+        }
+        int version = in.get() & 0xFF;
+        int count = in.get() & 0xFF;
+        int sequence = in.getInt();
+        if (version < MIN_VERSION) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!in.hasRemaining()) {
+                delta.clear();
+                return false;
+            }
+            int tag = in.get() & 0xFF;
+            int type = tag >>> TYPE_SHIFT;
+            int field = tag & FIELD_MASK;
+            int size = getTypeSize(type);
+            if (size < 0 || in.remaining() < size) {
+                delta.clear();
+                return false;
+            }
+            int value = size == 1 ? in.get() : in.getInt();
+            if (field < FIELD_COUNT && FIELD_TYPES[field] == type) {
+                delta.setRaw(field, value);
+            }
+        }
+        delta.setSequence(sequence);
+        return true;
+    }
+
+    private static int getTypeSize(int type) {
+        switch (type) {
+            case TYPE_BOOLEAN:
+                return 1;
+            case TYPE_FLOAT:
+                return 4;
+            default:
+                return -1;
+        }
+    }
+}
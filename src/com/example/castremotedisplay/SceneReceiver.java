@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The renderer side of the scene protocol: decodes {@link SceneProtocol} messages and hands the
+ * changed fields to a {@link Target}. Decoding reuses one {@link SceneDelta}, so receiving
+ * doesn't allocate. Messages may arrive on any thread; they are handled one at a time.
+ */
+public class SceneReceiver {
+
+    /**
+     * Applies scene changes, e.g. to a renderer.
+     */
+    public interface Target {
+        /**
+         * Called on the receiving thread. The delta is reused once this returns.
+         */
+        void onSceneChanged(SceneDelta delta);
+    }
+
+    private final Target mTarget;
+    private final SceneDelta mDelta = new SceneDelta();
+    private long mMessageCount;
+    private long mRejectedCount;
+
+    public SceneReceiver(Target target) {
+        mTarget = target;
+    }
+
+    /**
+     * Decodes and applies one message, between the buffer's position and limit.
+     *
+     * @return False if the message was rejected as malformed or unsupported.
+     */
+    public synchronized boolean onMessage(ByteBuffer message) {
+        if (!SceneProtocol.decode(message, mDelta)) {
+            mRejectedCount++;
+            return false;
+        }
+        mMessageCount++;
+        if (!mDelta.isEmpty()) {
+            mTarget.onSceneChanged(mDelta);
+        }
+        return true;
+    }
+
+    public synchronized long getMessageCount() {
+        return mMessageCount;
+    }
+
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accepts scene controllers over TCP, e.g. a second phone acting as a remote, and applies
+ * their messages to a {@link SceneReceiver.Target}. This is a stand-in for a real transport:
+ * it binds to the loopback address only and has no authentication.
+ * <p>
+ * Each message is framed by a length byte, see {@link SceneSocketTransport}. Every connection
+ * is read on its own thread into a reused buffer and has its own {@link SceneReceiver}.
+ * </p>
+ */
+public class SceneSocketServer {
+
+    static final int MAX_FRAME_SIZE = 255;
+
+    private final SceneReceiver.Target mTarget;
+    private final int mPort;
+    private final List<Socket> mClients = new ArrayList<Socket>();
+    private ServerSocket mServerSocket;
+    private Thread mAcceptThread;
+
+    /**
+     * @param port The port to listen on, or 0 for any free one.
+     */
+    public SceneSocketServer(SceneReceiver.Target target, int port) {
+        mTarget = target;
+        mPort = port;
+    }
+
+    public synchronized void start() throws IOException {
+        if (mServerSocket != null) {
+            return;
+        }
+        final ServerSocket serverSocket = new ServerSocket(mPort, 4,
+                InetAddress.getByName("127.0.0.1"));
+        mServerSocket = serverSocket;
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept(serverSocket);
+            }
+        }, "SceneSocketServer");
+        mAcceptThread.start();
+    }
+
+    /**
+     * The port listened on, once started.
+     */
+    public synchronized int getLocalPort() {
+        return mServerSocket != null ? mServerSocket.getLocalPort() : -1;
+    }
+
+    /**
+     * Stops listening and disconnects every controller.
+     */
+    public void stop() {
+        Thread acceptThread;
+        synchronized (this) {
+            if (mServerSocket == null) {
+                return;
+            }
+            closeQuietly(mServerSocket);
+            mServerSocket = null;
+            for (Socket client : mClients) {
+                closeQuietly(client);
+            }
+            mClients.clear();
+            acceptThread = mAcceptThread;
+            mAcceptThread = null;
+        }
+        try {
+            acceptThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept(ServerSocket serverSocket) {
+        while (true) {
+            final Socket client;
+            try {
+                client = serverSocket.accept();
+                client.setTcpNoDelay(true);
+            } catch (IOException e) {
+                // Closed by stop()
+                return;
+            }
+            synchronized (this) {
+                if (mServerSocket != serverSocket) {
+                    closeQuietly(client);
+                    return;
+                }
+                mClients.add(client);
+            }
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    read(client);
+                }
+            }, "SceneSocketClient").start();
+        }
+    }
+
+    private void read(Socket client) {
+        SceneReceiver receiver = new SceneReceiver(mTarget);
+        byte[] bytes = new byte[MAX_FRAME_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(client.getInputStream()));
+            while (true) {
+                int length = in.read();
+                if (length < 0) {
+                    break;
+                }
+                in.readFully(bytes, 0, length);
+                buffer.clear();
+                buffer.limit(length);
+                receiver.onMessage(buffer);
+            }
+        } catch (IOException e) {
+            // Disconnected
+        } finally {
+            synchronized (this) {
+                mClients.remove(client);
+            }
+            closeQuietly(client);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Sends a {@link SceneController}'s messages to a {@link SceneSocketServer}.
+ * <p>
+ * Messages are queued and written on a background thread, each prefixed by its length in one
+ * byte, and their buffers go back to the pool once written. The queue holds no more than the
+ * pool, so a slow connection makes the controller coalesce rather than queue. Serves a single
+ * controller; once the connection fails, messages are dropped.
+ * </p>
+ */
+public class SceneSocketTransport implements SceneController.Transport {
+
+    private final String mHost;
+    private final int mPort;
+    private final ArrayBlockingQueue<ByteBuffer> mQueue;
+    private volatile MessagePool mPool;
+    private volatile Socket mSocket;
+    private volatile boolean mClosed;
+    private Thread mWriterThread;
+
+    /**
+     * @param maxQueued At least the size of the controller's pool.
+     */
+    public SceneSocketTransport(String host, int port, int maxQueued) {
+        mHost = host;
+        mPort = port;
+        mQueue = new ArrayBlockingQueue<ByteBuffer>(maxQueued);
+    }
+
+    /**
+     * Connects, blocking until connected.
+     */
+    public synchronized void connect() throws IOException {
+        if (mSocket != null) {
+            return;
+        }
+        Socket socket = new Socket(mHost, mPort);
+        socket.setTcpNoDelay(true);
+        mSocket = socket;
+        final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write(out);
+            }
+        }, "SceneSocketTransport");
+        mWriterThread.start();
+    }
+
+    public boolean isConnected() {
+        return mSocket != null && !mClosed;
+    }
+
+    @Override
+    public boolean send(ByteBuffer message, MessagePool pool) {
+        mPool = pool;
+        if (mClosed || mSocket == null || message.remaining() > SceneSocketServer.MAX_FRAME_SIZE
+                || !mQueue.offer(message)) {
+            pool.release(message);
+            return false;
+        }
+        if (mClosed) {
+            // The writer may have stopped before the message was queued
+            drain();
+            return false;
+        }
+        return true;
+    }
+
+    private void write(OutputStream out) {
+        try {
+            while (!mClosed) {
+                ByteBuffer message = mQueue.take();
+                out.write(message.remaining());
+                out.write(message.array(), message.arrayOffset() + message.position(),
+                        message.remaining());
+                mPool.release(message);
+                // Batch whatever queued up meanwhile into one write
+                if (mQueue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // Disconnected
+        } catch (InterruptedException e) {
+            // Closed
+        }
+        mClosed = true;
+        drain();
+    }
+
+    private void drain() {
+        ByteBuffer message;
+        while ((message = mQueue.poll()) != null) {
+            mPool.release(message);
+        }
+    }
+
+    /**
+     * Disconnects, dropping queued messages.
+     */
+    public void close() {
+        Thread writerThread;
+        synchronized (this) {
+            mClosed = true;
+            if (mSocket == null) {
+                return;
+            }
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                // Nothing left to do
+            }
+            writerThread = mWriterThread;
+        }
+        writerThread.interrupt();
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
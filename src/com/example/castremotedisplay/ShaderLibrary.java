@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.content.res.AssetManager;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Shader programs built from GLSL sources with {@code #define} permutations.
+ * <p>
+ * Sources are files, e.g. {@code cube.vert}, read through a {@link SourceLoader} from the
+ * app's assets. A program is asked for by its vertex and fragment source and a set of
+ * {@code FEATURE_} flags, which are prepended to both sources as {@code #define}s. Asking for
+ * the same permutation again returns the same {@link Program}, and nothing is compiled until the
+ * program is first used, so only the permutations a scene draws with cost a compile.
+ * </p>
+ * <p>
+ * New sources can be pushed with {@link #reload(String, String)} from any thread, e.g. by a
+ * {@link ShaderReloadServer} while developing. Programs using them are rebuilt on the GL thread
+ * by {@link #applyReloads()}; one that fails to compile keeps its previous build. Other methods
+ * must be called on the GL thread.
+ * </p>
+ */
+public class ShaderLibrary {
+
+    private static final String TAG = "ShaderLibrary";
+
+    // Where the app's shader sources are in its assets
+    public static final String ASSET_DIRECTORY = "shaders";
+
+    public static final int FEATURE_VERTEX_COLOR = 1;
+    public static final int FEATURE_TEXTURE = 1 << 1;
+    public static final int FEATURE_FOG = 1 << 2;
+    public static final int FEATURE_CPU_PARTICLES = 1 << 3;
+    private static final String[] FEATURE_DEFINES = {
+            "VERTEX_COLOR", "TEXTURE", "FOG", "CPU_PARTICLES"
+    };
+
+    private final GlApi mGl;
+    private SourceLoader mLoader;
+    private final HashMap<String, String> mSources = new HashMap<String, String>();
+    private final HashMap<String, Program> mPrograms = new HashMap<String, Program>();
+    // Sources pushed by reload(), applied on the GL thread
+    private final HashMap<String, String> mPendingReloads = new HashMap<String, String>();
+    private int mCompileCount;
+
+    /**
+     * Reads shader sources by file name.
+     */
+    public interface SourceLoader {
+        String load(String name) throws IOException;
+    }
+
+    /**
+     * Reads sources from a directory of the app's assets.
+     */
+    public static final class AssetSourceLoader implements SourceLoader {
+        private final AssetManager mAssets;
+        private final String mDirectory;
+
+        public AssetSourceLoader(AssetManager assets, String directory) {
+            mAssets = assets;
+            mDirectory = directory;
+        }
+
+        @Override
+        public String load(String name) throws IOException {
+            return readFully(mAssets.open(mDirectory + "/" + name));
+        }
+    }
+
+    /**
+     * Reads sources from a directory of the file system, e.g. {@code assets/shaders} when
+     * running from the project on a plain JVM.
+     */
+    public static final class FileSourceLoader implements SourceLoader {
+        private final File mDirectory;
+
+        public FileSourceLoader(File directory) {
+            mDirectory = directory;
+        }
+
+        @Override
+        public String load(String name) throws IOException {
+            return readFully(new FileInputStream(new File(mDirectory, name)));
+        }
+    }
+
+    /**
+     * One permutation of a vertex and fragment shader. Only its GL name changes when it is
+     * rebuilt, so holders keep the object and ask for {@link #getId()} when drawing.
+     */
+    public static final class Program {
+        private final ShaderLibrary mLibrary;
+        private final String mVertexName;
+        private final String mFragmentName;
+        private final int mFeatures;
+        private int mId;
+        private boolean mFailed;
+        private int mGeneration;
+
+        Program(ShaderLibrary library, String vertexName, String fragmentName, int features) {
+            mLibrary = library;
+            mVertexName = vertexName;
+            mFragmentName = fragmentName;
+            mFeatures = features;
+        }
+
+        /**
+         * The GL program, built on first use, or 0 if it failed to build. Call on the GL
+         * thread.
+         */
+        public int getId() {
+            if (mId == 0 && !mFailed) {
+                mId = mLibrary.build(this);
+                mFailed = mId == 0;
+                if (!mFailed) {
+                    mGeneration++;
+                }
+            }
+            return mId;
+        }
+
+        /**
+         * Counts the builds of this program, so holders can tell when to look up their
+         * attribute and uniform locations again.
+         */
+        public int getGeneration() {
+            return mGeneration;
+        }
+
+        public int getFeatures() {
+            return mFeatures;
+        }
+
+        boolean uses(String name) {
+            return mVertexName.equals(name) || mFragmentName.equals(name);
+        }
+
+        @Override
+        public String toString() {
+            return mVertexName + "+" + mFragmentName + " " + formatFeatures(mFeatures);
+        }
+    }
+
+    public ShaderLibrary(GlApi gl, SourceLoader loader) {
+        mGl = gl;
+        mLoader = loader;
+    }
+
+    /**
+     * Replaces where sources are read from. Sources read already are kept.
+     */
+    public void setSourceLoader(SourceLoader loader) {
+        mLoader = loader;
+    }
+
+    /**
+     * The program of this permutation, which is built on first use.
+     *
+     * @param features {@code FEATURE_} flags.
+     */
+    public Program getProgram(String vertexName, String fragmentName, int features) {
+        String key = vertexName + "|" + fragmentName + "|" + features;
+        Program program = mPrograms.get(key);
+        if (program == null) {
+            program = new Program(this, vertexName, fragmentName, features);
+            mPrograms.put(key, program);
+        }
+        return program;
+    }
+
+    /**
+     * Replaces a source, for the programs using it to be rebuilt on the next
+     * {@link #applyReloads()}. May be called on any thread.
+     *
+     * @param name   The file name the source was loaded by, e.g. {@code cube.frag}.
+     * @param source Unprocessed GLSL, without this library's defines.
+     */
+    public void reload(String name, String source) {
+        synchronized (mPendingReloads) {
+            mPendingReloads.put(name, source);
+        }
+    }
+
+    /**
+     * Rebuilds the programs whose sources were reloaded. Cheap when nothing was, so it can be
+     * called every frame.
+     *
+     * @return The number of programs rebuilt.
+     */
+    public int applyReloads() {
+        HashMap<String, String> reloads;
+        synchronized (mPendingReloads) {
+            if (mPendingReloads.isEmpty()) {
+                return 0;
+            }
+            reloads = new HashMap<String, String>(mPendingReloads);
+            mPendingReloads.clear();
+        }
+        List<Program> affected = new ArrayList<Program>();
+        for (Program program : mPrograms.values()) {
+            for (String name : reloads.keySet()) {
+                if (program.uses(name)) {
+                    affected.add(program);
+                    break;
+                }
+            }
+        }
+        mSources.putAll(reloads);
+        int rebuilt = 0;
+        for (Program program : affected) {
+            if (program.mId == 0) {
+                // Not built yet or broken, so try again on next use
+                program.mFailed = false;
+                continue;
+            }
+            int id = build(program);
+            if (id == 0) {
+                Log.w(TAG, "Keeping the previous build of " + program);
+                continue;
+            }
+            deleteProgram(program.mId);
+            program.mId = id;
+            program.mGeneration++;
+            rebuilt++;
+        }
+        Log.i(TAG, "Reloaded " + reloads.keySet() + ", rebuilt " + rebuilt + " programs");
+        return rebuilt;
+    }
+
+    /**
+     * Deletes every program built. They are built again when next used.
+     */
+    public void release() {
+        for (Program program : mPrograms.values()) {
+            if (program.mId != 0) {
+                deleteProgram(program.mId);
+            }
+            program.mId = 0;
+            program.mFailed = false;
+        }
+    }
+
+    /**
+     * Forgets the programs, which went away with their context. They are built again in the
+     * next context when used. Sources read so far are kept.
+     */
+    public void onContextLost() {
+        MemoryGovernor.get().getGlObjects().releaseOwner(this);
+        for (Program program : mPrograms.values()) {
+            program.mId = 0;
+            program.mFailed = false;
+        }
+    }
+
+    /**
+     * Permutations asked for so far, built or not.
+     */
+    public int getProgramCount() {
+        return mPrograms.size();
+    }
+
+    /**
+     * Programs built since this library was created, including rebuilds.
+     */
+    public int getCompileCount() {
+        return mCompileCount;
+    }
+
+    private int build(Program program) {
+        String vertexSource = getSource(program.mVertexName);
+        String fragmentSource = getSource(program.mFragmentName);
+        if (vertexSource == null || fragmentSource == null) {
+            return 0;
+        }
+        String defines = getDefines(program.mFeatures);
+        int vertexShader = Cube.loadShader(mGl, GLES20.GL_VERTEX_SHADER, defines + vertexSource);
+        if (vertexShader == 0) {
+            Log.e(TAG, "Vertex shader of " + program + " failed");
+            Telemetry.get().markError(Telemetry.ERROR_SHADER, 0);
+            return 0;
+        }
+        int fragmentShader = Cube.loadShader(mGl, GLES20.GL_FRAGMENT_SHADER,
+                defines + fragmentSource);
+        if (fragmentShader == 0) {
+            Log.e(TAG, "Fragment shader of " + program + " failed");
+            Telemetry.get().markError(Telemetry.ERROR_SHADER, 1);
+            mGl.glDeleteShader(vertexShader);
+            return 0;
+        }
+
+        int id = mGl.glCreateProgram();
+        mGl.glAttachShader(id, vertexShader);
+        mGl.glAttachShader(id, fragmentShader);
+        mGl.glLinkProgram(id);
+        // Flagged for deletion, the shaders go away with the program
+        mGl.glDeleteShader(vertexShader);
+        mGl.glDeleteShader(fragmentShader);
+
+        int[] linkStatus = new int[1];
+        mGl.glGetProgramiv(id, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            Log.e(TAG, "Could not link " + program + ":");
+            Log.e(TAG, mGl.glGetProgramInfoLog(id));
+            Telemetry.get().markError(Telemetry.ERROR_SHADER, 2);
+            mGl.glDeleteProgram(id);
+            return 0;
+        }
+        mCompileCount++;
+        MemoryGovernor.get().getGlObjects().register(this, GlObjectRegistry.TYPE_PROGRAM, id, 0,
+                program.toString());
+        return id;
+    }
+
+    private void deleteProgram(int id) {
+        mGl.glDeleteProgram(id);
+        MemoryGovernor.get().getGlObjects().unregister(this, GlObjectRegistry.TYPE_PROGRAM, id);
+    }
+
+    private String getSource(String name) {
+        String source = mSources.get(name);
+        if (source == null) {
+            try {
+                source = mLoader.load(name);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not load shader " + name, e);
+                return null;
+            }
+            mSources.put(name, source);
+        }
+        return source;
+    }
+
+    /**
+     * The lines prepended to the sources of a permutation. {@code #line} restarts the line count
+     * so that compile errors point at the line in the source file.
+     */
+    static String getDefines(int features) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < FEATURE_DEFINES.length; i++) {
+            if ((features & (1 << i)) != 0) {
+                builder.append("#define ").append(FEATURE_DEFINES[i]).append('\n');
+            }
+        }
+        return builder.append("#line 1\n").toString();
+    }
+
+    static String formatFeatures(int features) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < FEATURE_DEFINES.length; i++) {
+            if ((features & (1 << i)) != 0) {
+                if (builder.length() > 1) {
+                    builder.append(' ');
+                }
+                builder.append(FEATURE_DEFINES[i]);
+            }
+        }
+        return builder.append(']').toString();
+    }
+
+    static String readFully(InputStream in) throws IOException {
+        try {
+            Reader reader = new InputStreamReader(in, "UTF-8");
+            StringBuilder builder = new StringBuilder();
+            char[] chars = new char[1024];
+            int count;
+            while ((count = reader.read(chars)) > 0) {
+                builder.append(chars, 0, count);
+            }
+            return builder.toString();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Receives edited shader sources while developing, for a {@link ShaderLibrary} to rebuild its
+ * programs without restarting the presentation. Binds to the loopback address only and has no
+ * authentication, so it must only run in debug builds.
+ * <p>
+ * Every connection sends one file: its name on the first line, then the source up to the end of
+ * the stream. From a development machine, after {@code adb forward tcp:PORT tcp:PORT}:
+ * </p>
+ * <pre>
+ * (echo cube.frag; cat assets/shaders/cube.frag) | nc localhost PORT
+ * </pre>
+ */
+public class ShaderReloadServer {
+
+    private static final String TAG = "ShaderReloadServer";
+
+    static final int MAX_SOURCE_SIZE = 64 * 1024;
+
+    private final Target mTarget;
+    private final int mPort;
+    private ServerSocket mServerSocket;
+    private Thread mAcceptThread;
+
+    /**
+     * Gets the sources received.
+     */
+    public interface Target {
+        /**
+         * Called on the server's thread.
+         */
+        void onShaderSource(String name, String source);
+    }
+
+    /**
+     * @param port The port to listen on, or 0 for any free one.
+     */
+    public ShaderReloadServer(Target target, int port) {
+        mTarget = target;
+        mPort = port;
+    }
+
+    public synchronized void start() throws IOException {
+        if (mServerSocket != null) {
+            return;
+        }
+        final ServerSocket serverSocket = new ServerSocket(mPort, 1,
+                InetAddress.getByName("127.0.0.1"));
+        mServerSocket = serverSocket;
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept(serverSocket);
+            }
+        }, TAG);
+        mAcceptThread.start();
+    }
+
+    /**
+     * The port listened on, once started.
+     */
+    public synchronized int getLocalPort() {
+        return mServerSocket != null ? mServerSocket.getLocalPort() : -1;
+    }
+
+    public void stop() {
+        Thread acceptThread;
+        synchronized (this) {
+            if (mServerSocket == null) {
+                return;
+            }
+            try {
+                mServerSocket.close();
+            } catch (IOException e) {
+                // Nothing left to do
+            }
+            mServerSocket = null;
+            acceptThread = mAcceptThread;
+            mAcceptThread = null;
+        }
+        try {
+            acceptThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept(ServerSocket serverSocket) {
+        while (true) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                // Closed by stop()
+                return;
+            }
+            // Files are small and sent one at a time, so they are read on this thread
+            try {
+                read(client.getInputStream());
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read shader source", e);
+            } finally {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    // Nothing left to do
+                }
+            }
+        }
+    }
+
+    private void read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int count;
+        while ((count = in.read(chunk)) > 0) {
+            bytes.write(chunk, 0, count);
+            if (bytes.size() > MAX_SOURCE_SIZE) {
+                throw new IOException("Source larger than " + MAX_SOURCE_SIZE + " bytes");
+            }
+        }
+        String text = bytes.toString("UTF-8");
+        int newline = text.indexOf('\n');
+        String name = (newline < 0 ? text : text.substring(0, newline)).trim();
+        if (newline < 0 || name.isEmpty() || name.contains("/")) {
+            throw new IOException("Expected a file name on the first line");
+        }
+        mTarget.onShaderSource(name, text.substring(newline + 1));
+    }
+}
@@ -0,0 +1,663 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A deterministic software rasterizer implementing the {@link GlApi} subset used by {@link Cube}.
+ * <p>
+ * The shader stage is fixed to the vertex color pipeline: attribute {@code vPosition} is
+ * transformed by uniform {@code uMVPMatrix} and attribute {@code vColor} is interpolated
+ * (perspective-correct) to the fragment. Shader sources are accepted but not interpreted.
+ * Indexed triangles are clipped against the near plane, rasterized with a top-left fill rule,
+ * depth tested and blended into an ARGB {@code int[]} framebuffer whose first row is the top of
+ * the image.
+ * </p>
+ * <p>
+ * It doesn't depend on the Android framework, so it runs on a plain JVM. It is not thread safe.
+ * </p>
+ */
+public class SoftwareGlApi implements GlApi {
+
+    // Values from the OpenGL ES 2.0 headers, so the framework's GLES20 isn't needed
+    private static final int GL_NO_ERROR = 0;
+    private static final int GL_DEPTH_BUFFER_BIT = 0x0100;
+    private static final int GL_COLOR_BUFFER_BIT = 0x4000;
+    private static final int GL_TRIANGLES = 4;
+    private static final int GL_NEVER = 0x0200;
+    private static final int GL_LESS = 0x0201;
+    private static final int GL_EQUAL = 0x0202;
+    private static final int GL_LEQUAL = 0x0203;
+    private static final int GL_GREATER = 0x0204;
+    private static final int GL_NOTEQUAL = 0x0205;
+    private static final int GL_GEQUAL = 0x0206;
+    private static final int GL_ALWAYS = 0x0207;
+    private static final int GL_ZERO = 0;
+    private static final int GL_ONE = 1;
+    private static final int GL_SRC_COLOR = 0x0300;
+    private static final int GL_ONE_MINUS_SRC_COLOR = 0x0301;
+    private static final int GL_SRC_ALPHA = 0x0302;
+    private static final int GL_ONE_MINUS_SRC_ALPHA = 0x0303;
+    private static final int GL_DST_ALPHA = 0x0304;
+    private static final int GL_ONE_MINUS_DST_ALPHA = 0x0305;
+    private static final int GL_DST_COLOR = 0x0306;
+    private static final int GL_ONE_MINUS_DST_COLOR = 0x0307;
+    private static final int GL_CULL_FACE = 0x0B44;
+    private static final int GL_DEPTH_TEST = 0x0B71;
+    private static final int GL_BLEND = 0x0BE2;
+    private static final int GL_DITHER = 0x0BD0;
+    private static final int GL_UNSIGNED_BYTE = 0x1401;
+    private static final int GL_UNSIGNED_SHORT = 0x1403;
+    private static final int GL_FLOAT = 0x1406;
+    private static final int GL_FRAGMENT_SHADER = 0x8B30;
+    private static final int GL_VERTEX_SHADER = 0x8B31;
+    private static final int GL_COMPILE_STATUS = 0x8B81;
+    private static final int GL_LINK_STATUS = 0x8B82;
+    private static final int GL_TRUE = 1;
+    private static final int GL_INVALID_ENUM = 0x0500;
+    private static final int GL_INVALID_VALUE = 0x0501;
+    private static final int GL_INVALID_OPERATION = 0x0502;
+
+    private static final int ATTRIB_POSITION = 0;
+    private static final int ATTRIB_COLOR = 1;
+    private static final int UNIFORM_MVP_MATRIX = 0;
+    private static final int MAX_ATTRIBS = 2;
+
+    private static final String POSITION_NAME = "vPosition";
+    private static final String COLOR_NAME = "vColor";
+    private static final String MVP_MATRIX_NAME = "uMVPMatrix";
+
+    // Clipped vertex layout: x, y, z, w, r, g, b, a
+    private static final int VERTEX_SIZE = 8;
+    // A triangle clipped by one plane yields at most 4 vertices
+    private static final int MAX_CLIPPED_VERTICES = 4;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mColorBuffer;
+    private final float[] mDepthBuffer;
+
+    private float mClearRed;
+    private float mClearGreen;
+    private float mClearBlue;
+    private float mClearAlpha;
+
+    private boolean mDepthTest;
+    private boolean mBlend;
+    private int mDepthFunc = GL_LESS;
+    private int mBlendSrc = GL_ONE;
+    private int mBlendDst = GL_ZERO;
+
+    private int mViewportX;
+    private int mViewportY;
+    private int mViewportWidth;
+    private int mViewportHeight;
+
+    private int mNextObjectId = 1;
+    private int mCurrentProgram;
+    private int mError = GL_NO_ERROR;
+
+    private final float[] mMvpMatrix = new float[16];
+    private final boolean[] mAttribEnabled = new boolean[MAX_ATTRIBS];
+    private final FloatBuffer[] mAttribBuffers = new FloatBuffer[MAX_ATTRIBS];
+    private final int[] mAttribSizes = new int[MAX_ATTRIBS];
+    private final int[] mAttribStrides = new int[MAX_ATTRIBS];
+
+    // Scratch storage so drawing does not allocate
+    private final float[] mTriangle = new float[3 * VERTEX_SIZE];
+    private final float[] mClipped = new float[MAX_CLIPPED_VERTICES * VERTEX_SIZE];
+    private final float[] mScreen = new float[3 * VERTEX_SIZE];
+
+    private long mTriangleCount;
+    private long mFragmentCount;
+
+    public SoftwareGlApi(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid framebuffer size " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mColorBuffer = new int[width * height];
+        mDepthBuffer = new float[width * height];
+        mViewportWidth = width;
+        mViewportHeight = height;
+        mMvpMatrix[0] = mMvpMatrix[5] = mMvpMatrix[10] = mMvpMatrix[15] = 1.0f;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the live ARGB framebuffer, row-major with the first row at the top of the image.
+     */
+    public int[] getColorBuffer() {
+        return mColorBuffer;
+    }
+
+    /**
+     * Number of triangles submitted since the last {@link #resetStats()}, before clipping.
+     */
+    public long getTriangleCount() {
+        return mTriangleCount;
+    }
+
+    /**
+     * Number of fragments that passed coverage since the last {@link #resetStats()}.
+     */
+    public long getFragmentCount() {
+        return mFragmentCount;
+    }
+
+    public void resetStats() {
+        mTriangleCount = 0;
+        mFragmentCount = 0;
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        mClearRed = clamp(red);
+        mClearGreen = clamp(green);
+        mClearBlue = clamp(blue);
+        mClearAlpha = clamp(alpha);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        if ((mask & GL_COLOR_BUFFER_BIT) != 0) {
+            int color = pack(mClearRed, mClearGreen, mClearBlue, mClearAlpha);
+            for (int i = 0; i < mColorBuffer.length; i++) {
+                mColorBuffer[i] = color;
+            }
+        }
+        if ((mask & GL_DEPTH_BUFFER_BIT) != 0) {
+            for (int i = 0; i < mDepthBuffer.length; i++) {
+                mDepthBuffer[i] = 1.0f;
+            }
+        }
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        setCapability(cap, true);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        setCapability(cap, false);
+    }
+
+    private void setCapability(int cap, boolean enabled) {
+        switch (cap) {
+            case GL_DEPTH_TEST:
+                mDepthTest = enabled;
+                break;
+            case GL_BLEND:
+                mBlend = enabled;
+                break;
+            case GL_CULL_FACE:
+            case GL_DITHER:
+                // Not used by the app; accepted and ignored
+                break;
+            default:
+                setError(GL_INVALID_ENUM);
+        }
+    }
+
+    @Override
+    public void glDepthFunc(int func) {
+        if (func < GL_NEVER || func > GL_ALWAYS) {
+            setError(GL_INVALID_ENUM);
+            return;
+        }
+        mDepthFunc = func;
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        mBlendSrc = sfactor;
+        mBlendDst = dfactor;
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        if (width < 0 || height < 0) {
+            setError(GL_INVALID_VALUE);
+            return;
+        }
+        mViewportX = x;
+        mViewportY = y;
+        mViewportWidth = width;
+        mViewportHeight = height;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        if (type != GL_VERTEX_SHADER && type != GL_FRAGMENT_SHADER) {
+            setError(GL_INVALID_ENUM);
+            return 0;
+        }
+        return mNextObjectId++;
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        // The pipeline is fixed; sources are not interpreted
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        params[offset] = pname == GL_COMPILE_STATUS ? GL_TRUE : 0;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return "";
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return mNextObjectId++;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        params[offset] = pname == GL_LINK_STATUS ? GL_TRUE : 0;
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        return "";
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        if (mCurrentProgram == program) {
+            mCurrentProgram = 0;
+        }
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        mCurrentProgram = program;
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        if (POSITION_NAME.equals(name)) {
+            return ATTRIB_POSITION;
+        } else if (COLOR_NAME.equals(name)) {
+            return ATTRIB_COLOR;
+        }
+        return -1;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return MVP_MATRIX_NAME.equals(name) ? UNIFORM_MVP_MATRIX : -1;
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        if (checkAttribIndex(index)) {
+            mAttribEnabled[index] = true;
+        }
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        if (checkAttribIndex(index)) {
+            mAttribEnabled[index] = false;
+        }
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset) {
+        if (location == -1) {
+            return;
+        }
+        if (location != UNIFORM_MVP_MATRIX || count != 1 || transpose) {
+            setError(GL_INVALID_VALUE);
+            return;
+        }
+        System.arraycopy(value, offset, mMvpMatrix, 0, 16);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+            int stride, Buffer ptr) {
+        if (!checkAttribIndex(index)) {
+            return;
+        }
+        if (type != GL_FLOAT || !(ptr instanceof FloatBuffer) || size < 1 || size > 4) {
+            setError(GL_INVALID_ENUM);
+            return;
+        }
+        mAttribBuffers[index] = (FloatBuffer) ptr;
+        mAttribSizes[index] = size;
+        // Stride is in bytes; zero means tightly packed
+        mAttribStrides[index] = stride == 0 ? size : stride / 4;
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        if (mode != GL_TRIANGLES) {
+            setError(GL_INVALID_ENUM);
+            return;
+        }
+        if (mCurrentProgram == 0 || !mAttribEnabled[ATTRIB_POSITION]) {
+            setError(GL_INVALID_OPERATION);
+            return;
+        }
+        int base = indices.position();
+        for (int i = 0; i + 2 < count; i += 3) {
+            for (int v = 0; v < 3; v++) {
+                int index;
+                if (type == GL_UNSIGNED_SHORT && indices instanceof ShortBuffer) {
+                    index = ((ShortBuffer) indices).get(base + i + v) & 0xffff;
+                } else if (type == GL_UNSIGNED_BYTE && indices instanceof ByteBuffer) {
+                    index = ((ByteBuffer) indices).get(base + i + v) & 0xff;
+                } else {
+                    setError(GL_INVALID_ENUM);
+                    return;
+                }
+                shadeVertex(index, mTriangle, v * VERTEX_SIZE);
+            }
+            mTriangleCount++;
+            drawTriangle();
+        }
+    }
+
+    @Override
+    public int glGetError() {
+        int error = mError;
+        mError = GL_NO_ERROR;
+        return error;
+    }
+
+    /**
+     * Fixed function equivalent of Cube's vertex shader: gl_Position = uMVPMatrix * vPosition.
+     */
+    private void shadeVertex(int index, float[] out, int o) {
+        float x = fetch(ATTRIB_POSITION, index, 0, 0.0f);
+        float y = fetch(ATTRIB_POSITION, index, 1, 0.0f);
+        float z = fetch(ATTRIB_POSITION, index, 2, 0.0f);
+        float w = fetch(ATTRIB_POSITION, index, 3, 1.0f);
+        float[] m = mMvpMatrix;
+        out[o] = m[0] * x + m[4] * y + m[8] * z + m[12] * w;
+        out[o + 1] = m[1] * x + m[5] * y + m[9] * z + m[13] * w;
+        out[o + 2] = m[2] * x + m[6] * y + m[10] * z + m[14] * w;
+        out[o + 3] = m[3] * x + m[7] * y + m[11] * z + m[15] * w;
+        out[o + 4] = fetch(ATTRIB_COLOR, index, 0, 0.0f);
+        out[o + 5] = fetch(ATTRIB_COLOR, index, 1, 0.0f);
+        out[o + 6] = fetch(ATTRIB_COLOR, index, 2, 0.0f);
+        out[o + 7] = fetch(ATTRIB_COLOR, index, 3, 1.0f);
+    }
+
+    private float fetch(int attrib, int index, int component, float defaultValue) {
+        if (!mAttribEnabled[attrib] || component >= mAttribSizes[attrib]) {
+            return defaultValue;
+        }
+        FloatBuffer buffer = mAttribBuffers[attrib];
+        return buffer.get(buffer.position() + index * mAttribStrides[attrib] + component);
+    }
+
+    /**
+     * Clips the triangle in {@link #mTriangle} against the near plane (z >= -w) and rasterizes
+     * the resulting polygon as a fan.
+     */
+    private void drawTriangle() {
+        int count = 0;
+        for (int i = 0; i < 3; i++) {
+            int a = i * VERTEX_SIZE;
+            int b = ((i + 1) % 3) * VERTEX_SIZE;
+            float da = mTriangle[a + 2] + mTriangle[a + 3];
+            float db = mTriangle[b + 2] + mTriangle[b + 3];
+            if (da >= 0) {
+                System.arraycopy(mTriangle, a, mClipped, count * VERTEX_SIZE, VERTEX_SIZE);
+                count++;
+            }
+            if ((da >= 0) != (db >= 0)) {
+                float t = da / (da - db);
+                int o = count * VERTEX_SIZE;
+                for (int k = 0; k < VERTEX_SIZE; k++) {
+                    mClipped[o + k] = mTriangle[a + k] + t * (mTriangle[b + k] - mTriangle[a + k]);
+                }
+                count++;
+            }
+        }
+        for (int i = 1; i + 1 < count; i++) {
+            toScreen(mClipped, 0, 0);
+            toScreen(mClipped, i * VERTEX_SIZE, VERTEX_SIZE);
+            toScreen(mClipped, (i + 1) * VERTEX_SIZE, 2 * VERTEX_SIZE);
+            rasterize();
+        }
+    }
+
+    /**
+     * Converts a clip space vertex to window coordinates. The w slot receives 1/w and the color
+     * is premultiplied by 1/w for perspective-correct interpolation.
+     */
+    private void toScreen(float[] in, int i, int o) {
+        float w = in[i + 3];
+        float invW = w != 0 ? 1.0f / w : 0.0f;
+        mScreen[o] = mViewportX + (in[i] * invW + 1.0f) * 0.5f * mViewportWidth;
+        mScreen[o + 1] = mViewportY + (in[i + 1] * invW + 1.0f) * 0.5f * mViewportHeight;
+        mScreen[o + 2] = in[i + 2] * invW * 0.5f + 0.5f;
+        mScreen[o + 3] = invW;
+        for (int k = 4; k < VERTEX_SIZE; k++) {
+            mScreen[o + k] = in[i + k] * invW;
+        }
+    }
+
+    private void rasterize() {
+        float[] s = mScreen;
+        int v0 = 0;
+        int v1 = VERTEX_SIZE;
+        int v2 = 2 * VERTEX_SIZE;
+        float area = edge(s[v0], s[v0 + 1], s[v1], s[v1 + 1], s[v2], s[v2 + 1]);
+        if (area == 0 || Float.isNaN(area)) {
+            return;
+        }
+        if (area < 0) {
+            // Normalize winding so that inside means all edge functions are positive
+            v1 = 2 * VERTEX_SIZE;
+            v2 = VERTEX_SIZE;
+            area = -area;
+        }
+
+        int minX = Math.max(Math.max(0, mViewportX),
+                (int) Math.floor(Math.min(s[v0], Math.min(s[v1], s[v2]))));
+        int maxX = Math.min(Math.min(mWidth, mViewportX + mViewportWidth) - 1,
+                (int) Math.ceil(Math.max(s[v0], Math.max(s[v1], s[v2]))));
+        int minY = Math.max(Math.max(0, mViewportY),
+                (int) Math.floor(Math.min(s[v0 + 1], Math.min(s[v1 + 1], s[v2 + 1]))));
+        int maxY = Math.min(Math.min(mHeight, mViewportY + mViewportHeight) - 1,
+                (int) Math.ceil(Math.max(s[v0 + 1], Math.max(s[v1 + 1], s[v2 + 1]))));
+
+        float invArea = 1.0f / area;
+        for (int py = minY; py <= maxY; py++) {
+            float cy = py + 0.5f;
+            int row = (mHeight - 1 - py) * mWidth;
+            for (int px = minX; px <= maxX; px++) {
+                float cx = px + 0.5f;
+                float w0 = edge(s[v1], s[v1 + 1], s[v2], s[v2 + 1], cx, cy);
+                float w1 = edge(s[v2], s[v2 + 1], s[v0], s[v0 + 1], cx, cy);
+                float w2 = edge(s[v0], s[v0 + 1], s[v1], s[v1 + 1], cx, cy);
+                if (!covers(w0, s[v1], s[v1 + 1], s[v2], s[v2 + 1])
+                        || !covers(w1, s[v2], s[v2 + 1], s[v0], s[v0 + 1])
+                        || !covers(w2, s[v0], s[v0 + 1], s[v1], s[v1 + 1])) {
+                    continue;
+                }
+                float b0 = w0 * invArea;
+                float b1 = w1 * invArea;
+                float b2 = w2 * invArea;
+                int pixel = row + px;
+
+                float depth = b0 * s[v0 + 2] + b1 * s[v1 + 2] + b2 * s[v2 + 2];
+                if (mDepthTest) {
+                    if (!depthPasses(depth, mDepthBuffer[pixel])) {
+                        continue;
+                    }
+                    mDepthBuffer[pixel] = clamp(depth);
+                }
+                mFragmentCount++;
+
+                float invW = b0 * s[v0 + 3] + b1 * s[v1 + 3] + b2 * s[v2 + 3];
+                float scale = invW != 0 ? 1.0f / invW : 0.0f;
+                float r = clamp((b0 * s[v0 + 4] + b1 * s[v1 + 4] + b2 * s[v2 + 4]) * scale);
+                float g = clamp((b0 * s[v0 + 5] + b1 * s[v1 + 5] + b2 * s[v2 + 5]) * scale);
+                float b = clamp((b0 * s[v0 + 6] + b1 * s[v1 + 6] + b2 * s[v2 + 6]) * scale);
+                float a = clamp((b0 * s[v0 + 7] + b1 * s[v1 + 7] + b2 * s[v2 + 7]) * scale);
+                mColorBuffer[pixel] = mBlend ? blend(r, g, b, a, mColorBuffer[pixel])
+                        : pack(r, g, b, a);
+            }
+        }
+    }
+
+    private static float edge(float ax, float ay, float bx, float by, float px, float py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+
+    /**
+     * Top-left style tie breaking: a pixel centre exactly on an edge belongs to only one of the two
+     * triangles sharing that edge, so blended edges are never drawn twice.
+     */
+    private static boolean covers(float w, float ax, float ay, float bx, float by) {
+        if (w > 0) {
+            return true;
+        }
+        if (w < 0) {
+            return false;
+        }
+        float dy = by - ay;
+        return dy > 0 || (dy == 0 && bx - ax < 0);
+    }
+
+    private boolean depthPasses(float depth, float stored) {
+        switch (mDepthFunc) {
+            case GL_NEVER:
+                return false;
+            case GL_LESS:
+                return depth < stored;
+            case GL_EQUAL:
+                return depth == stored;
+            case GL_LEQUAL:
+                return depth <= stored;
+            case GL_GREATER:
+                return depth > stored;
+            case GL_NOTEQUAL:
+                return depth != stored;
+            case GL_GEQUAL:
+                return depth >= stored;
+            default:
+                return true;
+        }
+    }
+
+    private int blend(float sr, float sg, float sb, float sa, int dst) {
+        float da = ((dst >>> 24) & 0xff) / 255.0f;
+        float dr = ((dst >>> 16) & 0xff) / 255.0f;
+        float dg = ((dst >>> 8) & 0xff) / 255.0f;
+        float db = (dst & 0xff) / 255.0f;
+        float r = sr * factor(mBlendSrc, sr, sa, dr, da) + dr * factor(mBlendDst, sr, sa, dr, da);
+        float g = sg * factor(mBlendSrc, sg, sa, dg, da) + dg * factor(mBlendDst, sg, sa, dg, da);
+        float b = sb * factor(mBlendSrc, sb, sa, db, da) + db * factor(mBlendDst, sb, sa, db, da);
+        float a = sa * factor(mBlendSrc, sa, sa, da, da) + da * factor(mBlendDst, sa, sa, da, da);
+        return pack(clamp(r), clamp(g), clamp(b), clamp(a));
+    }
+
+    /**
+     * Blend factor for a single channel, where {@code s}/{@code d} are that channel's source and
+     * destination values.
+     */
+    private static float factor(int factor, float s, float sa, float d, float da) {
+        switch (factor) {
+            case GL_ZERO:
+                return 0.0f;
+            case GL_ONE:
+                return 1.0f;
+            case GL_SRC_COLOR:
+                return s;
+            case GL_ONE_MINUS_SRC_COLOR:
+                return 1.0f - s;
+            case GL_SRC_ALPHA:
+                return sa;
+            case GL_ONE_MINUS_SRC_ALPHA:
+                return 1.0f - sa;
+            case GL_DST_COLOR:
+                return d;
+            case GL_ONE_MINUS_DST_COLOR:
+                return 1.0f - d;
+            case GL_DST_ALPHA:
+                return da;
+            case GL_ONE_MINUS_DST_ALPHA:
+                return 1.0f - da;
+            default:
+                return 1.0f;
+        }
+    }
+
+    private boolean checkAttribIndex(int index) {
+        if (index < 0 || index >= MAX_ATTRIBS) {
+            setError(GL_INVALID_VALUE);
+            return false;
+        }
+        return true;
+    }
+
+    private void setError(int error) {
+        // Like GL, keep the first error until it is read
+        if (mError == GL_NO_ERROR) {
+            mError = error;
+        }
+    }
+
+    private static float clamp(float value) {
+        return value < 0.0f ? 0.0f : (value > 1.0f ? 1.0f : value);
+    }
+
+    private static int pack(float r, float g, float b, float a) {
+        return (Math.round(a * 255) << 24) | (Math.round(r * 255) << 16)
+                | (Math.round(g * 255) << 8) | Math.round(b * 255);
+    }
+}
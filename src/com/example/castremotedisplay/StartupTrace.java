@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A lightweight trace of the remote display startup path.
+ * <p>
+ * Events are written into preallocated slots with {@link System#nanoTime()} timestamps, so
+ * recording does not allocate and can be called from any thread, including the GL thread. When
+ * the slots are full further events are dropped. The trace covers one session: it starts over
+ * when a session reaches a stage the trace has already seen, see {@link #markSessionStart}. It
+ * can be exported in the Chrome trace event format and opened in {@code chrome://tracing}.
+ * </p>
+ */
+public final class StartupTrace {
+
+    public static final int EVENT_MAIN_CREATE = 0;
+    public static final int EVENT_ROUTE_SELECTED = 1;
+    public static final int EVENT_START_CAST_SERVICE = 2;
+    public static final int EVENT_SESSION_STARTED = 3;
+    public static final int EVENT_CREATE_PRESENTATION = 4;
+    public static final int EVENT_SURFACE_CREATED = 5;
+    public static final int EVENT_FIRST_FRAME = 6;
+    public static final int EVENT_COUNT = 7;
+
+    private static final String[] EVENT_NAMES = {
+            "MainActivity.onCreate",
+            "onRouteSelected",
+            "startCastService",
+            "onRemoteDisplaySessionStarted",
+            "onCreatePresentation",
+            "onSurfaceCreated",
+            "firstFrame"
+    };
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final StartupTrace sInstance = new StartupTrace(DEFAULT_CAPACITY);
+
+    private final int[] mEvents;
+    private final long[] mTimestamps;
+    private final long[] mThreadIds;
+    // Guards the slots and everything below
+    private final Object mLock = new Object();
+    private int mCount;
+    private final long[] mFirstOccurrence = new long[EVENT_COUNT];
+    private int mSession;
+
+    public StartupTrace(int capacity) {
+        mEvents = new int[capacity];
+        mTimestamps = new long[capacity];
+        mThreadIds = new long[capacity];
+    }
+
+    /**
+     * Returns the process wide trace used by the app.
+     */
+    public static StartupTrace get() {
+        return sInstance;
+    }
+
+    public static String getEventName(int event) {
+        return EVENT_NAMES[event];
+    }
+
+    /**
+     * Records an event at the current time.
+     */
+    public void mark(int event) {
+        mark(event, System.nanoTime());
+    }
+
+    /**
+     * Records an event at the given {@link System#nanoTime()} timestamp.
+     */
+    public void mark(int event, long timestampNanos) {
+        synchronized (mLock) {
+            if (mCount == mEvents.length) {
+                return;
+            }
+            mEvents[mCount] = event;
+            mTimestamps[mCount] = timestampNanos;
+            mThreadIds[mCount] = Thread.currentThread().getId();
+            mCount++;
+            if (mFirstOccurrence[event] == 0) {
+                mFirstOccurrence[event] = timestampNanos;
+            }
+        }
+    }
+
+    /**
+     * Records a stage that starts a session, such as {@link #EVENT_ROUTE_SELECTED}. If the trace
+     * has already seen this stage or a later one, it belongs to a previous session or reconnect
+     * and is cleared first, so an export only ever shows a single session.
+     */
+    public void markSessionStart(int event) {
+        long timestampNanos = System.nanoTime();
+        synchronized (mLock) {
+            for (int later = event; later < EVENT_COUNT; later++) {
+                if (mFirstOccurrence[later] != 0) {
+                    reset();
+                    break;
+                }
+            }
+            mark(event, timestampNanos);
+        }
+    }
+
+    /**
+     * Records {@link #EVENT_FIRST_FRAME} unless a first frame was already recorded. Cheap enough
+     * to call on every frame.
+     */
+    public void markFirstFrame() {
+        if (!hasEvent(EVENT_FIRST_FRAME)) {
+            mark(EVENT_FIRST_FRAME);
+        }
+    }
+
+    public boolean hasEvent(int event) {
+        synchronized (mLock) {
+            return mFirstOccurrence[event] != 0;
+        }
+    }
+
+    /**
+     * Returns the nanoseconds between the first occurrences of two events, or -1 if either hasn't
+     * happened.
+     */
+    public long getDurationNanos(int fromEvent, int toEvent) {
+        synchronized (mLock) {
+            long from = mFirstOccurrence[fromEvent];
+            long to = mFirstOccurrence[toEvent];
+            return from == 0 || to == 0 ? -1 : to - from;
+        }
+    }
+
+    public int size() {
+        synchronized (mLock) {
+            return mCount;
+        }
+    }
+
+    /**
+     * Clears all events, starting a new session.
+     */
+    public void reset() {
+        synchronized (mLock) {
+            mCount = 0;
+            Arrays.fill(mFirstOccurrence, 0);
+            mSession++;
+        }
+    }
+
+    /**
+     * Counts the times the trace was cleared, so a session's trace can be exported just once.
+     */
+    public int getSession() {
+        synchronized (mLock) {
+            return mSession;
+        }
+    }
+
+    /**
+     * Writes the trace as Chrome trace event JSON. Every event becomes an instant event, and
+     * consecutive startup stages are also emitted as complete events so the timeline shows the
+     * time spent between them. Events recorded while writing are left out.
+     */
+    public void writeChromeTrace(Writer writer) throws IOException {
+        // A snapshot, so the file is consistent and marking isn't blocked on the writer
+        int count;
+        int[] events;
+        long[] timestamps;
+        long[] threadIds;
+        long[] firstOccurrence;
+        synchronized (mLock) {
+            count = mCount;
+            events = Arrays.copyOf(mEvents, count);
+            timestamps = Arrays.copyOf(mTimestamps, count);
+            threadIds = Arrays.copyOf(mThreadIds, count);
+            firstOccurrence = mFirstOccurrence.clone();
+        }
+        long origin = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            origin = Math.min(origin, timestamps[i]);
+        }
+        writer.write("{\"traceEvents\":[");
+        boolean first = true;
+        for (int i = 0; i < count; i++) {
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writer.write("{\"name\":\"" + EVENT_NAMES[events[i]] + "\",\"ph\":\"i\",\"s\":\"p\","
+                    + "\"pid\":1,\"tid\":" + threadIds[i] + ",\"ts\":"
+                    + toMicros(timestamps[i] - origin) + "}");
+        }
+        long previous = 0;
+        int previousEvent = -1;
+        for (int event = 0; event < EVENT_COUNT; event++) {
+            long timestamp = firstOccurrence[event];
+            if (timestamp == 0) {
+                continue;
+            }
+            if (previousEvent >= 0 && timestamp >= previous) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writer.write("{\"name\":\"" + EVENT_NAMES[previousEvent] + " -> "
+                        + EVENT_NAMES[event] + "\",\"ph\":\"X\",\"pid\":1,\"tid\":0,\"ts\":"
+                        + toMicros(previous - origin) + ",\"dur\":"
+                        + toMicros(timestamp - previous) + "}");
+            }
+            previous = timestamp;
+            previousEvent = event;
+        }
+        writer.write("],\"displayTimeUnit\":\"ms\"}");
+        writer.flush();
+    }
+
+    /**
+     * Writes the trace to a file, see {@link #writeChromeTrace(Writer)}.
+     */
+    public void writeChromeTrace(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writeChromeTrace(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String toMicros(long nanos) {
+        // Chrome accepts fractional microseconds
+        return (nanos / 1000) + "." + String.format(Locale.US, "%03d", nanos % 1000);
+    }
+}
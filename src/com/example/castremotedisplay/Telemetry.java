@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * A binary journal of the app's performance, kept on the device across sessions.
+ * <p>
+ * Records are {@link #RECORD_SIZE} bytes, written into a memory mapped file that is
+ * preallocated with zeros, so appending is a few stores into memory: no allocation, no system
+ * call and no string formatting. The record's type is stored last, and a reader stops at the
+ * first record without a type, so a record torn by the process dying is never read. Since the
+ * pages belong to the kernel, records survive the process being killed, though not the device
+ * losing power before they are written back; {@link #flush()} forces that.
+ * </p>
+ * <p>
+ * Frames are not recorded one by one but summed up into a {@link #TYPE_FRAME_STATS} record per
+ * {@link #STATS_INTERVAL_NS}, or sooner when another record comes in, so that the windows line
+ * up with the events. Once a file is full the journal continues in a new one and deletes the
+ * oldest beyond the file count. Mapping the new file allocates, but at one frame record a
+ * second a {@link #DEFAULT_FILE_SIZE} file lasts for hours.
+ * </p>
+ * <p>
+ * Files are named {@code telemetry-NNNNNN.bin} with an increasing sequence number, one or more
+ * per process. A file starts with a {@link #HEADER_SIZE} byte header, see {@link #MAGIC}, that
+ * ties the {@link System#nanoTime()} timestamps of its records to the wall clock. Everything is
+ * little endian. {@code TelemetryReader} reads them on a computer. Until {@link #open} succeeds
+ * records are dropped. Methods are synchronized, so records may come from any thread.
+ * </p>
+ */
+public final class Telemetry {
+
+    /**
+     * Header: the magic, the version and the record size as shorts, the file's sequence number,
+     * 4 reserved bytes, then the wall clock in milliseconds and {@link System#nanoTime()} at the
+     * same moment, as longs.
+     */
+    public static final int MAGIC = 0x54445243; // "CRDT"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    /**
+     * Record: the {@link System#nanoTime()} timestamp as a long, the type and a code as shorts,
+     * then five ints whose meaning depends on the type.
+     */
+    public static final int RECORD_SIZE = 32;
+
+    /**
+     * Frames since the previous frame record. Time: the first frame's start. Code:
+     * {@link #FRAME_FLAG_BACKGROUND} if any was throttled in the background. Values: frames,
+     * mean and longest interval between frame starts in microseconds, intervals over
+     * {@link #MAX_FRAME_INTERVAL_NS} being pauses and not counted, then mean and longest
+     * rendering time in microseconds.
+     */
+    public static final int TYPE_FRAME_STATS = 1;
+
+    /**
+     * Code: one of the {@code SESSION_} events. Values: the display id for presentations.
+     */
+    public static final int TYPE_SESSION = 2;
+
+    /**
+     * The last used device was rediscovered and selected again. No code or values.
+     */
+    public static final int TYPE_RECONNECT = 3;
+
+    /**
+     * The {@link QualityGovernor} picked another tier. Code: the tier's index. Values: the
+     * smoothed frame interval and rendering time that led to it, in microseconds.
+     */
+    public static final int TYPE_QUALITY_TIER = 4;
+
+    /**
+     * Code: one of the {@code ERROR_} kinds. Values: a detail, e.g. a status code.
+     */
+    public static final int TYPE_ERROR = 5;
+
+    public static final int TYPE_COUNT = 6;
+
+    public static final int FRAME_FLAG_BACKGROUND = 1;
+
+    public static final int SESSION_CAST_STARTED = 0;
+    public static final int SESSION_CAST_ENDED = 1;
+    // The presentation service, and with it a new quality governor at the best tier
+    public static final int SESSION_SERVICE_CREATED = 2;
+    public static final int SESSION_SERVICE_DESTROYED = 3;
+    public static final int SESSION_PRESENTATION_CREATED = 4;
+    public static final int SESSION_PRESENTATION_DISMISSED = 5;
+
+    // Detail: the Cast status code
+    public static final int ERROR_CAST_SESSION = 0;
+    public static final int ERROR_DISPLAY_REMOVED = 1;
+    // Detail: the GL error
+    public static final int ERROR_GL = 2;
+    // Detail: 0 vertex shader, 1 fragment shader, 2 link
+    public static final int ERROR_SHADER = 3;
+
+    private static final String[] TYPE_NAMES = {
+            null, "frames", "session", "reconnect", "quality tier", "error"
+    };
+
+    private static final String[] SESSION_NAMES = {
+            "cast started", "cast ended", "service created", "service destroyed",
+            "presentation created", "presentation dismissed"
+    };
+
+    private static final String[] ERROR_NAMES = {
+            "cast session", "display removed", "GL", "shader"
+    };
+
+    public static final long STATS_INTERVAL_NS = 1000000000L;
+    // Like QualityGovernor, longer intervals are pauses (e.g. surface recreation)
+    public static final long MAX_FRAME_INTERVAL_NS = 500000000L;
+
+    // 32768 records
+    public static final int DEFAULT_FILE_SIZE = 1 << 20;
+    public static final int DEFAULT_FILE_COUNT = 8;
+
+    static final String FILE_PREFIX = "telemetry-";
+    static final String FILE_SUFFIX = ".bin";
+
+    private static final Telemetry sInstance = new Telemetry();
+
+    private File mDirectory;
+    private int mFileSize;
+    private int mFileCount;
+    private int mSequence;
+    private MappedByteBuffer mBuffer;
+    private int mPosition;
+    private long mDropped;
+
+    // Frames of the window not recorded yet
+    private long mLastFrameNanos = -1;
+    private long mWindowStartNanos;
+    private int mFrames;
+    private int mIntervals;
+    private long mIntervalSumNanos;
+    private long mMaxIntervalNanos;
+    private long mWorkSumNanos;
+    private long mMaxWorkNanos;
+    private int mFrameFlags;
+
+    /**
+     * Returns the process wide journal used by the app.
+     */
+    public static Telemetry get() {
+        return sInstance;
+    }
+
+    public static String getTypeName(int type) {
+        return type > 0 && type < TYPE_COUNT ? TYPE_NAMES[type] : "type " + type;
+    }
+
+    public static String getSessionName(int event) {
+        return event >= 0 && event < SESSION_NAMES.length ? SESSION_NAMES[event]
+                : "session " + event;
+    }
+
+    public static String getErrorName(int error) {
+        return error >= 0 && error < ERROR_NAMES.length ? ERROR_NAMES[error] : "error " + error;
+    }
+
+    /**
+     * Starts a new file in {@code directory}, see {@link #open(File, int, int)}, with the
+     * default size and count.
+     */
+    public void open(File directory) throws IOException {
+        open(directory, DEFAULT_FILE_SIZE, DEFAULT_FILE_COUNT);
+    }
+
+    /**
+     * Starts recording into a new file in {@code directory}, numbered after the files already
+     * there. Does nothing if already open.
+     *
+     * @param fileSize  Bytes per file, header included.
+     * @param fileCount Files kept, the oldest being deleted when another is started.
+     */
+    public synchronized void open(File directory, int fileSize, int fileCount)
+            throws IOException {
+        if (fileSize < HEADER_SIZE + RECORD_SIZE || fileCount < 1) {
+            throw new IllegalArgumentException("Invalid file size " + fileSize + " or count "
+                    + fileCount);
+        }
+        if (mBuffer != null) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        File[] files = listFiles(directory);
+        mDirectory = directory;
+        mFileSize = fileSize - (fileSize - HEADER_SIZE) % RECORD_SIZE;
+        mFileCount = fileCount;
+        mSequence = files.length > 0 ? getSequence(files[files.length - 1]) : 0;
+        startFile();
+    }
+
+    public synchronized boolean isOpen() {
+        return mBuffer != null;
+    }
+
+    /**
+     * Records dropped because the journal wasn't open or a file couldn't be started.
+     */
+    public synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * Reports a rendered frame, on the rendering thread.
+     *
+     * @param startNanos When the frame started.
+     * @param workNanos  How long rendering it took.
+     * @param background Whether rendering was throttled in the background.
+     */
+    public synchronized void onFrame(long startNanos, long workNanos, boolean background) {
+        if (mFrames > 0 && startNanos - mWindowStartNanos >= STATS_INTERVAL_NS) {
+            flushFrames();
+        }
+        if (mFrames == 0) {
+            mWindowStartNanos = startNanos;
+        }
+        if (mLastFrameNanos >= 0) {
+            long interval = startNanos - mLastFrameNanos;
+            if (interval > 0 && interval < MAX_FRAME_INTERVAL_NS) {
+                mIntervals++;
+                mIntervalSumNanos += interval;
+                mMaxIntervalNanos = Math.max(mMaxIntervalNanos, interval);
+            }
+        }
+        mLastFrameNanos = startNanos;
+        mFrames++;
+        mWorkSumNanos += workNanos;
+        mMaxWorkNanos = Math.max(mMaxWorkNanos, workNanos);
+        if (background) {
+            mFrameFlags |= FRAME_FLAG_BACKGROUND;
+        }
+    }
+
+    /**
+     * Records one of the {@code SESSION_} events.
+     *
+     * @param displayId The presentation's display, or 0.
+     */
+    public void markSession(int event, int displayId) {
+        mark(TYPE_SESSION, event, displayId, 0);
+    }
+
+    public void markReconnect() {
+        mark(TYPE_RECONNECT, 0, 0, 0);
+    }
+
+    public void markQualityTier(int index, float averageFrameNanos, float averageWorkNanos) {
+        mark(TYPE_QUALITY_TIER, index, (int) (averageFrameNanos / 1000),
+                (int) (averageWorkNanos / 1000));
+    }
+
+    /**
+     * Records one of the {@code ERROR_} kinds.
+     */
+    public void markError(int error, int detail) {
+        mark(TYPE_ERROR, error, detail, 0);
+    }
+
+    private void mark(int type, int code, int a, int b) {
+        mark(System.nanoTime(), type, code, a, b);
+    }
+
+    /**
+     * Records an event at the given {@link System#nanoTime()} timestamp, after the frames so
+     * far.
+     */
+    synchronized void mark(long timeNanos, int type, int code, int a, int b) {
+        flushFrames();
+        append(timeNanos, type, code, a, b, 0, 0, 0);
+    }
+
+    /**
+     * Writes the pending frame window, if any, and forces the mapped file to storage.
+     */
+    public synchronized void flush() {
+        flushFrames();
+        if (mBuffer != null) {
+            mBuffer.force();
+        }
+    }
+
+    /**
+     * Writes the pending frame window and stops recording. The file stays mapped until the
+     * mapping is collected.
+     */
+    public synchronized void close() {
+        flushFrames();
+        mBuffer = null;
+        mLastFrameNanos = -1;
+    }
+
+    private void flushFrames() {
+        if (mFrames == 0) {
+            return;
+        }
+        append(mWindowStartNanos, TYPE_FRAME_STATS, mFrameFlags, mFrames,
+                mIntervals > 0 ? toMicros(mIntervalSumNanos / mIntervals) : 0,
+                toMicros(mMaxIntervalNanos), toMicros(mWorkSumNanos / mFrames),
+                toMicros(mMaxWorkNanos));
+        mFrames = 0;
+        mIntervals = 0;
+        mIntervalSumNanos = 0;
+        mMaxIntervalNanos = 0;
+        mWorkSumNanos = 0;
+        mMaxWorkNanos = 0;
+        mFrameFlags = 0;
+    }
+
+    private static int toMicros(long nanos) {
+        return (int) Math.min(Integer.MAX_VALUE, nanos / 1000);
+    }
+
+    private void append(long timeNanos, int type, int code, int a, int b, int c, int d, int e) {
+        if (mBuffer == null) {
+            mDropped++;
+            return;
+        }
+        if (mPosition + RECORD_SIZE > mFileSize) {
+            try {
+                startFile();
+            } catch (IOException ex) {
+                // Nowhere to record it; drop records until opened again
+                mBuffer = null;
+                mDropped++;
+                return;
+            }
+        }
+        MappedByteBuffer buffer = mBuffer;
+        int position = mPosition;
+        buffer.putLong(position, timeNanos);
+        buffer.putShort(position + 10, (short) code);
+        buffer.putInt(position + 12, a);
+        buffer.putInt(position + 16, b);
+        buffer.putInt(position + 20, c);
+        buffer.putInt(position + 24, d);
+        buffer.putInt(position + 28, e);
+        // Last, so a torn record has no type
+        buffer.putShort(position + 8, (short) type);
+        mPosition = position + RECORD_SIZE;
+    }
+
+    private void startFile() throws IOException {
+        mBuffer = null;
+        mSequence++;
+        File file = new File(mDirectory, String.format(Locale.US, "%s%06d%s", FILE_PREFIX,
+                mSequence, FILE_SUFFIX));
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            // Extends the file with zeros, which read as the end of the records
+            access.setLength(0);
+            access.setLength(mFileSize);
+            MappedByteBuffer buffer = access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    mFileSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0, MAGIC);
+            buffer.putShort(4, (short) VERSION);
+            buffer.putShort(6, (short) RECORD_SIZE);
+            buffer.putInt(8, mSequence);
+            buffer.putLong(16, System.currentTimeMillis());
+            buffer.putLong(24, System.nanoTime());
+            mBuffer = buffer;
+            mPosition = HEADER_SIZE;
+        } finally {
+            // The mapping stays valid without the file descriptor
+            access.close();
+        }
+
+        File[] files = listFiles(mDirectory);
+        for (int i = 0; i < files.length - mFileCount; i++) {
+            if (!files[i].delete()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * The journal's files in {@code directory}, oldest first.
+     */
+    static File[] listFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (getSequence(file) > 0) {
+                files[count++] = file;
+            }
+        }
+        File[] journal = Arrays.copyOf(files, count);
+        Arrays.sort(journal, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                int a = getSequence(first);
+                int b = getSequence(second);
+                return a < b ? -1 : (a == b ? 0 : 1);
+            }
+        });
+        return journal;
+    }
+
+    /**
+     * The sequence number in a journal file's name, or 0 if it isn't one.
+     */
+    static int getSequence(File file) {
+        String name = file.getName();
+        if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(name.substring(FILE_PREFIX.length(),
+                    name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the GPU memory used by textures under a budget by evicting the least recently used.
+ * <p>
+ * Residents used during the current frame are never evicted, since they may still be referenced
+ * by draw calls that haven't executed yet. The budget is pure bookkeeping with no GL or Android
+ * dependencies; the owner frees the GL objects from the {@link Evictor}. It is not thread safe.
+ * </p>
+ *
+ * @param <K> The key identifying a resident texture.
+ */
+public class TextureBudget<K> {
+
+    /**
+     * Frees an evicted resident.
+     */
+    public interface Evictor<K> {
+        void evict(K key);
+    }
+
+    private static final class Entry {
+        final long mBytes;
+        long mLastUsedFrame;
+
+        Entry(long bytes, long frame) {
+            mBytes = bytes;
+            mLastUsedFrame = frame;
+        }
+    }
+
+    // Access ordered, so iteration starts at the least recently used
+    private final LinkedHashMap<K, Entry> mEntries = new LinkedHashMap<K, Entry>(16, 0.75f, true);
+    private long mBudgetBytes;
+    private long mUsedBytes;
+    private long mFrame;
+    private long mEvictionCount;
+
+    public TextureBudget(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * Starts a new frame; residents used in earlier frames become evictable.
+     */
+    public void beginFrame() {
+        mFrame++;
+    }
+
+    /**
+     * Makes room for {@code bytes} more, evicting least recently used residents not used this
+     * frame.
+     *
+     * @return Whether the bytes now fit in the budget.
+     */
+    public boolean reserve(long bytes, Evictor<K> evictor) {
+        if (bytes > mBudgetBytes) {
+            return false;
+        }
+        Iterator<Map.Entry<K, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mUsedBytes + bytes > mBudgetBytes && iterator.hasNext()) {
+            Map.Entry<K, Entry> entry = iterator.next();
+            if (entry.getValue().mLastUsedFrame == mFrame) {
+                // Everything after this was used this frame too
+                break;
+            }
+            iterator.remove();
+            mUsedBytes -= entry.getValue().mBytes;
+            mEvictionCount++;
+            evictor.evict(entry.getKey());
+        }
+        return mUsedBytes + bytes <= mBudgetBytes;
+    }
+
+    /**
+     * Evicts residents that haven't been used in the last {@code frames} frames, counting the
+     * current one, e.g. to give back memory while idle.
+     *
+     * @return The number of residents evicted.
+     */
+    public int evictUnused(int frames, Evictor<K> evictor) {
+        int evicted = 0;
+        Iterator<Map.Entry<K, Entry>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, Entry> entry = iterator.next();
+            if (mFrame - entry.getValue().mLastUsedFrame < frames) {
+                // Everything after this was used more recently
+                break;
+            }
+            iterator.remove();
+            mUsedBytes -= entry.getValue().mBytes;
+            mEvictionCount++;
+            evicted++;
+            evictor.evict(entry.getKey());
+        }
+        return evicted;
+    }
+
+    /**
+     * Records a new resident. Call {@link #reserve} first to stay within the budget.
+     */
+    public void add(K key, long bytes) {
+        remove(key);
+        mEntries.put(key, new Entry(bytes, mFrame));
+        mUsedBytes += bytes;
+    }
+
+    /**
+     * Marks a resident as used this frame.
+     */
+    public void touch(K key) {
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            entry.mLastUsedFrame = mFrame;
+        }
+    }
+
+    public void remove(K key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mUsedBytes -= entry.mBytes;
+        }
+    }
+
+    /**
+     * Forgets every resident without evicting, e.g. after the GL context was lost.
+     */
+    public void clear() {
+        mEntries.clear();
+        mUsedBytes = 0;
+    }
+
+    public boolean contains(K key) {
+        return mEntries.containsKey(key);
+    }
+
+    public int getResidentCount() {
+        return mEntries.size();
+    }
+
+    public long getUsedBytes() {
+        return mUsedBytes;
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    /**
+     * Changes the budget. Residents over the new budget are evicted by the next {@link #reserve}.
+     */
+    public void setBudgetBytes(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    public long getEvictionCount() {
+        return mEvictionCount;
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Texture pixels decoded from an asset and ready for upload, with one buffer per mip level.
+ * <p>
+ * Compressed images are read from PKM files (a single ETC1 or ETC2 level, as written by
+ * etcpack) or KTX files (any number of levels). Uncompressed images are RGBA bytes. The levels
+ * are held in buffers from the {@link DirectBufferPool} until {@link #release()}. This class has
+ * no Android dependencies.
+ * </p>
+ */
+public final class TextureImage {
+
+    private static final String TAG = "TextureImage";
+
+    // Compressed formats, from OES_compressed_ETC1_RGB8_texture and OpenGL ES 3.0
+    public static final int GL_ETC1_RGB8_OES = 0x8D64;
+    public static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+    public static final int GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2 = 0x9276;
+    public static final int GL_COMPRESSED_RGBA8_ETC2_EAC = 0x9278;
+
+    // Uncompressed format and type, as in GLES20
+    private static final int GL_RGBA = 0x1908;
+    private static final int GL_UNSIGNED_BYTE = 0x1401;
+
+    private static final int PKM_HEADER_SIZE = 16;
+    private static final int PKM_ETC1_RGB = 0;
+    private static final int PKM_ETC2_RGB = 1;
+    private static final int PKM_ETC2_RGBA = 3;
+    private static final int PKM_ETC2_RGBA1 = 4;
+
+    private static final byte[] KTX_IDENTIFIER = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int KTX_ENDIANNESS = 0x04030201;
+    private static final int KTX_HEADER_SIZE = 64;
+
+    private final int mInternalFormat;
+    private final boolean mCompressed;
+    private final int mWidth;
+    private final int mHeight;
+    private final ByteBuffer[] mLevels;
+
+    private TextureImage(int internalFormat, boolean compressed, int width, int height,
+            ByteBuffer[] levels) {
+        if (width <= 0 || height <= 0 || levels.length == 0) {
+            throw new IllegalArgumentException("Empty texture image");
+        }
+        mInternalFormat = internalFormat;
+        mCompressed = compressed;
+        mWidth = width;
+        mHeight = height;
+        mLevels = levels;
+    }
+
+    /**
+     * Wraps RGBA pixels, 4 bytes per pixel, as a single level image. The pixels must come from
+     * the buffer pool; the image releases them.
+     */
+    public static TextureImage fromRgba(ByteBuffer pixels, int width, int height) {
+        if (pixels.remaining() < width * height * 4) {
+            throw new IllegalArgumentException("Not enough pixels for " + width + "x" + height);
+        }
+        return new TextureImage(GL_RGBA, false, width, height, new ByteBuffer[]{pixels});
+    }
+
+    /**
+     * Reads a PKM file.
+     */
+    public static TextureImage readPkm(InputStream in) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(readFully(in)).order(ByteOrder.BIG_ENDIAN);
+        if (data.remaining() < PKM_HEADER_SIZE || data.get(0) != 'P' || data.get(1) != 'K'
+                || data.get(2) != 'M' || data.get(3) != ' ') {
+            throw new IOException("Not a PKM file");
+        }
+        int formatType = data.getShort(6) & 0xFFFF;
+        int encodedWidth = data.getShort(8) & 0xFFFF;
+        int encodedHeight = data.getShort(10) & 0xFFFF;
+        int width = data.getShort(12) & 0xFFFF;
+        int height = data.getShort(14) & 0xFFFF;
+
+        int internalFormat;
+        int bytesPerBlock = 8;
+        switch (formatType) {
+            case PKM_ETC1_RGB:
+                internalFormat = GL_ETC1_RGB8_OES;
+                break;
+            case PKM_ETC2_RGB:
+                internalFormat = GL_COMPRESSED_RGB8_ETC2;
+                break;
+            case PKM_ETC2_RGBA:
+                internalFormat = GL_COMPRESSED_RGBA8_ETC2_EAC;
+                bytesPerBlock = 16;
+                break;
+            case PKM_ETC2_RGBA1:
+                internalFormat = GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2;
+                break;
+            default:
+                throw new IOException("Unsupported PKM format " + formatType);
+        }
+        int size = (encodedWidth / 4) * (encodedHeight / 4) * bytesPerBlock;
+        if (data.remaining() < PKM_HEADER_SIZE + size) {
+            throw new IOException("Truncated PKM file");
+        }
+        data.position(PKM_HEADER_SIZE);
+        data.limit(PKM_HEADER_SIZE + size);
+        ByteBuffer[] levels = new ByteBuffer[]{copyDirect(data)};
+        boolean complete = false;
+        try {
+            TextureImage image = new TextureImage(internalFormat, true, width, height, levels);
+            complete = true;
+            return image;
+        } finally {
+            if (!complete) {
+                releaseLevels(levels);
+            }
+        }
+    }
+
+    /**
+     * Reads a KTX file holding a 2D texture with a compressed or RGBA format.
+     */
+    public static TextureImage readKtx(InputStream in) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(readFully(in)).order(ByteOrder.LITTLE_ENDIAN);
+        if (data.remaining() < KTX_HEADER_SIZE) {
+            throw new IOException("Not a KTX file");
+        }
+        for (int i = 0; i < KTX_IDENTIFIER.length; i++) {
+            if (data.get(i) != KTX_IDENTIFIER[i]) {
+                throw new IOException("Not a KTX file");
+            }
+        }
+        if (data.getInt(12) != KTX_ENDIANNESS) {
+            data.order(ByteOrder.BIG_ENDIAN);
+        }
+        int glType = data.getInt(16);
+        int glFormat = data.getInt(24);
+        int internalFormat = data.getInt(28);
+        int width = data.getInt(36);
+        int height = data.getInt(40);
+        int depth = data.getInt(44);
+        int arrayElements = data.getInt(48);
+        int faces = data.getInt(52);
+        int levelCount = Math.max(1, data.getInt(56));
+        int keyValueBytes = data.getInt(60);
+
+        boolean compressed = glType == 0 && glFormat == 0;
+        if (!compressed && (glFormat != GL_RGBA || glType != GL_UNSIGNED_BYTE)) {
+            throw new IOException("Unsupported KTX format " + glFormat + "/" + glType);
+        }
+        if (depth > 1 || arrayElements > 0 || faces != 1) {
+            throw new IOException("Only 2D KTX textures are supported");
+        }
+
+        ByteBuffer[] levels = new ByteBuffer[levelCount];
+        boolean complete = false;
+        try {
+            int offset = KTX_HEADER_SIZE + keyValueBytes;
+            for (int level = 0; level < levelCount; level++) {
+                if (offset + 4 > data.capacity()) {
+                    throw new IOException("Truncated KTX file");
+                }
+                int size = data.getInt(offset);
+                offset += 4;
+                if (size < 0 || offset + size > data.capacity()) {
+                    throw new IOException("Truncated KTX file");
+                }
+                data.limit(offset + size);
+                data.position(offset);
+                levels[level] = copyDirect(data);
+                data.limit(data.capacity());
+                // Levels are padded to 4 bytes
+                offset += (size + 3) & ~3;
+            }
+            TextureImage image = new TextureImage(compressed ? internalFormat : GL_RGBA,
+                    compressed, width, height, levels);
+            complete = true;
+            return image;
+        } finally {
+            if (!complete) {
+                releaseLevels(levels);
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 4096));
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    // GL reads client memory through direct buffers
+    private static ByteBuffer copyDirect(ByteBuffer source) {
+        ByteBuffer copy = MemoryGovernor.get().getBufferPool().acquire(source.remaining(), TAG);
+        copy.put(source);
+        copy.position(0);
+        return copy;
+    }
+
+    private static void releaseLevels(ByteBuffer[] levels) {
+        DirectBufferPool pool = MemoryGovernor.get().getBufferPool();
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] != null) {
+                pool.release(levels[i]);
+                levels[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the levels to the buffer pool. The image can't be used afterwards; releasing it
+     * again does nothing.
+     */
+    public void release() {
+        releaseLevels(mLevels);
+    }
+
+    public int getInternalFormat() {
+        return mInternalFormat;
+    }
+
+    public boolean isCompressed() {
+        return mCompressed;
+    }
+
+    /**
+     * Whether the format needs OpenGL ES 3.0; ETC1 and RGBA work everywhere.
+     */
+    public boolean isEtc2() {
+        return mInternalFormat == GL_COMPRESSED_RGB8_ETC2
+                || mInternalFormat == GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2
+                || mInternalFormat == GL_COMPRESSED_RGBA8_ETC2_EAC;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getLevelCount() {
+        return mLevels.length;
+    }
+
+    public int getLevelWidth(int level) {
+        return Math.max(1, mWidth >> level);
+    }
+
+    public int getLevelHeight(int level) {
+        return Math.max(1, mHeight >> level);
+    }
+
+    /**
+     * The level's data, positioned at its start.
+     */
+    public ByteBuffer getLevel(int level) {
+        ByteBuffer buffer = mLevels[level].duplicate();
+        buffer.position(0);
+        return buffer;
+    }
+
+    public int getLevelByteCount(int level) {
+        // Pooled blocks may be larger than the level
+        return mLevels[level].limit();
+    }
+
+    /**
+     * GPU memory the texture will occupy, including the mip levels generated after upload.
+     */
+    public long getGpuByteCount(boolean generateMipmaps) {
+        long bytes = 0;
+        for (ByteBuffer level : mLevels) {
+            bytes += level.limit();
+        }
+        if (generateMipmaps && mLevels.length == 1) {
+            // A full chain adds a third
+            bytes += bytes / 3;
+        }
+        return bytes;
+    }
+
+    /**
+     * Whether mip levels can be generated for the image with OpenGL ES 2.0: uncompressed, a
+     * single level and power of two dimensions.
+     */
+    public boolean canGenerateMipmaps() {
+        return !mCompressed && mLevels.length == 1 && isPowerOfTwo(mWidth)
+                && isPowerOfTwo(mHeight);
+    }
+
+    private static boolean isPowerOfTwo(int value) {
+        return (value & (value - 1)) == 0;
+    }
+}
@@ -0,0 +1,510 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads textures from assets and keeps them resident within a GPU memory budget.
+ * <p>
+ * Files are decoded on a background thread: {@code .pkm} and {@code .ktx} files hold ETC1 or
+ * ETC2 compressed data, anything else is decoded with {@link BitmapFactory}. ETC2 needs an
+ * OpenGL ES 3.0 driver; without one, a {@code .png} next to the compressed file is used instead.
+ * Decoded images are uploaded on the GL thread through a {@link TextureUploadQueue}, a slice
+ * per frame, so large textures never hold up a frame. Uncompressed power of two textures get
+ * mip levels generated; compressed textures use the levels stored in the file, since
+ * compressed levels can't be generated at runtime.
+ * </p>
+ * <p>
+ * {@link #get} and {@link #bind} may be called every frame: a texture that is not resident is
+ * (re)loaded and reports not ready until its upload completes. All methods except {@link #get}
+ * must be called on the GL thread.
+ * </p>
+ */
+public class TextureManager {
+
+    private static final String TAG = "TextureManager";
+
+    public static final long DEFAULT_BUDGET_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_UPLOAD_BUDGET_NS = 2000000L;
+
+    // Uncompressed levels are uploaded in bands of rows no larger than this
+    private static final int MAX_STEP_BYTES = 256 * 1024;
+
+    public static final int STATE_UNLOADED = 0;
+    public static final int STATE_LOADING = 1;
+    public static final int STATE_UPLOADING = 2;
+    public static final int STATE_READY = 3;
+    public static final int STATE_FAILED = 4;
+
+    /**
+     * A texture loaded from an asset. Its GL name is only valid while it is ready.
+     */
+    public static final class Texture {
+        private final String mAssetPath;
+        private volatile int mState = STATE_UNLOADED;
+        private int mTextureId;
+        private int mWidth;
+        private int mHeight;
+        private long mByteCount;
+        // Held only while uploading
+        private TextureImage mImage;
+        private TextureUpload mUpload;
+
+        Texture(String assetPath) {
+            mAssetPath = assetPath;
+        }
+
+        public String getAssetPath() {
+            return mAssetPath;
+        }
+
+        public int getState() {
+            return mState;
+        }
+
+        public boolean isReady() {
+            return mState == STATE_READY;
+        }
+
+        public int getTextureId() {
+            return mTextureId;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * GPU memory used while resident.
+         */
+        public long getByteCount() {
+            return mByteCount;
+        }
+    }
+
+    private final AssetManager mAssets;
+    private final HashMap<String, Texture> mTextures = new HashMap<String, Texture>();
+    private final TextureBudget<Texture> mBudget;
+    private final TextureUploadQueue mUploadQueue = new TextureUploadQueue();
+    private final ExecutorService mDecoder = Executors.newSingleThreadExecutor();
+    // Decoded on the background thread, waiting to be queued for upload
+    private final List<Texture> mDecoded = new ArrayList<Texture>();
+    private long mUploadBudgetNanos = DEFAULT_UPLOAD_BUDGET_NS;
+    private volatile boolean mEtc2Supported;
+
+    public TextureManager(AssetManager assets) {
+        this(assets, DEFAULT_BUDGET_BYTES);
+    }
+
+    public TextureManager(AssetManager assets, long budgetBytes) {
+        mAssets = assets;
+        mBudget = new TextureBudget<Texture>(budgetBytes);
+    }
+
+    /**
+     * Time per frame that uploads may take.
+     */
+    public void setUploadBudgetNanos(long uploadBudgetNanos) {
+        mUploadBudgetNanos = uploadBudgetNanos;
+    }
+
+    /**
+     * Returns the texture for an asset, starting to load it if it isn't resident.
+     */
+    public Texture get(String assetPath) {
+        Texture texture;
+        synchronized (mTextures) {
+            texture = mTextures.get(assetPath);
+            if (texture == null) {
+                texture = new Texture(assetPath);
+                mTextures.put(assetPath, texture);
+            }
+        }
+        if (texture.mState == STATE_UNLOADED) {
+            load(texture);
+        }
+        return texture;
+    }
+
+    /**
+     * Binds a texture to a texture unit if it's ready, and keeps it from being evicted this
+     * frame.
+     *
+     * @return Whether the texture was bound.
+     */
+    public boolean bind(Texture texture, int unit) {
+        if (texture.mState == STATE_UNLOADED) {
+            load(texture);
+        }
+        if (texture.mState != STATE_READY) {
+            return false;
+        }
+        mBudget.touch(texture);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture.mTextureId);
+        return true;
+    }
+
+    private void load(final Texture texture) {
+        synchronized (texture) {
+            if (texture.mState != STATE_UNLOADED) {
+                return;
+            }
+            texture.mState = STATE_LOADING;
+        }
+        mDecoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    texture.mImage = decode(texture.mAssetPath);
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to load texture " + texture.mAssetPath, e);
+                    texture.mState = STATE_FAILED;
+                    return;
+                } catch (OutOfMemoryError e) {
+                    // Thrown by the buffer pool, whose budget is far below the heap's
+                    Log.e(TAG, "No direct memory for texture " + texture.mAssetPath, e);
+                    texture.mState = STATE_FAILED;
+                    return;
+                }
+                synchronized (mDecoded) {
+                    mDecoded.add(texture);
+                }
+            }
+        });
+    }
+
+    private TextureImage decode(String assetPath) throws IOException {
+        boolean pkm = assetPath.endsWith(".pkm");
+        if (pkm || assetPath.endsWith(".ktx")) {
+            TextureImage image;
+            InputStream in = mAssets.open(assetPath);
+            try {
+                image = pkm ? TextureImage.readPkm(in) : TextureImage.readKtx(in);
+            } finally {
+                in.close();
+            }
+            if (!image.isEtc2() || mEtc2Supported) {
+                return image;
+            }
+            Log.w(TAG, "ETC2 not supported, using uncompressed fallback for " + assetPath);
+            image.release();
+            assetPath = assetPath.substring(0, assetPath.length() - 4) + ".png";
+        }
+
+        InputStream in = mAssets.open(assetPath);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeStream(in);
+        } finally {
+            in.close();
+        }
+        if (bitmap == null) {
+            throw new IOException("Unable to decode " + assetPath);
+        }
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            Bitmap converted = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+            bitmap.recycle();
+            bitmap = converted;
+        }
+        // ARGB_8888 bitmaps are stored as RGBA bytes
+        ByteBuffer pixels;
+        try {
+            pixels = MemoryGovernor.get().getBufferPool().acquire(bitmap.getByteCount(), TAG);
+        } catch (OutOfMemoryError e) {
+            bitmap.recycle();
+            throw e;
+        }
+        bitmap.copyPixelsToBuffer(pixels);
+        pixels.position(0);
+        TextureImage image = TextureImage.fromRgba(pixels, bitmap.getWidth(),
+                bitmap.getHeight());
+        bitmap.recycle();
+        return image;
+    }
+
+    /**
+     * Call on the GL thread when the surface is created. Any previous context, and every
+     * texture in it, is gone.
+     */
+    public void onSurfaceCreated() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        mEtc2Supported = version != null && version.startsWith("OpenGL ES 3");
+        onContextLost();
+    }
+
+    /**
+     * Forgets every texture of a context that has been destroyed; they are uploaded again once
+     * a new surface is created. Call on the GL thread, or once it has stopped.
+     */
+    public void onContextLost() {
+        MemoryGovernor.get().getGlObjects().releaseOwner(this);
+        mUploadQueue.clear();
+        mBudget.clear();
+        synchronized (mTextures) {
+            for (Texture texture : mTextures.values()) {
+                texture.mTextureId = 0;
+                texture.mUpload = null;
+                if (texture.mState == STATE_UPLOADING) {
+                    // Still have the image, so upload it again
+                    synchronized (mDecoded) {
+                        mDecoded.add(texture);
+                    }
+                } else if (texture.mState == STATE_READY) {
+                    texture.mState = STATE_UNLOADED;
+                }
+            }
+        }
+    }
+
+    /**
+     * Call at the start of every frame on the GL thread. Runs pending uploads for up to the
+     * upload budget.
+     */
+    public void onFrame() {
+        mBudget.beginFrame();
+        synchronized (mDecoded) {
+            for (Texture texture : mDecoded) {
+                texture.mState = STATE_UPLOADING;
+                texture.mUpload = new TextureUpload(texture);
+                mUploadQueue.enqueue(texture.mUpload);
+            }
+            mDecoded.clear();
+        }
+        if (!mUploadQueue.isEmpty()) {
+            mUploadQueue.process(mUploadBudgetNanos);
+        }
+    }
+
+    private final TextureBudget.Evictor<Texture> mEvictor = new TextureBudget.Evictor<Texture>() {
+        @Override
+        public void evict(Texture texture) {
+            if (texture.mUpload != null) {
+                // Evicted between upload slices
+                mUploadQueue.cancel(texture.mUpload);
+                texture.mUpload = null;
+                releaseImage(texture);
+            }
+            deleteTexture(texture);
+            texture.mState = STATE_UNLOADED;
+        }
+    };
+
+    /**
+     * Deletes the textures not bound in the last frame; they are loaded again when next bound.
+     * Call on the GL thread between frames.
+     *
+     * @return The number of textures deleted.
+     */
+    public int releaseUnused() {
+        return mBudget.evictUnused(1, mEvictor);
+    }
+
+    /**
+     * Deletes every texture and stops the decoder. Call on the GL thread while the context is
+     * still current.
+     */
+    public void release() {
+        mDecoder.shutdownNow();
+        mUploadQueue.clear();
+        synchronized (mTextures) {
+            for (Texture texture : mTextures.values()) {
+                if (texture.mTextureId != 0) {
+                    deleteTexture(texture);
+                }
+                releaseImage(texture);
+                texture.mUpload = null;
+                texture.mState = STATE_UNLOADED;
+            }
+            mTextures.clear();
+        }
+        mBudget.clear();
+    }
+
+    private static void releaseImage(Texture texture) {
+        if (texture.mImage != null) {
+            texture.mImage.release();
+            texture.mImage = null;
+        }
+    }
+
+    private void deleteTexture(Texture texture) {
+        GLES20.glDeleteTextures(1, new int[]{texture.mTextureId}, 0);
+        MemoryGovernor.get().getGlObjects().unregister(this, GlObjectRegistry.TYPE_TEXTURE,
+                texture.mTextureId);
+        texture.mTextureId = 0;
+    }
+
+    public long getResidentBytes() {
+        return mBudget.getUsedBytes();
+    }
+
+    public long getBudgetBytes() {
+        return mBudget.getBudgetBytes();
+    }
+
+    public int getPendingUploadCount() {
+        return mUploadQueue.size();
+    }
+
+    /**
+     * Uploads one texture: reserves its memory, then one step per mip level, with large
+     * uncompressed levels split into bands of rows, then mip generation if needed.
+     */
+    private final class TextureUpload implements TextureUploadQueue.Upload {
+        private final Texture mTexture;
+        private final TextureImage mImage;
+        private final boolean mGenerateMipmaps;
+        private final long mByteCount;
+        private boolean mAllocated;
+        private int mLevel;
+        private int mRow;
+
+        TextureUpload(Texture texture) {
+            mTexture = texture;
+            mImage = texture.mImage;
+            mGenerateMipmaps = mImage.canGenerateMipmaps();
+            mByteCount = mImage.getGpuByteCount(mGenerateMipmaps);
+        }
+
+        @Override
+        public long getNextStepBytes() {
+            if (mLevel == mImage.getLevelCount()) {
+                // Generating mip levels writes about a third of the base level
+                return mImage.getLevelByteCount(0) / 3;
+            }
+            if (mImage.isCompressed()) {
+                return mImage.getLevelByteCount(mLevel);
+            }
+            return (long) getBandRows() * mImage.getLevelWidth(mLevel) * 4;
+        }
+
+        private int getBandRows() {
+            int rowBytes = mImage.getLevelWidth(mLevel) * 4;
+            int rows = Math.max(1, MAX_STEP_BYTES / rowBytes);
+            return Math.min(rows, mImage.getLevelHeight(mLevel) - mRow);
+        }
+
+        @Override
+        public int runStep() {
+            if (!mAllocated) {
+                if (!mBudget.reserve(mByteCount, mEvictor)) {
+                    if (mByteCount > mBudget.getBudgetBytes()) {
+                        Log.e(TAG, "Texture " + mTexture.mAssetPath + " is over the budget");
+                        mTexture.mState = STATE_FAILED;
+                        releaseImage(mTexture);
+                        mTexture.mUpload = null;
+                        return TextureUploadQueue.STEP_DONE;
+                    }
+                    // Everything resident is in use this frame; try again next frame
+                    return TextureUploadQueue.STEP_WAIT;
+                }
+                GlObjectRegistry glObjects = MemoryGovernor.get().getGlObjects();
+                if (!glObjects.hasRoomFor(mByteCount)) {
+                    // Other GL objects leave no room for it
+                    Log.e(TAG, "Texture " + mTexture.mAssetPath + " is over the GPU budget");
+                    mTexture.mState = STATE_FAILED;
+                    releaseImage(mTexture);
+                    mTexture.mUpload = null;
+                    return TextureUploadQueue.STEP_DONE;
+                }
+                int[] ids = new int[1];
+                GLES20.glGenTextures(1, ids, 0);
+                glObjects.register(TextureManager.this, GlObjectRegistry.TYPE_TEXTURE, ids[0],
+                        mByteCount, mTexture.mAssetPath);
+                mTexture.mTextureId = ids[0];
+                mBudget.add(mTexture, mByteCount);
+                mAllocated = true;
+            }
+            // Not evictable while being uploaded in this frame
+            mBudget.touch(mTexture);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture.mTextureId);
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+
+            if (mLevel == mImage.getLevelCount()) {
+                GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+                return finish();
+            }
+
+            int width = mImage.getLevelWidth(mLevel);
+            int height = mImage.getLevelHeight(mLevel);
+            if (mImage.isCompressed()) {
+                ByteBuffer data = mImage.getLevel(mLevel);
+                GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, mLevel,
+                        mImage.getInternalFormat(), width, height, 0, data.remaining(), data);
+                mLevel++;
+            } else {
+                if (mRow == 0) {
+                    // Allocate the level, then fill it in bands
+                    GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, mLevel, GLES20.GL_RGBA, width,
+                            height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+                }
+                int rows = getBandRows();
+                ByteBuffer data = mImage.getLevel(mLevel);
+                data.position(mRow * width * 4);
+                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, mLevel, 0, mRow, width, rows,
+                        GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, data);
+                mRow += rows;
+                if (mRow == height) {
+                    mRow = 0;
+                    mLevel++;
+                }
+            }
+            if (mLevel == mImage.getLevelCount() && !mGenerateMipmaps) {
+                return finish();
+            }
+            return TextureUploadQueue.STEP_CONTINUE;
+        }
+
+        private int finish() {
+            boolean mipmapped = mGenerateMipmaps || mImage.getLevelCount() > 1;
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                    mipmapped ? GLES20.GL_LINEAR_MIPMAP_LINEAR : GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                    GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                    GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                    GLES20.GL_CLAMP_TO_EDGE);
+            mTexture.mWidth = mImage.getWidth();
+            mTexture.mHeight = mImage.getHeight();
+            mTexture.mByteCount = mByteCount;
+            releaseImage(mTexture);
+            mTexture.mUpload = null;
+            mTexture.mState = STATE_READY;
+            return TextureUploadQueue.STEP_DONE;
+        }
+    }
+}
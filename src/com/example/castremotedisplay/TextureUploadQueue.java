@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.ArrayDeque;
+
+/**
+ * Runs texture uploads a slice at a time so they fit in a per-frame time budget.
+ * <p>
+ * Each {@link Upload} is split into steps, e.g. one mip level or a band of rows. Before running
+ * a step the queue estimates its cost from its size and the upload rate measured so far, and
+ * stops for the frame once the next step would overrun the budget. A step estimated to be over
+ * the whole budget still runs once the queue has been stalled on it for
+ * {@link #MAX_STALLED_FRAMES}, so an upload that can't be split any further isn't starved.
+ * </p>
+ * <p>
+ * Time comes from an injected {@link Clock}, so the slicing can be checked with a fake clock on a
+ * plain JVM. It is not thread safe; uploads run on the thread calling {@link #process}.
+ * </p>
+ */
+public class TextureUploadQueue {
+
+    /**
+     * Frames the queue waits on an oversized step before running it anyway.
+     */
+    public static final int MAX_STALLED_FRAMES = 4;
+
+    // Conservative until measured: 500 MB/s
+    static final float INITIAL_NANOS_PER_BYTE = 2.0f;
+    // Steps smaller than this are dominated by call overhead and not used to learn the rate
+    private static final long MIN_SAMPLE_BYTES = 16 * 1024;
+    private static final float RATE_SMOOTHING = 0.25f;
+
+    public interface Clock {
+        long nanoTime();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * The upload has more steps.
+     */
+    public static final int STEP_CONTINUE = 0;
+
+    /**
+     * The upload is complete.
+     */
+    public static final int STEP_DONE = 1;
+
+    /**
+     * The step couldn't run yet, e.g. while waiting for memory; uploads resume next frame.
+     */
+    public static final int STEP_WAIT = 2;
+
+    /**
+     * An upload split into steps.
+     */
+    public interface Upload {
+        /**
+         * Bytes transferred by the next step, used to estimate its cost.
+         */
+        long getNextStepBytes();
+
+        /**
+         * Runs the next step.
+         *
+         * @return {@link #STEP_CONTINUE}, {@link #STEP_DONE} or {@link #STEP_WAIT}.
+         */
+        int runStep();
+    }
+
+    private final Clock mClock;
+    private final ArrayDeque<Upload> mQueue = new ArrayDeque<Upload>();
+    private float mNanosPerByte = INITIAL_NANOS_PER_BYTE;
+    private int mStalledFrames;
+    private long mStepCount;
+
+    public TextureUploadQueue() {
+        this(SYSTEM_CLOCK);
+    }
+
+    public TextureUploadQueue(Clock clock) {
+        mClock = clock;
+    }
+
+    public void enqueue(Upload upload) {
+        mQueue.add(upload);
+    }
+
+    /**
+     * Removes an upload that hasn't completed, e.g. for a texture evicted mid-upload.
+     */
+    public boolean cancel(Upload upload) {
+        return mQueue.remove(upload);
+    }
+
+    public void clear() {
+        mQueue.clear();
+        mStalledFrames = 0;
+    }
+
+    public int size() {
+        return mQueue.size();
+    }
+
+    public boolean isEmpty() {
+        return mQueue.isEmpty();
+    }
+
+    /**
+     * Runs steps until the queue is empty or the next step wouldn't fit. Call once per frame.
+     *
+     * @param budgetNanos Time the uploads may take this frame.
+     * @return The number of steps run.
+     */
+    public int process(long budgetNanos) {
+        long start = mClock.nanoTime();
+        int steps = 0;
+        while (!mQueue.isEmpty()) {
+            Upload upload = mQueue.peek();
+            long bytes = upload.getNextStepBytes();
+            long estimate = estimateNanos(bytes);
+            long elapsed = mClock.nanoTime() - start;
+            if (elapsed + estimate > budgetNanos) {
+                boolean oversized = estimate > budgetNanos;
+                if (!oversized || steps > 0 || mStalledFrames < MAX_STALLED_FRAMES) {
+                    if (oversized && steps == 0) {
+                        mStalledFrames++;
+                    }
+                    break;
+                }
+            }
+            mStalledFrames = 0;
+
+            long stepStart = mClock.nanoTime();
+            int result = upload.runStep();
+            if (result == STEP_WAIT) {
+                break;
+            }
+            long duration = mClock.nanoTime() - stepStart;
+            if (bytes >= MIN_SAMPLE_BYTES && duration > 0) {
+                mNanosPerByte += RATE_SMOOTHING * ((float) duration / bytes - mNanosPerByte);
+            }
+            if (result == STEP_DONE) {
+                mQueue.poll();
+            }
+            steps++;
+            mStepCount++;
+        }
+        return steps;
+    }
+
+    public long estimateNanos(long bytes) {
+        return (long) (bytes * mNanosPerByte);
+    }
+
+    /**
+     * The measured upload cost, in nanoseconds per byte.
+     */
+    public float getNanosPerByte() {
+        return mNanosPerByte;
+    }
+
+    public long getStepCount() {
+        return mStepCount;
+    }
+}
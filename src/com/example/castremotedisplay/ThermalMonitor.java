@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+
+/**
+ * Feeds the battery temperature and, where available, the platform thermal status into a
+ * {@link QualityGovernor}.
+ * <p>
+ * The battery temperature comes from the sticky battery broadcast. The thermal status API was
+ * added in API level 29, after the SDK this app compiles against, so it is looked up by
+ * reflection and polled.
+ * </p>
+ */
+public class ThermalMonitor {
+
+    private static final String TAG = "ThermalMonitor";
+
+    private static final int API_LEVEL_Q = 29;
+    private static final long THERMAL_POLL_INTERVAL_MS = 5000;
+
+    private final Context mContext;
+    private final QualityGovernor mGovernor;
+    private final Handler mHandler = new Handler();
+    private Method mGetThermalStatus;
+    private boolean mStarted;
+
+    public ThermalMonitor(Context context, QualityGovernor governor) {
+        mContext = context.getApplicationContext();
+        mGovernor = governor;
+        if (Build.VERSION.SDK_INT >= API_LEVEL_Q) {
+            try {
+                mGetThermalStatus = PowerManager.class.getMethod("getCurrentThermalStatus");
+            } catch (NoSuchMethodException e) {
+                Log.w(TAG, "Thermal status not available");
+            }
+        }
+    }
+
+    /**
+     * Starts monitoring. Must be called on the main thread.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        Intent battery = mContext.registerReceiver(mBatteryReceiver,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            onBatteryChanged(battery);
+        }
+        if (mGetThermalStatus != null) {
+            mHandler.post(mPollThermalStatus);
+        }
+    }
+
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mContext.unregisterReceiver(mBatteryReceiver);
+        mHandler.removeCallbacks(mPollThermalStatus);
+    }
+
+    private void onBatteryChanged(Intent intent) {
+        int temperature = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, Integer.MIN_VALUE);
+        if (temperature != Integer.MIN_VALUE) {
+            // Reported in tenths of a degree Celsius
+            mGovernor.onBatteryTemperature(System.nanoTime(), temperature / 10.0f);
+        }
+    }
+
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onBatteryChanged(intent);
+        }
+    };
+
+    private final Runnable mPollThermalStatus = new Runnable() {
+        @Override
+        public void run() {
+            PowerManager powerManager =
+                    (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+            try {
+                int status = (Integer) mGetThermalStatus.invoke(powerManager);
+                mGovernor.onThermalStatus(System.nanoTime(), status);
+            } catch (Exception e) {
+                Log.w(TAG, "Unable to read thermal status", e);
+                return;
+            }
+            mHandler.postDelayed(this, THERMAL_POLL_INTERVAL_MS);
+        }
+    };
+}
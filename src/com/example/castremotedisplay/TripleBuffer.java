@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free handoff of complete snapshots from one producer thread to one consumer thread.
+ * <p>
+ * Of the three preallocated buffers, the producer owns one (the back buffer) and the consumer
+ * owns one (the front buffer). The third sits in the middle, holding the latest published
+ * snapshot. Publishing atomically swaps the back buffer with the middle one, and acquiring swaps
+ * the middle one with the front buffer if a newer snapshot is there. Neither side ever waits for
+ * the other, a buffer is never written and read at the same time, and the consumer always gets
+ * the most recent complete snapshot. Snapshots the consumer was too slow to see are overwritten.
+ * </p>
+ *
+ * @param <T> The snapshot type.
+ */
+public class TripleBuffer<T> {
+
+    // The middle buffer's index in the low bits, and whether it is newer than the front buffer
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    private final Object[] mBuffers;
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    // Producer only
+    private int mBack = 2;
+    // Consumer only
+    private int mFront = 0;
+
+    public TripleBuffer(T first, T second, T third) {
+        mBuffers = new Object[]{first, second, third};
+    }
+
+    /**
+     * The buffer the producer should fill next. Producer thread only.
+     */
+    @SuppressWarnings("unchecked")
+    public T getWriteBuffer() {
+        return (T) mBuffers[mBack];
+    }
+
+    /**
+     * Publishes the filled write buffer and takes another one to write. Producer thread only.
+     */
+    public void publish() {
+        mBack = mMiddle.getAndSet(mBack | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Returns the most recent published snapshot, or the previous one again if nothing new was
+     * published. It stays valid until the next call. Consumer thread only.
+     */
+    @SuppressWarnings("unchecked")
+    public T acquireLatest() {
+        if ((mMiddle.get() & FRESH) != 0) {
+            mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+        }
+        return (T) mBuffers[mFront];
+    }
+
+    /**
+     * Whether a snapshot newer than the last acquired one has been published.
+     */
+    public boolean hasFresh() {
+        return (mMiddle.get() & FRESH) != 0;
+    }
+}
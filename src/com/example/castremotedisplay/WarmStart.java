@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castremotedisplay;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.media.MediaPlayer;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+
+/**
+ * Prepares everything the presentation needs that does not depend on the Cast display, while the
+ * remote display session is still being negotiated.
+ * <p>
+ * {@link #start(Context)} is called right before the Cast service is started. The font, the cube
+ * geometry, the audio player and the EGL config probe then run on background threads, so that
+ * when {@link PresentationService} gets its display it only has to attach a surface. Every
+ * getter falls back to doing the work inline if the warm start was not started, failed or takes
+ * too long.
+ * </p>
+ * <p>
+ * Compiling shaders requires the GL context of the presentation's surface, so that step stays
+ * on the GL thread, where {@link ShaderLibrary} only builds the permutations drawn with.
+ * </p>
+ */
+public final class WarmStart {
+
+    private static final String TAG = "WarmStart";
+
+    public static final int PHASE_TYPEFACE = 0;
+    public static final int PHASE_GEOMETRY = 1;
+    public static final int PHASE_AUDIO = 2;
+    public static final int PHASE_EGL_CONFIG = 3;
+    public static final int PHASE_COUNT = 4;
+
+    private static final String[] PHASE_NAMES = {
+            "typeface", "geometry", "audio", "eglConfig"
+    };
+
+    private static final String TYPEFACE_ASSET = "fonts/Roboto-Light.ttf";
+
+    // How long a consumer waits for a phase before doing the work itself
+    private static final long WAIT_TIMEOUT_MS = 500;
+
+    private static WarmStart sInstance;
+
+    private final Context mContext;
+    private final ExecutorService mExecutor;
+    private final long[] mPhaseNanos = new long[PHASE_COUNT];
+
+    private final Future<Typeface> mTypeface;
+    private final Future<Integer> mEglSamples;
+
+    private final Handoff<Cube.Geometry> mGeometry = new Handoff<Cube.Geometry>() {
+        @Override
+        void release(Cube.Geometry geometry) {
+            geometry.release();
+        }
+    };
+    private final Handoff<MediaPlayer> mMediaPlayer = new Handoff<MediaPlayer>() {
+        @Override
+        void release(MediaPlayer mediaPlayer) {
+            mediaPlayer.release();
+        }
+    };
+
+    /**
+     * A phase's result handed over to a single consumer, who becomes responsible for releasing
+     * it. A result that is ready only after the consumer stopped waiting is released by the
+     * phase, so waiting can be bounded without leaving it behind.
+     */
+    private abstract static class Handoff<T> {
+        private T mResult;
+        private boolean mDone;
+        private boolean mTaken;
+
+        /**
+         * Called once by the phase, with null if it failed.
+         */
+        final synchronized void complete(T result) {
+            mDone = true;
+            if (mTaken) {
+                if (result != null) {
+                    release(result);
+                }
+            } else {
+                mResult = result;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Waits up to {@code timeoutMillis} for the result. Returns null if the phase failed,
+         * didn't finish in time or the result was already taken.
+         */
+        final synchronized T take(long timeoutMillis) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            try {
+                while (!mDone && !mTaken) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        Log.w(TAG, "Warm start phase timed out");
+                        break;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mTaken = true;
+            T result = mResult;
+            mResult = null;
+            return result;
+        }
+
+        /**
+         * Releases the result if it is ready and untaken, or once the phase finishes.
+         */
+        final synchronized void abandon() {
+            mTaken = true;
+            if (mResult != null) {
+                release(mResult);
+                mResult = null;
+            }
+        }
+
+        abstract void release(T result);
+    }
+
+    private WarmStart(Context context) {
+        mContext = context.getApplicationContext();
+        mExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+            private int mCount;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-" + mCount++);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+
+        // Ordered roughly by cost so the slow phases start first
+        submit(PHASE_AUDIO, new Callable<Void>() {
+            @Override
+            public Void call() {
+                MediaPlayer mediaPlayer = null;
+                try {
+                    mediaPlayer = createMediaPlayer(mContext);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Warm start phase failed", e);
+                }
+                mMediaPlayer.complete(mediaPlayer);
+                return null;
+            }
+        });
+        mEglSamples = submit(PHASE_EGL_CONFIG, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return probeEglSamples();
+            }
+        });
+        mTypeface = submit(PHASE_TYPEFACE, new Callable<Typeface>() {
+            @Override
+            public Typeface call() {
+                return Typeface.createFromAsset(mContext.getAssets(), TYPEFACE_ASSET);
+            }
+        });
+        submit(PHASE_GEOMETRY, new Callable<Void>() {
+            @Override
+            public Void call() {
+                Cube.Geometry geometry = null;
+                try {
+                    geometry = Cube.createGeometry();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Warm start phase failed", e);
+                }
+                mGeometry.complete(geometry);
+                return null;
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Starts the warm start if it isn't already running. Must be called on the main thread.
+     */
+    public static WarmStart start(Context context) {
+        if (sInstance == null) {
+            sInstance = new WarmStart(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the running warm start, or null if none was started.
+     */
+    public static WarmStart getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Drops the warm start, releasing anything that was prepared but not consumed. Called when
+     * the session ends or fails to start.
+     */
+    public static void reset() {
+        WarmStart warmStart = sInstance;
+        sInstance = null;
+        if (warmStart != null) {
+            warmStart.releaseUnused();
+        }
+    }
+
+    public Typeface getTypeface() {
+        Typeface typeface = await(mTypeface);
+        return typeface != null ? typeface
+                : Typeface.createFromAsset(mContext.getAssets(), TYPEFACE_ASSET);
+    }
+
+    /**
+     * Hands the cube geometry over to the caller, who becomes responsible for releasing it. Its
+     * buffers come from the {@link DirectBufferPool}. Only the first call gets the prepared
+     * geometry; one still being built when the wait times out is released once ready.
+     */
+    public Cube.Geometry takeGeometry() {
+        Cube.Geometry geometry = mGeometry.take(WAIT_TIMEOUT_MS);
+        return geometry != null ? geometry : Cube.createGeometry();
+    }
+
+    /**
+     * Hands the prepared audio player over to the caller, who becomes responsible for releasing
+     * it. Only the first call gets the prepared instance; one still being prepared when the wait
+     * times out is released once ready.
+     */
+    public MediaPlayer takeMediaPlayer() {
+        MediaPlayer mediaPlayer = mMediaPlayer.take(WAIT_TIMEOUT_MS);
+        return mediaPlayer != null ? mediaPlayer : createMediaPlayer(mContext);
+    }
+
+    /**
+     * Returns a config chooser using the sample count found by the EGL probe.
+     */
+    public CustomConfigChooser getConfigChooser() {
+        Integer samples = await(mEglSamples);
+        return new CustomConfigChooser(
+                samples != null ? samples : CustomConfigChooser.DEFAULT_SAMPLES);
+    }
+
+    /**
+     * Returns how long a phase took in nanoseconds, or 0 if it hasn't finished.
+     */
+    public long getPhaseNanos(int phase) {
+        synchronized (mPhaseNanos) {
+            return mPhaseNanos[phase];
+        }
+    }
+
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    /**
+     * Logs the time taken by each phase.
+     */
+    public void logTimings() {
+        StringBuilder message = new StringBuilder("Warm start phases:");
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            message.append(' ').append(PHASE_NAMES[phase]).append('=')
+                    .append(TimeUnit.NANOSECONDS.toMicros(getPhaseNanos(phase))).append("us");
+        }
+        Log.d(TAG, message.toString());
+    }
+
+    static MediaPlayer createMediaPlayer(Context context) {
+        MediaPlayer mediaPlayer = MediaPlayer.create(context, R.raw.sound);
+        if (mediaPlayer != null) {
+            mediaPlayer.setVolume((float) 0.1, (float) 0.1);
+            mediaPlayer.setLooping(true);
+        }
+        return mediaPlayer;
+    }
+
+    /**
+     * Finds the highest sample count the default display supports, so that the presentation's
+     * config chooser succeeds on its first try.
+     */
+    private static int probeEglSamples() {
+        EGL10 egl = (EGL10) EGLContext.getEGL();
+        EGLDisplay display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+        if (display == EGL10.EGL_NO_DISPLAY || !egl.eglInitialize(display, new int[2])) {
+            return CustomConfigChooser.DEFAULT_SAMPLES;
+        }
+        // The display is reference counted by the framework, so it is not terminated here
+        for (int samples = CustomConfigChooser.DEFAULT_SAMPLES; samples > 0; samples /= 2) {
+            if (new CustomConfigChooser(samples).chooseConfig(egl, display) != null) {
+                return samples;
+            }
+        }
+        return 0;
+    }
+
+    private <T> Future<T> submit(final int phase, final Callable<T> task) {
+        return mExecutor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                long start = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    synchronized (mPhaseNanos) {
+                        mPhaseNanos[phase] = System.nanoTime() - start;
+                    }
+                }
+            }
+        });
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Warm start phase failed", e.getCause());
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Warm start phase timed out");
+        }
+        return null;
+    }
+
+    private void releaseUnused() {
+        // Called on the main thread, so a phase still running releases its result once ready
+        mGeometry.abandon();
+        mMediaPlayer.abandon();
+    }
+}